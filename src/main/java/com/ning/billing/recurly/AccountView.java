@@ -0,0 +1,142 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.AccountBalance;
+import com.ning.billing.recurly.model.BillingInfos;
+import com.ning.billing.recurly.model.Entitlements;
+import com.ning.billing.recurly.model.Invoices;
+import com.ning.billing.recurly.model.ShippingAddresses;
+import com.ning.billing.recurly.model.Subscriptions;
+
+/**
+ * An account along with its billing infos, subscriptions, invoices, balance, shipping addresses and entitlements,
+ * fetched concurrently by {@link RecurlyClient#getAccountView}.
+ * <p>
+ * The view may be partial: parts which failed or didn't complete before the deadline are null and carry an error,
+ * see {@link #getErrors()}. Parts may also be null without an error, like the corresponding {@link RecurlyClient}
+ * method returning null, e.g. after an I/O error.
+ */
+public class AccountView {
+
+    public enum Part {
+        ACCOUNT,
+        BILLING_INFOS,
+        SUBSCRIPTIONS,
+        INVOICES,
+        BALANCE,
+        SHIPPING_ADDRESSES,
+        ENTITLEMENTS
+    }
+
+    private final String accountCode;
+    private final Map<Part, Object> values;
+    private final Map<Part, Throwable> errors;
+
+    AccountView(final String accountCode, final Map<Part, Object> values, final Map<Part, Throwable> errors) {
+        this.accountCode = accountCode;
+        this.values = new EnumMap<Part, Object>(Part.class);
+        this.values.putAll(values);
+        this.errors = new EnumMap<Part, Throwable>(Part.class);
+        this.errors.putAll(errors);
+    }
+
+    public String getAccountCode() {
+        return accountCode;
+    }
+
+    @Nullable
+    public Account getAccount() {
+        return (Account) values.get(Part.ACCOUNT);
+    }
+
+    @Nullable
+    public BillingInfos getBillingInfos() {
+        return (BillingInfos) values.get(Part.BILLING_INFOS);
+    }
+
+    @Nullable
+    public Subscriptions getSubscriptions() {
+        return (Subscriptions) values.get(Part.SUBSCRIPTIONS);
+    }
+
+    @Nullable
+    public Invoices getInvoices() {
+        return (Invoices) values.get(Part.INVOICES);
+    }
+
+    @Nullable
+    public AccountBalance getBalance() {
+        return (AccountBalance) values.get(Part.BALANCE);
+    }
+
+    @Nullable
+    public ShippingAddresses getShippingAddresses() {
+        return (ShippingAddresses) values.get(Part.SHIPPING_ADDRESSES);
+    }
+
+    @Nullable
+    public Entitlements getEntitlements() {
+        return (Entitlements) values.get(Part.ENTITLEMENTS);
+    }
+
+    /**
+     * @return whether the part was requested and completed without error
+     */
+    public boolean isLoaded(final Part part) {
+        return values.containsKey(part);
+    }
+
+    /**
+     * @return the error of the part: the exception thrown by the corresponding {@link RecurlyClient} method
+     * (e.g. {@link RecurlyAPIException}), or a {@link java.util.concurrent.TimeoutException} past the deadline
+     */
+    @Nullable
+    public Throwable getError(final Part part) {
+        return errors.get(part);
+    }
+
+    public Map<Part, Throwable> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * @return whether all the requested parts completed without error
+     */
+    public boolean isComplete() {
+        return errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("AccountView{");
+        sb.append("accountCode='").append(accountCode).append('\'');
+        sb.append(", loaded=").append(values.keySet());
+        sb.append(", errors=").append(errors);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.ning.billing.recurly.model.AddOns;
+import com.ning.billing.recurly.model.BusinessEntities;
+import com.ning.billing.recurly.model.CustomFieldDefinitions;
+import com.ning.billing.recurly.model.Item;
+import com.ning.billing.recurly.model.Items;
+import com.ning.billing.recurly.model.Plan;
+import com.ning.billing.recurly.model.Plans;
+import com.ning.billing.recurly.model.ShippingMethods;
+import com.ning.billing.recurly.model.push.Notification;
+import com.ning.billing.recurly.model.push.item.ItemNotification;
+
+/**
+ * In-memory cache of the catalog of a site: plans, add-ons, items, shipping methods, custom field definitions
+ * and business entities, see {@link RecurlyClientConfig.Builder#setCatalogCache(long, long, boolean)}.
+ * <p>
+ * Entries expire {@code ttlMs} after being loaded. When {@code refreshAfterMs} is set, an entry read after
+ * that delay is reloaded in the background while the current value keeps being served. The catalog can be
+ * loaded in bulk, in the background, when the client is opened, and item notifications evict the matching entries, see
+ * {@link #onNotification(Notification)}. Writes through the client, such as {@link RecurlyClient#updatePlan} or
+ * {@link RecurlyClient#deleteItem}, evict the plan (and its add-ons) or item they change.
+ * <p>
+ * Cached objects are shared between callers, which must not modify them.
+ */
+public class CatalogCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogCache.class);
+
+    private static final String PLAN = "plan:";
+    private static final String ADD_ONS = "add_ons:";
+    private static final String ITEM = "item:";
+    private static final String SHIPPING_METHODS = "shipping_methods";
+    private static final String CUSTOM_FIELD_DEFINITIONS = "custom_field_definitions";
+    private static final String BUSINESS_ENTITIES = "business_entities";
+
+    private static final int WARM_UP_PAGE_SIZE = 200;
+
+    private final RecurlyClient recurlyClient;
+    private final ExecutorService refreshExecutor;
+    private final LoadingCache<String, Object> cache;
+    // Bumped on each invalidation, so that a warm-up doesn't put back what a write just invalidated
+    private final AtomicLong invalidations = new AtomicLong();
+    private volatile ListenableFuture<?> warmUp = Futures.immediateFuture(null);
+
+    CatalogCache(final RecurlyClient recurlyClient, final long ttlMs, final long refreshAfterMs) {
+        this.recurlyClient = recurlyClient;
+
+        final CacheLoader<String, Object> loader = new CacheLoader<String, Object>() {
+            @Override
+            public Object load(final String key) {
+                return fetch(key);
+            }
+        };
+        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder()
+                                                                      .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                                                                      .recordStats();
+        if (refreshAfterMs > 0) {
+            this.refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                                                                                              .setNameFormat("recurly-catalog-refresh-%d")
+                                                                                              .build());
+            this.cache = cacheBuilder.refreshAfterWrite(refreshAfterMs, TimeUnit.MILLISECONDS)
+                                     .build(CacheLoader.asyncReloading(loader, refreshExecutor));
+        } else {
+            this.refreshExecutor = null;
+            this.cache = cacheBuilder.build(loader);
+        }
+    }
+
+    private Object fetch(final String key) {
+        final Object value;
+        if (key.startsWith(PLAN)) {
+            value = recurlyClient.fetchPlan(key.substring(PLAN.length()));
+        } else if (key.startsWith(ADD_ONS)) {
+            value = recurlyClient.fetchAddOns(key.substring(ADD_ONS.length()));
+        } else if (key.startsWith(ITEM)) {
+            value = recurlyClient.fetchItem(key.substring(ITEM.length()));
+        } else if (SHIPPING_METHODS.equals(key)) {
+            value = recurlyClient.fetchShippingMethods();
+        } else if (CUSTOM_FIELD_DEFINITIONS.equals(key)) {
+            value = recurlyClient.fetchCustomFieldDefinitions();
+        } else if (BUSINESS_ENTITIES.equals(key)) {
+            value = recurlyClient.fetchBusinessEntities();
+        } else {
+            throw new IllegalArgumentException("Unknown catalog key " + key);
+        }
+        // Null (I/O error) isn't cached: the CacheLoader contract turns it into an InvalidCacheLoadException
+        return value;
+    }
+
+    public Plan getPlan(final String planCode) {
+        return get(PLAN + planCode, Plan.class);
+    }
+
+    public AddOns getAddOns(final String planCode) {
+        return get(ADD_ONS + planCode, AddOns.class);
+    }
+
+    public Item getItem(final String itemCode) {
+        return get(ITEM + itemCode, Item.class);
+    }
+
+    public ShippingMethods getShippingMethods() {
+        return get(SHIPPING_METHODS, ShippingMethods.class);
+    }
+
+    public CustomFieldDefinitions getCustomFieldDefinitions() {
+        return get(CUSTOM_FIELD_DEFINITIONS, CustomFieldDefinitions.class);
+    }
+
+    public BusinessEntities getBusinessEntities() {
+        return get(BUSINESS_ENTITIES, BusinessEntities.class);
+    }
+
+    private <T> T get(final String key, final Class<T> clazz) {
+        try {
+            return clazz.cast(cache.get(key));
+        } catch (InvalidCacheLoadException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            // RecurlyAPIException, ConnectionErrorException, ...
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Load all the plans and items, as well as the shipping methods, custom field definitions and business entities.
+     * Add-ons are loaded on demand.
+     */
+    public void warmUp() {
+        final QueryParams params = new QueryParams();
+        params.setPerPage(WARM_UP_PAGE_SIZE);
+
+        int plans = 0;
+        // Read before fetching each page: an invalidation while the page is in flight makes it stale
+        long generation = invalidations.get();
+        for (Plans page = recurlyClient.getPlans(params); page != null && !page.isEmpty(); page = page.getNext()) {
+            final Map<String, Object> entries = new LinkedHashMap<String, Object>();
+            for (final Plan plan : page) {
+                entries.put(PLAN + plan.getPlanCode(), plan);
+            }
+            plans += putAll(entries, generation);
+            generation = invalidations.get();
+        }
+        int items = 0;
+        generation = invalidations.get();
+        for (Items page = recurlyClient.fetchItems(params); page != null && !page.isEmpty(); page = page.getNext()) {
+            final Map<String, Object> entries = new LinkedHashMap<String, Object>();
+            for (final Item item : page) {
+                entries.put(ITEM + item.getItemCode(), item);
+            }
+            items += putAll(entries, generation);
+            generation = invalidations.get();
+        }
+        getShippingMethods();
+        getCustomFieldDefinitions();
+        getBusinessEntities();
+        log.info("Recurly catalog cache warmed up with {} plans and {} items", plans, items);
+    }
+
+    /**
+     * Cache entries fetched by the warm-up, unless an invalidation happened since they were fetched: the entries may
+     * then be stale, and are loaded on demand instead.
+     *
+     * @param generation invalidation count read before the entries were fetched
+     * @return number of entries cached
+     */
+    private int putAll(final Map<String, Object> entries, final long generation) {
+        if (invalidations.get() != generation) {
+            return 0;
+        }
+        cache.putAll(entries);
+        // An invalidation between the check and the put may have been overwritten: evict what was just put back
+        if (invalidations.get() != generation) {
+            cache.invalidateAll(entries.keySet());
+            return 0;
+        }
+        return entries.size();
+    }
+
+    void warmUpInBackground(final ListeningExecutorService executor) {
+        warmUp = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    warmUp();
+                } catch (final RuntimeException e) {
+                    // Entries will be loaded on demand instead
+                    log.warn("Unable to warm up the Recurly catalog cache", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for the warm-up started when the client was opened, if any.
+     *
+     * @return false if the warm-up is still running after the timeout
+     */
+    public boolean awaitWarmUp(final long timeout, final TimeUnit unit) throws InterruptedException {
+        try {
+            warmUp.get(timeout, unit);
+            return true;
+        } catch (final ExecutionException e) {
+            // Logged by the warm-up
+            return true;
+        } catch (final CancellationException e) {
+            return true;
+        } catch (final TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Evict the entries affected by a push notification: the item of new, updated, deactivated and reactivated
+     * item notifications. Other notifications are ignored.
+     *
+     * @param notification the notification received from Recurly
+     */
+    public void onNotification(@Nullable final Notification notification) {
+        if (notification instanceof ItemNotification) {
+            final Item item = ((ItemNotification) notification).getItem();
+            if (item != null && item.getItemCode() != null) {
+                invalidateItem(item.getItemCode());
+            }
+        }
+    }
+
+    public void invalidatePlan(final String planCode) {
+        invalidations.incrementAndGet();
+        cache.invalidate(PLAN + planCode);
+        cache.invalidate(ADD_ONS + planCode);
+    }
+
+    public void invalidateItem(final String itemCode) {
+        invalidations.incrementAndGet();
+        cache.invalidate(ITEM + itemCode);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return number of cached entries
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return hit, miss, load and eviction counts
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    void close() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+/**
+ * JMX view of the {@link RecurlyClient} connection pool, see {@link RecurlyClientConfig.Builder#setJmxName(String)}
+ */
+public interface ConnectionPoolMXBean {
+
+    int getLeased();
+
+    int getAvailable();
+
+    int getPending();
+
+    int getMax();
+
+    long getWireBytes();
+
+    long getDecodedBytes();
+}
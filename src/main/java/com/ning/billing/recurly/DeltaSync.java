@@ -0,0 +1,215 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.RecurlyObjects;
+
+/**
+ * Incrementally synchronizes a listing: each {@link #sync(Listener)} only hands out the objects updated since the
+ * previous one, by listing them with {@code sort=updated_at&order=asc&begin_time=<watermark>}.
+ * <p>
+ * The watermark is the {@code updated_at} of the last object handed out. Since {@code begin_time} is inclusive,
+ * the keys of the objects sharing that exact timestamp are kept as well, so that ties are neither lost nor
+ * handed out twice. Both are persisted to a local properties file after every page and when a sync stops,
+ * hence a restarted process resumes where the previous one stopped instead of rescanning the whole listing.
+ * <p>
+ * Delivery is at-least-once: an object whose listener call failed is handed out again by the next sync.
+ *
+ * @see RecurlyClient#newAccountsSync(File, DateTime)
+ */
+public class DeltaSync<T extends RecurlyObject> {
+
+    private static final Logger log = LoggerFactory.getLogger(DeltaSync.class);
+
+    private static final String WATERMARK_PROPERTY = "watermark";
+    private static final String KEY_PROPERTY_PREFIX = "key.";
+    private static final int PAGE_SIZE = 200;
+
+    public interface Listener<T> {
+
+        /**
+         * @param object an object created or updated since the previous sync
+         */
+        void onChange(T object);
+    }
+
+    private final Function<QueryParams, RecurlyObjects<T>> list;
+    private final Function<T, DateTime> updatedAt;
+    private final Function<T, String> key;
+    private final File stateFile;
+
+    private DateTime watermark;
+    private final Set<String> watermarkKeys = new HashSet<String>();
+
+    DeltaSync(final Function<QueryParams, RecurlyObjects<T>> list,
+              final Function<T, DateTime> updatedAt, final Function<T, String> key,
+              final File stateFile, @Nullable final DateTime initialWatermark) throws IOException {
+        this.list = list;
+        this.updatedAt = updatedAt;
+        this.key = key;
+        this.stateFile = stateFile;
+        this.watermark = initialWatermark;
+        load();
+    }
+
+    /**
+     * Hand out the objects created or updated since the previous sync.
+     *
+     * @param listener called for every changed object, in {@code updated_at} order
+     * @return the number of objects handed out
+     * @throws IOException if the state file can't be written
+     */
+    public synchronized int sync(final Listener<T> listener) throws IOException {
+        final QueryParams params = new QueryParams();
+        params.setPerPage(PAGE_SIZE);
+        params.setSort(QueryParams.Sort.UPDATED_AT);
+        params.setOrder(QueryParams.Order.ASC);
+        if (watermark != null) {
+            params.setBeginTime(watermark);
+        }
+
+        int changed = 0;
+        boolean dirty = false;
+        try {
+            for (RecurlyObjects<T> page = list.apply(params); page != null && !page.isEmpty(); page = page.getNext()) {
+                for (final T object : page) {
+                    if (handle(object, listener)) {
+                        changed++;
+                        dirty = true;
+                    }
+                }
+                if (dirty) {
+                    persist();
+                    dirty = false;
+                }
+            }
+        } finally {
+            if (dirty) {
+                persist();
+            }
+        }
+        log.debug("Synchronized {} changed objects, watermark now {}", changed, watermark);
+        return changed;
+    }
+
+    private boolean handle(final T object, final Listener<T> listener) {
+        final DateTime time = updatedAt.apply(object);
+        final String objectKey = key.apply(object);
+        if (time == null) {
+            // Can't be tracked by the watermark
+            listener.onChange(object);
+            return true;
+        }
+        if (watermark != null) {
+            if (time.isBefore(watermark) || (time.isEqual(watermark) && watermarkKeys.contains(objectKey))) {
+                return false;
+            }
+        }
+
+        listener.onChange(object);
+
+        if (watermark == null || time.isAfter(watermark)) {
+            watermark = time;
+            watermarkKeys.clear();
+        }
+        watermarkKeys.add(objectKey);
+        return true;
+    }
+
+    /**
+     * @return the {@code updated_at} of the last object handed out, null if none yet
+     */
+    @Nullable
+    public synchronized DateTime getWatermark() {
+        return watermark;
+    }
+
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    private void load() throws IOException {
+        if (!stateFile.exists()) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(stateFile);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        final String persistedWatermark = properties.getProperty(WATERMARK_PROPERTY);
+        if (persistedWatermark != null) {
+            watermark = new DateTime(persistedWatermark);
+        }
+        for (final String name : properties.stringPropertyNames()) {
+            if (name.startsWith(KEY_PROPERTY_PREFIX)) {
+                watermarkKeys.add(properties.getProperty(name));
+            }
+        }
+    }
+
+    private void persist() throws IOException {
+        if (watermark == null) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(WATERMARK_PROPERTY, watermark.toDateTimeISO().toString());
+        int i = 0;
+        for (final String watermarkKey : watermarkKeys) {
+            properties.setProperty(KEY_PROPERTY_PREFIX + i++, watermarkKey);
+        }
+
+        // Write then rename, not to leave a truncated file behind on crash
+        final File tmpFile = new File(stateFile.getPath() + ".tmp");
+        final OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            properties.store(out, "Recurly delta sync state");
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(stateFile)) {
+            // Windows doesn't rename over an existing file
+            if (!stateFile.delete() || !tmpFile.renameTo(stateFile)) {
+                throw new IOException("Unable to write " + stateFile);
+            }
+        }
+    }
+}
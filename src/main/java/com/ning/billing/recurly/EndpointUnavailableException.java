@@ -0,0 +1,50 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+/**
+ * Thrown without calling Recurly when the endpoint family of a request is isolated: its circuit breaker
+ * is open or its bulkhead is full, see {@link com.ning.billing.recurly.util.http.EndpointIsolation}
+ */
+public class EndpointUnavailableException extends RuntimeException {
+
+    public enum Reason {
+        CIRCUIT_OPEN,
+        BULKHEAD_FULL
+    }
+
+    private final String resource;
+    private final Reason reason;
+
+    public EndpointUnavailableException(final String resource, final Reason reason) {
+        super(String.format("Recurly endpoint %s unavailable: %s", resource, reason));
+        this.resource = resource;
+        this.reason = reason;
+    }
+
+    /**
+     * @return the resource family, e.g. {@code /accounts}
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of a multi-get, e.g. {@link RecurlyClient#getAccountsByCode(java.util.Collection)}: for each distinct identifier,
+ * in the order they were given, the object found, or whether it wasn't found (404) or failed.
+ *
+ * @param <T> the type of the objects
+ */
+public class MultiGetResult<T> {
+
+    private final List<String> ids;
+    private final Map<String, T> found;
+    private final List<String> notFound;
+    private final Map<String, Throwable> failed;
+
+    MultiGetResult(final List<String> ids, final Map<String, T> found, final List<String> notFound, final Map<String, Throwable> failed) {
+        this.ids = Collections.unmodifiableList(new ArrayList<String>(ids));
+        this.found = Collections.unmodifiableMap(new LinkedHashMap<String, T>(found));
+        this.notFound = Collections.unmodifiableList(new ArrayList<String>(notFound));
+        this.failed = Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(failed));
+    }
+
+    /**
+     * @return the distinct identifiers requested, in order
+     */
+    public List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return the object with the given identifier, null if it wasn't found or failed
+     */
+    @Nullable
+    public T get(final String id) {
+        return found.get(id);
+    }
+
+    /**
+     * @return the objects found, in the order of their identifiers
+     */
+    public List<T> getFound() {
+        return new ArrayList<T>(found.values());
+    }
+
+    /**
+     * @return the objects found by identifier, in order
+     */
+    public Map<String, T> getFoundById() {
+        return found;
+    }
+
+    /**
+     * @return the identifiers Recurly answered with a 404, in order
+     */
+    public List<String> getNotFound() {
+        return notFound;
+    }
+
+    /**
+     * @return the identifiers which failed otherwise, in order, with their error: the {@link RecurlyAPIException},
+     * {@link ConnectionErrorException}... thrown by the single get, or an {@link java.io.IOException} when it returned
+     * nothing (the cause is then logged by the client)
+     */
+    public Map<String, Throwable> getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return whether every identifier was either found or not found, none failed
+     */
+    public boolean isComplete() {
+        return failed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("MultiGetResult{");
+        sb.append("ids=").append(ids.size());
+        sb.append(", found=").append(found.size());
+        sb.append(", notFound=").append(notFound);
+        sb.append(", failed=").append(failed.keySet());
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.RecurlyObjects;
+
+/**
+ * Lazily walks all the objects of a listing, following the {@code Link} header from page to page.
+ * <p>
+ * While a page is being consumed, up to {@code prefetchPages} following pages are fetched in the background,
+ * so that the caller doesn't wait for each page once it is done with the previous one. Pages are only
+ * requested as the iteration progresses: an iteration abandoned half-way costs at most {@code prefetchPages}
+ * extra requests. With no prefetching, pages are fetched by the iterating thread, when needed.
+ * <p>
+ * Each call to {@link #iterator()} walks the listing from the first page again. Iterators aren't thread-safe.
+ *
+ * @see RecurlyClient#iterate(RecurlyObjects)
+ */
+public class PaginatedIterable<T extends RecurlyObject> implements Iterable<T> {
+
+    private final RecurlyClient recurlyClient;
+    private final RecurlyObjects<T> firstPage;
+    private final ListeningExecutorService executor;
+    private final int prefetchPages;
+
+    PaginatedIterable(final RecurlyClient recurlyClient, final RecurlyObjects<T> firstPage, final ListeningExecutorService executor, final int prefetchPages) {
+        this.recurlyClient = recurlyClient;
+        this.firstPage = firstPage;
+        this.executor = prefetchPages > 0 ? executor : MoreExecutors.sameThreadExecutor();
+        this.prefetchPages = prefetchPages;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new PageIterator();
+    }
+
+    private final class PageIterator implements Iterator<T> {
+
+        // Pages fetched or being fetched, in order. Guarded by this.
+        private final Deque<ListenableFuture<RecurlyObjects<T>>> pages = new ArrayDeque<ListenableFuture<RecurlyObjects<T>>>();
+        // URL of the page following the last one requested, once known. Guarded by this.
+        private String nextUrl;
+
+        private Iterator<T> current;
+
+        private PageIterator() {
+            this.current = firstPage == null ? ImmutableList.<T>of().iterator() : firstPage.iterator();
+            onPage(firstPage);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                final ListenableFuture<RecurlyObjects<T>> page;
+                synchronized (this) {
+                    if (pages.isEmpty() && nextUrl != null) {
+                        // No prefetching, or the consumer caught up
+                        request(nextUrl);
+                    }
+                    page = pages.poll();
+                    prefetch();
+                }
+                if (page == null) {
+                    return false;
+                }
+                final RecurlyObjects<T> objects = get(page);
+                current = objects == null ? ImmutableList.<T>of().iterator() : objects.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void onPage(final RecurlyObjects<T> page) {
+            synchronized (this) {
+                nextUrl = page == null || page.isEmpty() ? null : page.getNextUrl();
+                prefetch();
+            }
+        }
+
+        // Guarded by this
+        private void prefetch() {
+            if (nextUrl != null && pages.size() < prefetchPages) {
+                request(nextUrl);
+            }
+        }
+
+        // Guarded by this
+        private void request(final String url) {
+            nextUrl = null;
+            @SuppressWarnings("unchecked")
+            final Class<RecurlyObjects<T>> clazz = (Class<RecurlyObjects<T>>) firstPage.getClass();
+            final ListenableFuture<RecurlyObjects<T>> page = executor.submit(new Callable<RecurlyObjects<T>>() {
+                @Override
+                public RecurlyObjects<T> call() {
+                    final RecurlyObjects<T> objects = recurlyClient.doGETWithFullURL(clazz, url);
+                    onPage(objects);
+                    return objects;
+                }
+            });
+            pages.add(page);
+        }
+
+        private RecurlyObjects<T> get(final ListenableFuture<RecurlyObjects<T>> page) {
+            try {
+                return Uninterruptibles.getUninterruptibly(page);
+            } catch (ExecutionException e) {
+                // RecurlyAPIException, ConnectionErrorException, ...
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+    }
+}
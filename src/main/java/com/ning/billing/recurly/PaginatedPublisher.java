@@ -0,0 +1,185 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Supplier;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.RecurlyObjects;
+import com.ning.billing.recurly.util.Flow;
+
+/**
+ * Publishes the objects of a listing, page after page, as a {@link Flow.Publisher}.
+ * <p>
+ * Pages are fetched on demand only: a page is requested once the subscriber has asked for more objects than those
+ * left in the current one. Requests and signals run on the client background executor, never on the thread calling
+ * {@link Flow.Subscription#request}, except for the {@code RejectedExecutionException} signaled once the client is
+ * closed. Errors, e.g. a {@link RecurlyAPIException} on a page, are signaled through
+ * {@link Flow.Subscriber#onError}, as is a next page that can't be fetched, e.g. on an I/O error.
+ * <p>
+ * The publisher is cold: every subscription walks the listing from its first page.
+ *
+ * @see RecurlyClient#publish(Supplier)
+ */
+public class PaginatedPublisher<T extends RecurlyObject> implements Flow.Publisher<T> {
+
+    private final Supplier<? extends RecurlyObjects<T>> firstPage;
+    private final Executor executor;
+
+    PaginatedPublisher(final Supplier<? extends RecurlyObjects<T>> firstPage, final Executor executor) {
+        this.firstPage = firstPage;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        subscriber.onSubscribe(new PageSubscription(subscriber));
+    }
+
+    private final class PageSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        // Number of drain requests: the one which moves it from 0 runs the drain loop, the others make it loop again
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile IllegalArgumentException invalidRequest;
+        private volatile RejectedExecutionException rejected;
+
+        // Only accessed by the drain loop
+        private boolean done;
+        private RecurlyObjects<T> page;
+        private Iterator<T> objects;
+
+        private PageSubscription(final Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                addDemand(n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void addDemand(final long n) {
+            while (true) {
+                final long current = demand.get();
+                // Long.MAX_VALUE means unbounded
+                final long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+                if (demand.compareAndSet(current, updated)) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            if (pending.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // The client has been closed: this thread holds the drain, which signals the error without fetching anything
+                rejected = e;
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drainLoop();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainLoop() {
+            while (true) {
+                if (cancelled || done) {
+                    page = null;
+                    objects = null;
+                    return;
+                }
+                if (invalidRequest != null) {
+                    done = true;
+                    subscriber.onError(invalidRequest);
+                    continue;
+                }
+                if (rejected != null) {
+                    done = true;
+                    subscriber.onError(rejected);
+                    continue;
+                }
+                if (demand.get() == 0) {
+                    return;
+                }
+
+                if (objects != null && objects.hasNext()) {
+                    final T object = objects.next();
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(object);
+                    continue;
+                }
+
+                // The current page is exhausted and more objects are wanted: fetch the next one
+                final RecurlyObjects<T> nextPage;
+                try {
+                    nextPage = objects == null ? firstPage.get() : page.getNext();
+                } catch (RuntimeException e) {
+                    done = true;
+                    subscriber.onError(e);
+                    continue;
+                }
+                if (nextPage == null && objects != null && page.getNextUrl() != null) {
+                    // The next page exists but couldn't be fetched: completing would silently truncate the stream
+                    done = true;
+                    subscriber.onError(new IllegalStateException("Unable to fetch the next page " + page.getNextUrl()));
+                    continue;
+                }
+                if (nextPage == null || nextPage.isEmpty()) {
+                    done = true;
+                    subscriber.onComplete();
+                    continue;
+                }
+                page = nextPage;
+                objects = nextPage.iterator();
+            }
+        }
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.AccountBalance;
+import com.ning.billing.recurly.model.Accounts;
+import com.ning.billing.recurly.model.AddOn;
+import com.ning.billing.recurly.model.AddOns;
+import com.ning.billing.recurly.model.BillingInfo;
+import com.ning.billing.recurly.model.BillingInfos;
+import com.ning.billing.recurly.model.Coupon;
+import com.ning.billing.recurly.model.Coupons;
+import com.ning.billing.recurly.model.Entitlements;
+import com.ning.billing.recurly.model.Invoice;
+import com.ning.billing.recurly.model.InvoiceCollection;
+import com.ning.billing.recurly.model.InvoiceState;
+import com.ning.billing.recurly.model.Invoices;
+import com.ning.billing.recurly.model.Item;
+import com.ning.billing.recurly.model.Items;
+import com.ning.billing.recurly.model.Plan;
+import com.ning.billing.recurly.model.Plans;
+import com.ning.billing.recurly.model.Purchase;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.Redemption;
+import com.ning.billing.recurly.model.ShippingAddresses;
+import com.ning.billing.recurly.model.Subscription;
+import com.ning.billing.recurly.model.SubscriptionState;
+import com.ning.billing.recurly.model.SubscriptionUpdate;
+import com.ning.billing.recurly.model.Subscriptions;
+import com.ning.billing.recurly.model.Transaction;
+import com.ning.billing.recurly.model.TransactionState;
+import com.ning.billing.recurly.model.TransactionType;
+import com.ning.billing.recurly.model.Transactions;
+import com.ning.billing.recurly.model.Usage;
+import com.ning.billing.recurly.model.Usages;
+import com.ning.billing.recurly.util.http.BoundedKeepAliveStrategy;
+import com.ning.billing.recurly.util.http.ContentDecodingInterceptor;
+import com.ning.billing.recurly.util.http.SslUtils;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.message.HeaderGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking counterpart of {@link RecurlyClient}.
+ * <p>
+ * Requests are issued on an NIO reactor, so no thread is parked while a call is in flight. Every method
+ * returns a {@link ListenableFuture} which completes with the same object the matching {@link RecurlyClient}
+ * method would have returned, or fails with the same exception ({@link RecurlyAPIException},
+ * {@link TransactionErrorException} or {@link ConnectionErrorException}). Responses are deserialized on the
+ * background executor of {@link #getRecurlyClient()}, not on the reactor thread.
+ * <p>
+ * Only the calls of the hot paths are available: accounts, billing info, subscriptions and usage, transactions,
+ * invoices, purchases, and reads of the catalog (items, plans, add-ons and coupons) along with coupon redemption.
+ * Any other resource can be read with {@link #doGETWithFullURL(Class, String)}, everything else goes through the
+ * blocking {@link #getRecurlyClient()}.
+ * <p>
+ * Objects returned by this client are bound to a regular {@link RecurlyClient}, which is opened alongside
+ * the asynchronous engine: lazy references (e.g. {@link Subscription#getAccount()}) and pagination helpers
+ * (e.g. {@link Accounts#getNext()}) are therefore resolved synchronously.
+ */
+public class RecurlyAsyncClient {
+
+    private static final Logger log = LoggerFactory.getLogger(RecurlyAsyncClient.class);
+
+    private static final String X_RECORDS_HEADER_NAME = "X-Records";
+
+    private final RecurlyClient recurlyClient;
+    private final String baseUrl;
+    private CloseableHttpAsyncClient client;
+
+    public RecurlyAsyncClient(final String apiKey) {
+        this(apiKey, "api");
+    }
+
+    public RecurlyAsyncClient(final String apiKey, final String subDomain) {
+        this(apiKey, subDomain + ".recurly.com", 443, "v2");
+    }
+
+    public RecurlyAsyncClient(final String apiKey, final String host, final int port, final String version) {
+        this(apiKey, "https", host, port, version);
+    }
+
+    public RecurlyAsyncClient(final String apiKey, final String scheme, final String host, final int port, final String version) {
+        this(apiKey, scheme, host, port, version, RecurlyClientConfig.defaults());
+    }
+
+    public RecurlyAsyncClient(final String apiKey, final String subDomain, final RecurlyClientConfig config) {
+        this(apiKey, "https", subDomain + ".recurly.com", 443, "v2", config);
+    }
+
+    public RecurlyAsyncClient(final String apiKey, final String scheme, final String host, final int port, final String version, final RecurlyClientConfig config) {
+        this.recurlyClient = new RecurlyClient(apiKey, scheme, host, port, version, config);
+        this.baseUrl = String.format(Locale.ROOT, "%s://%s:%d/%s", scheme, host, port, version);
+    }
+
+    /**
+     * Open and start the underlying non-blocking http client
+     */
+    public synchronized void open() throws NoSuchAlgorithmException, KeyManagementException {
+        recurlyClient.open();
+        client = createHttpAsyncClient();
+        client.start();
+    }
+
+    /**
+     * Close the underlying http clients
+     */
+    public synchronized void close() {
+        recurlyClient.close();
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Set the Accept-Language header
+     * <p>
+     * Note: this is not thread-safe, see {@link RecurlyClient#setAcceptLanguage(String)}.
+     *
+     * @param language The language to set in the header. E.g., "en-US"
+     */
+    public void setAcceptLanguage(final String language) {
+        recurlyClient.setAcceptLanguage(language);
+    }
+
+    /**
+     * @return the blocking client used to resolve lazy references and pagination on returned objects
+     */
+    public RecurlyClient getRecurlyClient() {
+        return recurlyClient;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Accounts
+
+    public ListenableFuture<Account> createAccount(final Account account) {
+        return doPOST(Account.ACCOUNT_RESOURCE, account, Account.class);
+    }
+
+    public ListenableFuture<Accounts> getAccounts() {
+        return doGET(Accounts.ACCOUNTS_RESOURCE, Accounts.class, new QueryParams());
+    }
+
+    public ListenableFuture<Accounts> getAccounts(final QueryParams params) {
+        return doGET(Accounts.ACCOUNTS_RESOURCE, Accounts.class, params);
+    }
+
+    public ListenableFuture<Integer> getAccountsCount(final QueryParams params) {
+        return doCount(Accounts.ACCOUNTS_RESOURCE, params);
+    }
+
+    public ListenableFuture<Account> getAccount(final String accountCode) {
+        if (accountCode == null || accountCode.isEmpty())
+            throw new RuntimeException("accountCode cannot be empty!");
+
+        return doGET(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode), Account.class);
+    }
+
+    public ListenableFuture<Account> updateAccount(final String accountCode, final Account account) {
+        return doPUT(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode), account, Account.class);
+    }
+
+    public ListenableFuture<AccountBalance> getAccountBalance(final String accountCode) {
+        return doGET(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + AccountBalance.ACCOUNT_BALANCE_RESOURCE, AccountBalance.class);
+    }
+
+    public ListenableFuture<Void> closeAccount(final String accountCode) {
+        return doDELETE(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode));
+    }
+
+    public ListenableFuture<Account> reopenAccount(final String accountCode) {
+        return doPUT(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + "/reopen", null, Account.class);
+    }
+
+    public ListenableFuture<ShippingAddresses> getAccountShippingAddresses(final String accountCode) {
+        return doGET(Accounts.ACCOUNTS_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + ShippingAddresses.SHIPPING_ADDRESSES_RESOURCE,
+                     ShippingAddresses.class, new QueryParams());
+    }
+
+    public ListenableFuture<Entitlements> getEntitlements(final String accountCode) {
+        return doGET(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + Entitlements.ENTITLEMENTS_RESOURCE, Entitlements.class);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Billing info
+
+    public ListenableFuture<BillingInfo> createOrUpdateBillingInfo(final String accountCode, final BillingInfo billingInfo) {
+        return doPUT(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + BillingInfo.BILLING_INFO_RESOURCE,
+                     billingInfo, BillingInfo.class);
+    }
+
+    public ListenableFuture<BillingInfo> getBillingInfo(final String accountCode) {
+        return doGET(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + BillingInfo.BILLING_INFO_RESOURCE, BillingInfo.class);
+    }
+
+    public ListenableFuture<BillingInfos> getBillingInfos(final String accountCode) {
+        return doGET(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + BillingInfos.BILLING_INFOS_RESOURCE, BillingInfos.class);
+    }
+
+    public ListenableFuture<Void> clearBillingInfo(final String accountCode) {
+        return doDELETE(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + BillingInfo.BILLING_INFO_RESOURCE);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Subscriptions
+
+    public ListenableFuture<Subscription> createSubscription(final Subscription subscription) {
+        return doPOST(Subscription.SUBSCRIPTION_RESOURCE, subscription, Subscription.class);
+    }
+
+    public ListenableFuture<Subscription> getSubscription(final String uuid) {
+        if (uuid == null || uuid.isEmpty())
+            throw new RuntimeException("uuid cannot be empty!");
+
+        return doGET(Subscriptions.SUBSCRIPTIONS_RESOURCE + "/" + RecurlyClient.urlEncode(uuid), Subscription.class);
+    }
+
+    public ListenableFuture<Subscriptions> getSubscriptions(final SubscriptionState state, final QueryParams params) {
+        if (state != null) params.put("state", state.getType());
+
+        return doGET(Subscriptions.SUBSCRIPTIONS_RESOURCE, Subscriptions.class, params);
+    }
+
+    public ListenableFuture<Integer> getSubscriptionsCount(final QueryParams params) {
+        return doCount(Subscription.SUBSCRIPTION_RESOURCE, params);
+    }
+
+    public ListenableFuture<Subscriptions> getAccountSubscriptions(final String accountCode) {
+        return getAccountSubscriptions(accountCode, null, new QueryParams());
+    }
+
+    public ListenableFuture<Subscriptions> getAccountSubscriptions(final String accountCode, final SubscriptionState state, final QueryParams params) {
+        if (state != null) params.put("state", state.getType());
+
+        return doGET(Account.ACCOUNT_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + Subscriptions.SUBSCRIPTIONS_RESOURCE,
+                     Subscriptions.class, params);
+    }
+
+    public ListenableFuture<Subscription> updateSubscription(final String uuid, final SubscriptionUpdate subscriptionUpdate) {
+        return doPUT(Subscriptions.SUBSCRIPTIONS_RESOURCE + "/" + RecurlyClient.urlEncode(uuid), subscriptionUpdate, Subscription.class);
+    }
+
+    public ListenableFuture<Subscription> cancelSubscription(final Subscription subscription) {
+        return doPUT(Subscription.SUBSCRIPTION_RESOURCE + "/" + RecurlyClient.urlEncode(subscription.getUuid()) + "/cancel",
+                     subscription, Subscription.class);
+    }
+
+    public ListenableFuture<Subscription> reactivateSubscription(final Subscription subscription) {
+        return doPUT(Subscription.SUBSCRIPTION_RESOURCE + "/" + RecurlyClient.urlEncode(subscription.getUuid()) + "/reactivate",
+                     subscription, Subscription.class);
+    }
+
+    public ListenableFuture<Usage> postSubscriptionUsage(final String subscriptionCode, final String addOnCode, final Usage usage) {
+        return doPOST(Subscription.SUBSCRIPTION_RESOURCE + "/" + RecurlyClient.urlEncode(subscriptionCode) +
+                      AddOn.ADDONS_RESOURCE + "/" + RecurlyClient.urlEncode(addOnCode) + Usage.USAGE_RESOURCE,
+                      usage, Usage.class);
+    }
+
+    public ListenableFuture<Usages> getSubscriptionUsages(final String subscriptionCode, final String addOnCode, final QueryParams params) {
+        return doGET(Subscription.SUBSCRIPTION_RESOURCE + "/" + RecurlyClient.urlEncode(subscriptionCode) +
+                     AddOn.ADDONS_RESOURCE + "/" + RecurlyClient.urlEncode(addOnCode) + Usage.USAGE_RESOURCE,
+                     Usages.class, params);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Transactions
+
+    public ListenableFuture<Transactions> getAccountTransactions(final String accountCode) {
+        return getAccountTransactions(accountCode, null, null, new QueryParams());
+    }
+
+    public ListenableFuture<Transactions> getAccountTransactions(final String accountCode, final TransactionState state, final TransactionType type, final QueryParams params) {
+        if (state != null) params.put("state", state.getType());
+        if (type != null) params.put("type", type.getType());
+
+        return doGET(Accounts.ACCOUNTS_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + Transactions.TRANSACTIONS_RESOURCE,
+                     Transactions.class, params);
+    }
+
+    public ListenableFuture<Transactions> getTransactions(final TransactionState state, final TransactionType type, final QueryParams params) {
+        if (state != null) params.put("state", state.getType());
+        if (type != null) params.put("type", type.getType());
+
+        return doGET(Transactions.TRANSACTIONS_RESOURCE, Transactions.class, params);
+    }
+
+    public ListenableFuture<Integer> getTransactionsCount(final QueryParams params) {
+        return doCount(Transactions.TRANSACTIONS_RESOURCE, params);
+    }
+
+    public ListenableFuture<Transaction> getTransaction(final String transactionId) {
+        if (transactionId == null || transactionId.isEmpty())
+            throw new RuntimeException("transactionId cannot be empty!");
+
+        return doGET(Transactions.TRANSACTIONS_RESOURCE + "/" + RecurlyClient.urlEncode(transactionId), Transaction.class);
+    }
+
+    public ListenableFuture<Transaction> createTransaction(final Transaction trans) {
+        return doPOST(Transactions.TRANSACTIONS_RESOURCE, trans, Transaction.class);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Invoices
+
+    public ListenableFuture<Invoice> getInvoice(final String invoiceId) {
+        if (invoiceId == null || invoiceId.isEmpty())
+            throw new RuntimeException("invoiceId cannot be empty!");
+
+        return doGET(Invoices.INVOICES_RESOURCE + "/" + RecurlyClient.urlEncode(invoiceId), Invoice.class);
+    }
+
+    public ListenableFuture<Invoices> getInvoices(final QueryParams params) {
+        return doGET(Invoices.INVOICES_RESOURCE, Invoices.class, params);
+    }
+
+    public ListenableFuture<Integer> getInvoicesCount(final QueryParams params) {
+        return doCount(Invoices.INVOICES_RESOURCE, params);
+    }
+
+    public ListenableFuture<Transactions> getInvoiceTransactions(final String invoiceId) {
+        return doGET(Invoices.INVOICES_RESOURCE + "/" + RecurlyClient.urlEncode(invoiceId) + Transactions.TRANSACTIONS_RESOURCE,
+                     Transactions.class, new QueryParams());
+    }
+
+    public ListenableFuture<Invoices> getAccountInvoices(final String accountCode) {
+        return getAccountInvoices(accountCode, null, new QueryParams());
+    }
+
+    public ListenableFuture<Invoices> getAccountInvoices(final String accountCode, final InvoiceState state, final QueryParams params) {
+        if (state != null) params.put("state", state.getType());
+
+        return doGET(Accounts.ACCOUNTS_RESOURCE + "/" + RecurlyClient.urlEncode(accountCode) + Invoices.INVOICES_RESOURCE,
+                     Invoices.class, params);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Purchases
+
+    public ListenableFuture<InvoiceCollection> purchase(final Purchase purchase) {
+        return doPOST(Purchase.PURCHASES_ENDPOINT, purchase, InvoiceCollection.class);
+    }
+
+    public ListenableFuture<InvoiceCollection> previewPurchase(final Purchase purchase) {
+        return doPOST(Purchase.PURCHASES_ENDPOINT + "/preview", purchase, InvoiceCollection.class);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Catalog
+
+    public ListenableFuture<Item> getItem(final String itemCode) {
+        if (itemCode == null || itemCode.isEmpty())
+            throw new RuntimeException("itemCode cannot be empty!");
+
+        return doGET(Item.ITEMS_RESOURCE + "/" + RecurlyClient.urlEncode(itemCode), Item.class);
+    }
+
+    public ListenableFuture<Items> getItems() {
+        return doGET(Items.ITEMS_RESOURCE, Items.class, new QueryParams());
+    }
+
+    public ListenableFuture<Plan> getPlan(final String planCode) {
+        if (planCode == null || planCode.isEmpty())
+            throw new RuntimeException("planCode cannot be empty!");
+
+        return doGET(Plan.PLANS_RESOURCE + "/" + RecurlyClient.urlEncode(planCode), Plan.class);
+    }
+
+    public ListenableFuture<Plans> getPlans(final QueryParams params) {
+        return doGET(Plans.PLANS_RESOURCE, Plans.class, params);
+    }
+
+    public ListenableFuture<AddOn> getAddOn(final String planCode, final String addOnCode) {
+        if (addOnCode == null || addOnCode.isEmpty())
+            throw new RuntimeException("addOnCode cannot be empty!");
+
+        return doGET(Plan.PLANS_RESOURCE + "/" + RecurlyClient.urlEncode(planCode) + AddOn.ADDONS_RESOURCE + "/" + addOnCode, AddOn.class);
+    }
+
+    public ListenableFuture<AddOns> getAddOns(final String planCode, final QueryParams params) {
+        return doGET(Plan.PLANS_RESOURCE + "/" + RecurlyClient.urlEncode(planCode) + AddOn.ADDONS_RESOURCE, AddOns.class, params);
+    }
+
+    public ListenableFuture<Coupon> getCoupon(final String couponCode) {
+        if (couponCode == null || couponCode.isEmpty())
+            throw new RuntimeException("couponCode cannot be empty!");
+
+        return doGET(Coupon.COUPON_RESOURCE + "/" + RecurlyClient.urlEncode(couponCode), Coupon.class);
+    }
+
+    public ListenableFuture<Coupons> getCoupons(final QueryParams params) {
+        return doGET(Coupons.COUPONS_RESOURCE, Coupons.class, params);
+    }
+
+    public ListenableFuture<Redemption> redeemCoupon(final String couponCode, final Redemption redemption) {
+        return doPOST(Coupon.COUPON_RESOURCE + "/" + RecurlyClient.urlEncode(couponCode) + Redemption.REDEEM_RESOURCE,
+                      redemption, Redemption.class);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Asynchronously fetch a full Recurly URL, e.g. an href or a pagination link
+     *
+     * @param clazz the type to deserialize the response into
+     * @param url   the full URL
+     * @return a future for the deserialized response
+     */
+    public <T> ListenableFuture<T> doGETWithFullURL(final Class<T> clazz, final String url) {
+        if (debug()) {
+            log.info("Msg to Recurly API [GET] :: URL : {}", url);
+        }
+        return execute(new HttpGet(url), clazz);
+    }
+
+    private <T> ListenableFuture<T> doGET(final String resource, final Class<T> clazz) {
+        return doGETWithFullURL(clazz, baseUrl + resource);
+    }
+
+    private <T> ListenableFuture<T> doGET(final String resource, final Class<T> clazz, final QueryParams params) {
+        return doGETWithFullURL(clazz, baseUrl + resource + params.toString());
+    }
+
+    private <T> ListenableFuture<T> doPOST(final String resource, @Nullable final RecurlyObject payload, final Class<T> clazz) {
+        return executeWithPayload(new HttpPost(baseUrl + resource), payload, clazz);
+    }
+
+    private <T> ListenableFuture<T> doPUT(final String resource, @Nullable final RecurlyObject payload, final Class<T> clazz) {
+        return executeWithPayload(new HttpPut(baseUrl + resource), payload, clazz);
+    }
+
+    private ListenableFuture<Void> doDELETE(final String resource) {
+        return execute(new HttpDelete(baseUrl + resource), null);
+    }
+
+    private ListenableFuture<Integer> doCount(final String resource, @Nullable final QueryParams params) {
+        final String url = baseUrl + resource + (params == null ? new QueryParams() : params).toString();
+        if (debug()) {
+            log.info("Msg to Recurly API [HEAD]:: URL : {}", url);
+        }
+
+        final HttpHead builder = new HttpHead(url);
+        recurlyClient.prepareXmlRequest(builder);
+        final SettableFuture<Integer> result = SettableFuture.create();
+        final Future<HttpResponse> inFlight = client.execute(builder, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                recurlyClient.recordRateLimit(response);
+                // Copy all the headers into a HeaderGroup, which will handle case insensitive headers for us
+                final HeaderGroup headerGroup = new HeaderGroup();
+                for (final Header header : response.getAllHeaders()) {
+                    headerGroup.addHeader(header);
+                }
+                try {
+                    result.set(Integer.parseInt(headerGroup.getFirstHeader(X_RECORDS_HEADER_NAME).getValue()));
+                } catch (final RuntimeException e) {
+                    result.setException(e);
+                }
+            }
+
+            @Override
+            public void failed(final Exception e) {
+                result.setException(mapFailure(e));
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        propagateCancellation(result, inFlight);
+        return result;
+    }
+
+    private <T> ListenableFuture<T> executeWithPayload(final HttpEntityEnclosingRequestBase builder, @Nullable final RecurlyObject payload, final Class<T> clazz) {
+        RecurlyClient.setXmlPayload(builder, payload, recurlyClient.getStaxCodec());
+        return execute(builder, clazz);
+    }
+
+    private <T> ListenableFuture<T> execute(final HttpRequestBase builder, @Nullable final Class<T> clazz) {
+        recurlyClient.prepareXmlRequest(builder);
+
+        final SettableFuture<T> result = SettableFuture.create();
+        final Future<HttpResponse> inFlight = client.execute(builder, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                recurlyClient.recordRateLimit(response);
+                // Deserialize off the reactor thread, which would otherwise stall all the other requests in flight
+                try {
+                    recurlyClient.getBackgroundExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            handle(response);
+                        }
+                    });
+                } catch (final RejectedExecutionException e) {
+                    // The client has been closed
+                    result.setException(e);
+                }
+            }
+
+            private void handle(final HttpResponse response) {
+                try {
+                    result.set(recurlyClient.handleXmlResponse(builder, response, clazz));
+                } catch (final IOException e) {
+                    failed(e);
+                } catch (final RuntimeException e) {
+                    // RecurlyAPIException and TransactionErrorException
+                    result.setException(e);
+                }
+            }
+
+            @Override
+            public void failed(final Exception e) {
+                if (e instanceof IOException && !isConnectionError((IOException) e)) {
+                    // Same as the blocking client, e.g. for a malformed payload
+                    log.warn("Error while calling Recurly", e);
+                    result.set(null);
+                } else {
+                    result.setException(mapFailure(e));
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        propagateCancellation(result, inFlight);
+        return result;
+    }
+
+    private static void propagateCancellation(final ListenableFuture<?> result, final Future<HttpResponse> inFlight) {
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    inFlight.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private static Exception mapFailure(final Exception e) {
+        if (e instanceof IOException && isConnectionError((IOException) e)) {
+            // See https://github.com/killbilling/recurly-java-library/issues/185
+            return new ConnectionErrorException(e);
+        }
+        return e;
+    }
+
+    private static boolean isConnectionError(final IOException e) {
+        // The reactor reports a connection closed before any response as a ConnectionClosedException, where the blocking
+        // client gets a NoHttpResponseException
+        return RecurlyClient.isConnectionError(e) || e instanceof ConnectionClosedException;
+    }
+
+    private static boolean debug() {
+        return Boolean.getBoolean(RecurlyClient.RECURLY_DEBUG_KEY);
+    }
+
+    protected CloseableHttpAsyncClient createHttpAsyncClient() throws KeyManagementException, NoSuchAlgorithmException {
+        // Same pool sizes and timeouts as the blocking client
+        final RecurlyClientConfig config = recurlyClient.getConfig();
+        return HttpAsyncClients.custom()
+                               .disableCookieManagement()
+                               .addInterceptorLast(new ContentDecodingInterceptor(recurlyClient.getContentEncodingStats()))
+                               .setMaxConnPerRoute(config.getMaxConnectionsPerRoute())
+                               .setMaxConnTotal(config.getMaxConnectionsTotal())
+                               .setKeepAliveStrategy(new BoundedKeepAliveStrategy(config.getKeepAliveMs()))
+                               .setDefaultRequestConfig(RequestConfig.custom()
+                                                                     .setConnectTimeout(config.getConnectTimeoutMs())
+                                                                     .setSocketTimeout(config.getSocketTimeoutMs())
+                                                                     .setConnectionRequestTimeout(config.getConnectionRequestTimeoutMs())
+                                                                     .build())
+                               .setSSLContext(SslUtils.getInstance().getSSLContext())
+                               .build();
+    }
+}
@@ -90,48 +90,85 @@ import com.ning.billing.recurly.model.MeasuredUnits;
 import com.ning.billing.recurly.model.AccountAcquisition;
 import com.ning.billing.recurly.model.ShippingMethod;
 import com.ning.billing.recurly.model.ShippingMethods;
+import com.ning.billing.recurly.model.StaxCodec;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.StandardSystemProperty;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.BaseEncoding;
 import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.ning.billing.recurly.transport.ApacheHttpClientTransport;
+import com.ning.billing.recurly.transport.RecurlyTransport;
+import com.ning.billing.recurly.transport.RecurlyTransportFactory;
+import com.ning.billing.recurly.util.SingleFlight;
+import com.ning.billing.recurly.util.http.AdaptiveRateLimiter;
+import com.ning.billing.recurly.util.http.BoundedKeepAliveStrategy;
+import com.ning.billing.recurly.util.http.CircuitBreaker;
+import com.ning.billing.recurly.util.http.ContentDecodingInterceptor;
+import com.ning.billing.recurly.util.http.ContentEncodingStats;
+import com.ning.billing.recurly.util.http.EndpointIsolation;
+import com.ning.billing.recurly.util.http.RecurlyObjectEntity;
+import com.ning.billing.recurly.util.http.ResponseCache;
+import com.ning.billing.recurly.util.http.RetryPolicy;
 import com.ning.billing.recurly.util.http.SslUtils;
 
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NoHttpResponseException;
 import org.apache.http.ParseException;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.conn.ConnectTimeoutException;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.HeaderGroup;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.net.ssl.SSLException;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
@@ -144,18 +181,32 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RecurlyClient {
 
     private static final Logger log = LoggerFactory.getLogger(RecurlyClient.class);
 
     public static final String RECURLY_DEBUG_KEY = "recurly.debug";
+    public static final String RECURLY_COMPRESSION_KEY = "recurly.compression";
     public static final String RECURLY_API_VERSION = "2.99";
 
-    private static final String X_RATELIMIT_REMAINING_HEADER_NAME = "X-RateLimit-Remaining";
     private static final String X_RECORDS_HEADER_NAME = "X-Records";
     private static final String LINK_HEADER_NAME = "Link";
 
@@ -208,13 +259,25 @@ public class RecurlyClient {
 
     private final String key;
     private final String baseUrl;
-    private CloseableHttpClient client;
+    private RecurlyTransport transport;
 
     // Allows error messages to be returned in a specified language
     private String acceptLanguage = "en-US";
 
     // Stores the number of requests remaining before rate limiting takes effect
-    private int rateLimitRemaining;
+    private volatile int rateLimitRemaining;
+
+    private final RecurlyClientConfig config;
+    private final ContentEncodingStats contentEncodingStats = new ContentEncodingStats();
+    private final ContentDecodingInterceptor contentDecodingInterceptor = new ContentDecodingInterceptor(contentEncodingStats);
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ResponseCache responseCache;
+    private final StaxCodec staxCodec;
+    private final ThreadLocal<RecurlySession> session = new ThreadLocal<RecurlySession>();
+    private volatile CatalogCache catalogCache;
+    private volatile ListeningExecutorService backgroundExecutor;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private ObjectName connectionPoolMBeanName;
 
     public RecurlyClient(final String apiKey) {
         this(apiKey, "api");
@@ -232,27 +295,67 @@ public class RecurlyClient {
     }
 
     public RecurlyClient(final String apiKey, final String scheme, final String host, final int port, final String version) {
+        this(apiKey, scheme, host, port, version, RecurlyClientConfig.defaults());
+    }
+
+    public RecurlyClient(final String apiKey, final String subDomain, final RecurlyClientConfig config) {
+        this(apiKey, "https", subDomain + ".recurly.com", 443, "v2", config);
+    }
+
+    public RecurlyClient(final String apiKey, final String scheme, final String host, final int port, final String version, final RecurlyClientConfig config) {
         this.key = BaseEncoding.base64().encode(apiKey.getBytes(Charsets.UTF_8));
         this.baseUrl = String.format(Locale.ROOT, "%s://%s:%d/%s", scheme, host, port, version);
         this.userAgent = UserAgentHolder.userAgent;
         this.rateLimitRemaining = -1;
+        this.config = config;
+        this.responseCache = config.getResponseCacheSize() > 0 ? new ResponseCache(config.getResponseCacheSize()) : null;
+        this.staxCodec = config.isStaxCodec() ? new StaxCodec() : null;
         loggerWarning();
     }
 
     /**
-     * Open the underlying http client
+     * Open the underlying transport: the one created by {@link RecurlyClientConfig#getTransportFactory()} if set,
+     * the Apache http client otherwise
      */
     public synchronized void open() throws NoSuchAlgorithmException, KeyManagementException {
-        client = createHttpClient();
+        final RecurlyTransportFactory transportFactory = config.getTransportFactory();
+        if (transportFactory == null) {
+            transport = new ApacheHttpClientTransport(createHttpClient());
+        } else {
+            transport = transportFactory.create(config);
+        }
+        registerConnectionPoolMBean();
+
+        // Page prefetching and time-sliced exports
+        backgroundExecutor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                                                                                                                     .setNameFormat("recurly-background-%d")
+                                                                                                                     .build()));
+
+        if (config.getCatalogCacheTtlMs() > 0) {
+            catalogCache = new CatalogCache(this, config.getCatalogCacheTtlMs(), config.getCatalogRefreshAfterMs());
+            if (config.isCatalogWarmUp()) {
+                // Doesn't hold up open(): entries are loaded on demand in the meantime
+                catalogCache.warmUpInBackground(backgroundExecutor);
+            }
+        }
     }
 
     /**
-     * Close the underlying http client
+     * Close the underlying transport
      */
     public synchronized void close() {
-        if (client != null) {
+        if (catalogCache != null) {
+            catalogCache.close();
+            catalogCache = null;
+        }
+        if (backgroundExecutor != null) {
+            backgroundExecutor.shutdownNow();
+            backgroundExecutor = null;
+        }
+        unregisterConnectionPoolMBean();
+        if (transport != null) {
             try {
-                client.close();
+                transport.close();
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -279,6 +382,594 @@ public class RecurlyClient {
         return rateLimitRemaining;
     }
 
+    /**
+     * @return the limiter pacing the requests of this client, null if disabled (see {@link RecurlyClientConfig#getRateLimiter()})
+     */
+    @Nullable
+    public AdaptiveRateLimiter getRateLimiter() {
+        return config.getRateLimiter();
+    }
+
+    /**
+     * Returns the response size counters: bytes received on the wire versus decoded bytes.
+     * Responses are compressed unless disabled, see {@link RecurlyClientConfig#isCompression()}.
+     *
+     * @return the counters, updated as response bodies are read
+     */
+    public ContentEncodingStats getContentEncodingStats() {
+        return contentEncodingStats;
+    }
+
+    /**
+     * Returns a snapshot of the connection pool usage.
+     *
+     * @return the pool statistics, null if the client isn't open or doesn't use the default transport
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        final PoolingHttpClientConnectionManager connectionManager = this.connectionManager;
+        if (connectionManager == null) {
+            return null;
+        }
+        final PoolStats totalStats = connectionManager.getTotalStats();
+        return new ConnectionPoolStats(totalStats.getLeased(), totalStats.getAvailable(), totalStats.getPending(), totalStats.getMax());
+    }
+
+    /**
+     * Returns the GET coalescing counters, see {@link RecurlyClientConfig#isCoalesceGets()}.
+     *
+     * @return the number of GET requests sent versus the number served by a concurrent identical request
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Iterate over all the objects of a listing, fetching the following pages as needed, e.g.
+     * {@code for (Account account : recurlyClient.iterate(recurlyClient.getAccounts())) { ... }}.
+     * <p>
+     * While a page is being consumed, the next ones are fetched in the background, see
+     * {@link RecurlyClientConfig#getPrefetchPages()}.
+     *
+     * @param firstPage the first page of the listing, as returned by any list method
+     * @return the objects of all the pages, starting with those of {@code firstPage}
+     */
+    public <T extends RecurlyObject> PaginatedIterable<T> iterate(final RecurlyObjects<T> firstPage) {
+        final ListeningExecutorService backgroundExecutor = this.backgroundExecutor;
+        return new PaginatedIterable<T>(this, firstPage, backgroundExecutor, backgroundExecutor == null ? 0 : config.getPrefetchPages());
+    }
+
+    /**
+     * Publish the objects of a listing for reactive pipelines, fetching pages as downstream demand requires, e.g.
+     * {@code recurlyClient.publish(new Supplier<Accounts>() { public Accounts get() { return recurlyClient.getAccounts(); } })}.
+     *
+     * @param firstPage fetches the first page of the listing, with any list method, once the first objects are requested
+     * @return a publisher walking the whole listing for each subscriber, see {@link PaginatedPublisher}
+     */
+    public <T extends RecurlyObject> PaginatedPublisher<T> publish(final Supplier<? extends RecurlyObjects<T>> firstPage) {
+        return new PaginatedPublisher<T>(firstPage, getBackgroundExecutor());
+    }
+
+    /**
+     * Stream a page of accounts: each account is handed out as soon as its element has been read, without
+     * materializing the whole page, see {@link StreamingListReader}.
+     *
+     * @param params  {@link QueryParams}
+     * @param handler called for every account of the page, in order
+     * @return the page size and links, to stream the next page with {@link #streamNextPage}, null on error
+     */
+    @Nullable
+    public StreamedPage<Account> streamAccounts(final QueryParams params, final StreamedPage.Handler<Account> handler) {
+        return streamGETWithFullURL(Account.class, constructUrl(Accounts.ACCOUNTS_RESOURCE, params), handler);
+    }
+
+    /**
+     * Stream a page of invoices, see {@link #streamAccounts}.
+     */
+    @Nullable
+    public StreamedPage<Invoice> streamInvoices(final QueryParams params, final StreamedPage.Handler<Invoice> handler) {
+        return streamGETWithFullURL(Invoice.class, constructUrl(Invoices.INVOICES_RESOURCE, params), handler);
+    }
+
+    /**
+     * Stream a page of transactions, see {@link #streamAccounts}.
+     */
+    @Nullable
+    public StreamedPage<Transaction> streamTransactions(final QueryParams params, final StreamedPage.Handler<Transaction> handler) {
+        return streamGETWithFullURL(Transaction.class, constructUrl(Transactions.TRANSACTIONS_RESOURCE, params), handler);
+    }
+
+    /**
+     * @param page    a streamed page
+     * @param handler called for every object of the next page, in order
+     * @return the next page, null if {@code page} was the last one or on error
+     */
+    @Nullable
+    public <T extends RecurlyObject> StreamedPage<T> streamNextPage(final StreamedPage<T> page, final StreamedPage.Handler<T> handler) {
+        if (!page.hasNext()) {
+            return null;
+        }
+        return streamGETWithFullURL(page.getElementClass(), page.getNextUrl(), handler);
+    }
+
+    @Nullable
+    private <T extends RecurlyObject> StreamedPage<T> streamGETWithFullURL(final Class<T> clazz, final String url, final StreamedPage.Handler<T> handler) {
+        if (debug()) {
+            log.info("Msg to Recurly API [GET] :: URL : {}", url);
+        }
+        final HttpGet builder = new HttpGet(url);
+        prepareXmlRequest(builder);
+
+        EndpointIsolation.Endpoint endpoint = null;
+        HttpResponse response = null;
+        try {
+            endpoint = enterEndpoint(builder);
+            response = execute(builder, endpoint);
+            final HttpEntity entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() >= 300 || entity == null) {
+                // Throws the matching exception
+                handleXmlResponse(builder, response, null);
+                return null;
+            }
+
+            final int size;
+            final InputStream content = entity.getContent();
+            try {
+                size = new StreamingListReader<T>(RecurlyObject.sharedXmlMapper(), clazz).read(content, this, handler);
+            } finally {
+                // The StAX reader leaves the stream open when the read stops early, and the byte counts are recorded on close
+                content.close();
+            }
+            final Header linkHeader = response.getFirstHeader(LINK_HEADER_NAME);
+            final String[] links = linkHeader == null ? new String[2] : PaginationUtils.getLinks(linkHeader.getValue());
+            return new StreamedPage<T>(clazz, size, links[0], links[1]);
+        } catch (IOException e) {
+            if (isConnectionError(e)) {
+                throw new ConnectionErrorException(e);
+            }
+            log.warn("Error while calling Recurly", e);
+            return null;
+        } finally {
+            closeResponse(response);
+            exitEndpoint(endpoint);
+        }
+    }
+
+    /**
+     * Export all the accounts created or updated within a time range, fetching time slices of the range in parallel,
+     * see {@link TimeSlicedExport} and {@link RecurlyClientConfig#getExportConcurrency()}.
+     *
+     * @param begin beginning of the range, inclusive
+     * @param end   end of the range, inclusive
+     * @param sort  {@link QueryParams.Sort#CREATED_AT} or {@link QueryParams.Sort#UPDATED_AT}, which the range applies to
+     * @return the accounts, ordered by {@code sort}
+     */
+    public TimeSlicedExport<Account> exportAccounts(final DateTime begin, final DateTime end, final QueryParams.Sort sort) {
+        return newExport(new TimeSlicedExport.Source<Account>() {
+            @Override
+            public Accounts list(final QueryParams params) {
+                return getAccounts(params);
+            }
+
+            @Override
+            public Integer count(final QueryParams params) {
+                return getAccountsCount(params);
+            }
+        }, sort, new Function<Account, DateTime>() {
+            @Override
+            public DateTime apply(final Account account) {
+                return sort == QueryParams.Sort.UPDATED_AT ? account.getUpdatedAt() : account.getCreatedAt();
+            }
+        }, begin, end);
+    }
+
+    /**
+     * Export all the invoices created or updated within a time range, see {@link #exportAccounts}.
+     */
+    public TimeSlicedExport<Invoice> exportInvoices(final DateTime begin, final DateTime end, final QueryParams.Sort sort) {
+        return newExport(new TimeSlicedExport.Source<Invoice>() {
+            @Override
+            public Invoices list(final QueryParams params) {
+                return getInvoices(params);
+            }
+
+            @Override
+            public Integer count(final QueryParams params) {
+                return getInvoicesCount(params);
+            }
+        }, sort, new Function<Invoice, DateTime>() {
+            @Override
+            public DateTime apply(final Invoice invoice) {
+                return sort == QueryParams.Sort.UPDATED_AT ? invoice.getUpdatedAt() : invoice.getCreatedAt();
+            }
+        }, begin, end);
+    }
+
+    /**
+     * Export all the transactions created or updated within a time range, see {@link #exportAccounts}.
+     */
+    public TimeSlicedExport<Transaction> exportTransactions(final DateTime begin, final DateTime end, final QueryParams.Sort sort) {
+        return newExport(new TimeSlicedExport.Source<Transaction>() {
+            @Override
+            public Transactions list(final QueryParams params) {
+                return getTransactions(null, null, params);
+            }
+
+            @Override
+            public Integer count(final QueryParams params) {
+                return getTransactionsCount(params);
+            }
+        }, sort, new Function<Transaction, DateTime>() {
+            @Override
+            public DateTime apply(final Transaction transaction) {
+                return sort == QueryParams.Sort.UPDATED_AT ? transaction.getUpdatedAt() : transaction.getCreatedAt();
+            }
+        }, begin, end);
+    }
+
+    /**
+     * Export all the subscriptions updated within a time range, see {@link #exportAccounts}.
+     * Subscriptions don't expose their creation date, hence are always exported by {@code updated_at}.
+     */
+    public TimeSlicedExport<Subscription> exportSubscriptions(final DateTime begin, final DateTime end) {
+        return newExport(new TimeSlicedExport.Source<Subscription>() {
+            @Override
+            public Subscriptions list(final QueryParams params) {
+                return getSubscriptions(null, params);
+            }
+
+            @Override
+            public Integer count(final QueryParams params) {
+                return getSubscriptionsCount(params);
+            }
+        }, QueryParams.Sort.UPDATED_AT, new Function<Subscription, DateTime>() {
+            @Override
+            public DateTime apply(final Subscription subscription) {
+                return subscription.getUpdatedAt();
+            }
+        }, begin, end);
+    }
+
+    /**
+     * Create an incremental synchronization of the accounts, see {@link DeltaSync}.
+     *
+     * @param stateFile        where the watermark is persisted between syncs and restarts
+     * @param initialWatermark where the first sync starts when {@code stateFile} doesn't exist yet, null for the beginning
+     * @return the sync, whose {@link DeltaSync#sync} hands out the accounts updated since the previous call
+     * @throws IOException if {@code stateFile} can't be read
+     */
+    public DeltaSync<Account> newAccountsSync(final File stateFile, @Nullable final DateTime initialWatermark) throws IOException {
+        return new DeltaSync<Account>(new Function<QueryParams, RecurlyObjects<Account>>() {
+            @Override
+            public Accounts apply(final QueryParams params) {
+                return getAccounts(params);
+            }
+        }, new Function<Account, DateTime>() {
+            @Override
+            public DateTime apply(final Account account) {
+                return account.getUpdatedAt();
+            }
+        }, new Function<Account, String>() {
+            @Override
+            public String apply(final Account account) {
+                return account.getAccountCode();
+            }
+        }, stateFile, initialWatermark);
+    }
+
+    /**
+     * Create an incremental synchronization of the subscriptions, see {@link #newAccountsSync}.
+     */
+    public DeltaSync<Subscription> newSubscriptionsSync(final File stateFile, @Nullable final DateTime initialWatermark) throws IOException {
+        return new DeltaSync<Subscription>(new Function<QueryParams, RecurlyObjects<Subscription>>() {
+            @Override
+            public Subscriptions apply(final QueryParams params) {
+                return getSubscriptions(null, params);
+            }
+        }, new Function<Subscription, DateTime>() {
+            @Override
+            public DateTime apply(final Subscription subscription) {
+                return subscription.getUpdatedAt();
+            }
+        }, new Function<Subscription, String>() {
+            @Override
+            public String apply(final Subscription subscription) {
+                return subscription.getUuid();
+            }
+        }, stateFile, initialWatermark);
+    }
+
+    private <T extends RecurlyObject> TimeSlicedExport<T> newExport(final TimeSlicedExport.Source<T> source, final QueryParams.Sort sort,
+                                                                    final Function<T, DateTime> timestamp, final DateTime begin, final DateTime end) {
+        return new TimeSlicedExport<T>(source, sort, timestamp, begin, end, getBackgroundExecutor(),
+                                       config.getExportConcurrency(), config.getExportRecordsPerSlice());
+    }
+
+    /**
+     * Open an identity map for the current thread: until it is closed, the objects this thread fetches by code or href
+     * are fetched and deserialized at most once, see {@link RecurlySession}. Typically:
+     * {@code RecurlySession session = recurlyClient.openSession(); try { ... } finally { session.close(); }}
+     *
+     * @return the session, bound to the current thread in place of the current one, if any
+     */
+    public RecurlySession openSession() {
+        return new RecurlySession(session);
+    }
+
+    /**
+     * @return the session bound to the current thread, null if none
+     */
+    @Nullable
+    public RecurlySession getSession() {
+        return session.get();
+    }
+
+    /**
+     * Fetch an account and all its related objects concurrently, see {@link #getAccountView(String, Set, long, TimeUnit)}.
+     */
+    public AccountView getAccountView(final String accountCode, final long timeout, final TimeUnit unit) {
+        return getAccountView(accountCode, EnumSet.allOf(AccountView.Part.class), timeout, unit);
+    }
+
+    /**
+     * Fetch the given parts of an account view concurrently, each with the same method as when called on its own
+     * (e.g. {@link #getAccountSubscriptions(String)}), so that the whole takes about as long as the slowest part.
+     * <p>
+     * Parts still running at the deadline are cancelled and reported as a {@link TimeoutException}, parts which failed
+     * are reported with their exception: the other parts are returned regardless. The parts run in the background only
+     * when the client is open, one after the other otherwise. They see the session of the calling thread, if any.
+     *
+     * @param accountCode recurly account id
+     * @param parts       the parts to fetch
+     * @param timeout     how long to wait for all the parts
+     * @param unit        the unit of {@code timeout}
+     * @return the parts completed before the deadline, and the errors of the others
+     */
+    public AccountView getAccountView(final String accountCode, final Set<AccountView.Part> parts, final long timeout, final TimeUnit unit) {
+        final long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        final ListeningExecutorService executor = getBackgroundExecutor();
+        final RecurlySession callerSession = session.get();
+
+        final Map<AccountView.Part, ListenableFuture<Object>> futures = new EnumMap<AccountView.Part, ListenableFuture<Object>>(AccountView.Part.class);
+        for (final AccountView.Part part : parts) {
+            futures.put(part, executor.submit(inSession(callerSession, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return getAccountViewPart(accountCode, part);
+                }
+            })));
+        }
+
+        final Map<AccountView.Part, Object> values = new EnumMap<AccountView.Part, Object>(AccountView.Part.class);
+        final Map<AccountView.Part, Throwable> errors = new EnumMap<AccountView.Part, Throwable>(AccountView.Part.class);
+        for (final Map.Entry<AccountView.Part, ListenableFuture<Object>> entry : futures.entrySet()) {
+            try {
+                values.put(entry.getKey(), Uninterruptibles.getUninterruptibly(entry.getValue(), Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (final ExecutionException e) {
+                errors.put(entry.getKey(), e.getCause());
+            } catch (final TimeoutException e) {
+                entry.getValue().cancel(true);
+                errors.put(entry.getKey(), new TimeoutException(entry.getKey() + " not fetched within " + timeout + " " + unit));
+            }
+        }
+        return new AccountView(accountCode, values, errors);
+    }
+
+    private Object getAccountViewPart(final String accountCode, final AccountView.Part part) {
+        switch (part) {
+            case ACCOUNT:
+                return getAccount(accountCode);
+            case BILLING_INFOS:
+                return getBillingInfos(accountCode);
+            case SUBSCRIPTIONS:
+                return getAccountSubscriptions(accountCode);
+            case INVOICES:
+                return getAccountInvoices(accountCode);
+            case BALANCE:
+                return getAccountBalance(accountCode);
+            case SHIPPING_ADDRESSES:
+                return getAccountShippingAddresses(accountCode);
+            case ENTITLEMENTS:
+                return getEntitlements(accountCode);
+            default:
+                throw new IllegalArgumentException("Unknown account view part " + part);
+        }
+    }
+
+    /**
+     * Fetch accounts by code concurrently, see {@link #multiGet(Collection, Function)}.
+     */
+    public MultiGetResult<Account> getAccountsByCode(final Collection<String> accountCodes) {
+        return multiGet(accountCodes, new Function<String, Account>() {
+            @Override
+            public Account apply(final String accountCode) {
+                return getAccount(accountCode);
+            }
+        });
+    }
+
+    /**
+     * Fetch subscriptions by UUID concurrently, see {@link #multiGet(Collection, Function)}.
+     */
+    public MultiGetResult<Subscription> getSubscriptionsByUuid(final Collection<String> uuids) {
+        return multiGet(uuids, new Function<String, Subscription>() {
+            @Override
+            public Subscription apply(final String uuid) {
+                return getSubscription(uuid);
+            }
+        });
+    }
+
+    /**
+     * Fetch invoices by id or number concurrently, see {@link #multiGet(Collection, Function)}.
+     */
+    public MultiGetResult<Invoice> getInvoicesById(final Collection<String> invoiceIds) {
+        return multiGet(invoiceIds, new Function<String, Invoice>() {
+            @Override
+            public Invoice apply(final String invoiceId) {
+                return getInvoice(invoiceId);
+            }
+        });
+    }
+
+    /**
+     * Call a single get for each distinct identifier, up to {@link RecurlyClientConfig#getMultiGetConcurrency()} at a time
+     * in the background (one after the other when the client isn't open), each request going through the rate limiter as usual.
+     * Errors don't stop the other identifiers: 404s and other failures are reported in the result.
+     *
+     * @param ids    the identifiers, duplicates are fetched once
+     * @param getter the single get, e.g. {@link #getAccount(String)}
+     * @return the objects found, in the order of their identifiers, and the identifiers not found or failed
+     */
+    public <T> MultiGetResult<T> multiGet(final Collection<String> ids, final Function<String, T> getter) {
+        final List<String> distinctIds = new ArrayList<String>(new LinkedHashSet<String>(ids));
+        final Object[] values = new Object[distinctIds.size()];
+        final Throwable[] errors = new Throwable[distinctIds.size()];
+
+        final AtomicInteger next = new AtomicInteger();
+        final Callable<Void> worker = inSession(session.get(), new Callable<Void>() {
+            @Override
+            public Void call() {
+                int i;
+                while ((i = next.getAndIncrement()) < values.length) {
+                    final String id = distinctIds.get(i);
+                    try {
+                        values[i] = getter.apply(id);
+                        if (values[i] == null) {
+                            errors[i] = new IOException("No response for " + id);
+                        }
+                    } catch (final RuntimeException e) {
+                        errors[i] = e;
+                    }
+                }
+                return null;
+            }
+        });
+        final ListeningExecutorService executor = getBackgroundExecutor();
+        final List<ListenableFuture<Void>> workers = new ArrayList<ListenableFuture<Void>>();
+        for (int i = 0; i < Math.min(Math.max(1, config.getMultiGetConcurrency()), values.length); i++) {
+            workers.add(executor.submit(worker));
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(Futures.allAsList(workers));
+        } catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+
+        final Map<String, T> found = new LinkedHashMap<String, T>();
+        final List<String> notFound = new ArrayList<String>();
+        final Map<String, Throwable> failed = new LinkedHashMap<String, Throwable>();
+        for (int i = 0; i < values.length; i++) {
+            final String id = distinctIds.get(i);
+            if (errors[i] == null) {
+                @SuppressWarnings("unchecked")
+                final T value = (T) values[i];
+                found.put(id, value);
+            } else if (errors[i] instanceof RecurlyAPIException && ((RecurlyAPIException) errors[i]).getRecurlyError() != null &&
+                       ((RecurlyAPIException) errors[i]).getRecurlyError().getHttpStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                notFound.add(id);
+            } else {
+                failed.put(id, errors[i]);
+            }
+        }
+        return new MultiGetResult<T>(distinctIds, found, notFound, failed);
+    }
+
+    // Calls made on other threads on behalf of the caller see its session
+    private <T> Callable<T> inSession(@Nullable final RecurlySession callerSession, final Callable<T> callable) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final RecurlySession previous = session.get();
+                session.set(callerSession);
+                try {
+                    return callable.call();
+                } finally {
+                    session.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Resolve in bulk the references of a page of objects, e.g. the accounts of subscriptions:
+     * {@code recurlyClient.loadReferences(subscriptions, new Function<Subscription, Object>() { public Object apply(Subscription s) { return s.getAccount(); } })}.
+     * Each distinct account is fetched once, concurrently with the others, and the getters then return the shared objects.
+     *
+     * @param objects objects whose references to load
+     * @param getters calls the getters whose references should be loaded
+     * @return the loader the objects are attached to, see {@link ReferenceLoader}
+     */
+    public <T extends RecurlyObject> ReferenceLoader loadReferences(final Iterable<T> objects, final Function<? super T, ?> getters) {
+        return newReferenceLoader().load(objects, getters);
+    }
+
+    /**
+     * @return an empty loader, to share references between several pages, see {@link #loadReferences}
+     */
+    public ReferenceLoader newReferenceLoader() {
+        return new ReferenceLoader(this, getBackgroundExecutor(), config.getReferenceConcurrency());
+    }
+
+    /**
+     * Create a pipeline which batches the usage posted to subscription add-ons: usages recorded in the same window, for the
+     * same subscription, add-on and merchant tag, are summed and posted once, see {@link UsagePipeline}.
+     *
+     * @param windowMs         length of the windows the usage timestamps are bucketed into
+     * @param maxPendingUsages number of pending sums which triggers a flush of all of them; recording blocks once twice as many are pending
+     * @param flushIntervalMs  how often the windows over are posted in the background, 0 to only flush explicitly
+     * @param listener         notified of the outcome and latency of each flush, if not null
+     * @return the pipeline, to close once done recording
+     */
+    public UsagePipeline newUsagePipeline(final long windowMs, final int maxPendingUsages, final long flushIntervalMs,
+                                          @Nullable final UsagePipeline.Listener listener) {
+        return new UsagePipeline(this, config.getUsageConcurrency(), windowMs, maxPendingUsages, flushIntervalMs, listener);
+    }
+
+    /**
+     * Returns the catalog cache, e.g. to evict entries from push notifications via {@link CatalogCache#onNotification}.
+     *
+     * @return the cache, null if disabled (see {@link RecurlyClientConfig#getCatalogCacheTtlMs()}) or if the client isn't open
+     */
+    @Nullable
+    public CatalogCache getCatalogCache() {
+        return catalogCache;
+    }
+
+    // Writes through this client are visible to its next reads, whatever the TTL of the catalog cache
+    private void invalidateCatalogPlan(final String planCode) {
+        final CatalogCache catalogCache = this.catalogCache;
+        if (catalogCache != null) {
+            catalogCache.invalidatePlan(planCode);
+        }
+    }
+
+    private void invalidateCatalogItem(final String itemCode) {
+        final CatalogCache catalogCache = this.catalogCache;
+        if (catalogCache != null) {
+            catalogCache.invalidateItem(itemCode);
+        }
+    }
+
+    /**
+     * @return the GET response cache, null if disabled (see {@link RecurlyClientConfig#getResponseCacheSize()})
+     */
+    @Nullable
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public RecurlyClientConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the codec reading responses and writing requests, null unless enabled by {@link RecurlyClientConfig#isStaxCodec()}
+     */
+    @Nullable
+    StaxCodec getStaxCodec() {
+        return staxCodec;
+    }
+
     /**
      * Create Account
      * <p>
@@ -2001,7 +2692,9 @@ public class RecurlyClient {
      * @return the updated item object
      */
     public Item updateItem(final String itemCode, final Item item) {
-        return doPUT(Item.ITEMS_RESOURCE + "/" + urlEncode(itemCode), item, Item.class);
+        final Item updated = doPUT(Item.ITEMS_RESOURCE + "/" + urlEncode(itemCode), item, Item.class);
+        invalidateCatalogItem(itemCode);
+        return updated;
     }
 
     /**
@@ -2015,6 +2708,11 @@ public class RecurlyClient {
         if (itemCode == null || itemCode.isEmpty())
             throw new RuntimeException("itemCode cannot be empty!");
 
+        final CatalogCache catalogCache = this.catalogCache;
+        return catalogCache == null ? fetchItem(itemCode) : catalogCache.getItem(itemCode);
+    }
+
+    Item fetchItem(final String itemCode) {
         return doGET(Item.ITEMS_RESOURCE + "/" + urlEncode(itemCode), Item.class);
     }
 
@@ -2025,7 +2723,11 @@ public class RecurlyClient {
      * @return the item object as identified by the passed in ID
      */
     public Items getItems() {
-        return doGET(Items.ITEMS_RESOURCE, Items.class, new QueryParams());
+        return fetchItems(new QueryParams());
+    }
+
+    Items fetchItems(final QueryParams params) {
+        return doGET(Items.ITEMS_RESOURCE, Items.class, params);
     }
 
     /**
@@ -2038,6 +2740,7 @@ public class RecurlyClient {
         doDELETE(Item.ITEMS_RESOURCE +
                 "/" +
                 urlEncode(itemCode));
+        invalidateCatalogItem(itemCode);
     }
 
     /**
@@ -2049,8 +2752,10 @@ public class RecurlyClient {
      * @return Item
      */
     public Item reactivateItem(final String itemCode) {
-        return doPUT(Item.ITEMS_RESOURCE + "/" + urlEncode(itemCode) + "/reactivate",
+        final Item reactivated = doPUT(Item.ITEMS_RESOURCE + "/" + urlEncode(itemCode) + "/reactivate",
                 null, Item.class);
+        invalidateCatalogItem(itemCode);
+        return reactivated;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -2074,7 +2779,9 @@ public class RecurlyClient {
      * @return the updated plan object
      */
     public Plan updatePlan(final Plan plan) {
-        return doPUT(Plan.PLANS_RESOURCE + "/" + urlEncode(plan.getPlanCode()), plan, Plan.class);
+        final Plan updated = doPUT(Plan.PLANS_RESOURCE + "/" + urlEncode(plan.getPlanCode()), plan, Plan.class);
+        invalidateCatalogPlan(plan.getPlanCode());
+        return updated;
     }
 
     /**
@@ -2088,6 +2795,11 @@ public class RecurlyClient {
         if (planCode == null || planCode.isEmpty())
             throw new RuntimeException("planCode cannot be empty!");
 
+        final CatalogCache catalogCache = this.catalogCache;
+        return catalogCache == null ? fetchPlan(planCode) : catalogCache.getPlan(planCode);
+    }
+
+    Plan fetchPlan(final String planCode) {
         return doGET(Plan.PLANS_RESOURCE + "/" + urlEncode(planCode), Plan.class);
     }
 
@@ -2133,6 +2845,7 @@ public class RecurlyClient {
         doDELETE(Plan.PLANS_RESOURCE +
                  "/" +
                  urlEncode(planCode));
+        invalidateCatalogPlan(planCode);
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -2146,11 +2859,13 @@ public class RecurlyClient {
      * @return the {@link AddOn} object as identified by the passed in object
      */
     public AddOn createPlanAddOn(final String planCode, final AddOn addOn) {
-        return doPOST(Plan.PLANS_RESOURCE +
-                      "/" +
-                      urlEncode(planCode) +
-                      AddOn.ADDONS_RESOURCE,
-                      addOn, AddOn.class);
+        final AddOn created = doPOST(Plan.PLANS_RESOURCE +
+                                     "/" +
+                                     urlEncode(planCode) +
+                                     AddOn.ADDONS_RESOURCE,
+                                     addOn, AddOn.class);
+        invalidateCatalogPlan(planCode);
+        return created;
     }
 
     /**
@@ -2181,12 +2896,12 @@ public class RecurlyClient {
      * @return the {@link AddOn} objects as identified by the passed plan ID
      */
     public AddOns getAddOns(final String planCode) {
-        return doGET(Plan.PLANS_RESOURCE +
-                "/" +
-                urlEncode(planCode) +
-                AddOn.ADDONS_RESOURCE,
-                AddOns.class,
-                new QueryParams());
+        final CatalogCache catalogCache = this.catalogCache;
+        return catalogCache == null ? fetchAddOns(planCode) : catalogCache.getAddOns(planCode);
+    }
+
+    AddOns fetchAddOns(final String planCode) {
+        return getAddOns(planCode, new QueryParams());
     }
 
     /**
@@ -2220,6 +2935,7 @@ public class RecurlyClient {
                  AddOn.ADDONS_RESOURCE +
                  "/" +
                  urlEncode(addOnCode));
+        invalidateCatalogPlan(planCode);
     }
 
     /**
@@ -2233,7 +2949,7 @@ public class RecurlyClient {
      * @return the updated {@link AddOn} object.
      */
     public AddOn updateAddOn(final String planCode, final String addOnCode, final AddOn addOn) {
-        return doPUT(Plan.PLANS_RESOURCE +
+        final AddOn updated = doPUT(Plan.PLANS_RESOURCE +
                 "/" +
                 urlEncode(planCode) +
                 AddOn.ADDONS_RESOURCE +
@@ -2241,6 +2957,8 @@ public class RecurlyClient {
                 urlEncode(addOnCode),
                 addOn,
                 AddOn.class);
+        invalidateCatalogPlan(planCode);
+        return updated;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -2798,6 +3516,11 @@ public class RecurlyClient {
      * @return ShippingMethods on success, null otherwise
      */
     public ShippingMethods getShippingMethods() {
+        final CatalogCache catalogCache = this.catalogCache;
+        return catalogCache == null ? fetchShippingMethods() : catalogCache.getShippingMethods();
+    }
+
+    ShippingMethods fetchShippingMethods() {
         return doGET(ShippingMethods.SHIPPING_METHODS_RESOURCE, ShippingMethods.class, new QueryParams());
     }
 
@@ -2843,6 +3566,11 @@ public class RecurlyClient {
      * @return CustomFieldDefinitions on success, null otherwise
      */
     public CustomFieldDefinitions getCustomFieldDefinitions() {
+        final CatalogCache catalogCache = this.catalogCache;
+        return catalogCache == null ? fetchCustomFieldDefinitions() : catalogCache.getCustomFieldDefinitions();
+    }
+
+    CustomFieldDefinitions fetchCustomFieldDefinitions() {
         return getCustomFieldDefinitions(null);
     }
 
@@ -2890,6 +3618,11 @@ public class RecurlyClient {
      * @return List of business entities on the site
      */
     public BusinessEntities getBusinessEntities() {
+        final CatalogCache catalogCache = this.catalogCache;
+        return catalogCache == null ? fetchBusinessEntities() : catalogCache.getBusinessEntities();
+    }
+
+    BusinessEntities fetchBusinessEntities() {
         return doGET(BusinessEntities.BUSINESS_ENTITIES_RESOURCE, BusinessEntities.class);
     }
 
@@ -2940,10 +3673,42 @@ public class RecurlyClient {
     }
 
     public <T> T doGETWithFullURL(final Class<T> clazz, final String url) {
+        return doGETWithFullURL(clazz, url, session.get());
+    }
+
+    /**
+     * @param session the session to look the object up in, if any, see {@link #openSession()}
+     */
+    <T> T doGETWithFullURL(final Class<T> clazz, final String url, @Nullable final RecurlySession session) {
+        // Only single objects are kept, not listings
+        if (session == null || !RecurlyObject.class.isAssignableFrom(clazz)) {
+            return doGETWithFullURLNoSession(clazz, url);
+        }
+        final T cached = session.get(clazz, url);
+        if (cached != null) {
+            return cached;
+        }
+        final T obj = doGETWithFullURLNoSession(clazz, url);
+        return obj == null ? null : session.put(clazz, url, obj);
+    }
+
+    private <T> T doGETWithFullURLNoSession(final Class<T> clazz, final String url) {
         if (debug()) {
             log.info("Msg to Recurly API [GET] :: URL : {}", url);
         }
-        return callRecurlySafeXmlContent(new HttpGet(url), clazz);
+        // The Accept-Language header changes the error messages, hence the response
+        final String key = clazz.getName() + ' ' + acceptLanguage + ' ' + url;
+        final String cacheKey = responseCache == null ? null : key;
+        if (!config.isCoalesceGets()) {
+            return callRecurlySafeXmlContent(new HttpGet(url), clazz, cacheKey);
+        }
+
+        return singleFlight.execute(key, new Callable<T>() {
+            @Override
+            public T call() {
+                return callRecurlySafeXmlContent(new HttpGet(url), clazz, cacheKey);
+            }
+        });
     }
 
     private InputStream doGETPdfWithFullURL(final String url) {
@@ -2955,14 +3720,16 @@ public class RecurlyClient {
     }
 
     private InputStream callRecurlySafeGetPdf(String url) {
-        CloseableHttpResponse response = null;
+        EndpointIsolation.Endpoint endpoint = null;
+        HttpResponse response = null;
         InputStream pdfInputStream = null;
         try {
             final HttpGet builder = new HttpGet(url);
             clientRequestBuilderCommon(builder);
             builder.setHeader(HttpHeaders.ACCEPT, "application/pdf");
             builder.setHeader(HttpHeaders.CONTENT_TYPE, "application/pdf");
-            response = client.execute(builder);
+            endpoint = enterEndpoint(builder);
+            response = execute(builder, endpoint);
             if (response.getStatusLine().getStatusCode() != 200) {
                 final RecurlyAPIError recurlyAPIError = RecurlyAPIError.buildFromResponse(response);
                 throw new RecurlyAPIException(recurlyAPIError);
@@ -2979,33 +3746,15 @@ public class RecurlyClient {
             return null;
         } finally {
             closeResponse(response);
+            exitEndpoint(endpoint);
         }
 
         return pdfInputStream;
     }
 
     private <T> T doPOST(final String resource, final RecurlyObject payload, final Class<T> clazz) {
-        final String xmlPayload;
-        try {
-            if (payload != null) {
-                xmlPayload = RecurlyObject.sharedXmlMapper().writeValueAsString(payload);
-            } else {
-                xmlPayload = null;
-            }
-            if (debug()) {
-                log.info("Msg to Recurly API [POST]:: URL : {}", baseUrl + resource);
-                log.info("Payload for [POST]:: {}", xmlPayload);
-            }
-        } catch (IOException e) {
-            log.warn("Unable to serialize {} object as XML: {}", clazz.getName(), payload.toString());
-            return null;
-        }
-
         final HttpPost builder = new HttpPost(baseUrl + resource);
-        if (xmlPayload != null) {
-            builder.setEntity(new StringEntity(xmlPayload,
-                    ContentType.APPLICATION_XML.withCharset(Charsets.UTF_8)));
-        }
+        setXmlPayload(builder, payload, staxCodec);
         return callRecurlySafeXmlContent(builder, clazz);
     }
 
@@ -3014,29 +3763,28 @@ public class RecurlyClient {
     }
 
     private <T> T doPUT(final String resource, final RecurlyObject payload, final Class<T> clazz, final QueryParams params) {
-        final String xmlPayload;
-        try {
-            if (payload != null) {
-                xmlPayload = RecurlyObject.sharedXmlMapper().writeValueAsString(payload);
-            } else {
-                xmlPayload = null;
-            }
+        final HttpPut builder = new HttpPut(constructUrl(resource, params));
+        setXmlPayload(builder, payload, staxCodec);
+        return callRecurlySafeXmlContent(builder, clazz);
+    }
 
-            if (debug()) {
-                log.info("Msg to Recurly API [PUT]:: URL : {}", baseUrl + resource);
-                log.info("Payload for [PUT]:: {}", xmlPayload);
+    /**
+     * Attach the payload as a streaming entity: it is serialized straight onto the connection
+     * instead of being rendered to a String first.
+     */
+    static void setXmlPayload(final HttpEntityEnclosingRequestBase builder, @Nullable final RecurlyObject payload, @Nullable final StaxCodec staxCodec) {
+        if (debug()) {
+            log.info("Msg to Recurly API [{}]:: URL : {}", builder.getMethod(), builder.getURI());
+            try {
+                log.info("Payload for [{}]:: {}", builder.getMethod(), payload == null ? null : RecurlyObject.sharedXmlMapper().writeValueAsString(payload));
+            } catch (IOException e) {
+                log.warn("Unable to serialize {} object as XML: {}", payload.getClass().getName(), payload.toString());
             }
-        } catch (IOException e) {
-            log.warn("Unable to serialize {} object as XML: {}", clazz.getName(), payload.toString());
-            return null;
         }
 
-        final HttpPut builder = new HttpPut(constructUrl(resource, params));
-        if (xmlPayload != null) {
-            builder.setEntity(new StringEntity(xmlPayload,
-                    ContentType.APPLICATION_XML.withCharset(Charsets.UTF_8)));
+        if (payload != null) {
+            builder.setEntity(staxCodec == null ? new RecurlyObjectEntity(payload) : new RecurlyObjectEntity(payload, staxCodec));
         }
-        return callRecurlySafeXmlContent(builder, clazz);
     }
 
     private HeaderGroup doHEAD(final String resource, QueryParams params) {
@@ -3060,9 +3808,11 @@ public class RecurlyClient {
         clientRequestBuilderCommon(builder);
         builder.setHeader(HttpHeaders.ACCEPT, "application/xml");
         builder.setHeader(HttpHeaders.CONTENT_TYPE, "application/xml; charset=utf-8");
-        CloseableHttpResponse response = null;
+        EndpointIsolation.Endpoint endpoint = null;
+        HttpResponse response = null;
         try {
-            response = client.execute(builder);
+            endpoint = enterEndpoint(builder);
+            response = execute(builder, endpoint);
             // Copy all the headers into a HeaderGroup, which will handle case insensitive headers for us
             final HeaderGroup headerGroup = new HeaderGroup();
             for (Header header : response.getAllHeaders()) {
@@ -3074,16 +3824,19 @@ public class RecurlyClient {
             return null;
         } finally {
             closeResponse(response);
+            exitEndpoint(endpoint);
         }
     }
 
     private <T> T callRecurlySafeXmlContent(final HttpRequestBase builder, @Nullable final Class<T> clazz) {
+        return callRecurlySafeXmlContent(builder, clazz, null);
+    }
+
+    private <T> T callRecurlySafeXmlContent(final HttpRequestBase builder, @Nullable final Class<T> clazz, @Nullable final String cacheKey) {
         try {
-            return callRecurlyXmlContent(builder, clazz);
+            return callRecurlyXmlContent(builder, clazz, cacheKey);
         } catch (IOException e) {
-            if (e instanceof ConnectException || e instanceof NoHttpResponseException
-                    || e instanceof ConnectTimeoutException || e instanceof SSLException
-                    || e instanceof SocketTimeoutException) {
+            if (isConnectionError(e)) {
                 // See https://github.com/killbilling/recurly-java-library/issues/185
                 throw new ConnectionErrorException(e);
             }
@@ -3093,106 +3846,326 @@ public class RecurlyClient {
         // No need to extract TransactionErrorException since it's already a RuntimeException
     }
 
-    private <T> T callRecurlyXmlContent(final HttpRequestBase builder, @Nullable final Class<T> clazz)
+    /**
+     * @param cacheKey when set, revalidate the cached response under that key, if any, and cache the new one
+     */
+    private <T> T callRecurlyXmlContent(final HttpRequestBase builder, @Nullable final Class<T> clazz, @Nullable final String cacheKey)
             throws IOException {
-        clientRequestBuilderCommon(builder);
-        builder.setHeader(HttpHeaders.ACCEPT, "application/xml");
-        builder.setHeader(HttpHeaders.CONTENT_TYPE, "application/xml; charset=utf-8");
-        CloseableHttpResponse response = null;
+        prepareXmlRequest(builder);
+        final RecurlySession session = this.session.get();
+        if (session != null && !HttpGet.METHOD_NAME.equals(builder.getMethod()) && !HttpHead.METHOD_NAME.equals(builder.getMethod())) {
+            // Writes may change other resources than their own, see RecurlySession
+            session.evictAll();
+        }
+        final ResponseCache.Entry cached = cacheKey == null ? null : responseCache.get(cacheKey);
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                builder.setHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                builder.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+            }
+        }
+
+        EndpointIsolation.Endpoint endpoint = null;
+        HttpResponse response = null;
         try {
-            response = client.execute(builder);
-            final String payload = convertEntityToString(response.getEntity());
-            if (debug()) {
-                log.info("Msg from Recurly API :: {}", payload);
+            endpoint = enterEndpoint(builder);
+            response = execute(builder, endpoint);
+            if (cached != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                return clazz.cast(responseCache.onNotModified(cached));
             }
 
-            // Handle errors payload
-            if (response.getStatusLine().getStatusCode() >= 300) {
-                log.warn("Recurly error whilst calling: {}\n{}", builder.getURI(), payload);
-                log.warn("Error status code: {}\n", response.getStatusLine().getStatusCode());
-                RecurlyAPIError recurlyError = RecurlyAPIError.buildFromResponse(response);
+            final T obj = handleXmlResponse(builder, response, clazz);
+            if (cacheKey != null) {
+                final Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+                final Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+                responseCache.put(cacheKey, etag == null ? null : etag.getValue(), lastModified == null ? null : lastModified.getValue(), obj);
+            }
+            return obj;
+        } finally {
+            closeResponse(response);
+            exitEndpoint(endpoint);
+        }
+    }
 
-                if (response.getStatusLine().getStatusCode() == 422) {
-                    // 422 is returned for transaction errors (see https://developers.recurly.com/pages/api-v2/transaction-errors.html)
-                    // as well as bad input payloads
-                    final Errors errors;
-                    try {
-                        errors = RecurlyObject.sharedXmlMapper().readValue(payload, Errors.class);
-                    } catch (Exception e) {
-                        log.warn("Unable to extract error", e);
-                        return null;
-                    }
+    /**
+     * Enter the bulkhead of the resource family of the request, if endpoint isolation is enabled
+     *
+     * @return the family to exit once the response has been consumed, null if isolation is disabled
+     * @throws EndpointUnavailableException if the bulkhead is full
+     */
+    @Nullable
+    private EndpointIsolation.Endpoint enterEndpoint(final HttpRequestBase builder) {
+        final EndpointIsolation endpointIsolation = config.getEndpointIsolation();
+        if (endpointIsolation == null) {
+            return null;
+        }
+        final EndpointIsolation.Endpoint endpoint = endpointIsolation.getEndpoint(getResourceFamily(builder.getURI()));
+        endpoint.enter();
+        return endpoint;
+    }
 
-                    // Sometimes a single `Error` response is returned rather than `Errors`.
-                    // In this case, all fields will be null.
-                    if (errors == null || (
-                        errors.getRecurlyErrors() == null &&
-                        errors.getTransaction() == null &&
-                        errors.getTransactionError() == null
-                    )) {
-                        recurlyError = RecurlyAPIError.buildFromXml(RecurlyObject.sharedXmlMapper(), payload, response);
-                        throw new RecurlyAPIException(recurlyError);
-                    }
-                    throw new TransactionErrorException(errors);
-                } else if (response.getStatusLine().getStatusCode() == 401) {
-                    recurlyError.setSymbol("unauthorized");
-                    recurlyError.setDescription("We could not authenticate your request. Either your subdomain and private key are not set or incorrect");
+    private static void exitEndpoint(@Nullable final EndpointIsolation.Endpoint endpoint) {
+        if (endpoint != null) {
+            endpoint.exit();
+        }
+    }
 
-                    throw new RecurlyAPIException(recurlyError);
-                } else {
-                    try {
-                        recurlyError = RecurlyAPIError.buildFromXml(RecurlyObject.sharedXmlMapper(), payload, response);
-                    } catch (Exception e) {
-                        log.debug("Unable to extract error", e);
-                    }
+    /**
+     * @return the top-level resource of a Recurly URL, e.g. {@code /accounts} for {@code https://api.recurly.com/v2/accounts/abc/invoices}
+     */
+    static String getResourceFamily(final URI uri) {
+        final String path = Strings.nullToEmpty(uri.getPath());
+        // Skip the API version
+        final int start = path.indexOf('/', 1);
+        if (start < 0) {
+            return "/";
+        }
+        final int end = path.indexOf('/', start + 1);
+        return end < 0 ? path.substring(start) : path.substring(start, end);
+    }
 
-                    throw new RecurlyAPIException(recurlyError);
+    private HttpResponse execute(final HttpRequestBase builder, @Nullable final EndpointIsolation.Endpoint endpoint) throws IOException {
+        final RetryPolicy retryPolicy = config.getRetryPolicy();
+        if (retryPolicy == null) {
+            return executeOnce(builder, endpoint);
+        }
+
+        final String method = builder.getMethod();
+        if (retryPolicy.needsIdempotencyKey(method) && !builder.containsHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER_NAME)) {
+            // Same key for all the attempts, so that Recurly applies the request at most once
+            builder.setHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER_NAME, UUID.randomUUID().toString());
+        }
+        retryPolicy.onRequest();
+
+        for (int attempt = 1; ; attempt++) {
+            final HttpResponse response;
+            try {
+                response = executeOnce(builder, endpoint);
+            } catch (IOException e) {
+                if (!isConnectionError(e) || !retryPolicy.shouldRetry(method, attempt)) {
+                    throw e;
                 }
+                backOff(builder, attempt, retryPolicy.getDelayMs(attempt, null), e.toString());
+                continue;
             }
 
-            if (clazz == null) {
-                return null;
+            final int status = response.getStatusLine().getStatusCode();
+            final Integer retryAfterSec = getRetryAfterSeconds(response);
+            if (!retryPolicy.shouldRetry(method, status, attempt, retryAfterSec)) {
+                return response;
             }
+            final long delayMs = retryPolicy.getDelayMs(attempt, retryAfterSec);
+            closeResponse(response);
+            backOff(builder, attempt, delayMs, "HTTP " + status);
+        }
+    }
 
-            final Header locationHeader = response.getFirstHeader(HttpHeaders.LOCATION);
-            final String location = locationHeader == null ? null : locationHeader.getValue();
-            if (clazz == Coupons.class && location != null && !location.isEmpty()) {
-                final RecurlyObjects recurlyObjects = new Coupons();
-                recurlyObjects.setRecurlyClient(this);
-                recurlyObjects.setStartUrl(location);
-                return (T) recurlyObjects;
+    private void backOff(final HttpRequestBase builder, final int attempt, final long delayMs, final String cause) throws InterruptedIOException {
+        log.warn("Retrying {} {} in {}ms after attempt {} failed: {}", builder.getMethod(), builder.getURI(), delayMs, attempt, cause);
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayMs);
+        } catch (InterruptedException e) {
+            // E.g. Future#cancel(true) on a background fetch: give up on the request
+            Thread.currentThread().interrupt();
+            final InterruptedIOException interrupted = new InterruptedIOException("Interrupted before retrying " + builder.getMethod() + " " + builder.getURI());
+            interrupted.initCause(e);
+            throw interrupted;
+        }
+        builder.reset();
+    }
+
+    private static Integer getRetryAfterSeconds(final HttpResponse response) {
+        final Header retryAfterHeader = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (retryAfterHeader == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(retryAfterHeader.getValue().trim());
+        } catch (NumberFormatException e) {
+            // HTTP-date format, rely on the backoff
+            return null;
+        }
+    }
+
+    private HttpResponse executeOnce(final HttpRequestBase builder, @Nullable final EndpointIsolation.Endpoint endpoint) throws IOException {
+        final long permit = endpoint == null ? CircuitBreaker.REJECTED : endpoint.checkCircuit();
+        final AdaptiveRateLimiter rateLimiter = config.getRateLimiter();
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+
+        final HttpResponse response;
+        boolean failed = true;
+        try {
+            response = transport.execute(builder);
+            failed = response.getStatusLine().getStatusCode() >= 500;
+        } finally {
+            if (endpoint != null) {
+                if (failed) {
+                    endpoint.onFailure(permit);
+                } else {
+                    endpoint.onSuccess(permit);
+                }
             }
+        }
+        recordRateLimit(response);
+        // Decode here rather than in the transport, so that every transport gets the same content handling
+        contentDecodingInterceptor.process(response, null);
+        return response;
+    }
+
+    /**
+     * Save the rate limit headers of a response, successful or not
+     */
+    void recordRateLimit(final HttpResponse response) {
+        final Header rateLimitRemainingHeader = response.getFirstHeader(AdaptiveRateLimiter.X_RATELIMIT_REMAINING_HEADER_NAME);
+        if (rateLimitRemainingHeader != null) {
+            try {
+                rateLimitRemaining = Integer.parseInt(rateLimitRemainingHeader.getValue().trim());
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring invalid {} header: {}", AdaptiveRateLimiter.X_RATELIMIT_REMAINING_HEADER_NAME, rateLimitRemainingHeader.getValue());
+            }
+        }
+
+        final AdaptiveRateLimiter rateLimiter = config.getRateLimiter();
+        if (rateLimiter != null) {
+            rateLimiter.update(response);
+        }
+    }
+
+    /**
+     * @return the executor of the background work of this client, or the calling thread when the client isn't open
+     */
+    ListeningExecutorService getBackgroundExecutor() {
+        final ListeningExecutorService backgroundExecutor = this.backgroundExecutor;
+        return backgroundExecutor == null ? MoreExecutors.sameThreadExecutor() : backgroundExecutor;
+    }
+
+    static boolean isConnectionError(final IOException e) {
+        return e instanceof ConnectException || e instanceof NoHttpResponseException
+               || e instanceof ConnectTimeoutException || e instanceof SSLException
+               || e instanceof SocketTimeoutException;
+    }
+
+    void prepareXmlRequest(final HttpRequestBase builder) {
+        clientRequestBuilderCommon(builder);
+        builder.setHeader(HttpHeaders.ACCEPT, "application/xml");
+        builder.setHeader(HttpHeaders.CONTENT_TYPE, "application/xml; charset=utf-8");
+    }
+
+    /**
+     * Map a Recurly response to the requested type, or to the matching exception for error payloads.
+     * Shared by the blocking and the asynchronous clients.
+     */
+    <T> T handleXmlResponse(final HttpRequestBase builder, final HttpResponse response, @Nullable final Class<T> clazz)
+            throws IOException {
+        final HttpEntity entity = response.getEntity();
+        try {
+            return handleXmlResponse(builder, response, entity, clazz);
+        } finally {
+            // Drain whatever the parser didn't read, so the connection can be reused
+            EntityUtils.consumeQuietly(entity);
+        }
+    }
+
+    private <T> T handleXmlResponse(final HttpRequestBase builder, final HttpResponse response, @Nullable final HttpEntity entity, @Nullable final Class<T> clazz)
+            throws IOException {
+        // Error payloads are small and needed as a whole to build the RecurlyAPIError: buffer them.
+        // Successful payloads are deserialized straight from the response stream, unless they need to be logged.
+        final boolean bufferPayload = entity == null || response.getStatusLine().getStatusCode() >= 300 || debug();
+        final String payload = bufferPayload ? convertEntityToString(entity) : null;
+        if (debug()) {
+            log.info("Msg from Recurly API :: {}", payload);
+        }
 
-            final T obj = RecurlyObject.sharedXmlMapper().readValue(payload, clazz);
-            if (obj instanceof RecurlyObject) {
-                ((RecurlyObject) obj).setRecurlyClient(this);
-            } else if (obj instanceof RecurlyObjects) {
-                final RecurlyObjects recurlyObjects = (RecurlyObjects) obj;
-                recurlyObjects.setRecurlyClient(this);
+        // Handle errors payload
+        if (response.getStatusLine().getStatusCode() >= 300) {
+            log.warn("Recurly error whilst calling: {}\n{}", builder.getURI(), payload);
+            log.warn("Error status code: {}\n", response.getStatusLine().getStatusCode());
+            RecurlyAPIError recurlyError = RecurlyAPIError.buildFromResponse(response);
+
+            if (response.getStatusLine().getStatusCode() == 422) {
+                // 422 is returned for transaction errors (see https://developers.recurly.com/pages/api-v2/transaction-errors.html)
+                // as well as bad input payloads
+                final Errors errors;
+                try {
+                    errors = RecurlyObject.sharedXmlMapper().readValue(payload, Errors.class);
+                } catch (Exception e) {
+                    log.warn("Unable to extract error", e);
+                    return null;
+                }
 
-                // Set the RecurlyClient on all objects for later use
-                for (final Object object : recurlyObjects) {
-                    ((RecurlyObject) object).setRecurlyClient(this);
+                // Sometimes a single `Error` response is returned rather than `Errors`.
+                // In this case, all fields will be null.
+                if (errors == null || (
+                    errors.getRecurlyErrors() == null &&
+                    errors.getTransaction() == null &&
+                    errors.getTransactionError() == null
+                )) {
+                    recurlyError = RecurlyAPIError.buildFromXml(RecurlyObject.sharedXmlMapper(), payload, response);
+                    throw new RecurlyAPIException(recurlyError);
                 }
+                throw new TransactionErrorException(errors);
+            } else if (response.getStatusLine().getStatusCode() == 401) {
+                recurlyError.setSymbol("unauthorized");
+                recurlyError.setDescription("We could not authenticate your request. Either your subdomain and private key are not set or incorrect");
 
-                // Set links for pagination
-                final Header linkHeader = response.getFirstHeader(LINK_HEADER_NAME);
-                if (linkHeader != null) {
-                    final String[] links = PaginationUtils.getLinks(linkHeader.getValue());
-                    recurlyObjects.setStartUrl(links[0]);
-                    recurlyObjects.setNextUrl(links[1]);
+                throw new RecurlyAPIException(recurlyError);
+            } else {
+                try {
+                    recurlyError = RecurlyAPIError.buildFromXml(RecurlyObject.sharedXmlMapper(), payload, response);
+                } catch (Exception e) {
+                    log.debug("Unable to extract error", e);
                 }
+
+                throw new RecurlyAPIException(recurlyError);
             }
+        }
 
-            // Save value of rate limit remaining header
-            Header rateLimitRemainingString = response.getFirstHeader(X_RATELIMIT_REMAINING_HEADER_NAME);
-            if (rateLimitRemainingString != null)
-                rateLimitRemaining = Integer.parseInt(rateLimitRemainingString.getValue());
+        if (clazz == null) {
+            return null;
+        }
 
-            return obj;
-        } finally {
-            closeResponse(response);
+        final Header locationHeader = response.getFirstHeader(HttpHeaders.LOCATION);
+        final String location = locationHeader == null ? null : locationHeader.getValue();
+        if (clazz == Coupons.class && location != null && !location.isEmpty()) {
+            final RecurlyObjects recurlyObjects = new Coupons();
+            recurlyObjects.setRecurlyClient(this);
+            recurlyObjects.setStartUrl(location);
+            return (T) recurlyObjects;
         }
+
+        final T obj;
+        if (staxCodec != null) {
+            // The codec reads documents from memory
+            obj = payload != null ? staxCodec.readValue(payload, clazz) : staxCodec.readValue(EntityUtils.toByteArray(entity), clazz);
+        } else {
+            obj = payload != null ? RecurlyObject.sharedXmlMapper().readValue(payload, clazz)
+                                  : RecurlyObject.sharedXmlMapper().readValue(entity.getContent(), clazz);
+        }
+        if (obj instanceof RecurlyObject) {
+            ((RecurlyObject) obj).setRecurlyClient(this);
+        } else if (obj instanceof RecurlyObjects) {
+            final RecurlyObjects recurlyObjects = (RecurlyObjects) obj;
+            recurlyObjects.setRecurlyClient(this);
+
+            // Set the RecurlyClient on all objects for later use
+            for (final Object object : recurlyObjects) {
+                ((RecurlyObject) object).setRecurlyClient(this);
+            }
+
+            // Set links for pagination
+            final Header linkHeader = response.getFirstHeader(LINK_HEADER_NAME);
+            if (linkHeader != null) {
+                final String[] links = PaginationUtils.getLinks(linkHeader.getValue());
+                recurlyObjects.setStartUrl(links[0]);
+                recurlyObjects.setNextUrl(links[1]);
+            }
+        }
+
+        return obj;
     }
 
     private void clientRequestBuilderCommon(HttpRequestBase requestBuilder) {
@@ -3201,6 +4174,9 @@ public class RecurlyClient {
         requestBuilder.setHeader("X-Api-Version", RECURLY_API_VERSION);
         requestBuilder.setHeader(HttpHeaders.USER_AGENT, userAgent);
         requestBuilder.setHeader(HttpHeaders.ACCEPT_LANGUAGE, acceptLanguage);
+        if (config.isCompression()) {
+            requestBuilder.setHeader(HttpHeaders.ACCEPT_ENCODING, ContentDecodingInterceptor.ACCEPT_ENCODING);
+        }
     }
 
     private String convertEntityToString(HttpEntity entity) {
@@ -3218,34 +4194,110 @@ public class RecurlyClient {
         return entityString == null ? "" : entityString;
     }
 
-    private void closeResponse(final CloseableHttpResponse response) {
-        if (response != null) {
+    private void closeResponse(@Nullable final HttpResponse response) {
+        if (response instanceof Closeable) {
             try {
-                response.close();
+                ((Closeable) response).close();
             } catch (IOException e) {
                 log.warn("Failed to close {}: {}", response.getClass().getSimpleName(), e.getLocalizedMessage());
             }
+        } else if (response != null) {
+            EntityUtils.consumeQuietly(response.getEntity());
         }
     }
 
     protected CloseableHttpClient createHttpClient() throws KeyManagementException, NoSuchAlgorithmException {
-        // Don't limit the number of connections per host
-        // See https://github.com/ning/async-http-client/issues/issue/28
+        final Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(SslUtils.getInstance().getSSLContext()))
+                .build();
+        connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry, null, null, null,
+                                                                   config.getConnectionTimeToLiveMs(), TimeUnit.MILLISECONDS);
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(config.getMaxConnectionsTotal());
+        // Check connections the server may have closed in the meantime, to avoid NoHttpResponseException
+        connectionManager.setValidateAfterInactivity(config.getValidateAfterInactivityMs());
+
         final HttpClientBuilder httpClientBuilder = HttpClients.custom()
                 .disableCookieManagement() // We don't need cookies
-                /*
-                 * The following limits are not quite truly unlimited, but in practice they
-                 * should be more than enough.
-                 */
-                .setMaxConnPerRoute(256) // default is 2
-                .setMaxConnTotal(512) // default is 20
-                // Use the default timeouts from AHC
+                // Content encoding is negotiated and decoded by us (see RecurlyClientConfig#isCompression), for all transports
+                .disableContentCompression()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(new BoundedKeepAliveStrategy(config.getKeepAliveMs()))
                 .setDefaultRequestConfig(RequestConfig.custom()
-                        .setConnectTimeout(5000).setSocketTimeout(60000).build())
-                .setSSLContext(SslUtils.getInstance().getSSLContext());
+                        .setConnectTimeout(config.getConnectTimeoutMs())
+                        .setSocketTimeout(config.getSocketTimeoutMs())
+                        .setConnectionRequestTimeout(config.getConnectionRequestTimeoutMs())
+                        .build());
+        if (config.getIdleConnectionTimeoutMs() > 0) {
+            // Starts a background thread, stopped when the client is closed
+            httpClientBuilder.evictExpiredConnections()
+                             .evictIdleConnections(config.getIdleConnectionTimeoutMs(), TimeUnit.MILLISECONDS);
+        }
         return httpClientBuilder.build();
     }
 
+    private void registerConnectionPoolMBean() {
+        if (config.getJmxName() == null) {
+            return;
+        }
+
+        try {
+            final ObjectName name = new ObjectName("com.ning.billing.recurly:type=ConnectionPool,name=" + ObjectName.quote(config.getJmxName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new ConnectionPoolMXBean() {
+                @Override
+                public int getLeased() {
+                    final ConnectionPoolStats stats = getConnectionPoolStats();
+                    return stats == null ? 0 : stats.getLeased();
+                }
+
+                @Override
+                public int getAvailable() {
+                    final ConnectionPoolStats stats = getConnectionPoolStats();
+                    return stats == null ? 0 : stats.getAvailable();
+                }
+
+                @Override
+                public int getPending() {
+                    final ConnectionPoolStats stats = getConnectionPoolStats();
+                    return stats == null ? 0 : stats.getPending();
+                }
+
+                @Override
+                public int getMax() {
+                    final ConnectionPoolStats stats = getConnectionPoolStats();
+                    return stats == null ? 0 : stats.getMax();
+                }
+
+                @Override
+                public long getWireBytes() {
+                    return contentEncodingStats.getWireBytes();
+                }
+
+                @Override
+                public long getDecodedBytes() {
+                    return contentEncodingStats.getDecodedBytes();
+                }
+            }, name);
+            connectionPoolMBeanName = name;
+        } catch (JMException e) {
+            log.warn("Unable to register the connection pool MBean", e);
+        }
+    }
+
+    private void unregisterConnectionPoolMBean() {
+        if (connectionPoolMBeanName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(connectionPoolMBeanName);
+        } catch (JMException e) {
+            log.warn("Unable to unregister the connection pool MBean", e);
+        }
+        connectionPoolMBeanName = null;
+    }
+
     private void validateHost(URI uri) {
         String host = uri.getHost();
 
@@ -3305,7 +4357,7 @@ public class RecurlyClient {
      * RFC 3986 URL encoding. The vanilla {@link URLEncoder} does not work since
      * Recurly does not decode '+' back to ' '.
      */
-    private static String urlEncode(String s) {
+    static String urlEncode(String s) {
         return new String(URLCodec.encodeUrl(RFC_3986_SAFE_CHARS, s.getBytes(Charsets.UTF_8)),
                 Charsets.UTF_8);
     }
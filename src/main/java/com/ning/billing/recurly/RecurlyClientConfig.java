@@ -0,0 +1,508 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import javax.annotation.Nullable;
+
+import com.ning.billing.recurly.transport.RecurlyTransportFactory;
+import com.ning.billing.recurly.util.http.AdaptiveRateLimiter;
+import com.ning.billing.recurly.util.http.EndpointIsolation;
+import com.ning.billing.recurly.util.http.RetryPolicy;
+
+/**
+ * Connection pool, timeout and transport settings of a {@link RecurlyClient}.
+ * <p>
+ * Instances are immutable, use {@link #builder()} to create one. The defaults match the historical
+ * behavior of the client.
+ */
+public class RecurlyClientConfig {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 256;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 512;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_SOCKET_TIMEOUT_MS = 60000;
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MS = 2000;
+    public static final int DEFAULT_PREFETCH_PAGES = 1;
+    public static final int DEFAULT_EXPORT_CONCURRENCY = 4;
+    public static final int DEFAULT_EXPORT_RECORDS_PER_SLICE = 1000;
+    public static final int DEFAULT_REFERENCE_CONCURRENCY = 8;
+    public static final int DEFAULT_MULTI_GET_CONCURRENCY = 8;
+    public static final int DEFAULT_USAGE_CONCURRENCY = 8;
+
+    private final int maxConnectionsPerRoute;
+    private final int maxConnectionsTotal;
+    private final int connectTimeoutMs;
+    private final int socketTimeoutMs;
+    private final int connectionRequestTimeoutMs;
+    private final long idleConnectionTimeoutMs;
+    private final long keepAliveMs;
+    private final long connectionTimeToLiveMs;
+    private final int validateAfterInactivityMs;
+    private final boolean compression;
+    private final boolean coalesceGets;
+    private final boolean staxCodec;
+    private final long responseCacheSize;
+    private final long catalogCacheTtlMs;
+    private final long catalogRefreshAfterMs;
+    private final boolean catalogWarmUp;
+    private final int prefetchPages;
+    private final int exportConcurrency;
+    private final int exportRecordsPerSlice;
+    private final int referenceConcurrency;
+    private final int multiGetConcurrency;
+    private final int usageConcurrency;
+    private final String jmxName;
+    private final RecurlyTransportFactory transportFactory;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final RetryPolicy retryPolicy;
+    private final EndpointIsolation endpointIsolation;
+
+    private RecurlyClientConfig(final Builder builder) {
+        this.maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+        this.maxConnectionsTotal = builder.maxConnectionsTotal;
+        this.connectTimeoutMs = builder.connectTimeoutMs;
+        this.socketTimeoutMs = builder.socketTimeoutMs;
+        this.connectionRequestTimeoutMs = builder.connectionRequestTimeoutMs;
+        this.idleConnectionTimeoutMs = builder.idleConnectionTimeoutMs;
+        this.keepAliveMs = builder.keepAliveMs;
+        this.connectionTimeToLiveMs = builder.connectionTimeToLiveMs;
+        this.validateAfterInactivityMs = builder.validateAfterInactivityMs;
+        this.compression = builder.compression;
+        this.coalesceGets = builder.coalesceGets;
+        this.staxCodec = builder.staxCodec;
+        this.responseCacheSize = builder.responseCacheSize;
+        this.catalogCacheTtlMs = builder.catalogCacheTtlMs;
+        this.catalogRefreshAfterMs = builder.catalogRefreshAfterMs;
+        this.catalogWarmUp = builder.catalogWarmUp;
+        this.prefetchPages = builder.prefetchPages;
+        this.exportConcurrency = builder.exportConcurrency;
+        this.exportRecordsPerSlice = builder.exportRecordsPerSlice;
+        this.referenceConcurrency = builder.referenceConcurrency;
+        this.multiGetConcurrency = builder.multiGetConcurrency;
+        this.usageConcurrency = builder.usageConcurrency;
+        this.jmxName = builder.jmxName;
+        this.transportFactory = builder.transportFactory;
+        this.rateLimiter = builder.rateLimiter;
+        this.retryPolicy = builder.retryPolicy;
+        this.endpointIsolation = builder.endpointIsolation;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a config with the default settings
+     */
+    public static RecurlyClientConfig defaults() {
+        return builder().build();
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+
+    public int getConnectionRequestTimeoutMs() {
+        return connectionRequestTimeoutMs;
+    }
+
+    public long getIdleConnectionTimeoutMs() {
+        return idleConnectionTimeoutMs;
+    }
+
+    public long getKeepAliveMs() {
+        return keepAliveMs;
+    }
+
+    public long getConnectionTimeToLiveMs() {
+        return connectionTimeToLiveMs;
+    }
+
+    public int getValidateAfterInactivityMs() {
+        return validateAfterInactivityMs;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public boolean isCoalesceGets() {
+        return coalesceGets;
+    }
+
+    public boolean isStaxCodec() {
+        return staxCodec;
+    }
+
+    public long getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    public long getCatalogCacheTtlMs() {
+        return catalogCacheTtlMs;
+    }
+
+    public long getCatalogRefreshAfterMs() {
+        return catalogRefreshAfterMs;
+    }
+
+    public boolean isCatalogWarmUp() {
+        return catalogWarmUp;
+    }
+
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    public int getExportConcurrency() {
+        return exportConcurrency;
+    }
+
+    public int getExportRecordsPerSlice() {
+        return exportRecordsPerSlice;
+    }
+
+    public int getReferenceConcurrency() {
+        return referenceConcurrency;
+    }
+
+    public int getMultiGetConcurrency() {
+        return multiGetConcurrency;
+    }
+
+    public int getUsageConcurrency() {
+        return usageConcurrency;
+    }
+
+    @Nullable
+    public String getJmxName() {
+        return jmxName;
+    }
+
+    @Nullable
+    public RecurlyTransportFactory getTransportFactory() {
+        return transportFactory;
+    }
+
+    @Nullable
+    public AdaptiveRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    @Nullable
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    @Nullable
+    public EndpointIsolation getEndpointIsolation() {
+        return endpointIsolation;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("RecurlyClientConfig{");
+        sb.append("maxConnectionsPerRoute=").append(maxConnectionsPerRoute);
+        sb.append(", maxConnectionsTotal=").append(maxConnectionsTotal);
+        sb.append(", connectTimeoutMs=").append(connectTimeoutMs);
+        sb.append(", socketTimeoutMs=").append(socketTimeoutMs);
+        sb.append(", connectionRequestTimeoutMs=").append(connectionRequestTimeoutMs);
+        sb.append(", idleConnectionTimeoutMs=").append(idleConnectionTimeoutMs);
+        sb.append(", keepAliveMs=").append(keepAliveMs);
+        sb.append(", connectionTimeToLiveMs=").append(connectionTimeToLiveMs);
+        sb.append(", validateAfterInactivityMs=").append(validateAfterInactivityMs);
+        sb.append(", compression=").append(compression);
+        sb.append(", coalesceGets=").append(coalesceGets);
+        sb.append(", staxCodec=").append(staxCodec);
+        sb.append(", responseCacheSize=").append(responseCacheSize);
+        sb.append(", catalogCacheTtlMs=").append(catalogCacheTtlMs);
+        sb.append(", catalogRefreshAfterMs=").append(catalogRefreshAfterMs);
+        sb.append(", catalogWarmUp=").append(catalogWarmUp);
+        sb.append(", prefetchPages=").append(prefetchPages);
+        sb.append(", exportConcurrency=").append(exportConcurrency);
+        sb.append(", exportRecordsPerSlice=").append(exportRecordsPerSlice);
+        sb.append(", referenceConcurrency=").append(referenceConcurrency);
+        sb.append(", multiGetConcurrency=").append(multiGetConcurrency);
+        sb.append(", usageConcurrency=").append(usageConcurrency);
+        sb.append(", jmxName='").append(jmxName).append('\'');
+        sb.append(", transportFactory=").append(transportFactory);
+        sb.append(", rateLimiter=").append(rateLimiter);
+        sb.append(", retryPolicy=").append(retryPolicy);
+        sb.append(", endpointIsolation=").append(endpointIsolation);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public static class Builder {
+
+        private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private int maxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+        private int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+        private int socketTimeoutMs = DEFAULT_SOCKET_TIMEOUT_MS;
+        private int connectionRequestTimeoutMs = -1;
+        private long idleConnectionTimeoutMs = -1;
+        private long keepAliveMs = -1;
+        private long connectionTimeToLiveMs = -1;
+        private int validateAfterInactivityMs = DEFAULT_VALIDATE_AFTER_INACTIVITY_MS;
+        // On unless -Drecurly.compression=false, like the HttpClient default
+        private boolean compression = Boolean.parseBoolean(System.getProperty(RecurlyClient.RECURLY_COMPRESSION_KEY, "true"));
+        private boolean coalesceGets;
+        private boolean staxCodec;
+        private long responseCacheSize;
+        private long catalogCacheTtlMs;
+        private long catalogRefreshAfterMs = -1;
+        private boolean catalogWarmUp;
+        private int prefetchPages = DEFAULT_PREFETCH_PAGES;
+        private int exportConcurrency = DEFAULT_EXPORT_CONCURRENCY;
+        private int exportRecordsPerSlice = DEFAULT_EXPORT_RECORDS_PER_SLICE;
+        private int referenceConcurrency = DEFAULT_REFERENCE_CONCURRENCY;
+        private int multiGetConcurrency = DEFAULT_MULTI_GET_CONCURRENCY;
+        private int usageConcurrency = DEFAULT_USAGE_CONCURRENCY;
+        private String jmxName;
+        private RecurlyTransportFactory transportFactory;
+        private AdaptiveRateLimiter rateLimiter;
+        private RetryPolicy retryPolicy;
+        private EndpointIsolation endpointIsolation;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxConnectionsPerRoute maximum number of pooled connections to the Recurly host
+         */
+        public Builder setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * @param maxConnectionsTotal maximum number of pooled connections overall
+         */
+        public Builder setMaxConnectionsTotal(final int maxConnectionsTotal) {
+            this.maxConnectionsTotal = maxConnectionsTotal;
+            return this;
+        }
+
+        public Builder setConnectTimeoutMs(final int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+            return this;
+        }
+
+        public Builder setSocketTimeoutMs(final int socketTimeoutMs) {
+            this.socketTimeoutMs = socketTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param connectionRequestTimeoutMs how long to wait for a connection from the pool, -1 to wait indefinitely
+         */
+        public Builder setConnectionRequestTimeoutMs(final int connectionRequestTimeoutMs) {
+            this.connectionRequestTimeoutMs = connectionRequestTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param idleConnectionTimeoutMs pooled connections idle for longer are closed by a background thread, -1 to disable eviction
+         */
+        public Builder setIdleConnectionTimeoutMs(final long idleConnectionTimeoutMs) {
+            this.idleConnectionTimeoutMs = idleConnectionTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param keepAliveMs upper bound for keeping a connection alive when the server doesn't send a shorter Keep-Alive timeout, -1 for no bound
+         */
+        public Builder setKeepAliveMs(final long keepAliveMs) {
+            this.keepAliveMs = keepAliveMs;
+            return this;
+        }
+
+        /**
+         * @param connectionTimeToLiveMs maximum lifetime of a pooled connection, -1 for no limit
+         */
+        public Builder setConnectionTimeToLiveMs(final long connectionTimeToLiveMs) {
+            this.connectionTimeToLiveMs = connectionTimeToLiveMs;
+            return this;
+        }
+
+        /**
+         * @param validateAfterInactivityMs pooled connections idle for longer are checked for staleness before being leased
+         */
+        public Builder setValidateAfterInactivityMs(final int validateAfterInactivityMs) {
+            this.validateAfterInactivityMs = validateAfterInactivityMs;
+            return this;
+        }
+
+        /**
+         * @param compression whether to request gzip/deflate encoded responses (defaults to {@value RecurlyClient#RECURLY_COMPRESSION_KEY}, true if unset)
+         */
+        public Builder setCompression(final boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * @param coalesceGets whether concurrent identical GET requests should share a single HTTP call. The callers
+         *                     then get the same deserialized instance, which they must not modify.
+         */
+        public Builder setCoalesceGets(final boolean coalesceGets) {
+            this.coalesceGets = coalesceGets;
+            return this;
+        }
+
+        /**
+         * @param staxCodec whether to read responses and write requests through the StAX code generated for the model,
+         *                  see {@link com.ning.billing.recurly.model.StaxCodec}. Jackson still handles the documents
+         *                  the generated code doesn't support.
+         */
+        public Builder setStaxCodec(final boolean staxCodec) {
+            this.staxCodec = staxCodec;
+            return this;
+        }
+
+        /**
+         * @param responseCacheSize maximum number of GET responses cached and revalidated with ETag/Last-Modified,
+         *                          0 to disable. Cached objects are shared between callers, which must not modify them.
+         */
+        public Builder setResponseCacheSize(final long responseCacheSize) {
+            this.responseCacheSize = responseCacheSize;
+            return this;
+        }
+
+        /**
+         * Cache plans, add-ons, items, shipping methods, custom field definitions and business entities in memory,
+         * see {@link CatalogCache}
+         *
+         * @param ttlMs          how long entries are kept, 0 to disable the cache
+         * @param refreshAfterMs entries read after this delay are reloaded in the background, -1 to disable
+         * @param warmUp         whether to load the catalog in the background when the client is opened
+         */
+        public Builder setCatalogCache(final long ttlMs, final long refreshAfterMs, final boolean warmUp) {
+            this.catalogCacheTtlMs = ttlMs;
+            this.catalogRefreshAfterMs = refreshAfterMs;
+            this.catalogWarmUp = warmUp;
+            return this;
+        }
+
+        /**
+         * @param prefetchPages number of pages {@link RecurlyClient#iterate} fetches ahead in the background, 0 to fetch on demand
+         */
+        public Builder setPrefetchPages(final int prefetchPages) {
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        /**
+         * @param concurrency     number of time slices {@link RecurlyClient#exportAccounts} and friends fetch in parallel
+         * @param recordsPerSlice maximum number of records per time slice, as counted by HEAD requests
+         */
+        public Builder setExport(final int concurrency, final int recordsPerSlice) {
+            this.exportConcurrency = concurrency;
+            this.exportRecordsPerSlice = recordsPerSlice;
+            return this;
+        }
+
+        /**
+         * @param referenceConcurrency number of references a {@link ReferenceLoader} fetches in parallel
+         */
+        public Builder setReferenceConcurrency(final int referenceConcurrency) {
+            this.referenceConcurrency = referenceConcurrency;
+            return this;
+        }
+
+        /**
+         * @param multiGetConcurrency number of objects {@link RecurlyClient#getAccountsByCode} and friends fetch in parallel.
+         *                            The requests still go through the rate limiter, if any.
+         */
+        public Builder setMultiGetConcurrency(final int multiGetConcurrency) {
+            this.multiGetConcurrency = multiGetConcurrency;
+            return this;
+        }
+
+        /**
+         * @param usageConcurrency number of usage sums a {@link UsagePipeline} posts in parallel.
+         *                         The requests still go through the rate limiter, if any.
+         */
+        public Builder setUsageConcurrency(final int usageConcurrency) {
+            this.usageConcurrency = usageConcurrency;
+            return this;
+        }
+
+        /**
+         * @param jmxName when set, the connection pool statistics are exposed as the
+         *                {@code com.ning.billing.recurly:type=ConnectionPool,name=<jmxName>} MBean while the client is open
+         */
+        public Builder setJmxName(@Nullable final String jmxName) {
+            this.jmxName = jmxName;
+            return this;
+        }
+
+        /**
+         * @param transportFactory creates the transport executing the requests, null for the default
+         *                         Apache HttpClient transport (the pool settings above only apply to the latter)
+         */
+        public Builder setTransportFactory(@Nullable final RecurlyTransportFactory transportFactory) {
+            this.transportFactory = transportFactory;
+            return this;
+        }
+
+        /**
+         * @param rateLimiter paces requests according to the rate limit headers of the responses, null to disable.
+         *                    Share the same instance between all the clients using a given API key.
+         *                    The asynchronous client feeds the limiter but never blocks on it.
+         */
+        public Builder setRateLimiter(@Nullable final AdaptiveRateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        /**
+         * @param retryPolicy retries failed requests and attaches Idempotency-Key headers, null to disable.
+         *                    The asynchronous client doesn't retry.
+         */
+        public Builder setRetryPolicy(@Nullable final RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * @param endpointIsolation per resource family circuit breakers and bulkheads, null to disable.
+         *                          The asynchronous client isn't isolated.
+         */
+        public Builder setEndpointIsolation(@Nullable final EndpointIsolation endpointIsolation) {
+            this.endpointIsolation = endpointIsolation;
+            return this;
+        }
+
+        public RecurlyClientConfig build() {
+            return new RecurlyClientConfig(this);
+        }
+    }
+}
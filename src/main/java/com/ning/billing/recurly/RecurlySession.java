@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Identity map of the objects fetched within a unit of work, see {@link RecurlyClient#openSession()}.
+ * <p>
+ * While the session is open, GET requests for a single object made by its thread, by code (e.g.
+ * {@link RecurlyClient#getAccount(String)}) or by href (e.g. {@code Subscription#getAccount()}), are answered from the
+ * session once the object has been fetched: between two writes, each resource is fetched and deserialized at most
+ * once. Listings aren't kept.
+ * <p>
+ * Any write made through the client by the session's thread (a POST, PUT or DELETE) clears the session: a write often
+ * changes other resources than the one it targets, e.g. a purchase, a new subscription, posted usage or an adjustment
+ * change the balance, state or subscriptions of the account.
+ * <p>
+ * Objects are shared within the session, callers must not modify them.
+ */
+public class RecurlySession implements Closeable {
+
+    private final ThreadLocal<RecurlySession> binding;
+    @Nullable
+    private final RecurlySession previous;
+
+    // By class and path: the same resource can be referenced by a full href or built from a code
+    private final ConcurrentMap<String, Object> objects = new ConcurrentHashMap<String, Object>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile boolean closed;
+
+    RecurlySession(final ThreadLocal<RecurlySession> binding) {
+        this.binding = binding;
+        this.previous = binding.get();
+        binding.set(this);
+    }
+
+    @Nullable
+    <T> T get(final Class<T> clazz, final String url) {
+        if (closed) {
+            return null;
+        }
+        final Object object = objects.get(key(clazz, url));
+        if (object == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return clazz.cast(object);
+    }
+
+    <T> T put(final Class<T> clazz, final String url, final T object) {
+        if (closed) {
+            return object;
+        }
+        final Object previousObject = objects.putIfAbsent(key(clazz, url), object);
+        return previousObject == null ? object : clazz.cast(previousObject);
+    }
+
+    /**
+     * Forget all the objects fetched so far, as any of them may have been changed by a write
+     */
+    void evictAll() {
+        for (final Iterator<String> iterator = objects.keySet().iterator(); iterator.hasNext(); ) {
+            iterator.next();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forget all the objects fetched so far, the session stays open
+     */
+    public void clear() {
+        objects.clear();
+    }
+
+    /**
+     * Forget all the objects and stop answering requests. When closed by the thread which opened it, the session
+     * is unbound from that thread and the session it replaced, if any, is bound again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        objects.clear();
+        if (binding.get() == this) {
+            if (previous == null) {
+                binding.remove();
+            } else {
+                binding.set(previous);
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return number of objects in the session
+     */
+    public int size() {
+        return objects.size();
+    }
+
+    /**
+     * @return number of GET requests answered by the session
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of GET requests sent to Recurly while the session was open
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of objects evicted by writes
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("RecurlySession{");
+        sb.append("size=").append(size());
+        sb.append(", hits=").append(hits);
+        sb.append(", misses=").append(misses);
+        sb.append(", evictions=").append(evictions);
+        sb.append(", closed=").append(closed);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static String key(final Class<?> clazz, final String url) {
+        return clazz.getName() + ' ' + path(url);
+    }
+
+    // Hrefs don't carry the port the client URLs have, e.g. https://api.recurly.com/v2/accounts/abc
+    // versus https://api.recurly.com:443/v2/accounts/abc: only the path and query identify a resource
+    private static String path(final String url) {
+        try {
+            final URI uri = new URI(url);
+            return uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + '?' + uri.getRawQuery();
+        } catch (final URISyntaxException e) {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.ning.billing.recurly.model.RecurlyObject;
+
+/**
+ * Resolves in bulk the references the model getters otherwise fetch one at a time, such as
+ * {@code Subscription#getAccount()} or {@code Invoice#getOriginalInvoice()}, see {@link RecurlyClient#loadReferences}.
+ * <p>
+ * {@link #load} runs the given getters over a page of objects while only recording the hrefs they would fetch.
+ * Distinct hrefs are then fetched, up to {@link RecurlyClientConfig#getReferenceConcurrency()} at a time, and the
+ * objects are attached to the loader: their getters return the shared results, which callers must not modify.
+ * References which failed to load, or which weren't loaded upfront, are fetched by the getters as usual and shared too.
+ */
+public class ReferenceLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(ReferenceLoader.class);
+
+    private final RecurlyClient recurlyClient;
+    private final ListeningExecutorService executor;
+    private final int concurrency;
+
+    // By class and href
+    private final ConcurrentMap<String, Object> references = new ConcurrentHashMap<String, Object>();
+    // Set while load() runs the getters: references they would have fetched
+    private final ThreadLocal<Map<String, Reference>> collecting = new ThreadLocal<Map<String, Reference>>();
+
+    ReferenceLoader(final RecurlyClient recurlyClient, final ListeningExecutorService executor, final int concurrency) {
+        this.recurlyClient = recurlyClient;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Load the references of the given objects and attach them to this loader.
+     *
+     * @param objects objects, typically a page of a listing
+     * @param getters calls the getters whose references should be loaded, e.g. {@code subscription.getAccount()}
+     * @return this loader
+     */
+    public <T extends RecurlyObject> ReferenceLoader load(final Iterable<T> objects, final Function<? super T, ?> getters) {
+        final Map<String, Reference> pending = new LinkedHashMap<String, Reference>();
+        collecting.set(pending);
+        try {
+            for (final T object : objects) {
+                object.setReferenceLoader(this);
+                getters.apply(object);
+            }
+        } finally {
+            collecting.remove();
+        }
+
+        pending.keySet().removeAll(references.keySet());
+        if (!pending.isEmpty()) {
+            resolve(pending.values(), recurlyClient.getSession());
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of distinct references loaded so far
+     */
+    public int size() {
+        return references.size();
+    }
+
+    /**
+     * Called by the getters of the attached objects, instead of fetching the reference themselves.
+     *
+     * @param reference the unresolved object, as deserialized from the parent
+     * @return the shared object
+     */
+    public <T extends RecurlyObject> T fetch(final T reference, final Class<T> clazz) {
+        final String key = key(clazz, reference.getHref());
+        final Map<String, Reference> pending = collecting.get();
+        if (pending != null) {
+            pending.put(key, new Reference(clazz, reference.getHref()));
+            return reference;
+        }
+
+        final Object value = references.get(key);
+        if (value != null) {
+            return clazz.cast(value);
+        }
+        final T fetched = recurlyClient.doGETWithFullURL(clazz, reference.getHref());
+        if (fetched == null) {
+            return null;
+        }
+        final Object previous = references.putIfAbsent(key, fetched);
+        return previous == null ? fetched : clazz.cast(previous);
+    }
+
+    // The references are fetched on other threads: hand them the session of the caller
+    private void resolve(final Iterable<Reference> pending, @Nullable final RecurlySession session) {
+        final Queue<Reference> queue = new ConcurrentLinkedQueue<Reference>();
+        for (final Reference reference : pending) {
+            queue.add(reference);
+        }
+
+        final List<ListenableFuture<?>> workers = new ArrayList<ListenableFuture<?>>();
+        for (int i = 0; i < Math.min(concurrency, queue.size()); i++) {
+            workers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Reference reference;
+                    while ((reference = queue.poll()) != null) {
+                        resolve(reference, session);
+                    }
+                }
+            }));
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(Futures.allAsList(workers));
+        } catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private void resolve(final Reference reference, @Nullable final RecurlySession session) {
+        try {
+            final Object value = recurlyClient.doGETWithFullURL(reference.clazz, reference.href, session);
+            if (value != null) {
+                references.putIfAbsent(key(reference.clazz, reference.href), value);
+            }
+        } catch (final RuntimeException e) {
+            // The getters will fetch it again, and report the failure to their caller
+            log.debug("Unable to load {}", reference.href, e);
+        }
+    }
+
+    private static String key(final Class<?> clazz, final String href) {
+        return clazz.getName() + ' ' + href;
+    }
+
+    private static final class Reference {
+
+        private final Class<?> clazz;
+        private final String href;
+
+        private Reference(final Class<?> clazz, final String href) {
+            this.clazz = clazz;
+            this.href = href;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import javax.annotation.Nullable;
+
+import com.ning.billing.recurly.model.RecurlyObject;
+
+/**
+ * A page of a listing whose objects have been handed out one by one while the response was being read,
+ * see {@link RecurlyClient#streamAccounts(QueryParams, Handler)}
+ */
+public class StreamedPage<T extends RecurlyObject> {
+
+    public interface Handler<T> {
+
+        /**
+         * @param object the next object of the page, deserialized as soon as its element is closed
+         */
+        void onObject(T object);
+    }
+
+    private final Class<T> clazz;
+    private final int size;
+    private final String startUrl;
+    private final String nextUrl;
+
+    StreamedPage(final Class<T> clazz, final int size, @Nullable final String startUrl, @Nullable final String nextUrl) {
+        this.clazz = clazz;
+        this.size = size;
+        this.startUrl = startUrl;
+        this.nextUrl = nextUrl;
+    }
+
+    public Class<T> getElementClass() {
+        return clazz;
+    }
+
+    /**
+     * @return the number of objects handed out
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Nullable
+    public String getStartUrl() {
+        return startUrl;
+    }
+
+    @Nullable
+    public String getNextUrl() {
+        return nextUrl;
+    }
+
+    public boolean hasNext() {
+        return nextUrl != null;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("StreamedPage{");
+        sb.append("clazz=").append(clazz.getSimpleName());
+        sb.append(", size=").append(size);
+        sb.append(", startUrl='").append(startUrl).append('\'');
+        sb.append(", nextUrl='").append(nextUrl).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+}
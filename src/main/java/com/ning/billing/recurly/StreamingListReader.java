@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.ning.billing.recurly.model.RecurlyObject;
+
+/**
+ * Reads a list payload (e.g. {@code <accounts type="array"><account>...</account>...</accounts>}) element by element:
+ * the StAX cursor walks the root children and each one is bound on its own, then handed out before the next one
+ * is read. Unlike {@link com.ning.billing.recurly.model.RecurlyObjects}, the page is never materialized as a whole.
+ */
+final class StreamingListReader<T extends RecurlyObject> {
+
+    private final XmlMapper xmlMapper;
+    private final Class<T> clazz;
+    private final String elementName;
+
+    StreamingListReader(final XmlMapper xmlMapper, final Class<T> clazz) {
+        final XmlRootElement rootElement = clazz.getAnnotation(XmlRootElement.class);
+        if (rootElement == null) {
+            throw new IllegalArgumentException(clazz + " isn't annotated with @XmlRootElement");
+        }
+        this.xmlMapper = xmlMapper;
+        this.clazz = clazz;
+        this.elementName = rootElement.name();
+    }
+
+    /**
+     * @param in            the payload, left open: closing it is up to the caller
+     * @param recurlyClient set on every object, for later use
+     * @return the number of objects handed out
+     */
+    int read(final InputStream in, final RecurlyClient recurlyClient, final StreamedPage.Handler<T> handler) throws IOException {
+        try {
+            final XMLStreamReader reader = xmlMapper.getFactory().getXMLInputFactory().createXMLStreamReader(in);
+            try {
+                return read(reader, recurlyClient, handler);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private int read(final XMLStreamReader reader, final RecurlyClient recurlyClient, final StreamedPage.Handler<T> handler)
+            throws XMLStreamException, IOException {
+        int count = 0;
+        // Depth of the element the cursor is in: 1 is the root element
+        int depth = 0;
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (depth == 1 && elementName.equals(reader.getLocalName())) {
+                    // Leaves the cursor on the matching end element
+                    final T object = xmlMapper.readValue(reader, clazz);
+                    object.setRecurlyClient(recurlyClient);
+                    handler.onObject(object);
+                    count++;
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.RecurlyObjects;
+
+/**
+ * Exports all the objects of a listing created (or updated) within a time range, fetching several time slices
+ * of the range concurrently.
+ * <p>
+ * The range is first bisected, using the {@code X-Records} counts of HEAD requests, into slices holding at most
+ * {@code recordsPerSlice} objects. Up to {@code concurrency} slices are then fetched in parallel, each one
+ * walking its own pages sorted in ascending order. Since slices are contiguous, handing them out in order
+ * yields a single stream ordered by the sort field. Objects on the boundary of two slices (both
+ * {@code begin_time} and {@code end_time} are inclusive) are only returned once.
+ * <p>
+ * A page the client couldn't fetch (null response, e.g. after an I/O error) fails the export rather than ending the
+ * slice early.
+ * <p>
+ * Memory is bounded by {@code concurrency + 1} slices: the one being handed out and those in flight. Each call to
+ * {@link #iterator()} runs a new export.
+ *
+ * @see RecurlyClient#exportAccounts(DateTime, DateTime, QueryParams.Sort)
+ */
+public class TimeSlicedExport<T extends RecurlyObject> implements Iterable<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(TimeSlicedExport.class);
+
+    private static final int PAGE_SIZE = 200;
+    private static final long MIN_SLICE_MS = 1000;
+
+    /**
+     * The listing to export
+     */
+    interface Source<T extends RecurlyObject> {
+
+        RecurlyObjects<T> list(QueryParams params);
+
+        Integer count(QueryParams params);
+    }
+
+    private final Source<T> source;
+    private final QueryParams.Sort sort;
+    private final Function<T, DateTime> timestamp;
+    private final DateTime begin;
+    private final DateTime end;
+    private final ListeningExecutorService executor;
+    private final int concurrency;
+    private final int recordsPerSlice;
+
+    TimeSlicedExport(final Source<T> source, final QueryParams.Sort sort, final Function<T, DateTime> timestamp,
+                     final DateTime begin, final DateTime end,
+                     final ListeningExecutorService executor, final int concurrency, final int recordsPerSlice) {
+        this.source = source;
+        this.sort = sort;
+        this.timestamp = timestamp;
+        this.begin = begin;
+        this.end = end;
+        this.executor = executor;
+        this.concurrency = Math.max(1, concurrency);
+        this.recordsPerSlice = Math.max(1, recordsPerSlice);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new SliceIterator(plan());
+    }
+
+    /**
+     * @return contiguous slices of [begin, end], in order, each holding at most recordsPerSlice objects (unless shorter than a second)
+     */
+    List<DateTime[]> plan() {
+        final List<DateTime[]> slices = new ArrayList<DateTime[]>();
+        final Deque<DateTime[]> toSplit = new ArrayDeque<DateTime[]>();
+        toSplit.push(new DateTime[]{begin, end});
+        while (!toSplit.isEmpty()) {
+            final DateTime[] range = toSplit.pop();
+            final long durationMs = range[1].getMillis() - range[0].getMillis();
+            if (durationMs > MIN_SLICE_MS) {
+                final Integer count = source.count(params(range[0], range[1], 1));
+                if (count != null && count > recordsPerSlice) {
+                    final DateTime middle = range[0].plus(durationMs / 2);
+                    // Depth first, second half pushed first: slices come out in order
+                    toSplit.push(new DateTime[]{middle, range[1]});
+                    toSplit.push(new DateTime[]{range[0], middle});
+                    continue;
+                }
+            }
+            slices.add(range);
+        }
+        log.debug("Exporting {} to {} sorted by {} in {} slices", begin, end, sort, slices.size());
+        return slices;
+    }
+
+    private QueryParams params(final DateTime from, final DateTime to, final int pageSize) {
+        final QueryParams params = new QueryParams();
+        params.setPerPage(pageSize);
+        params.setSort(sort);
+        params.setOrder(QueryParams.Order.ASC);
+        params.setBeginTime(from);
+        params.setEndTime(to);
+        return params;
+    }
+
+    private List<T> fetch(final DateTime[] slice, final boolean last) {
+        final List<T> objects = new ArrayList<T>();
+        RecurlyObjects<T> page = source.list(params(slice[0], slice[1], PAGE_SIZE));
+        while (true) {
+            if (page == null) {
+                // The client swallowed an error: don't pass a truncated slice off as complete
+                throw new IllegalStateException("Unable to fetch the objects from " + slice[0] + " to " + slice[1]);
+            }
+            for (final T object : page) {
+                final DateTime time = timestamp.apply(object);
+                // end_time is inclusive: leave boundary objects to the next slice
+                if (last || time == null || time.isBefore(slice[1])) {
+                    objects.add(object);
+                }
+            }
+            if (page.isEmpty() || page.getNextUrl() == null) {
+                return objects;
+            }
+            page = page.getNext();
+        }
+    }
+
+    private final class SliceIterator implements Iterator<T> {
+
+        private final List<DateTime[]> slices;
+        private final Deque<ListenableFuture<List<T>>> inFlight = new ArrayDeque<ListenableFuture<List<T>>>();
+        private int nextSlice;
+        private Iterator<T> current = ImmutableList.<T>of().iterator();
+
+        private SliceIterator(final List<DateTime[]> slices) {
+            this.slices = slices;
+            fill();
+        }
+
+        private void fill() {
+            while (inFlight.size() < concurrency && nextSlice < slices.size()) {
+                final DateTime[] slice = slices.get(nextSlice);
+                final boolean last = ++nextSlice == slices.size();
+                inFlight.add(executor.submit(new Callable<List<T>>() {
+                    @Override
+                    public List<T> call() {
+                        return fetch(slice, last);
+                    }
+                }));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                final ListenableFuture<List<T>> slice = inFlight.poll();
+                if (slice == null) {
+                    return false;
+                }
+                fill();
+                try {
+                    current = Uninterruptibles.getUninterruptibly(slice).iterator();
+                } catch (ExecutionException e) {
+                    for (final ListenableFuture<List<T>> other : inFlight) {
+                        other.cancel(true);
+                    }
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.ning.billing.recurly.model.Usage;
+
+/**
+ * Batches the usage posted to subscription add-ons, see {@link RecurlyClient#newUsagePipeline}.
+ * <p>
+ * {@link #record} only buffers the usage: amounts are summed per subscription, add-on, time window of the usage
+ * timestamp and merchant tag, and each sum is posted once via {@link RecurlyClient#postSubscriptionUsage}, with the
+ * earliest usage timestamp and the latest recording timestamp of the window. Windows are posted once they are over,
+ * all of them when {@code maxPendingUsages} sums are pending, on {@link #flush()} and on {@link #close()}. A usage
+ * recorded for a window already posted is posted again with the next ones.
+ * <p>
+ * Memory is bounded: once twice {@code maxPendingUsages} sums are pending, {@link #record} blocks until a flush
+ * posted them, unless it is called by the {@link Listener}. After {@link #close()} returns, all the usage recorded
+ * was posted or reported as failed, even if the client was closed first: the posts then run on the flushing thread.
+ * <p>
+ * Sums are posted up to {@link RecurlyClientConfig#getUsageConcurrency()} at a time, each request going through the
+ * rate limiter as usual. Failed posts aren't retried: they are reported, with the latency of each flush, to the
+ * {@link Listener}, which may record them again.
+ */
+public class UsagePipeline implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(UsagePipeline.class);
+
+    /**
+     * Notified after each flush which posted usage, on the thread which ran it.
+     */
+    public interface Listener {
+
+        void onFlush(FlushReport report);
+    }
+
+    private final RecurlyClient recurlyClient;
+    private final int concurrency;
+    private final long windowMs;
+    private final int maxPendingUsages;
+    @Nullable
+    private final Listener listener;
+    private final ScheduledExecutorService flushExecutor;
+
+    // Guards pending, flushRequested and closed, notified when pending is drained
+    private final Object lock = new Object();
+    private final Map<Key, Sum> pending = new LinkedHashMap<Key, Sum>();
+    private boolean flushRequested;
+    private boolean closed;
+    // Set while the listener runs: record() doesn't wait for the flush it is called from
+    private final ThreadLocal<Boolean> notifying = new ThreadLocal<Boolean>();
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong posted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    UsagePipeline(final RecurlyClient recurlyClient, final int concurrency,
+                  final long windowMs, final int maxPendingUsages, final long flushIntervalMs, @Nullable final Listener listener) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("windowMs must be positive: " + windowMs);
+        }
+        this.recurlyClient = recurlyClient;
+        this.concurrency = Math.max(1, concurrency);
+        this.windowMs = windowMs;
+        this.maxPendingUsages = Math.max(1, maxPendingUsages);
+        this.listener = listener;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                                                                                                  .setNameFormat("recurly-usage-flush-%d")
+                                                                                                  .build());
+        if (flushIntervalMs > 0) {
+            flushExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushInBackground(false);
+                }
+            }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Buffer usage of a subscription add-on.
+     *
+     * @param subscriptionCode the subscription uuid
+     * @param addOnCode        the add-on code
+     * @param usage            the usage, with an amount or a decimal amount. Only the amounts, merchant tag and timestamps
+     *                         are posted: the usage timestamp defaults to now
+     */
+    public void record(final String subscriptionCode, final String addOnCode, final Usage usage) {
+        final BigDecimal amount = usage.getAmountDecimal() != null ? usage.getAmountDecimal() :
+                                  usage.getAmount() != null ? BigDecimal.valueOf(usage.getAmount()) : null;
+        if (amount == null) {
+            throw new IllegalArgumentException("Usage without amount: " + usage);
+        }
+        final DateTime usageAt = usage.getUsageAt() != null ? usage.getUsageAt() : new DateTime(DateTimeZone.UTC);
+        final long millis = usageAt.getMillis();
+        final Key key = new Key(subscriptionCode, addOnCode, millis - ((millis % windowMs) + windowMs) % windowMs, usage.getMerchantTag());
+
+        boolean interrupted = false;
+        try {
+            synchronized (lock) {
+                Sum sum;
+                while (true) {
+                    if (closed) {
+                        throw new IllegalStateException("Usage pipeline closed");
+                    }
+                    sum = pending.get(key);
+                    if (sum != null || pending.size() < 2 * maxPendingUsages || notifying.get() != null) {
+                        break;
+                    }
+                    // Backpressure: wait for the flush requested when maxPendingUsages was reached
+                    try {
+                        lock.wait();
+                    } catch (final InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (sum == null) {
+                    sum = new Sum();
+                    pending.put(key, sum);
+                }
+                sum.add(amount, usage.getAmountDecimal() != null, usageAt, usage.getRecordingAt());
+                recorded.incrementAndGet();
+
+                if (pending.size() >= maxPendingUsages && !flushRequested) {
+                    flushRequested = true;
+                    // Under the lock, so that close() can't shut the executor down in the meantime
+                    flushExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            flushInBackground(true);
+                        }
+                    });
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Post all pending usage, including the windows not over yet, and wait for the posts to complete.
+     *
+     * @return what was posted
+     */
+    public FlushReport flush() {
+        final Future<FlushReport> flush;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Usage pipeline closed");
+            }
+            // Serialized with the background flushes
+            flush = flushExecutor.submit(new Callable<FlushReport>() {
+                @Override
+                public FlushReport call() {
+                    return doFlush(true);
+                }
+            });
+        }
+        try {
+            return Uninterruptibles.getUninterruptibly(flush);
+        } catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Stop the background flushes and post all pending usage.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            // No usage can be recorded past this point: the final flush below drains everything
+            closed = true;
+            lock.notifyAll();
+        }
+        flushExecutor.shutdown();
+        // Let a background flush in progress complete
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (flushExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            doFlush(true);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    /**
+     * @return number of usage sums waiting to be posted
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return number of usages recorded
+     */
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    /**
+     * @return number of usage sums posted successfully
+     */
+    public long getPostedCount() {
+        return posted.get();
+    }
+
+    /**
+     * @return number of usage sums which failed to be posted
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return number of flushes which posted usage
+     */
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    private void flushInBackground(final boolean all) {
+        try {
+            doFlush(all);
+        } catch (final RuntimeException e) {
+            // Would otherwise cancel the scheduled flushes
+            log.warn("Unable to flush usage", e);
+        }
+    }
+
+    private FlushReport doFlush(final boolean all) {
+        final long startNanos = System.nanoTime();
+        final long now = System.currentTimeMillis();
+        final List<Key> keys = new ArrayList<Key>();
+        final List<Sum> sums = new ArrayList<Sum>();
+        synchronized (lock) {
+            if (all) {
+                flushRequested = false;
+            }
+            final Iterator<Map.Entry<Key, Sum>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<Key, Sum> entry = iterator.next();
+                if (all || entry.getKey().windowStart + windowMs <= now) {
+                    keys.add(entry.getKey());
+                    sums.add(entry.getValue());
+                    iterator.remove();
+                }
+            }
+            lock.notifyAll();
+        }
+        if (keys.isEmpty()) {
+            return new FlushReport(0, 0, Collections.<Failure>emptyList(), 0);
+        }
+
+        final Usage[] usages = new Usage[keys.size()];
+        final Throwable[] errors = new Throwable[keys.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final Callable<Void> worker = new Callable<Void>() {
+            @Override
+            public Void call() {
+                int i;
+                while ((i = next.getAndIncrement()) < usages.length) {
+                    final Key key = keys.get(i);
+                    usages[i] = sums.get(i).toUsage(key.merchantTag);
+                    try {
+                        if (recurlyClient.postSubscriptionUsage(key.subscriptionCode, key.addOnCode, usages[i]) == null) {
+                            errors[i] = new IOException("No response for the usage of " + key.subscriptionCode + "/" + key.addOnCode);
+                        }
+                    } catch (final RuntimeException e) {
+                        errors[i] = e;
+                    }
+                }
+                return null;
+            }
+        };
+        // Looked up on each flush: the client may have been closed since the pipeline was created
+        final ListeningExecutorService executor = recurlyClient.getBackgroundExecutor();
+        final List<ListenableFuture<Void>> workers = new ArrayList<ListenableFuture<Void>>();
+        boolean rejected = false;
+        for (int i = 0; i < Math.min(concurrency, usages.length); i++) {
+            try {
+                workers.add(executor.submit(worker));
+            } catch (final RejectedExecutionException e) {
+                rejected = true;
+                break;
+            }
+        }
+        if (rejected) {
+            // The executor was shut down by RecurlyClient#close: the sums left are posted, or fail, from this thread
+            workers.add(MoreExecutors.sameThreadExecutor().submit(worker));
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(Futures.allAsList(workers));
+        } catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+
+        int records = 0;
+        final List<Failure> failures = new ArrayList<Failure>();
+        for (int i = 0; i < usages.length; i++) {
+            records += sums.get(i).records;
+            if (errors[i] != null) {
+                failures.add(new Failure(keys.get(i).subscriptionCode, keys.get(i).addOnCode, usages[i], errors[i]));
+            }
+        }
+        final FlushReport report = new FlushReport(records, usages.length - failures.size(), failures,
+                                                   TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        posted.addAndGet(report.getPostedCount());
+        failed.addAndGet(failures.size());
+        flushes.incrementAndGet();
+        if (!failures.isEmpty()) {
+            log.warn("Unable to post " + failures.size() + " usage(s) out of " + usages.length, failures.get(0).getError());
+        }
+
+        if (listener != null) {
+            notifying.set(Boolean.TRUE);
+            try {
+                listener.onFlush(report);
+            } catch (final RuntimeException e) {
+                log.warn("Usage pipeline listener failed", e);
+            } finally {
+                notifying.remove();
+            }
+        }
+        return report;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("UsagePipeline{");
+        sb.append("windowMs=").append(windowMs);
+        sb.append(", pending=").append(getPendingCount());
+        sb.append(", recorded=").append(recorded);
+        sb.append(", posted=").append(posted);
+        sb.append(", failed=").append(failed);
+        sb.append(", flushes=").append(flushes);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Outcome of a flush.
+     */
+    public static class FlushReport {
+
+        private final int recordCount;
+        private final int postedCount;
+        private final List<Failure> failures;
+        private final long latencyMs;
+
+        FlushReport(final int recordCount, final int postedCount, final List<Failure> failures, final long latencyMs) {
+            this.recordCount = recordCount;
+            this.postedCount = postedCount;
+            this.failures = Collections.unmodifiableList(failures);
+            this.latencyMs = latencyMs;
+        }
+
+        /**
+         * @return number of usages recorded into the sums of this flush
+         */
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * @return number of sums posted successfully
+         */
+        public int getPostedCount() {
+            return postedCount;
+        }
+
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return time taken to post all the sums of this flush
+         */
+        public long getLatencyMs() {
+            return latencyMs;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("FlushReport{");
+            sb.append("recordCount=").append(recordCount);
+            sb.append(", postedCount=").append(postedCount);
+            sb.append(", failures=").append(failures.size());
+            sb.append(", latencyMs=").append(latencyMs);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A sum which couldn't be posted.
+     */
+    public static class Failure {
+
+        private final String subscriptionCode;
+        private final String addOnCode;
+        private final Usage usage;
+        private final Throwable error;
+
+        Failure(final String subscriptionCode, final String addOnCode, final Usage usage, final Throwable error) {
+            this.subscriptionCode = subscriptionCode;
+            this.addOnCode = addOnCode;
+            this.usage = usage;
+            this.error = error;
+        }
+
+        public String getSubscriptionCode() {
+            return subscriptionCode;
+        }
+
+        public String getAddOnCode() {
+            return addOnCode;
+        }
+
+        /**
+         * @return the summed usage, which can be recorded again
+         */
+        public Usage getUsage() {
+            return usage;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    private static final class Key {
+
+        private final String subscriptionCode;
+        private final String addOnCode;
+        private final long windowStart;
+        private final String merchantTag;
+
+        private Key(final String subscriptionCode, final String addOnCode, final long windowStart, @Nullable final String merchantTag) {
+            this.subscriptionCode = subscriptionCode;
+            this.addOnCode = addOnCode;
+            this.windowStart = windowStart;
+            this.merchantTag = merchantTag;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            final Key key = (Key) o;
+            return windowStart == key.windowStart &&
+                   subscriptionCode.equals(key.subscriptionCode) &&
+                   addOnCode.equals(key.addOnCode) &&
+                   Objects.equal(merchantTag, key.merchantTag);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(subscriptionCode, addOnCode, windowStart, merchantTag);
+        }
+    }
+
+    // Guarded by the pipeline lock until removed from pending
+    private static final class Sum {
+
+        private BigDecimal amount = BigDecimal.ZERO;
+        private boolean decimal;
+        private DateTime usageAt;
+        private DateTime recordingAt;
+        private int records;
+
+        private void add(final BigDecimal amount, final boolean decimal, final DateTime usageAt, @Nullable final DateTime recordingAt) {
+            this.amount = this.amount.add(amount);
+            this.decimal |= decimal;
+            if (this.usageAt == null || usageAt.isBefore(this.usageAt)) {
+                this.usageAt = usageAt;
+            }
+            if (recordingAt != null && (this.recordingAt == null || recordingAt.isAfter(this.recordingAt))) {
+                this.recordingAt = recordingAt;
+            }
+            records++;
+        }
+
+        private Usage toUsage(@Nullable final String merchantTag) {
+            final Usage usage = new Usage();
+            if (decimal || amount.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0 ||
+                amount.compareTo(BigDecimal.valueOf(Integer.MIN_VALUE)) < 0) {
+                usage.setAmountDecimal(amount);
+            } else {
+                usage.setAmount(amount.intValueExact());
+            }
+            usage.setMerchantTag(merchantTag);
+            usage.setUsageAt(usageAt);
+            usage.setRecordingAt(recordingAt);
+            return usage;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.push.Notification;
+
+/**
+ * Resolves ahead of time what the {@link XmlMapper} otherwise builds on first use: the serializers and deserializers
+ * of the model classes (introspection of their annotations, class loading) and the XML parser and generator.
+ * <p>
+ * The classes are the ones {@link RecurlyClient} reads and writes, the push notifications, and the model classes
+ * reachable from their properties. They are handled in parallel, although Jackson builds deserializers one at a time.
+ * Call {@link #warmUp()} at startup, e.g. next to {@link RecurlyClient#open()}, so that the first requests don't pay for it.
+ */
+public final class XmlMapperWarmUp {
+
+    private static final Logger log = LoggerFactory.getLogger(XmlMapperWarmUp.class);
+
+    private static final String MODEL_PACKAGE = RecurlyObject.class.getPackage().getName() + ".";
+
+    private static final String WARM_UP_ACCOUNT = "<account><account_code>warm-up</account_code></account>";
+
+    private XmlMapperWarmUp() {
+    }
+
+    /**
+     * Warm up {@link RecurlyObject#sharedXmlMapper()}, using as many threads as processors
+     *
+     * @return the number of model classes resolved
+     */
+    public static int warmUp() {
+        return warmUp(RecurlyObject.sharedXmlMapper(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param xmlMapper   mapper to warm up
+     * @param parallelism number of threads resolving the model classes
+     * @return the number of model classes resolved
+     */
+    public static int warmUp(final XmlMapper xmlMapper, final int parallelism) {
+        final long startNanos = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder().setDaemon(true)
+                                                                                                             .setNameFormat("recurly-warm-up-%d")
+                                                                                                             .build());
+        try {
+            final CompletionService<Set<Class<?>>> completionService = new ExecutorCompletionService<Set<Class<?>>>(executor);
+            final Set<Class<?>> seen = new HashSet<Class<?>>();
+            int pending = 0;
+            for (final Class<?> clazz : roots()) {
+                if (seen.add(clazz)) {
+                    completionService.submit(new ResolveTask(xmlMapper, clazz));
+                    pending++;
+                }
+            }
+
+            // Parser and generator, on this thread while the classes are being resolved
+            warmUpParsing(xmlMapper);
+
+            while (pending > 0) {
+                final Set<Class<?>> reachable = completionService.take().get();
+                pending--;
+                for (final Class<?> clazz : reachable) {
+                    if (seen.add(clazz)) {
+                        completionService.submit(new ResolveTask(xmlMapper, clazz));
+                        pending++;
+                    }
+                }
+            }
+
+            log.debug("Warmed up the XmlMapper with {} model classes in {} ms", seen.size(), (System.nanoTime() - startNanos) / 1000000);
+            return seen.size();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Visible for testing
+    static Set<Class<?>> roots() {
+        final Set<Class<?>> roots = new LinkedHashSet<Class<?>>();
+        for (final Method method : RecurlyClient.class.getMethods()) {
+            addModelClasses(method.getGenericReturnType(), roots);
+            for (final Type parameterType : method.getGenericParameterTypes()) {
+                addModelClasses(parameterType, roots);
+            }
+        }
+        for (final Notification.Type type : Notification.Type.values()) {
+            roots.add(type.getJavaType());
+        }
+        return roots;
+    }
+
+    // The model classes its properties refer to, whether Jackson sees them or not: resolving a few more is harmless
+    static Set<Class<?>> reachable(final Class<?> clazz) {
+        final Set<Class<?>> reachable = new LinkedHashSet<Class<?>>();
+        for (Class<?> current = clazz; current != null && current.getName().startsWith(MODEL_PACKAGE); current = current.getSuperclass()) {
+            for (final Field field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    addModelClasses(field.getGenericType(), reachable);
+                }
+            }
+            for (final Method method : current.getDeclaredMethods()) {
+                if (!Modifier.isStatic(method.getModifiers()) && !method.isSynthetic()) {
+                    addModelClasses(method.getGenericReturnType(), reachable);
+                    for (final Type parameterType : method.getGenericParameterTypes()) {
+                        addModelClasses(parameterType, reachable);
+                    }
+                }
+            }
+        }
+        reachable.remove(clazz);
+        return reachable;
+    }
+
+    private static void addModelClasses(final Type type, final Collection<Class<?>> classes) {
+        if (type instanceof Class) {
+            final Class<?> clazz = (Class<?>) type;
+            if (clazz.isArray()) {
+                addModelClasses(clazz.getComponentType(), classes);
+            } else if (clazz.getName().startsWith(MODEL_PACKAGE)) {
+                classes.add(clazz);
+            }
+        } else if (type instanceof ParameterizedType) {
+            addModelClasses(((ParameterizedType) type).getRawType(), classes);
+            for (final Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                addModelClasses(argument, classes);
+            }
+        } else if (type instanceof GenericArrayType) {
+            addModelClasses(((GenericArrayType) type).getGenericComponentType(), classes);
+        } else if (type instanceof WildcardType) {
+            for (final Type bound : ((WildcardType) type).getUpperBounds()) {
+                addModelClasses(bound, classes);
+            }
+        }
+    }
+
+    private static void warmUpParsing(final XmlMapper xmlMapper) {
+        try {
+            xmlMapper.writeValueAsString(xmlMapper.readValue(WARM_UP_ACCOUNT, Account.class));
+        } catch (final IOException e) {
+            log.warn("Unable to warm up the XML parser", e);
+        }
+    }
+
+    private static final class ResolveTask implements Callable<Set<Class<?>>> {
+
+        private final XmlMapper xmlMapper;
+        private final Class<?> clazz;
+
+        private ResolveTask(final XmlMapper xmlMapper, final Class<?> clazz) {
+            this.xmlMapper = xmlMapper;
+            this.clazz = clazz;
+        }
+
+        @Override
+        public Set<Class<?>> call() {
+            // Both build and cache the (de)serializer, returning false when the class isn't supported
+            xmlMapper.canSerialize(clazz);
+            if (!clazz.isInterface() && !Modifier.isAbstract(clazz.getModifiers())) {
+                xmlMapper.canDeserialize(xmlMapper.constructType(clazz));
+            }
+            return reachable(clazz);
+        }
+    }
+}
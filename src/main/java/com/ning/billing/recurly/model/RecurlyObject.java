@@ -33,6 +33,7 @@ import com.fasterxml.jackson.datatype.joda.JodaModule;
 import com.fasterxml.jackson.module.jaxb.JaxbAnnotationIntrospector;
 import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
 import com.ning.billing.recurly.RecurlyClient;
+import com.ning.billing.recurly.ReferenceLoader;
 import com.ning.billing.recurly.model.jackson.RecurlyObjectsSerializer;
 import com.ning.billing.recurly.model.jackson.RecurlyXmlSerializerProvider;
 import org.joda.time.DateTime;
@@ -54,6 +55,9 @@ public abstract class RecurlyObject {
     @XmlTransient
     protected String href;
 
+    @XmlTransient
+    private ReferenceLoader referenceLoader;
+
     public static final String NIL_STR = "nil";
     public static final List<String> NIL_VAL = Arrays.asList("nil", "true");
 
@@ -70,10 +74,19 @@ public abstract class RecurlyObject {
     }
 
     public static XmlMapper newXmlMapper() {
+        return configureXmlMapper(new XmlMapper(newXmlInputFactory()));
+    }
+
+    // Visible for testing
+    static XMLInputFactory newXmlInputFactory() {
         final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
         xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
         xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
-        final XmlMapper xmlMapper = new XmlMapper(xmlInputFactory);
+        return xmlInputFactory;
+    }
+
+    // Visible for testing
+    static <T extends XmlMapper> T configureXmlMapper(final T xmlMapper) {
         xmlMapper.setSerializerProvider(new RecurlyXmlSerializerProvider());
         final AnnotationIntrospector primary = new JacksonAnnotationIntrospector();
         final AnnotationIntrospector secondary = new JaxbAnnotationIntrospector(TypeFactory.defaultInstance());
@@ -107,6 +120,7 @@ public abstract class RecurlyObject {
         m.addSerializer(Usages.class, new RecurlyObjectsSerializer<Usages, Usage>(Usages.class, "usage"));
         m.addSerializer(ExternalProductReferences.class, new RecurlyObjectsSerializer<ExternalProductReferences, ExternalProductReference>(ExternalProductReferences.class, "external_product_reference"));
         m.addSerializer(BusinessEntities.class, new RecurlyObjectsSerializer<BusinessEntities, BusinessEntity>(BusinessEntities.class, "business_entity"));
+        m.addDeserializer(Object.class, new UntypedXmlDeserializer());
         xmlMapper.registerModule(m);
 
         return xmlMapper;
@@ -250,7 +264,13 @@ public abstract class RecurlyObject {
     }
 
     <T extends RecurlyObject> T fetch(final T object, final Class<T> clazz) {
-        if (object.getHref() == null || recurlyClient == null) {
+        if (object.getHref() == null) {
+            return object;
+        }
+        if (referenceLoader != null) {
+            return referenceLoader.fetch(object, clazz);
+        }
+        if (recurlyClient == null) {
             return object;
         }
         return recurlyClient.doGETWithFullURL(clazz, object.getHref());
@@ -260,6 +280,15 @@ public abstract class RecurlyObject {
         this.recurlyClient = recurlyClient;
     }
 
+    /**
+     * @param referenceLoader resolves the references of this object (e.g. its account) instead of fetching them one at a time,
+     *                        see {@link RecurlyClient#loadReferences}
+     */
+    @JsonIgnore
+    public void setReferenceLoader(@Nullable final ReferenceLoader referenceLoader) {
+        this.referenceLoader = referenceLoader;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
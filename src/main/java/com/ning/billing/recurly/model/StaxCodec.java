@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.DefaultSerializerProvider;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.google.common.base.Optional;
+import com.ning.billing.recurly.model.jackson.RecurlyObjectsSerializer;
+
+/**
+ * Alternative to the reflective Jackson binding of the model, backed by the StAX readers and writers generated at
+ * compile time by {@code StaxCodecProcessor} from the JAXB and Jackson annotations of the model classes.
+ * <p>
+ * The output is the same as the given {@link XmlMapper}'s (by default, {@link RecurlyObject#sharedXmlMapper()}):
+ * classes without generated code, and documents with content the generated code doesn't handle, go through the
+ * mapper. Documents are therefore read from memory, and written to memory first.
+ */
+public class StaxCodec {
+
+    private static final String READER_SUFFIX = "StaxReader";
+    private static final String WRITER_SUFFIX = "StaxWriter";
+
+    private final XmlMapper xmlMapper;
+    private final XMLInputFactory xmlInputFactory;
+    private final XMLOutputFactory xmlOutputFactory;
+
+    private final ConcurrentMap<Class<?>, Optional<StaxReader<?>>> readers = new ConcurrentHashMap<Class<?>, Optional<StaxReader<?>>>();
+    private final ConcurrentMap<Class<?>, Optional<StaxWriter<?>>> writers = new ConcurrentHashMap<Class<?>, Optional<StaxWriter<?>>>();
+    private final ConcurrentMap<Class<?>, Optional<String>> listElementNames = new ConcurrentHashMap<Class<?>, Optional<String>>();
+
+    public StaxCodec() {
+        this(RecurlyObject.sharedXmlMapper());
+    }
+
+    public StaxCodec(final XmlMapper xmlMapper) {
+        this.xmlMapper = xmlMapper;
+        // Same parser and writer settings as the mapper
+        this.xmlInputFactory = xmlMapper.getFactory().getXMLInputFactory();
+        this.xmlOutputFactory = xmlMapper.getFactory().getXMLOutputFactory();
+    }
+
+    public XmlMapper getXmlMapper() {
+        return xmlMapper;
+    }
+
+    /**
+     * @return whether documents of the given class are read through generated code
+     */
+    public boolean canRead(final Class<?> clazz) {
+        return findReader(clazz) != null;
+    }
+
+    /**
+     * @return whether objects of the given class are written through generated code
+     */
+    public boolean canWrite(final Class<?> clazz) {
+        return findWriter(clazz) != null;
+    }
+
+    public <T> T readValue(final String content, final Class<T> clazz) throws IOException {
+        final StaxReader<T> binding = findReader(clazz);
+        if (binding != null) {
+            try {
+                return read(xmlInputFactory.createXMLStreamReader(new StringReader(content)), binding);
+            } catch (final XMLStreamException e) {
+                // Let the mapper report it
+            } catch (final RuntimeException e) {
+                // Unsupported content, or a setter failure the mapper will report
+            }
+        }
+        return xmlMapper.readValue(content, clazz);
+    }
+
+    public <T> T readValue(final byte[] content, final Class<T> clazz) throws IOException {
+        final StaxReader<T> binding = findReader(clazz);
+        if (binding != null) {
+            try {
+                return read(xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(content)), binding);
+            } catch (final XMLStreamException e) {
+                // Let the mapper report it
+            } catch (final RuntimeException e) {
+                // Unsupported content, or a setter failure the mapper will report
+            }
+        }
+        return xmlMapper.readValue(content, clazz);
+    }
+
+    public String writeValueAsString(final Object value) throws IOException {
+        final StaxWriter<Object> binding = findWriter(value);
+        if (binding != null) {
+            final StringWriter out = new StringWriter();
+            try {
+                write(xmlOutputFactory.createXMLStreamWriter(out), binding, value);
+                return out.toString();
+            } catch (final XMLStreamException e) {
+                // Let the mapper report it
+            } catch (final UnsupportedContentException e) {
+                // Fall back to the mapper
+            }
+        }
+        return xmlMapper.writeValueAsString(value);
+    }
+
+    /**
+     * Write the given object, encoded in UTF-8. The stream isn't closed.
+     */
+    public void writeValue(final OutputStream out, final Object value) throws IOException {
+        final StaxWriter<Object> binding = findWriter(value);
+        if (binding != null) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try {
+                write(xmlOutputFactory.createXMLStreamWriter(buffer, "UTF-8"), binding, value);
+                buffer.writeTo(out);
+                return;
+            } catch (final XMLStreamException e) {
+                // Let the mapper report it
+            } catch (final UnsupportedContentException e) {
+                // Fall back to the mapper
+            }
+        }
+
+        final JsonGenerator generator = xmlMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            xmlMapper.writeValue(generator, value);
+        } finally {
+            generator.close();
+        }
+    }
+
+    // Visible for testing: no fallback to the mapper
+    <T> T readGenerated(final String content, final Class<T> clazz) throws XMLStreamException {
+        final StaxReader<T> binding = findReader(clazz);
+        if (binding == null) {
+            throw new IllegalArgumentException("No generated reader for " + clazz);
+        }
+        return read(xmlInputFactory.createXMLStreamReader(new StringReader(content)), binding);
+    }
+
+    // Visible for testing: no fallback to the mapper
+    String writeGenerated(final Object value) throws XMLStreamException {
+        final StaxWriter<Object> binding = findWriter(value);
+        if (binding == null) {
+            throw new IllegalArgumentException("No generated writer for " + value.getClass());
+        }
+        final StringWriter out = new StringWriter();
+        write(xmlOutputFactory.createXMLStreamWriter(out), binding, value);
+        return out.toString();
+    }
+
+    /**
+     * @return whether the mapper writes the given {@link RecurlyObjects} class through a {@link RecurlyObjectsSerializer}
+     * with the given item element name
+     */
+    boolean hasListSerializer(final Class<?> clazz, final String elementName) {
+        Optional<String> listElementName = listElementNames.get(clazz);
+        if (listElementName == null) {
+            listElementName = Optional.absent();
+            final SerializerProvider provider = ((DefaultSerializerProvider) xmlMapper.getSerializerProvider()).createInstance(xmlMapper.getSerializationConfig(),
+                                                                                                                               xmlMapper.getSerializerFactory());
+            try {
+                final JsonSerializer<Object> serializer = provider.findValueSerializer(clazz, null);
+                if (serializer instanceof RecurlyObjectsSerializer) {
+                    listElementName = Optional.of(((RecurlyObjectsSerializer) serializer).getElementName());
+                }
+            } catch (final JsonMappingException ignored) {
+                // Not serializable
+            }
+            listElementNames.put(clazz, listElementName);
+        }
+        return elementName.equals(listElementName.orNull());
+    }
+
+    private static <T> T read(final XMLStreamReader reader, final StaxReader<T> binding) throws XMLStreamException {
+        try {
+            while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                if (reader.getEventType() == XMLStreamConstants.END_DOCUMENT) {
+                    throw UnsupportedContentException.INSTANCE;
+                }
+            }
+            return StaxReader.readRoot(reader, binding);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void write(final XMLStreamWriter writer, final StaxWriter<Object> binding, final Object value) throws XMLStreamException {
+        // As XmlFactory does
+        writer.setDefaultNamespace("");
+        writer.writeStartElement("", binding.rootName());
+        binding.write(this, writer, value);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> StaxReader<T> findReader(final Class<T> clazz) {
+        Optional<StaxReader<?>> reader = readers.get(clazz);
+        if (reader == null) {
+            reader = Optional.<StaxReader<?>>fromNullable((StaxReader<?>) lookup(clazz, READER_SUFFIX));
+            readers.put(clazz, reader);
+        }
+        return (StaxReader<T>) reader.orNull();
+    }
+
+    @SuppressWarnings("unchecked")
+    private StaxWriter<Object> findWriter(final Object value) {
+        return value == null ? null : (StaxWriter<Object>) findWriter(value.getClass());
+    }
+
+    private StaxWriter<?> findWriter(final Class<?> clazz) {
+        Optional<StaxWriter<?>> writer = writers.get(clazz);
+        if (writer == null) {
+            writer = Optional.<StaxWriter<?>>fromNullable((StaxWriter<?>) lookup(clazz, WRITER_SUFFIX));
+            writers.put(clazz, writer);
+        }
+        return writer.orNull();
+    }
+
+    // The generated classes are named after the (flattened) model class, e.g. AccountStaxReader or GiftCard_RedemptionStaxWriter
+    private static Object lookup(final Class<?> clazz, final String suffix) {
+        if (!clazz.getName().startsWith(StaxCodec.class.getPackage().getName() + ".")) {
+            return null;
+        }
+        try {
+            final Class<?> generated = Class.forName(clazz.getName().replace('$', '_') + suffix, true, StaxCodec.class.getClassLoader());
+            return generated.getDeclaredField("INSTANCE").get(null);
+        } catch (final ClassNotFoundException e) {
+            return null;
+        } catch (final NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
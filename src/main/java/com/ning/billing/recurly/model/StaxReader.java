@@ -0,0 +1,423 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly.model;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Base class of the readers generated by {@code StaxCodecProcessor}, one per model class.
+ * <p>
+ * A generated reader only binds properties: it creates the object, sets one attribute or one child element at a time,
+ * and leaves the cursor handling to the static helpers below. These mirror what the Jackson mapper built by
+ * {@link RecurlyObject#newXmlMapper()} produces for the same document; whenever the content isn't one of the shapes
+ * they know about, they throw {@link UnsupportedContentException} and {@link StaxCodec} reads the document
+ * through the mapper instead.
+ *
+ * @param <T> the bound class
+ */
+abstract class StaxReader<T> {
+
+    private static final String TYPE_ATTRIBUTE = "type";
+    // Key of the element text when the element has attributes
+    private static final String TEXT_KEY = "";
+
+    abstract T newInstance();
+
+    /**
+     * @param value object being read
+     * @param name  attribute local name
+     * @param text  attribute value
+     */
+    abstract void attribute(T value, String name, String text);
+
+    /**
+     * @param value  object being read
+     * @param reader positioned on the START_ELEMENT of a child element, to be left on its END_ELEMENT
+     */
+    abstract void element(T value, XMLStreamReader reader) throws XMLStreamException;
+
+    /**
+     * Read the root element: unlike nested elements, it always yields an object.
+     */
+    static <T> T readRoot(final XMLStreamReader reader, final StaxReader<T> binding) throws XMLStreamException {
+        final T value = binding.newInstance();
+        final int attributeCount = reader.getAttributeCount();
+        for (int i = 0; i < attributeCount; i++) {
+            binding.attribute(value, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+
+        boolean children = false;
+        boolean text = false;
+        while (true) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                children = true;
+                binding.element(value, reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else if (isText(event)) {
+                text = text || reader.getTextLength() > 0;
+            }
+        }
+        if (text && !children && attributeCount == 0) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return value;
+    }
+
+    /**
+     * Read a nested object (bean or list of objects): an empty element yields null.
+     */
+    static <T> T readObject(final XMLStreamReader reader, final StaxReader<T> binding) throws XMLStreamException {
+        T value = null;
+        final int attributeCount = reader.getAttributeCount();
+        if (attributeCount > 0) {
+            value = binding.newInstance();
+            for (int i = 0; i < attributeCount; i++) {
+                binding.attribute(value, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+
+        boolean text = false;
+        while (true) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (value == null) {
+                    value = binding.newInstance();
+                }
+                binding.element(value, reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else if (isText(event)) {
+                text = text || reader.getTextLength() > 0;
+            }
+        }
+        if (value == null && text) {
+            // Jackson can't bind a text node to an object
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return value;
+    }
+
+    /**
+     * Read an {@code Object} property, the same way {@link UntypedXmlDeserializer} does: typed values yield their
+     * text, nil values null, leaves their text (null if empty) and anything else a map.
+     */
+    static Object readUntyped(final XMLStreamReader reader) throws XMLStreamException {
+        final int attributeCount = reader.getAttributeCount();
+        List<String> keys = null;
+        List<Object> values = null;
+        if (attributeCount > 0) {
+            keys = new ArrayList<String>(attributeCount + 1);
+            values = new ArrayList<Object>(attributeCount + 1);
+            for (int i = 0; i < attributeCount; i++) {
+                keys.add(reader.getAttributeLocalName(i));
+                values.add(reader.getAttributeValue(i));
+            }
+        }
+
+        String text = null;
+        StringBuilder sb = null;
+        boolean children = false;
+        while (true) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (keys == null) {
+                    keys = new ArrayList<String>();
+                    values = new ArrayList<Object>();
+                }
+                // Text mixed with elements is dropped
+                children = true;
+                keys.add(reader.getLocalName());
+                values.add(readUntyped(reader));
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else if (isText(event) && !children) {
+                if (text == null) {
+                    text = reader.getText();
+                } else {
+                    if (sb == null) {
+                        sb = new StringBuilder(text);
+                    }
+                    sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+        }
+        if (sb != null) {
+            text = sb.toString();
+        }
+
+        if (keys == null) {
+            return text == null || text.length() == 0 ? null : text;
+        }
+        if (!children && text != null && text.length() > 0) {
+            keys.add(TEXT_KEY);
+            values.add(text);
+        }
+        return untyped(keys, values);
+    }
+
+    private static Object untyped(final List<String> keys, final List<Object> values) {
+        final int size = keys.size();
+        if (size == 2 &&
+            TYPE_ATTRIBUTE.equals(keys.get(0)) && TEXT_KEY.equals(keys.get(1)) &&
+            values.get(0) instanceof String && values.get(1) instanceof String) {
+            return values.get(1);
+        }
+
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+            final String key = keys.get(i);
+            final Object value = values.get(i);
+            if (isNil(key, value)) {
+                return null;
+            }
+            map.put(key, value);
+        }
+        return map;
+    }
+
+    private static boolean isNil(final String key, final Object value) {
+        return RecurlyObject.NIL_STR.equals(key) && value != null && RecurlyObject.NIL_VAL.contains(value.toString());
+    }
+
+    /**
+     * Read a {@code String} property: an empty element yields null.
+     */
+    static String readString(final XMLStreamReader reader) throws XMLStreamException {
+        if (reader.getAttributeCount() > 0) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        final String text = readText(reader);
+        return text.length() == 0 ? null : text;
+    }
+
+    /**
+     * Read an {@code Integer} property, only accepting plain decimal values.
+     */
+    static Integer readInteger(final XMLStreamReader reader) throws XMLStreamException {
+        final String text = readString(reader);
+        return text == null ? null : toInteger(text);
+    }
+
+    static Integer toInteger(final String text) {
+        if (!isDecimal(text, 9)) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return Integer.valueOf(text);
+    }
+
+    /**
+     * Read a {@code Long} property, only accepting plain decimal values.
+     */
+    static Long readLong(final XMLStreamReader reader) throws XMLStreamException {
+        final String text = readString(reader);
+        return text == null ? null : toLong(text);
+    }
+
+    static Long toLong(final String text) {
+        if (!isDecimal(text, 18)) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return Long.valueOf(text);
+    }
+
+    /**
+     * Read a {@code Boolean} property, only accepting {@code true} and {@code false}.
+     */
+    static Boolean readBoolean(final XMLStreamReader reader) throws XMLStreamException {
+        final String text = readString(reader);
+        return text == null ? null : toBoolean(text);
+    }
+
+    static Boolean toBoolean(final String text) {
+        if ("true".equals(text)) {
+            return Boolean.TRUE;
+        } else if ("false".equals(text)) {
+            return Boolean.FALSE;
+        }
+        throw UnsupportedContentException.INSTANCE;
+    }
+
+    /**
+     * Check the value of an attribute bound to a property: empty values aren't handled.
+     */
+    static String attributeText(final String text) {
+        if (text.length() == 0) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return text;
+    }
+
+    /**
+     * Read a wrapped list of strings (e.g. {@code <coupon_codes><coupon_code>a</coupon_code></coupon_codes>}):
+     * whatever the item element names, an empty item yields an empty string.
+     */
+    static List<String> readStringList(final XMLStreamReader reader) throws XMLStreamException {
+        final int attributeCount = reader.getAttributeCount();
+        List<String> list = null;
+        boolean text = false;
+        boolean nonBlankText = false;
+        while (true) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (list == null) {
+                    list = new ArrayList<String>();
+                }
+                if (reader.getAttributeCount() > 0) {
+                    final String item = readText(reader);
+                    if (item.length() == 0) {
+                        throw UnsupportedContentException.INSTANCE;
+                    }
+                    list.add(item);
+                } else {
+                    list.add(readText(reader));
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else if (isText(event)) {
+                text = text || reader.getTextLength() > 0;
+                nonBlankText = nonBlankText || !reader.isWhiteSpace();
+            }
+        }
+        if (list == null ? text || attributeCount > 0 : nonBlankText) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return list;
+    }
+
+    /**
+     * Read a wrapped list of objects (e.g. {@code <tax_details><tax_detail>...</tax_detail></tax_details>}):
+     * whatever the item element names, an empty item yields null.
+     */
+    static <T> List<T> readObjectList(final XMLStreamReader reader, final StaxReader<T> binding) throws XMLStreamException {
+        final int attributeCount = reader.getAttributeCount();
+        List<T> list = null;
+        boolean text = false;
+        boolean nonBlankText = false;
+        while (true) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (list == null) {
+                    list = new ArrayList<T>();
+                }
+                list.add(readObject(reader, binding));
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else if (isText(event)) {
+                text = text || reader.getTextLength() > 0;
+                nonBlankText = nonBlankText || !reader.isWhiteSpace();
+            }
+        }
+        if (list == null ? text || attributeCount > 0 : nonBlankText) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        return list;
+    }
+
+    /**
+     * Skip the current element and its content.
+     */
+    static void skip(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Look up a field assigned by Jackson directly, i.e. without a setter.
+     */
+    static Field field(final Class<?> clazz, final String name) {
+        try {
+            final Field field = clazz.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (final NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void set(final Field field, final Object target, final Object value) {
+        try {
+            field.set(target, value);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Text of a leaf element, empty if none
+    private static String readText(final XMLStreamReader reader) throws XMLStreamException {
+        String text = null;
+        StringBuilder sb = null;
+        while (true) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                throw UnsupportedContentException.INSTANCE;
+            } else if (isText(event)) {
+                if (text == null) {
+                    text = reader.getText();
+                } else {
+                    if (sb == null) {
+                        sb = new StringBuilder(text);
+                    }
+                    sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            }
+        }
+        return sb != null ? sb.toString() : text == null ? "" : text;
+    }
+
+    // Optional minus sign, then up to maxDigits digits: values Jackson parses the same way, without overflow
+    private static boolean isDecimal(final String text, final int maxDigits) {
+        final int start = text.startsWith("-") ? 1 : 0;
+        final int length = text.length() - start;
+        if (length == 0 || length > maxDigits) {
+            return false;
+        }
+        for (int i = start; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isText(final int event) {
+        return event == XMLStreamConstants.CHARACTERS ||
+               event == XMLStreamConstants.CDATA ||
+               event == XMLStreamConstants.SPACE;
+    }
+}
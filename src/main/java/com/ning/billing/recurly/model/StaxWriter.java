@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly.model;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Base class of the writers generated by {@code StaxCodecProcessor}, one per model class.
+ * <p>
+ * A generated writer emits the non-null properties of an object in the order the Jackson mapper built by
+ * {@link RecurlyObject#newXmlMapper()} does, with the same element names and value formats. Values it can't vouch
+ * for at runtime (e.g. a subclass instance, or a list without a {@code RecurlyObjectsSerializer}) make it throw
+ * {@link UnsupportedContentException}: {@link StaxCodec} then writes the whole document through the mapper.
+ *
+ * @param <T> the bound class
+ */
+abstract class StaxWriter<T> {
+
+    // Same format as the Joda module, with dates not written as timestamps
+    private static final DateTimeFormatter DATE_TIME_FORMAT = ISODateTimeFormat.dateTime().withZoneUTC();
+
+    /**
+     * @return the name of the root element when the object is written on its own
+     */
+    abstract String rootName();
+
+    /**
+     * Write the content (attributes aren't used) of the element representing the object.
+     */
+    abstract void write(StaxCodec codec, XMLStreamWriter writer, T value) throws XMLStreamException;
+
+    static void writeText(final XMLStreamWriter writer, final String name, final String text) throws XMLStreamException {
+        writer.writeStartElement("", name);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+    }
+
+    static String format(final DateTime dateTime) {
+        return DATE_TIME_FORMAT.print(dateTime);
+    }
+
+    static <T> void writeObject(final StaxCodec codec, final XMLStreamWriter writer, final String name,
+                                final T value, final Class<T> type, final StaxWriter<T> binding) throws XMLStreamException {
+        if (value == null) {
+            writer.writeEmptyElement("", name);
+            return;
+        }
+        // The mapper serializes the runtime class
+        if (value.getClass() != type) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        writer.writeStartElement("", name);
+        binding.write(codec, writer, value);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Write a {@link RecurlyObjects} property, wrapped in its {@code XmlElementWrapper} element.
+     */
+    static <T extends RecurlyObjects<?>> void writeObjects(final StaxCodec codec, final XMLStreamWriter writer, final String wrapperName,
+                                                          final T value, final Class<T> type, final StaxWriter<T> binding) throws XMLStreamException {
+        if (value.getClass() != type) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        writer.writeStartElement("", wrapperName);
+        binding.write(codec, writer, value);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Write the items of a {@link RecurlyObjects}, the way {@code RecurlyObjectsSerializer} does.
+     */
+    static <T> void writeItems(final StaxCodec codec, final XMLStreamWriter writer, final RecurlyObjects<?> list, final String itemName,
+                               final Class<T> itemType, final StaxWriter<T> itemBinding) throws XMLStreamException {
+        if (!codec.hasListSerializer(list.getClass(), itemName)) {
+            throw UnsupportedContentException.INSTANCE;
+        }
+        for (final Object item : list) {
+            writeObject(codec, writer, itemName, itemType.cast(item), itemType, itemBinding);
+        }
+    }
+
+    static void writeStringList(final XMLStreamWriter writer, final String wrapperName, final String itemName,
+                                final List<String> value) throws XMLStreamException {
+        writer.writeStartElement("", wrapperName);
+        for (final String item : value) {
+            if (item == null) {
+                writer.writeEmptyElement("", itemName);
+            } else {
+                writeText(writer, itemName, item);
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    static <T> void writeObjectList(final StaxCodec codec, final XMLStreamWriter writer, final String wrapperName, final String itemName,
+                                    final List<T> value, final Class<T> itemType, final StaxWriter<T> itemBinding) throws XMLStreamException {
+        writer.writeStartElement("", wrapperName);
+        for (final T item : value) {
+            writeObject(codec, writer, itemName, item, itemType, itemBinding);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Look up a field serialized by Jackson directly, i.e. without a getter.
+     */
+    static Field field(final Class<?> clazz, final String name) {
+        return StaxReader.field(clazz, name);
+    }
+
+    static Object get(final Field field, final Object target) {
+        try {
+            return field.get(target);
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly.model;
+
+/**
+ * Thrown by the generated readers and writers on content they don't mirror the Jackson mapper for:
+ * {@link StaxCodec} then reads or writes the whole document through the mapper instead.
+ */
+final class UnsupportedContentException extends RuntimeException {
+
+    static final UnsupportedContentException INSTANCE = new UnsupportedContentException();
+
+    private UnsupportedContentException() {
+        super("Content not supported by the generated codec");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        // Shared instance, only used for control flow
+        return this;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * Deserializer for the untyped ({@code Object}) properties of the model, replacing Jackson's
+ * {@code UntypedObjectDeserializer}.
+ * <p>
+ * Typed values (e.g. {@code <total_in_cents type="integer">1305</total_in_cents>}) and nil values
+ * (e.g. {@code <po_number nil="nil"></po_number>}) are read straight from the token stream: the former yield
+ * their text, the latter null, instead of a {@code {type=integer, =1305}} or {@code {nil=nil}} map which
+ * {@link RecurlyObject#integerOrNull} and friends would then have to unpack. Any other element is
+ * bound to a map, as before.
+ */
+public class UntypedXmlDeserializer extends StdDeserializer<Object> {
+
+    private static final String TYPE_ATTRIBUTE = "type";
+    // Key of the element text when the element has attributes
+    private static final String TEXT_KEY = "";
+
+    public UntypedXmlDeserializer() {
+        super(Object.class);
+    }
+
+    @Override
+    public Object deserialize(final JsonParser p, final DeserializationContext ctxt) throws IOException {
+        switch (p.getCurrentToken()) {
+            case START_OBJECT:
+            case FIELD_NAME:
+                return mapObject(p, ctxt);
+            case START_ARRAY:
+                return mapArray(p, ctxt);
+            case VALUE_STRING:
+                return p.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return p.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_EMBEDDED_OBJECT:
+                return p.getEmbeddedObject();
+            case VALUE_NULL:
+                return null;
+            default:
+                throw ctxt.mappingException(Object.class);
+        }
+    }
+
+    private Object mapObject(final JsonParser p, final DeserializationContext ctxt) throws IOException {
+        JsonToken t = p.getCurrentToken();
+        if (t == JsonToken.START_OBJECT) {
+            t = p.nextToken();
+        }
+        if (t != JsonToken.FIELD_NAME) {
+            return new LinkedHashMap<String, Object>(2);
+        }
+
+        // Typed and nil values have one or two fields: look at them before allocating a map
+        final String key1 = p.getCurrentName();
+        p.nextToken();
+        final Object value1 = deserialize(p, ctxt);
+        if (p.nextToken() != JsonToken.FIELD_NAME) {
+            if (isNil(key1, value1)) {
+                return null;
+            }
+            final Map<String, Object> map = new LinkedHashMap<String, Object>(2);
+            map.put(key1, value1);
+            return map;
+        }
+
+        final String key2 = p.getCurrentName();
+        p.nextToken();
+        final Object value2 = deserialize(p, ctxt);
+        if (p.nextToken() != JsonToken.FIELD_NAME) {
+            if (TYPE_ATTRIBUTE.equals(key1) && TEXT_KEY.equals(key2) && value1 instanceof String && value2 instanceof String) {
+                return value2;
+            }
+            if (isNil(key1, value1) || isNil(key2, value2)) {
+                return null;
+            }
+            final Map<String, Object> map = new LinkedHashMap<String, Object>(4);
+            map.put(key1, value1);
+            map.put(key2, value2);
+            return map;
+        }
+
+        boolean nil = isNil(key1, value1) || isNil(key2, value2);
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put(key1, value1);
+        map.put(key2, value2);
+        do {
+            final String key = p.getCurrentName();
+            p.nextToken();
+            final Object value = deserialize(p, ctxt);
+            nil = nil || isNil(key, value);
+            map.put(key, value);
+        } while (p.nextToken() == JsonToken.FIELD_NAME);
+        return nil ? null : map;
+    }
+
+    private List<Object> mapArray(final JsonParser p, final DeserializationContext ctxt) throws IOException {
+        final List<Object> list = new ArrayList<Object>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            list.add(deserialize(p, ctxt));
+        }
+        return list;
+    }
+
+    private static boolean isNil(final String key, final Object value) {
+        return RecurlyObject.NIL_STR.equals(key) && value != null && RecurlyObject.NIL_VAL.contains(value.toString());
+    }
+}
@@ -38,6 +38,10 @@ public class RecurlyObjectsSerializer<T extends RecurlyObjects<U>, U extends Rec
         this.elementName = elementName;
     }
 
+    public String getElementName() {
+        return elementName;
+    }
+
     @Override
     public void serialize(final T values, final JsonGenerator jgen, final SerializerProvider provider) throws IOException {
         if (values.isEmpty()) {
@@ -0,0 +1,672 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Works out the XML properties of a model class the way the Jackson mapper of {@code RecurlyObject#newXmlMapper()}
+ * does at runtime: JAXB annotations first, then Jackson ones, fields of the superclasses first, explicitly renamed
+ * properties last, and so on.
+ * <p>
+ * Only what the model classes rely on is covered. Anything else (e.g. two setters for the same property) is reported
+ * as an {@link UnsupportedModelException}, in which case no code is generated for the class.
+ */
+final class ModelIntrospector {
+
+    static final String JAXB_PACKAGE = "javax.xml.bind.annotation.";
+    static final String XML_ELEMENT = JAXB_PACKAGE + "XmlElement";
+    static final String XML_ATTRIBUTE = JAXB_PACKAGE + "XmlAttribute";
+    static final String XML_ELEMENT_REF = JAXB_PACKAGE + "XmlElementRef";
+    static final String XML_ELEMENT_WRAPPER = JAXB_PACKAGE + "XmlElementWrapper";
+    static final String XML_ELEMENTS = JAXB_PACKAGE + "XmlElements";
+    static final String XML_VALUE = JAXB_PACKAGE + "XmlValue";
+    static final String XML_TRANSIENT = JAXB_PACKAGE + "XmlTransient";
+    static final String XML_ROOT_ELEMENT = JAXB_PACKAGE + "XmlRootElement";
+    static final String XML_ENUM_VALUE = JAXB_PACKAGE + "XmlEnumValue";
+    static final String JACKSON_PACKAGE = "com.fasterxml.jackson.annotation.";
+    static final String JSON_PROPERTY = JACKSON_PACKAGE + "JsonProperty";
+    static final String JSON_SETTER = JACKSON_PACKAGE + "JsonSetter";
+    static final String JSON_GETTER = JACKSON_PACKAGE + "JsonGetter";
+    static final String JSON_IGNORE = JACKSON_PACKAGE + "JsonIgnore";
+    static final String JSON_SERIALIZE = "com.fasterxml.jackson.databind.annotation.JsonSerialize";
+    static final String JSON_DESERIALIZE = "com.fasterxml.jackson.databind.annotation.JsonDeserialize";
+
+    // Default value of the JAXB name attributes
+    private static final String JAXB_DEFAULT = "##default";
+
+    /**
+     * A bound property: the element (or attribute) name, and the member used to access it.
+     */
+    static final class Property {
+
+        private final String name;
+        private final String wrapperName;
+        private final Element accessor;
+        private final List<Element> annotated;
+
+        private Property(final String name, final String wrapperName, final Element accessor, final List<Element> annotated) {
+            this.name = name;
+            this.wrapperName = wrapperName;
+            this.accessor = accessor;
+            this.annotated = annotated;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the XmlElementWrapper name, null if the property isn't wrapped
+         */
+        String getWrapperName() {
+            return wrapperName;
+        }
+
+        /**
+         * @return the getter, setter (ExecutableElement) or field (VariableElement)
+         */
+        Element getAccessor() {
+            return accessor;
+        }
+
+        /**
+         * @return the type of the value, i.e. the field type, getter return type or setter parameter type
+         */
+        TypeMirror getType() {
+            if (accessor instanceof ExecutableElement) {
+                final ExecutableElement method = (ExecutableElement) accessor;
+                return method.getParameters().isEmpty() ? method.getReturnType() : method.getParameters().get(0).asType();
+            }
+            return accessor.asType();
+        }
+
+        /**
+         * @return all the members (and overridden methods) of the property, whose annotations apply to it
+         */
+        List<Element> getAnnotated() {
+            return annotated;
+        }
+    }
+
+    static final class UnsupportedModelException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedModelException(final String message) {
+            super(message);
+        }
+    }
+
+    // A field, getter or setter, before properties are resolved
+    private static final class Accessor {
+
+        private final Element element;
+        // The member itself, then the methods it overrides
+        private final List<Element> annotated;
+        private final String implicitName;
+        // Explicit name (e.g. from XmlElement), implicit one when only marked (e.g. XmlTransient), null if not marked
+        private final String name;
+        private final boolean explicitName;
+        private final boolean visible;
+        private final boolean ignored;
+        // Annotations of the whole property for its main accessor, see mergeAnnotations
+        private List<Element> merged;
+
+        private Accessor(final Element element, final List<Element> annotated, final String implicitName, final String name,
+                         final boolean explicitName, final boolean visible, final boolean ignored) {
+            this.element = element;
+            this.annotated = annotated;
+            this.merged = annotated;
+            this.implicitName = implicitName;
+            this.name = name;
+            this.explicitName = explicitName;
+            this.visible = visible;
+            this.ignored = ignored;
+        }
+
+        private TypeElement declaringType() {
+            return (TypeElement) element.getEnclosingElement();
+        }
+    }
+
+    private static final class Candidate {
+
+        private final String implicitName;
+        private String name;
+        private final List<Accessor> fields = new ArrayList<Accessor>();
+        private final List<Accessor> getters = new ArrayList<Accessor>();
+        private final List<Accessor> setters = new ArrayList<Accessor>();
+
+        private Candidate(final String implicitName) {
+            this.implicitName = implicitName;
+            this.name = implicitName;
+        }
+
+        private List<Accessor> all() {
+            final List<Accessor> all = new ArrayList<Accessor>(fields);
+            all.addAll(getters);
+            all.addAll(setters);
+            return all;
+        }
+
+        private void merge(final Candidate other) {
+            fields.addAll(other.fields);
+            getters.addAll(other.getters);
+            setters.addAll(other.setters);
+        }
+    }
+
+    private final Elements elements;
+    private final Types types;
+
+    ModelIntrospector(final Elements elements, final Types types) {
+        this.elements = elements;
+        this.types = types;
+    }
+
+    /**
+     * @return the properties set when reading the class, keyed by element (or attribute) name
+     */
+    Map<String, Property> readProperties(final TypeElement type) throws UnsupportedModelException {
+        final Map<String, Property> properties = new LinkedHashMap<String, Property>();
+        for (final Candidate candidate : candidates(type, false)) {
+            Accessor mutator = mostSpecific(candidate.setters, candidate.name);
+            if (mutator == null) {
+                if (candidate.fields.size() > 1) {
+                    throw new UnsupportedModelException("conflicting fields for " + candidate.name);
+                }
+                mutator = candidate.fields.isEmpty() ? null : candidate.fields.get(0);
+            }
+            if (mutator == null) {
+                // Getter only: Jackson would use it for collections ("setterless" properties)
+                final Accessor getter = mostSpecific(candidate.getters, candidate.name);
+                if (getter != null && isContainer(((ExecutableElement) getter.element).getReturnType())) {
+                    throw new UnsupportedModelException("setterless property " + candidate.name);
+                }
+                continue;
+            }
+
+            final String wrapperName = wrapperName(mutator.merged, mutator.implicitName);
+            final String name = wrapperName != null ? wrapperName : candidate.name;
+            if (properties.put(name, new Property(candidate.name, wrapperName, mutator.element, mutator.merged)) != null) {
+                throw new UnsupportedModelException("duplicate element " + name);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @return the properties written, in order
+     */
+    List<Property> writeProperties(final TypeElement type) throws UnsupportedModelException {
+        final List<Property> properties = new ArrayList<Property>();
+        final Set<String> getterOnly = new HashSet<String>();
+        for (final Candidate candidate : candidates(type, true)) {
+            final List<Accessor> getters = visible(candidate.getters);
+            final List<Accessor> fields = visible(candidate.fields);
+            Accessor accessor = mostSpecific(getters, candidate.name);
+            if (accessor == null) {
+                if (fields.size() > 1) {
+                    throw new UnsupportedModelException("conflicting fields for " + candidate.name);
+                }
+                accessor = fields.isEmpty() ? null : fields.get(0);
+            }
+            if (accessor == null) {
+                continue;
+            }
+            if (candidate.fields.isEmpty() && candidate.name.equals(candidate.implicitName)) {
+                getterOnly.add(candidate.name);
+            }
+
+            properties.add(new Property(candidate.name, wrapperName(accessor.merged, accessor.implicitName), accessor.element, accessor.merged));
+        }
+        if (getterOnly.size() > 1) {
+            // Jackson orders them as the JVM returns the declared methods
+            throw new UnsupportedModelException("unordered properties " + getterOnly);
+        }
+        return properties;
+    }
+
+    /**
+     * @return the value of an annotation member, its default if not set, null if the annotation is absent
+     */
+    Object annotationValue(final List<? extends Element> annotated, final String annotationType, final String member) {
+        final AnnotationMirror annotation = annotation(annotated, annotationType);
+        if (annotation == null) {
+            return null;
+        }
+        for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(annotation).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(member)) {
+                return entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    static AnnotationMirror annotation(final List<? extends Element> annotated, final String annotationType) {
+        for (final Element element : annotated) {
+            for (final AnnotationMirror annotation : element.getAnnotationMirrors()) {
+                if (qualifiedName(annotation).equals(annotationType)) {
+                    return annotation;
+                }
+            }
+        }
+        return null;
+    }
+
+    static boolean hasAnnotation(final List<? extends Element> annotated, final String annotationType) {
+        return annotation(annotated, annotationType) != null;
+    }
+
+    /**
+     * @return the name of the element written for the class at the root of a document
+     */
+    String rootName(final TypeElement type) {
+        // Class annotations are inherited, e.g. SubscriptionUpdate is written as a subscription
+        final Object name = annotationValue(hierarchy(type), XML_ROOT_ELEMENT, "name");
+        return name == null || JAXB_DEFAULT.equals(name) ? type.getSimpleName().toString() : name.toString();
+    }
+
+    /**
+     * @return the external value of an enum constant
+     */
+    String enumValue(final VariableElement constant) {
+        final Object value = annotationValue(Collections.singletonList(constant), XML_ENUM_VALUE, "value");
+        return value == null ? constant.getSimpleName().toString() : value.toString();
+    }
+
+    private List<Candidate> candidates(final TypeElement type, final boolean forSerialization) throws UnsupportedModelException {
+        final List<TypeElement> hierarchy = hierarchy(type);
+        final Map<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+
+        // Fields of the superclasses first
+        for (int i = hierarchy.size() - 1; i >= 0; i--) {
+            for (final VariableElement field : ElementFilter.fieldsIn(hierarchy.get(i).getEnclosedElements())) {
+                final Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                final String implicitName = field.getSimpleName().toString();
+                final List<Element> annotated = Collections.<Element>singletonList(field);
+                final String[] name = fieldName(annotated);
+                candidate(candidates, implicitName).fields.add(accessor(field, annotated, name, implicitName, modifiers.contains(Modifier.PUBLIC)));
+            }
+        }
+
+        // Then methods, overriding ones carrying the annotations of the methods they override
+        final Map<String, List<Element>> methods = new LinkedHashMap<String, List<Element>>();
+        for (final TypeElement declaringType : hierarchy) {
+            for (final ExecutableElement method : ElementFilter.methodsIn(declaringType.getEnclosedElements())) {
+                if (method.getModifiers().contains(Modifier.STATIC) || method.getParameters().size() > 1) {
+                    continue;
+                }
+                final String signature = signature(method);
+                List<Element> annotated = methods.get(signature);
+                if (annotated == null) {
+                    annotated = new ArrayList<Element>();
+                    methods.put(signature, annotated);
+                }
+                annotated.add(method);
+            }
+        }
+        for (final List<Element> annotated : methods.values()) {
+            final ExecutableElement method = (ExecutableElement) annotated.get(0);
+            final String methodName = method.getSimpleName().toString();
+            final boolean visible = method.getModifiers().contains(Modifier.PUBLIC);
+            if (method.getParameters().isEmpty()) {
+                if (method.getReturnType().getKind() == TypeKind.VOID) {
+                    continue;
+                }
+                final String[] name = getterName(annotated);
+                String implicitName = implicitGetterName(method);
+                if (name == null) {
+                    if (implicitName == null) {
+                        continue;
+                    }
+                } else if (implicitName == null) {
+                    implicitName = methodName;
+                }
+                candidate(candidates, implicitName).getters.add(accessor(method, annotated, name, implicitName, visible));
+            } else {
+                final String[] name = setterName(annotated);
+                String implicitName = mangle(methodName, "set");
+                if (name == null) {
+                    if (implicitName == null) {
+                        continue;
+                    }
+                } else if (implicitName == null) {
+                    implicitName = methodName;
+                }
+                // Setters are visible whatever their modifiers
+                candidate(candidates, implicitName).setters.add(accessor(method, annotated, name, implicitName, true));
+            }
+        }
+
+        // Drop invisible and ignored accessors
+        for (final Iterator<Candidate> iterator = candidates.values().iterator(); iterator.hasNext(); ) {
+            final Candidate candidate = iterator.next();
+            boolean visible = false;
+            boolean ignored = false;
+            boolean named = false;
+            for (final Accessor accessor : candidate.all()) {
+                visible = visible || accessor.visible;
+                ignored = ignored || accessor.ignored;
+                named = named || accessor.name != null;
+            }
+            if (!visible || (ignored && !named)) {
+                iterator.remove();
+                continue;
+            }
+            if (ignored) {
+                removeIgnored(candidate.fields);
+                removeIgnored(candidate.getters);
+                removeIgnored(candidate.setters);
+                if (candidate.all().isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        // Jackson merges the annotations of the accessors before renaming, i.e. before merging properties with the same name
+        for (final Candidate candidate : candidates.values()) {
+            mergeAnnotations(candidate, forSerialization);
+        }
+
+        // Finally, move explicitly named properties last
+        final List<Candidate> renamed = new ArrayList<Candidate>();
+        for (final Iterator<Candidate> iterator = candidates.values().iterator(); iterator.hasNext(); ) {
+            final Candidate candidate = iterator.next();
+            final Set<String> explicitNames = new LinkedHashSet<String>();
+            for (final Accessor accessor : candidate.all()) {
+                if (accessor.explicitName) {
+                    explicitNames.add(accessor.name);
+                }
+            }
+            if (explicitNames.size() > 1) {
+                throw new UnsupportedModelException("property " + candidate.implicitName + " renamed to " + explicitNames);
+            }
+            if (explicitNames.size() == 1) {
+                candidate.name = explicitNames.iterator().next();
+                iterator.remove();
+                renamed.add(candidate);
+            }
+        }
+        final Map<String, Candidate> resolved = new LinkedHashMap<String, Candidate>();
+        for (final Candidate candidate : candidates.values()) {
+            resolved.put(candidate.name, candidate);
+        }
+        for (final Candidate candidate : renamed) {
+            final Candidate existing = resolved.get(candidate.name);
+            if (existing == null) {
+                resolved.put(candidate.name, candidate);
+            } else {
+                existing.merge(candidate);
+            }
+        }
+        return new ArrayList<Candidate>(resolved.values());
+    }
+
+    private Accessor accessor(final Element element, final List<Element> annotated, final String[] name,
+                              final String implicitName, final boolean visible) {
+        final boolean ignored = hasAnnotation(annotated, XML_TRANSIENT) || Boolean.TRUE.equals(annotationValue(annotated, JSON_IGNORE, "value"));
+        if (name == null) {
+            return new Accessor(element, annotated, implicitName, null, false, visible, ignored);
+        }
+        final boolean explicitName = name[0].length() > 0;
+        return new Accessor(element, annotated, implicitName, explicitName ? name[0] : implicitName, explicitName, true, ignored);
+    }
+
+    // Names are returned as a single element array: empty when the member is marked without a name, null when not marked
+    private String[] fieldName(final List<Element> annotated) {
+        return combine(jaxbName(annotated), jacksonName(annotated, JSON_PROPERTY, null, false));
+    }
+
+    private String[] getterName(final List<Element> annotated) {
+        return combine(jaxbName(annotated), jacksonName(annotated, JSON_GETTER, JSON_SERIALIZE, true));
+    }
+
+    private String[] setterName(final List<Element> annotated) {
+        return combine(jaxbName(annotated), jacksonName(annotated, JSON_SETTER, JSON_DESERIALIZE, true));
+    }
+
+    // The JAXB introspector comes first, the Jackson one only names members JAXB marks without a name
+    private static String[] combine(final String[] jaxbName, final String[] jacksonName) {
+        if (jaxbName == null) {
+            return jacksonName;
+        }
+        if (jaxbName[0].length() == 0 && jacksonName != null) {
+            return jacksonName;
+        }
+        return jaxbName;
+    }
+
+    private String[] jaxbName(final List<Element> annotated) {
+        for (final String annotationType : new String[]{XML_ATTRIBUTE, XML_ELEMENT, XML_ELEMENT_REF}) {
+            final Object name = annotationValue(annotated, annotationType, "name");
+            if (name != null) {
+                return new String[]{JAXB_DEFAULT.equals(name) ? "" : name.toString()};
+            }
+        }
+        for (final Element element : annotated) {
+            for (final AnnotationMirror annotation : element.getAnnotationMirrors()) {
+                if (qualifiedName(annotation).startsWith(JAXB_PACKAGE)) {
+                    return new String[]{""};
+                }
+            }
+        }
+        return null;
+    }
+
+    private String[] jacksonName(final List<Element> annotated, final String accessorAnnotation, final String markerAnnotation,
+                                 final boolean method) {
+        Object name = method ? annotationValue(annotated, accessorAnnotation, "value") : null;
+        if (name == null) {
+            name = annotationValue(annotated, JSON_PROPERTY, "value");
+        }
+        if (name != null) {
+            return new String[]{name.toString()};
+        }
+        if (markerAnnotation != null && hasAnnotation(annotated, markerAnnotation)) {
+            return new String[]{""};
+        }
+        return null;
+    }
+
+    private String wrapperName(final List<Element> annotated, final String implicitName) {
+        final Object name = annotationValue(annotated, XML_ELEMENT_WRAPPER, "name");
+        if (name == null) {
+            return null;
+        }
+        return JAXB_DEFAULT.equals(name) ? implicitName : name.toString();
+    }
+
+    private List<TypeElement> hierarchy(final TypeElement type) {
+        final List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+        TypeElement current = type;
+        // The JDK classes (Object, or ArrayList for lists) don't add any property of interest
+        while (current != null && !current.getQualifiedName().toString().startsWith("java.")) {
+            hierarchy.add(current);
+            final TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+        return hierarchy;
+    }
+
+    private String signature(final ExecutableElement method) {
+        final StringBuilder signature = new StringBuilder(method.getSimpleName());
+        for (final VariableElement parameter : method.getParameters()) {
+            signature.append(',').append(types.erasure(parameter.asType()));
+        }
+        return signature.toString();
+    }
+
+    private static String implicitGetterName(final ExecutableElement method) {
+        final String name = method.getSimpleName().toString();
+        final String implicitName = mangle(name, "get");
+        if (implicitName != null) {
+            return implicitName;
+        }
+        final TypeMirror returnType = method.getReturnType();
+        if (returnType.getKind() == TypeKind.BOOLEAN || "java.lang.Boolean".equals(returnType.toString())) {
+            return mangle(name, "is");
+        }
+        return null;
+    }
+
+    // Jackson's legacy mangling: getURL -> url, getFirstName -> firstName
+    private static String mangle(final String methodName, final String prefix) {
+        if (!methodName.startsWith(prefix) || methodName.length() == prefix.length()) {
+            return null;
+        }
+        final StringBuilder name = new StringBuilder(methodName.substring(prefix.length()));
+        for (int i = 0; i < name.length(); i++) {
+            final char upper = name.charAt(i);
+            final char lower = Character.toLowerCase(upper);
+            if (upper == lower) {
+                break;
+            }
+            name.setCharAt(i, lower);
+        }
+        return name.toString();
+    }
+
+    private static Candidate candidate(final Map<String, Candidate> candidates, final String implicitName) {
+        Candidate candidate = candidates.get(implicitName);
+        if (candidate == null) {
+            candidate = new Candidate(implicitName);
+            candidates.put(implicitName, candidate);
+        }
+        return candidate;
+    }
+
+    private static void removeIgnored(final List<Accessor> accessors) {
+        for (final Iterator<Accessor> iterator = accessors.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().ignored) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static List<Accessor> visible(final List<Accessor> accessors) {
+        final List<Accessor> visible = new ArrayList<Accessor>();
+        for (final Accessor accessor : accessors) {
+            if (accessor.visible) {
+                visible.add(accessor);
+            }
+        }
+        return visible;
+    }
+
+    // Amongst methods declared along the hierarchy, the one of the most specific class wins
+    private Accessor mostSpecific(final List<Accessor> accessors, final String name) throws UnsupportedModelException {
+        Accessor mostSpecific = null;
+        for (final Accessor accessor : accessors) {
+            if (mostSpecific == null) {
+                mostSpecific = accessor;
+                continue;
+            }
+            final TypeElement current = mostSpecific.declaringType();
+            final TypeElement next = accessor.declaringType();
+            if (!current.equals(next) && isSubclass(next, current)) {
+                mostSpecific = accessor;
+            } else if (current.equals(next) || !isSubclass(current, next)) {
+                throw new UnsupportedModelException("conflicting accessors for " + name);
+            }
+        }
+        return mostSpecific;
+    }
+
+    private boolean isSubclass(final TypeElement type, final TypeElement superType) {
+        return types.isSubtype(types.erasure(type.asType()), types.erasure(superType.asType()));
+    }
+
+    private static void mergeAnnotations(final Candidate candidate, final boolean forSerialization) {
+        final List<Accessor> primary;
+        final List<Element> merged;
+        if (forSerialization) {
+            primary = candidate.getters.isEmpty() ? candidate.fields : candidate.getters;
+            merged = candidate.getters.isEmpty() ? annotated(candidate.fields, candidate.setters, Collections.<Accessor>emptyList()) :
+                     annotated(candidate.getters, candidate.fields, candidate.setters);
+        } else {
+            primary = candidate.setters.isEmpty() ? candidate.fields : candidate.setters;
+            merged = candidate.setters.isEmpty() ? annotated(candidate.fields, candidate.getters, Collections.<Accessor>emptyList()) :
+                     annotated(candidate.setters, candidate.fields, candidate.getters);
+        }
+        for (final Accessor accessor : primary) {
+            accessor.merged = merged;
+        }
+    }
+
+    private static List<Element> annotated(final List<Accessor> primary, final List<Accessor> secondary, final List<Accessor> others) {
+        final List<Element> annotated = new ArrayList<Element>();
+        for (final Accessor accessor : primary) {
+            annotated.addAll(accessor.annotated);
+        }
+        for (final Accessor accessor : secondary) {
+            annotated.addAll(accessor.annotated);
+        }
+        for (final Accessor accessor : others) {
+            annotated.addAll(accessor.annotated);
+        }
+        return annotated;
+    }
+
+    private boolean isContainer(final TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return true;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        final TypeMirror erasure = types.erasure(type);
+        return types.isAssignable(erasure, types.erasure(elements.getTypeElement("java.util.Collection").asType())) ||
+               types.isAssignable(erasure, types.erasure(elements.getTypeElement("java.util.Map").asType()));
+    }
+
+    static String qualifiedName(final AnnotationMirror annotation) {
+        return ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    static boolean isField(final Element element) {
+        return element.getKind() == ElementKind.FIELD;
+    }
+}
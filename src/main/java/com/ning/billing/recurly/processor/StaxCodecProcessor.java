@@ -0,0 +1,218 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+
+import com.ning.billing.recurly.processor.ModelIntrospector.Property;
+import com.ning.billing.recurly.processor.ModelIntrospector.UnsupportedModelException;
+
+/**
+ * Generates, for the model classes, the StAX readers and writers used by {@code StaxCodec}.
+ * <p>
+ * Starting from the {@code RecurlyObject} and {@code RecurlyObjects} classes being compiled, the processor follows the
+ * types of their properties and, for each class, writes a {@code <Class>StaxReader} and a {@code <Class>StaxWriter} next to it when
+ * its properties can be worked out. Pass {@code -Astaxcodec.debug} to javac to list the classes left to Jackson.
+ * <p>
+ * The processor only runs while building the library: it is not part of the jar.
+ */
+@SupportedAnnotationTypes(ModelIntrospector.XML_ROOT_ELEMENT)
+@SupportedOptions(StaxCodecProcessor.DEBUG_OPTION)
+public class StaxCodecProcessor extends AbstractProcessor {
+
+    static final String DEBUG_OPTION = "staxcodec.debug";
+
+    // Across rounds
+    private final Set<String> generated = new HashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        final TypeElement xmlRootElement = processingEnv.getElementUtils().getTypeElement(ModelIntrospector.XML_ROOT_ELEMENT);
+        if (roundEnv.processingOver() || xmlRootElement == null) {
+            return false;
+        }
+
+        final ModelIntrospector introspector = new ModelIntrospector(processingEnv.getElementUtils(), processingEnv.getTypeUtils());
+        final LinkedList<TypeElement> pending = new LinkedList<TypeElement>();
+        // Any model class can be read or written on its own, not only the XmlRootElement ones
+        final LinkedList<TypeElement> roots = new LinkedList<TypeElement>(ElementFilter.typesIn(roundEnv.getRootElements()));
+        while (!roots.isEmpty()) {
+            final TypeElement type = roots.removeFirst();
+            roots.addAll(ElementFilter.typesIn(type.getEnclosedElements()));
+            if (ValueType.isModel(type, processingEnv.getElementUtils()) &&
+                (ValueType.isRecurlyObject(type, processingEnv.getElementUtils(), processingEnv.getTypeUtils()) ||
+                 ValueType.isRecurlyObjects(type, processingEnv.getElementUtils(), processingEnv.getTypeUtils()))) {
+                pending.add(type);
+            }
+        }
+
+        // Model classes reachable from the roots
+        final Map<TypeElement, Map<String, Property>> readProperties = new LinkedHashMap<TypeElement, Map<String, Property>>();
+        final Map<TypeElement, List<Property>> writeProperties = new LinkedHashMap<TypeElement, List<Property>>();
+        final Set<TypeElement> visited = new HashSet<TypeElement>();
+        while (!pending.isEmpty()) {
+            final TypeElement type = pending.removeFirst();
+            if (!visited.add(type)) {
+                continue;
+            }
+
+            final List<Property> properties = new ArrayList<Property>();
+            try {
+                final Map<String, Property> read = introspector.readProperties(type);
+                properties.addAll(read.values());
+                if (isInstantiable(type)) {
+                    readProperties.put(type, read);
+                } else {
+                    debug(type, "no reader: not instantiable");
+                }
+            } catch (final UnsupportedModelException e) {
+                debug(type, "no reader: " + e.getMessage());
+            }
+            try {
+                final List<Property> write = introspector.writeProperties(type);
+                properties.addAll(write);
+                if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+                    debug(type, "no writer: abstract");
+                } else if (ModelIntrospector.hasAnnotation(Collections.singletonList(type), ModelIntrospector.JSON_SERIALIZE)) {
+                    debug(type, "no writer: custom serializer");
+                } else {
+                    writeProperties.put(type, write);
+                }
+            } catch (final UnsupportedModelException e) {
+                debug(type, "no writer: " + e.getMessage());
+            }
+
+            for (final Property property : properties) {
+                final ValueType valueType = ValueType.of(property.getType(), processingEnv.getElementUtils(), processingEnv.getTypeUtils());
+                if (valueType.getKind() == ValueType.Kind.OBJECT || valueType.getKind() == ValueType.Kind.OBJECTS ||
+                    valueType.getKind() == ValueType.Kind.OBJECT_LIST) {
+                    pending.add(valueType.getElement());
+                }
+            }
+        }
+
+        // Lists are only written through their items
+        final Map<TypeElement, Property> items = new LinkedHashMap<TypeElement, Property>();
+        for (final TypeElement type : new ArrayList<TypeElement>(writeProperties.keySet())) {
+            if (!ValueType.isRecurlyObjects(type, processingEnv.getElementUtils(), processingEnv.getTypeUtils())) {
+                continue;
+            }
+            final Property item = itemProperty(type, readProperties.get(type));
+            if (item == null) {
+                debug(type, "no writer: unknown items");
+                writeProperties.remove(type);
+            } else {
+                items.put(type, item);
+            }
+        }
+
+        final StaxSourceGenerator generator = new StaxSourceGenerator(processingEnv.getElementUtils(), processingEnv.getTypeUtils(), introspector,
+                                                                      readProperties.keySet(), writeProperties.keySet());
+        for (final Map.Entry<TypeElement, Map<String, Property>> entry : readProperties.entrySet()) {
+            write(entry.getKey(), "StaxReader", generator.readerSource(entry.getKey(), entry.getValue()));
+        }
+        for (final Map.Entry<TypeElement, List<Property>> entry : writeProperties.entrySet()) {
+            final Property item = items.get(entry.getKey());
+            final List<Property> properties = item == null ? entry.getValue() : new ArrayList<Property>();
+            write(entry.getKey(), "StaxWriter", generator.writerSource(entry.getKey(), properties, item));
+        }
+        return false;
+    }
+
+    private boolean isInstantiable(final TypeElement type) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT) ||
+            (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))) {
+            return false;
+        }
+        for (final ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The items of a RecurlyObjects subclass are read through its own setRecurlyObject override
+    private Property itemProperty(final TypeElement type, final Map<String, Property> properties) {
+        if (properties == null) {
+            return null;
+        }
+        for (final Property property : properties.values()) {
+            final Element accessor = property.getAccessor();
+            if (accessor.getSimpleName().contentEquals("setRecurlyObject") && accessor.getEnclosingElement().equals(type) &&
+                ValueType.of(property.getType(), processingEnv.getElementUtils(), processingEnv.getTypeUtils()).getKind() == ValueType.Kind.OBJECT) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    private void write(final TypeElement type, final String suffix, final String source) {
+        final String name = ValueType.MODEL_PACKAGE + "." + ValueType.bindingName(type, processingEnv.getElementUtils()) + suffix;
+        if (!generated.add(name)) {
+            return;
+        }
+        try {
+            final Writer writer = processingEnv.getFiler().createSourceFile(name, type).openWriter();
+            try {
+                writer.write(source);
+            } finally {
+                writer.close();
+            }
+        } catch (final FilerException e) {
+            // Already generated, e.g. by an earlier round
+            debug(type, e.getMessage());
+        } catch (final IOException e) {
+            processingEnv.getMessager().printMessage(Kind.ERROR, "Unable to write " + name + ": " + e.getMessage(), type);
+        }
+    }
+
+    private void debug(final TypeElement type, final String message) {
+        if (processingEnv.getOptions().containsKey(DEBUG_OPTION)) {
+            processingEnv.getMessager().printMessage(Kind.NOTE, type.getQualifiedName() + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+import com.ning.billing.recurly.processor.ModelIntrospector.Property;
+import com.ning.billing.recurly.processor.ValueType.Kind;
+
+/**
+ * Writes the source of the StaxReader and StaxWriter subclasses of a model class.
+ * <p>
+ * Properties the generated code can't bind (e.g. a {@code RecurlyClient} setter) aren't skipped: the generated code
+ * throws {@code UnsupportedContentException} when they show up, so that the document is handed over to Jackson.
+ */
+final class StaxSourceGenerator {
+
+    private static final String UNSUPPORTED = "throw UnsupportedContentException.INSTANCE;";
+    private static final Set<String> RESERVED_NAMES = new HashSet<String>(Arrays.asList("codec", "writer", "value", "name", "reader", "text"));
+
+    private final Elements elements;
+    private final Types types;
+    private final ModelIntrospector introspector;
+    // Classes with a generated reader (resp. writer)
+    private final Set<TypeElement> readable;
+    private final Set<TypeElement> writable;
+
+    StaxSourceGenerator(final Elements elements, final Types types, final ModelIntrospector introspector,
+                        final Set<TypeElement> readable, final Set<TypeElement> writable) {
+        this.elements = elements;
+        this.types = types;
+        this.introspector = introspector;
+        this.readable = readable;
+        this.writable = writable;
+    }
+
+    String readerSource(final TypeElement type, final Map<String, Property> properties) {
+        final String typeName = ValueType.simpleName(type, elements);
+        final String className = ValueType.bindingName(type, elements) + "StaxReader";
+        final Set<TypeElement> enums = new LinkedHashSet<TypeElement>();
+        final List<String> fields = new ArrayList<String>();
+        final Map<String, String> attributes = new LinkedHashMap<String, String>();
+        final Map<String, String> children = new LinkedHashMap<String, String>();
+
+        for (final Map.Entry<String, Property> entry : properties.entrySet()) {
+            final Property property = entry.getValue();
+            final Element accessor = property.getAccessor();
+            final ValueType valueType = ValueType.of(property.getType(), elements, types);
+            final boolean wrapped = property.getWrapperName() != null;
+
+            final String attributeValue;
+            final String elementValue;
+            switch (valueType.getKind()) {
+                case UNTYPED:
+                    attributeValue = "attributeText(text)";
+                    elementValue = wrapped ? null : "readUntyped(reader)";
+                    break;
+                case STRING:
+                    attributeValue = "attributeText(text)";
+                    elementValue = wrapped ? null : "readString(reader)";
+                    break;
+                case SCALAR:
+                    final String scalar = scalarName(property.getType());
+                    attributeValue = scalar == null ? null : "to" + scalar + "(attributeText(text))";
+                    elementValue = scalar == null || wrapped ? null : "read" + scalar + "(reader)";
+                    break;
+                case ENUM:
+                    enums.add(valueType.getElement());
+                    attributeValue = enumReader(valueType.getElement()) + "(attributeText(text))";
+                    elementValue = wrapped ? null : enumReader(valueType.getElement()) + "(readString(reader))";
+                    break;
+                case OBJECT:
+                case OBJECTS:
+                    attributeValue = null;
+                    // Only lists are unwrapped
+                    elementValue = (valueType.getKind() == Kind.OBJECTS || !wrapped) && readable.contains(valueType.getElement()) ? "readObject(reader, " + bindingName(valueType.getElement()) + "StaxReader.INSTANCE)" : null;
+                    break;
+                case STRING_LIST:
+                    attributeValue = null;
+                    elementValue = wrapped ? "readStringList(reader)" : null;
+                    break;
+                case OBJECT_LIST:
+                    attributeValue = null;
+                    elementValue = wrapped && readable.contains(valueType.getElement()) ? "readObjectList(reader, " + bindingName(valueType.getElement()) + "StaxReader.INSTANCE)" : null;
+                    break;
+                default:
+                    attributeValue = null;
+                    elementValue = null;
+            }
+
+            String mutator = null;
+            if (accessor.getKind() == ElementKind.METHOD) {
+                if (!accessor.getModifiers().contains(Modifier.PRIVATE)) {
+                    mutator = "value." + accessor.getSimpleName() + "(%s);";
+                }
+            } else if (!accessor.getModifiers().contains(Modifier.FINAL)) {
+                if (accessor.getModifiers().contains(Modifier.PRIVATE)) {
+                    final String constant = constantName(accessor);
+                    fields.add("private static final Field " + constant + " = field(" + ValueType.simpleName((TypeElement) accessor.getEnclosingElement(), elements) +
+                               ".class, \"" + accessor.getSimpleName() + "\");");
+                    mutator = "set(" + constant + ", value, %s);";
+                } else {
+                    mutator = "value." + accessor.getSimpleName() + " = %s;";
+                }
+            }
+
+            attributes.put(entry.getKey(), mutator == null || attributeValue == null || wrapped ? UNSUPPORTED : String.format(mutator, attributeValue));
+            children.put(entry.getKey(), mutator == null || elementValue == null ? UNSUPPORTED : String.format(mutator, elementValue));
+        }
+
+        final SourceBuilder source = new SourceBuilder(type);
+        source.line("import " + (fields.isEmpty() ? "" : "java.lang.reflect.Field;\n\nimport ") + "javax.xml.stream.XMLStreamException;")
+              .line("import javax.xml.stream.XMLStreamReader;")
+              .line("")
+              .line("final class %s extends StaxReader<%s> {", className, typeName)
+              .line("")
+              .line("    static final %s INSTANCE = new %s();", className, className)
+              .line("");
+        for (final String field : fields) {
+            source.line("    " + field);
+        }
+        if (!fields.isEmpty()) {
+            source.line("");
+        }
+        source.line("    private %s() {", className)
+              .line("    }")
+              .line("")
+              .line("    @Override")
+              .line("    %s newInstance() {", typeName)
+              .line("        return new %s();", typeName)
+              .line("    }")
+              .line("")
+              .line("    @Override")
+              .line("    void attribute(final %s value, final String name, final String text) {", typeName);
+        dispatch(source, attributes, "");
+        source.line("    }")
+              .line("")
+              .line("    @Override")
+              .line("    void element(final %s value, final XMLStreamReader reader) throws XMLStreamException {", typeName)
+              .line("        final String name = reader.getLocalName();");
+        dispatch(source, children, "skip(reader);");
+        source.line("    }");
+        for (final TypeElement enumType : enums) {
+            source.line("")
+                  .line("    private static %s %s(final String text) {", typeName(enumType), enumReader(enumType))
+                  .line("        if (text == null) {")
+                  .line("            return null;")
+                  .line("        }");
+            for (final VariableElement constant : constants(enumType)) {
+                source.line("        if (\"%s\".equals(text)) {", escape(introspector.enumValue(constant)))
+                      .line("            return %s.%s;", typeName(enumType), constant.getSimpleName())
+                      .line("        }");
+            }
+            source.line("        " + UNSUPPORTED)
+                  .line("    }");
+        }
+        return source.line("}").toString();
+    }
+
+    /**
+     * @param itemProperty for RecurlyObjects subclasses, the property of the list items
+     */
+    String writerSource(final TypeElement type, final List<Property> properties, final Property itemProperty) {
+        final String typeName = ValueType.simpleName(type, elements);
+        final String className = ValueType.bindingName(type, elements) + "StaxWriter";
+        final Set<TypeElement> enums = new LinkedHashSet<TypeElement>();
+        final List<String> fields = new ArrayList<String>();
+        final List<String> body = new ArrayList<String>();
+        boolean unchecked = false;
+
+        if (itemProperty != null) {
+            final TypeElement itemType = ValueType.of(itemProperty.getType(), elements, types).getElement();
+            if (writable.contains(itemType)) {
+                body.add(String.format("writeItems(codec, writer, value, \"%s\", %s.class, %sStaxWriter.INSTANCE);",
+                                       escape(itemProperty.getName()), typeName(itemType), bindingName(itemType)));
+            } else {
+                body.add("if (!value.isEmpty()) {");
+                body.add("    " + UNSUPPORTED);
+                body.add("}");
+            }
+        }
+
+        final Set<String> variables = new HashSet<String>();
+        for (final Property property : properties) {
+            final Element accessor = property.getAccessor();
+            final TypeMirror propertyType = property.getType();
+            final ValueType valueType = ValueType.of(propertyType, elements, types);
+            final String name = escape(property.getName());
+            final String wrapperName = property.getWrapperName() == null ? null : escape(property.getWrapperName());
+
+            String variable = accessor.getKind() == ElementKind.METHOD ? implicitName(accessor.getSimpleName().toString()) : accessor.getSimpleName().toString();
+            while (RESERVED_NAMES.contains(variable) || !variables.add(variable)) {
+                variable = variable + "Value";
+            }
+            final String typeString = typeString(propertyType);
+            final String getter;
+            if (accessor.getKind() == ElementKind.METHOD) {
+                getter = "value." + accessor.getSimpleName() + "()";
+            } else if (accessor.getModifiers().contains(Modifier.PRIVATE)) {
+                final String constant = constantName(accessor);
+                fields.add("private static final Field " + constant + " = field(" + ValueType.simpleName((TypeElement) accessor.getEnclosingElement(), elements) +
+                           ".class, \"" + accessor.getSimpleName() + "\");");
+                final String boxed = propertyType.getKind().isPrimitive() ? types.boxedClass((PrimitiveType) propertyType).getSimpleName().toString() : typeString;
+                getter = "(" + boxed + ") get(" + constant + ", value)";
+                unchecked = unchecked || !types.isSameType(types.erasure(propertyType), propertyType);
+            } else {
+                getter = "value." + accessor.getSimpleName();
+            }
+
+            final boolean customized = ModelIntrospector.hasAnnotation(property.getAnnotated(), ModelIntrospector.JSON_SERIALIZE);
+            final String statement;
+            switch (customized ? Kind.UNSUPPORTED : valueType.getKind()) {
+                case STRING:
+                    statement = String.format("writeText(writer, \"%s\", %s);", name, variable);
+                    break;
+                case SCALAR:
+                    statement = String.format("writeText(writer, \"%s\", %s.toString());", name, variable);
+                    break;
+                case PRIMITIVE:
+                    statement = String.format("writeText(writer, \"%s\", String.valueOf(%s));", name, variable);
+                    break;
+                case DATE_TIME:
+                    statement = String.format("writeText(writer, \"%s\", format(%s));", name, variable);
+                    break;
+                case ENUM:
+                    enums.add(valueType.getElement());
+                    statement = String.format("writeText(writer, \"%s\", %s(%s));", name, enumWriter(valueType.getElement()), variable);
+                    break;
+                case OBJECT:
+                    statement = !writable.contains(valueType.getElement()) ? UNSUPPORTED :
+                                String.format("writeObject(codec, writer, \"%s\", %s, %s.class, %sStaxWriter.INSTANCE);",
+                                              name, variable, typeName(valueType.getElement()), bindingName(valueType.getElement()));
+                    break;
+                case OBJECTS:
+                    statement = wrapperName == null || !writable.contains(valueType.getElement()) ? UNSUPPORTED :
+                                String.format("writeObjects(codec, writer, \"%s\", %s, %s.class, %sStaxWriter.INSTANCE);",
+                                              wrapperName, variable, typeName(valueType.getElement()), bindingName(valueType.getElement()));
+                    break;
+                case STRING_LIST:
+                    statement = wrapperName == null ? UNSUPPORTED :
+                                String.format("writeStringList(writer, \"%s\", \"%s\", %s);", wrapperName, name, variable);
+                    break;
+                case OBJECT_LIST:
+                    statement = wrapperName == null || !writable.contains(valueType.getElement()) ? UNSUPPORTED :
+                                String.format("writeObjectList(codec, writer, \"%s\", \"%s\", %s, %s.class, %sStaxWriter.INSTANCE);",
+                                              wrapperName, name, variable, typeName(valueType.getElement()), bindingName(valueType.getElement()));
+                    break;
+                default:
+                    statement = UNSUPPORTED;
+            }
+
+            body.add(String.format("final %s %s = %s;", typeString, variable, getter));
+            if (valueType.getKind() == Kind.PRIMITIVE) {
+                body.add(statement);
+            } else {
+                body.add(String.format("if (%s != null) {", variable));
+                body.add("    " + statement);
+                body.add("}");
+            }
+        }
+
+        final SourceBuilder source = new SourceBuilder(type);
+        source.line("import " + (fields.isEmpty() ? "" : "java.lang.reflect.Field;\n\nimport ") + "javax.xml.stream.XMLStreamException;")
+              .line("import javax.xml.stream.XMLStreamWriter;")
+              .line("")
+              .line("final class %s extends StaxWriter<%s> {", className, typeName)
+              .line("")
+              .line("    static final %s INSTANCE = new %s();", className, className)
+              .line("");
+        for (final String field : fields) {
+            source.line("    " + field);
+        }
+        if (!fields.isEmpty()) {
+            source.line("");
+        }
+        source.line("    private %s() {", className)
+              .line("    }")
+              .line("")
+              .line("    @Override")
+              .line("    String rootName() {")
+              .line("        return \"%s\";", escape(introspector.rootName(type)))
+              .line("    }")
+              .line("")
+              .line("    @Override");
+        if (unchecked) {
+            source.line("    @SuppressWarnings(\"unchecked\")");
+        }
+        source.line("    void write(final StaxCodec codec, final XMLStreamWriter writer, final %s value) throws XMLStreamException {", typeName);
+        for (final String line : body) {
+            source.line("        " + line);
+        }
+        source.line("    }");
+        for (final TypeElement enumType : enums) {
+            source.line("")
+                  .line("    private static String %s(final %s value) {", enumWriter(enumType), typeName(enumType));
+            for (final VariableElement constant : constants(enumType)) {
+                source.line("        if (value == %s.%s) {", typeName(enumType), constant.getSimpleName())
+                      .line("            return \"%s\";", escape(introspector.enumValue(constant)))
+                      .line("        }");
+            }
+            source.line("        " + UNSUPPORTED)
+                  .line("    }");
+        }
+        return source.line("}").toString();
+    }
+
+    // Switch on the hash code of the name, then check the name itself
+    private static void dispatch(final SourceBuilder source, final Map<String, String> statements, final String fallback) {
+        final Map<Integer, List<String>> buckets = new TreeMap<Integer, List<String>>();
+        for (final String name : statements.keySet()) {
+            List<String> bucket = buckets.get(name.hashCode());
+            if (bucket == null) {
+                bucket = new ArrayList<String>();
+                buckets.put(name.hashCode(), bucket);
+            }
+            bucket.add(name);
+        }
+        if (!buckets.isEmpty()) {
+            source.line("        switch (name.hashCode()) {");
+            for (final Map.Entry<Integer, List<String>> bucket : buckets.entrySet()) {
+                source.line("            case %d:", bucket.getKey());
+                for (final String name : bucket.getValue()) {
+                    source.line("                if (\"%s\".equals(name)) {", escape(name))
+                          .line("                    " + statements.get(name));
+                    if (!statements.get(name).equals(UNSUPPORTED)) {
+                        source.line("                    return;");
+                    }
+                    source.line("                }");
+                }
+                source.line("                break;");
+            }
+            source.line("            default:")
+                  .line("                break;")
+                  .line("        }");
+        }
+        if (fallback.length() > 0) {
+            source.line("        " + fallback);
+        }
+    }
+
+    // Integer, Long and Boolean can be read, other scalars (e.g. BigDecimal) are left to Jackson
+    private static String scalarName(final TypeMirror type) {
+        final String name = type.toString();
+        if ("java.lang.Integer".equals(name)) {
+            return "Integer";
+        } else if ("java.lang.Long".equals(name)) {
+            return "Long";
+        } else if ("java.lang.Boolean".equals(name)) {
+            return "Boolean";
+        }
+        return null;
+    }
+
+    private List<VariableElement> constants(final TypeElement enumType) {
+        final List<VariableElement> constants = new ArrayList<VariableElement>();
+        for (final VariableElement field : ElementFilter.fieldsIn(enumType.getEnclosedElements())) {
+            if (field.getKind() == ElementKind.ENUM_CONSTANT) {
+                constants.add(field);
+            }
+        }
+        return constants;
+    }
+
+    private String typeName(final TypeElement element) {
+        return ValueType.isModel(element, elements) || element.getKind() == ElementKind.ENUM && elements.getPackageOf(element).getQualifiedName().contentEquals(ValueType.MODEL_PACKAGE) ?
+               ValueType.simpleName(element, elements) : element.getQualifiedName().toString();
+    }
+
+    // Declared type, with model classes relative to their (and the generated code) package
+    private static String typeString(final TypeMirror type) {
+        return type.toString().replaceAll("\\b" + ValueType.MODEL_PACKAGE.replace(".", "\\.") + "\\.(?=[A-Z])", "");
+    }
+
+    private String bindingName(final TypeElement element) {
+        return ValueType.bindingName(element, elements);
+    }
+
+    private String enumReader(final TypeElement enumType) {
+        return "to" + bindingName(enumType);
+    }
+
+    private String enumWriter(final TypeElement enumType) {
+        return "textOf" + bindingName(enumType);
+    }
+
+    private static String constantName(final Element field) {
+        final StringBuilder constant = new StringBuilder();
+        for (final char c : field.getSimpleName().toString().toCharArray()) {
+            if (Character.isUpperCase(c)) {
+                constant.append('_');
+            }
+            constant.append(Character.toUpperCase(c));
+        }
+        return constant.append("_FIELD").toString();
+    }
+
+    private static String implicitName(final String methodName) {
+        final String name = methodName.startsWith("get") ? methodName.substring(3) : methodName.startsWith("is") ? methodName.substring(2) : methodName;
+        return name.isEmpty() ? methodName : Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String escape(final String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static final class SourceBuilder {
+
+        private final StringBuilder source = new StringBuilder();
+
+        private SourceBuilder(final TypeElement type) {
+            line("// Generated by StaxCodecProcessor from %s, do not edit", type.getQualifiedName())
+                    .line("")
+                    .line("package %s;", ValueType.MODEL_PACKAGE)
+                    .line("");
+        }
+
+        private SourceBuilder line(final String format, final Object... arguments) {
+            source.append(arguments.length == 0 ? format : String.format(format, arguments)).append('\n');
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.processor;
+
+import java.util.List;
+
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * How a property value maps to XML, as far as the generated code is concerned.
+ */
+final class ValueType {
+
+    static final String MODEL_PACKAGE = "com.ning.billing.recurly.model";
+    static final String RECURLY_OBJECT = MODEL_PACKAGE + ".RecurlyObject";
+    static final String RECURLY_OBJECTS = MODEL_PACKAGE + ".RecurlyObjects";
+
+    enum Kind {
+        // Object, read by UntypedXmlDeserializer
+        UNTYPED,
+        STRING,
+        // Boxed numbers and booleans, BigDecimal
+        SCALAR,
+        PRIMITIVE,
+        DATE_TIME,
+        ENUM,
+        // Model class
+        OBJECT,
+        // RecurlyObjects subclass
+        OBJECTS,
+        // List<String> and List of model classes
+        STRING_LIST,
+        OBJECT_LIST,
+        UNSUPPORTED
+    }
+
+    private final Kind kind;
+    // Model class or enum, list item type for OBJECT_LIST
+    private final TypeElement element;
+
+    private ValueType(final Kind kind, final TypeElement element) {
+        this.kind = kind;
+        this.element = element;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    TypeElement getElement() {
+        return element;
+    }
+
+    static ValueType of(final TypeMirror type, final Elements elements, final Types types) {
+        switch (type.getKind()) {
+            case INT:
+            case LONG:
+            case SHORT:
+            case BOOLEAN:
+                return new ValueType(Kind.PRIMITIVE, null);
+            case DECLARED:
+                break;
+            default:
+                return new ValueType(Kind.UNSUPPORTED, null);
+        }
+
+        final DeclaredType declaredType = (DeclaredType) type;
+        final TypeElement element = (TypeElement) declaredType.asElement();
+        final String name = element.getQualifiedName().toString();
+        if ("java.lang.Object".equals(name)) {
+            return new ValueType(Kind.UNTYPED, null);
+        } else if ("java.lang.String".equals(name)) {
+            return new ValueType(Kind.STRING, null);
+        } else if ("java.lang.Integer".equals(name) || "java.lang.Long".equals(name) || "java.lang.Short".equals(name) ||
+                   "java.lang.Boolean".equals(name) || "java.math.BigDecimal".equals(name)) {
+            return new ValueType(Kind.SCALAR, null);
+        } else if ("org.joda.time.DateTime".equals(name)) {
+            return new ValueType(Kind.DATE_TIME, null);
+        } else if (element.getKind() == ElementKind.ENUM) {
+            return new ValueType(Kind.ENUM, element);
+        } else if (isModel(element, elements)) {
+            return new ValueType(isRecurlyObjects(element, elements, types) ? Kind.OBJECTS : Kind.OBJECT, element);
+        } else if ("java.util.List".equals(name)) {
+            final List<? extends TypeMirror> arguments = declaredType.getTypeArguments();
+            if (arguments.size() == 1 && arguments.get(0).getKind() == TypeKind.DECLARED) {
+                final TypeElement item = (TypeElement) ((DeclaredType) arguments.get(0)).asElement();
+                if ("java.lang.String".equals(item.getQualifiedName().toString())) {
+                    return new ValueType(Kind.STRING_LIST, null);
+                } else if (isModel(item, elements) && !isRecurlyObjects(item, elements, types)) {
+                    return new ValueType(Kind.OBJECT_LIST, item);
+                }
+            }
+        }
+        return new ValueType(Kind.UNSUPPORTED, null);
+    }
+
+    static boolean isModel(final TypeElement element, final Elements elements) {
+        final PackageElement packageElement = elements.getPackageOf(element);
+        return element.getKind() == ElementKind.CLASS && packageElement.getQualifiedName().contentEquals(MODEL_PACKAGE);
+    }
+
+    static boolean isRecurlyObject(final TypeElement element, final Elements elements, final Types types) {
+        final TypeElement recurlyObject = elements.getTypeElement(RECURLY_OBJECT);
+        return types.isSubtype(types.erasure(element.asType()), types.erasure(recurlyObject.asType()));
+    }
+
+    static boolean isRecurlyObjects(final TypeElement element, final Elements elements, final Types types) {
+        final TypeElement recurlyObjects = elements.getTypeElement(RECURLY_OBJECTS);
+        return types.isSubtype(types.erasure(element.asType()), types.erasure(recurlyObjects.asType()));
+    }
+
+    /**
+     * @return the name of a model class relative to its package (e.g. GiftCard.Redemption)
+     */
+    static String simpleName(final TypeElement element, final Elements elements) {
+        final String packageName = elements.getPackageOf(element).getQualifiedName().toString();
+        return element.getQualifiedName().toString().substring(packageName.length() + 1);
+    }
+
+    /**
+     * @return the prefix of the generated classes for a model class (e.g. GiftCard_Redemption)
+     */
+    static String bindingName(final TypeElement element, final Elements elements) {
+        return simpleName(element, elements).replace('.', '_');
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * {@link RecurlyTransport} answering from memory, without any network I/O. Useful for benchmarks
+ * and tests exercising the full request/response path of the client.
+ * <p>
+ * Requests are matched against the registered {@link Route}s in registration order; unmatched requests
+ * get a 404 with an empty body.
+ */
+public class InMemoryTransport implements RecurlyTransport {
+
+    /**
+     * Computes the response to a request
+     */
+    public interface Responder {
+
+        HttpResponse respond(HttpUriRequest request) throws IOException;
+    }
+
+    private final List<Route> routes = new CopyOnWriteArrayList<Route>();
+    private final ConcurrentLinkedQueue<HttpUriRequest> requests = new ConcurrentLinkedQueue<HttpUriRequest>();
+    private final AtomicLong executed = new AtomicLong();
+    private final boolean recordRequests;
+
+    public InMemoryTransport() {
+        this(true);
+    }
+
+    /**
+     * @param recordRequests whether to keep the executed requests, see {@link #getRequests()}. Disable for benchmarks.
+     */
+    public InMemoryTransport(final boolean recordRequests) {
+        this.recordRequests = recordRequests;
+    }
+
+    /**
+     * Answer requests for a given method, whose URL contains the given fragment, with a fixed XML payload
+     *
+     * @param method      the HTTP method, e.g. GET
+     * @param urlFragment substring of the request URL
+     * @param status      the status code
+     * @param body        the XML body, possibly null
+     * @return this transport
+     */
+    public InMemoryTransport respond(final String method, final String urlFragment, final int status, final String body) {
+        return respond(method, urlFragment, status, body, ImmutableMap.<String, String>of());
+    }
+
+    public InMemoryTransport respond(final String method, final String urlFragment, final int status, final String body, final Map<String, String> headers) {
+        final byte[] bytes = body == null ? null : body.getBytes(Charsets.UTF_8);
+        return respond(method, urlFragment, new Responder() {
+            @Override
+            public HttpResponse respond(final HttpUriRequest request) {
+                return newResponse(status, bytes, headers);
+            }
+        });
+    }
+
+    public InMemoryTransport respond(final String method, final String urlFragment, final Responder responder) {
+        routes.add(new Route(method, urlFragment, responder));
+        return this;
+    }
+
+    /**
+     * @return a response with the given status, XML body (possibly null) and headers
+     */
+    public static HttpResponse newResponse(final int status, final byte[] body, final Map<String, String> headers) {
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+        for (final Map.Entry<String, String> header : headers.entrySet()) {
+            response.addHeader(header.getKey(), header.getValue());
+        }
+        if (body != null) {
+            final InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(body), body.length, ContentType.APPLICATION_XML.withCharset(Charsets.UTF_8));
+            // Like the HttpClient connection layer, expose the encoding on the entity as well
+            entity.setContentEncoding(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+            response.setEntity(entity);
+        }
+        return response;
+    }
+
+    @Override
+    public HttpResponse execute(final HttpUriRequest request) throws IOException {
+        executed.incrementAndGet();
+        if (recordRequests) {
+            requests.add(request);
+        }
+
+        final String url = request.getURI().toString();
+        for (final Route route : routes) {
+            if (route.method.equalsIgnoreCase(request.getMethod()) && url.contains(route.urlFragment)) {
+                return route.responder.respond(request);
+            }
+        }
+        return newResponse(404, null, ImmutableMap.<String, String>of());
+    }
+
+    /**
+     * @return the requests executed so far, in order
+     */
+    public List<HttpUriRequest> getRequests() {
+        return ImmutableList.copyOf(requests);
+    }
+
+    /**
+     * @return the number of requests executed so far
+     */
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static final class Route {
+
+        private final String method;
+        private final String urlFragment;
+        private final Responder responder;
+
+        private Route(final String method, final String urlFragment, final Responder responder) {
+            this.method = method;
+            this.urlFragment = urlFragment;
+            this.responder = responder;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Executes the HTTP exchanges of a {@link com.ning.billing.recurly.RecurlyClient}.
+ * <p>
+ * Requests and responses are described with the HttpCore message model: the client builds the request
+ * (URL, headers and streaming entity), the transport sends it and hands back the raw response. Status
+ * handling, content decoding and deserialization stay in the client. The default transport is backed by
+ * the Apache HttpClient, see {@link ApacheHttpClientTransport}.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface RecurlyTransport extends Closeable {
+
+    /**
+     * Send a request and wait for the response.
+     * <p>
+     * The response entity, if any, may be streamed: the caller consumes it, then closes the response
+     * if it implements {@link Closeable}.
+     *
+     * @param request the request to send
+     * @return the response
+     * @throws IOException on connection, timeout or protocol errors
+     */
+    HttpResponse execute(HttpUriRequest request) throws IOException;
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util;
+
+/**
+ * The Reactive Streams interfaces, with the same names and signatures as {@code java.util.concurrent.Flow}
+ * (Java 9+) and {@code org.reactivestreams}, for a library still targeting Java 6: bridging to either of them
+ * is a matter of delegating method to method.
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    public interface Publisher<T> {
+
+        /**
+         * Start a new stream: {@link Subscriber#onSubscribe} is called first, no object is produced until
+         * {@link Subscription#request} is
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Signals are serialized: they are never called concurrently
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * @param n number of additional objects the subscriber is ready to receive, strictly positive
+         */
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Coalesces concurrent calls sharing the same key: the first caller (the leader) runs the call while the
+ * others wait for it and get the same result, or the same exception.
+ * <p>
+ * Nothing is cached: once the leader's call completes, the next call for the key runs again.
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<String, SettableFuture<Object>> inFlight = new ConcurrentHashMap<String, SettableFuture<Object>>();
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Run the call, unless one is already in flight for the same key, in which case wait for its result
+     *
+     * @param key  identifies identical calls
+     * @param call the call, which may only throw unchecked exceptions
+     * @return the result of the call
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(final String key, final Callable<T> call) {
+        final SettableFuture<Object> future = SettableFuture.create();
+        final SettableFuture<Object> leader = inFlight.putIfAbsent(key, future);
+        if (leader != null) {
+            coalesced.incrementAndGet();
+            try {
+                return (T) Uninterruptibles.getUninterruptibly(leader);
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        executed.incrementAndGet();
+        try {
+            final T result = call.call();
+            future.set(result);
+            return result;
+        } catch (Throwable e) {
+            future.setException(e);
+            throw Throwables.propagate(e);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return number of calls which actually ran
+     */
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    /**
+     * @return number of calls which shared the result of a call already in flight
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("SingleFlight{");
+        sb.append("inFlight=").append(inFlight.size());
+        sb.append(", executed=").append(executed);
+        sb.append(", coalesced=").append(coalesced);
+        sb.append('}');
+        return sb.toString();
+    }
+}
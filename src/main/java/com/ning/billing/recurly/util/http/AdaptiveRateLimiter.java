@@ -0,0 +1,279 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Client-side token bucket paced by the rate limit headers Recurly returns on every response.
+ * <p>
+ * Recurly grants a number of requests per sliding window and reports what is left of it via
+ * {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset} (epoch seconds). The limiter spreads the
+ * remaining requests evenly until the reset, allowing short bursts of {@code burst} requests, so that
+ * callers run at the allowed ceiling instead of exhausting the budget and stalling on 429 errors.
+ * When the budget is exhausted (or on a 429), requests are held until the window resets, then let through one at a
+ * time, spaced by the length of the window divided by its limit, rather than all at once.
+ * <p>
+ * Until the first response is seen, and once the reported window has elapsed, requests are not paced.
+ * An instance is thread-safe and can be shared by all the clients using the same API key.
+ */
+public class AdaptiveRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveRateLimiter.class);
+
+    public static final String X_RATELIMIT_LIMIT_HEADER_NAME = "X-RateLimit-Limit";
+    public static final String X_RATELIMIT_REMAINING_HEADER_NAME = "X-RateLimit-Remaining";
+    public static final String X_RATELIMIT_RESET_HEADER_NAME = "X-RateLimit-Reset";
+
+    public static final int DEFAULT_BURST = 10;
+
+    // Pause applied on a 429 without usable reset header
+    private static final long DEFAULT_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Spacing of the requests held until the reset, when the window or the limit is unknown
+    private static final long DEFAULT_RESUME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int burst;
+    private final Ticker ticker;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong tooManyRequests = new AtomicLong();
+
+    // Guarded by this
+    private long intervalNanos;
+    private long resetNanos;
+    private long theoreticalArrivalNanos;
+    // Slot of the last request held until the reset
+    private long heldUntilNanos;
+    // Longest time until reset seen, i.e. the window length as far as we know
+    private long windowNanos;
+    private int limit = -1;
+    private int remaining = -1;
+
+    public AdaptiveRateLimiter() {
+        this(DEFAULT_BURST);
+    }
+
+    /**
+     * @param burst number of requests which may be issued back to back before pacing kicks in
+     */
+    public AdaptiveRateLimiter(final int burst) {
+        this(burst, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    AdaptiveRateLimiter(final int burst, final Ticker ticker) {
+        this.burst = Math.max(1, burst);
+        this.ticker = ticker;
+        this.resetNanos = ticker.read();
+        this.heldUntilNanos = resetNanos;
+    }
+
+    /**
+     * Wait, if needed, until a request may be issued
+     */
+    public void acquire() {
+        final long wait = reserve();
+        if (wait > 0) {
+            Uninterruptibles.sleepUninterruptibly(wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Reserve the next request slot
+     *
+     * @return how long the caller must wait before issuing its request, in nanoseconds
+     */
+    @VisibleForTesting
+    long reserve() {
+        final long wait;
+        synchronized (this) {
+            final long now = ticker.read();
+            if (now - resetNanos >= 0) {
+                // Past the window we know of: don't pace until the next response tells us more,
+                // except to queue behind the requests held until the reset which haven't gone yet
+                theoreticalArrivalNanos = now;
+                if (heldUntilNanos - now > 0) {
+                    wait = heldUntilNanos - now;
+                    heldUntilNanos += resumeIntervalNanos();
+                } else {
+                    wait = 0;
+                }
+            } else if (remaining == 0) {
+                // Held until the reset, then spaced out so that they don't all hit the API together
+                final long slot = Math.max(heldUntilNanos, resetNanos);
+                wait = slot - now;
+                heldUntilNanos = slot + resumeIntervalNanos();
+            } else {
+                // Generic cell rate algorithm: a request conforms if it isn't earlier than its theoretical
+                // arrival time minus the burst tolerance
+                final long tat = Math.max(Math.max(theoreticalArrivalNanos, heldUntilNanos), now);
+                wait = Math.max(0, tat - (burst - 1) * intervalNanos - now);
+                theoreticalArrivalNanos = tat + intervalNanos;
+            }
+        }
+
+        acquired.incrementAndGet();
+        if (wait > 0) {
+            throttled.incrementAndGet();
+            waitNanos.addAndGet(wait);
+        }
+        return wait;
+    }
+
+    // Guarded by this
+    private long resumeIntervalNanos() {
+        return limit > 0 && windowNanos > 0 ? windowNanos / limit : DEFAULT_RESUME_INTERVAL_NANOS;
+    }
+
+    /**
+     * Update the pacing from the headers of a response, successful or not
+     *
+     * @param response the Recurly response
+     */
+    public void update(final HttpResponse response) {
+        final int status = response.getStatusLine().getStatusCode();
+        final Integer remainingHeader = intHeader(response, X_RATELIMIT_REMAINING_HEADER_NAME);
+        final Integer limitHeader = intHeader(response, X_RATELIMIT_LIMIT_HEADER_NAME);
+        final Integer resetHeader = intHeader(response, X_RATELIMIT_RESET_HEADER_NAME);
+        if (status == 429) {
+            tooManyRequests.incrementAndGet();
+            update(limitHeader, 0, resetHeader);
+        } else if (remainingHeader != null) {
+            update(limitHeader, remainingHeader, resetHeader);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void update(final Integer limit, final int remaining, final Integer resetEpochSeconds) {
+        final long now = ticker.read();
+        if (resetEpochSeconds != null) {
+            final long untilResetMs = TimeUnit.SECONDS.toMillis(resetEpochSeconds) - System.currentTimeMillis();
+            this.resetNanos = now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, untilResetMs));
+            this.windowNanos = Math.max(windowNanos, resetNanos - now);
+        } else if (remaining == 0) {
+            this.resetNanos = now + DEFAULT_PAUSE_NANOS;
+        }
+        if (limit != null) {
+            this.limit = limit;
+        }
+        this.remaining = remaining;
+
+        final long untilReset = resetNanos - now;
+        if (untilReset > 0 && remaining > 0) {
+            // Requests already reserved but not answered yet are covered by the burst tolerance
+            this.intervalNanos = untilReset / remaining;
+        } else {
+            this.intervalNanos = 0;
+        }
+        log.debug("Rate limit: remaining={}, untilResetMs={}, intervalMs={}", remaining,
+                  TimeUnit.NANOSECONDS.toMillis(untilReset), TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+    }
+
+    private static Integer intHeader(final HttpResponse response, final String name) {
+        final Header header = response.getFirstHeader(name);
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(header.getValue().trim());
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring invalid {} header: {}", name, header.getValue());
+            return null;
+        }
+    }
+
+    /**
+     * @return the last reported request limit of the window, -1 if unknown
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the last reported number of requests left in the window, -1 if unknown
+     */
+    public synchronized int getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * @return the current pace, in requests per second ({@link Double#POSITIVE_INFINITY} when not pacing)
+     */
+    public synchronized double getPermitsPerSecond() {
+        if (ticker.read() - resetNanos >= 0) {
+            return Double.POSITIVE_INFINITY;
+        } else if (remaining == 0) {
+            return 0;
+        }
+        return intervalNanos == 0 ? Double.POSITIVE_INFINITY : TimeUnit.SECONDS.toNanos(1) / (double) intervalNanos;
+    }
+
+    /**
+     * @return number of requests which went through the limiter
+     */
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * @return number of requests which had to wait
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @return total time requests spent waiting, in milliseconds
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    /**
+     * @return number of 429 (Too Many Requests) responses seen
+     */
+    public long getTooManyRequestsCount() {
+        return tooManyRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("AdaptiveRateLimiter{");
+        sb.append("burst=").append(burst);
+        sb.append(", limit=").append(getLimit());
+        sb.append(", remaining=").append(getRemaining());
+        sb.append(", acquired=").append(acquired);
+        sb.append(", throttled=").append(throttled);
+        sb.append(", waitNanos=").append(waitNanos);
+        sb.append(", tooManyRequests=").append(tooManyRequests);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Honors the Keep-Alive timeout sent by the server, capped to a maximum duration
+ */
+public class BoundedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+    private final long maxKeepAliveMs;
+
+    /**
+     * @param maxKeepAliveMs cap in milliseconds, -1 to only rely on the server
+     */
+    public BoundedKeepAliveStrategy(final long maxKeepAliveMs) {
+        this.maxKeepAliveMs = maxKeepAliveMs;
+    }
+
+    @Override
+    public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+        final long serverKeepAliveMs = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        if (maxKeepAliveMs > 0 && (serverKeepAliveMs <= 0 || serverKeepAliveMs > maxKeepAliveMs)) {
+            return maxKeepAliveMs;
+        }
+        return serverKeepAliveMs;
+    }
+}
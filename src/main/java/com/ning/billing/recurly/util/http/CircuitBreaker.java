@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Consecutive-failure circuit breaker.
+ * <p>
+ * Closed, it lets calls through and opens after {@code failureThreshold} consecutive failures. Open, it rejects
+ * calls for {@code openDurationMs}, then turns half-open and lets a single trial call through: the circuit
+ * closes if it succeeds, and opens again otherwise.
+ * <p>
+ * Outcomes are reported with the permit handed out by {@link #tryAcquire()}, and only count for the state the call
+ * started in: a slow call from before the circuit opened can neither close nor re-open it once half-open.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Returned by {@link #tryAcquire()} when the call is rejected
+     */
+    public static final long REJECTED = -1;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Notified on every state change
+     */
+    public interface Listener {
+
+        void onStateChange(String name, State from, State to);
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final Ticker ticker;
+    private final Listener listener;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+    // Bumped on every state change: permits of an earlier state are stale
+    private long generation;
+    private long openedCount;
+
+    CircuitBreaker(final String name, final int failureThreshold, final long openDurationMs, final Ticker ticker, final Listener listener) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+        this.ticker = ticker;
+        this.listener = listener;
+    }
+
+    /**
+     * @return a permit for the call to proceed, to report its outcome with via {@link #onSuccess(long)} or
+     *         {@link #onFailure(long)}, or {@link #REJECTED}
+     */
+    public long tryAcquire() {
+        final long permit;
+        synchronized (this) {
+            switch (state) {
+                case CLOSED:
+                    return generation;
+                case HALF_OPEN:
+                    if (trialInFlight) {
+                        return REJECTED;
+                    }
+                    trialInFlight = true;
+                    return generation;
+                default:
+                    if (ticker.read() - openedAtNanos < openDurationNanos) {
+                        return REJECTED;
+                    }
+                    // Let a single trial call through
+                    transitionTo(State.HALF_OPEN);
+                    trialInFlight = true;
+                    permit = generation;
+            }
+        }
+        notifyListener(State.OPEN, State.HALF_OPEN);
+        return permit;
+    }
+
+    public void onSuccess(final long permit) {
+        final State from;
+        synchronized (this) {
+            if (permit != generation) {
+                // Started before the last state change, e.g. a slow call from before the circuit opened: only the
+                // trial call decides whether a half-open circuit closes
+                return;
+            }
+            consecutiveFailures = 0;
+            if (state != State.HALF_OPEN) {
+                return;
+            }
+            trialInFlight = false;
+            from = state;
+            transitionTo(State.CLOSED);
+        }
+        notifyListener(from, State.CLOSED);
+    }
+
+    public void onFailure(final long permit) {
+        final State from;
+        synchronized (this) {
+            if (permit != generation) {
+                // Started before the last state change, see onSuccess
+                return;
+            }
+            consecutiveFailures++;
+            if (state == State.CLOSED && consecutiveFailures < failureThreshold) {
+                return;
+            }
+            from = state;
+            transitionTo(State.OPEN);
+            trialInFlight = false;
+            openedAtNanos = ticker.read();
+            openedCount++;
+        }
+        notifyListener(from, State.OPEN);
+    }
+
+    // Guarded by this
+    private void transitionTo(final State to) {
+        state = to;
+        consecutiveFailures = 0;
+        generation++;
+    }
+
+    private void notifyListener(final State from, final State to) {
+        if (from != to && listener != null) {
+            listener.onStateChange(name, from, to);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return number of times the circuit opened
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+}
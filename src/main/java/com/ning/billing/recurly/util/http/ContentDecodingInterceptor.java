@@ -0,0 +1,199 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes gzip and deflate response bodies on the fly (the XML parser reads from the decompressing
+ * stream, nothing is buffered) and records wire versus decoded byte counts in {@link ContentEncodingStats}.
+ * <p>
+ * This replaces the built-in content decompression of the Apache client, which hides the wire size.
+ */
+public class ContentDecodingInterceptor implements HttpResponseInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(ContentDecodingInterceptor.class);
+
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final ContentEncodingStats stats;
+
+    public ContentDecodingInterceptor(final ContentEncodingStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public void process(final HttpResponse response, final HttpContext context) {
+        final HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() == 0) {
+            return;
+        }
+
+        final Header contentEncoding = entity.getContentEncoding();
+        final String encoding = contentEncoding == null ? "identity" : contentEncoding.getValue().trim().toLowerCase(Locale.ROOT);
+        if (!"gzip".equals(encoding) && !"x-gzip".equals(encoding) && !"deflate".equals(encoding) && !"identity".equals(encoding)) {
+            // Unknown encoding, leave it to the caller
+            return;
+        }
+
+        response.setEntity(new MeteredEntity(entity, encoding, stats));
+        if (!"identity".equals(encoding)) {
+            response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+            response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+            response.removeHeaders("Content-MD5");
+        }
+    }
+
+    private static final class MeteredEntity extends HttpEntityWrapper {
+
+        private final String encoding;
+        private final ContentEncodingStats stats;
+        private InputStream content;
+
+        private MeteredEntity(final HttpEntity wrappedEntity, final String encoding, final ContentEncodingStats stats) {
+            super(wrappedEntity);
+            this.encoding = encoding;
+            this.stats = stats;
+        }
+
+        private boolean isCompressed() {
+            return !"identity".equals(encoding);
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return isCompressed() ? null : super.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return isCompressed() ? -1 : super.getContentLength();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            // Same instance on every call, EntityUtils.consume relies on it
+            if (content == null || !wrappedEntity.isStreaming()) {
+                content = newContent();
+            }
+            return content;
+        }
+
+        private InputStream newContent() throws IOException {
+            final CountingInputStream wire = new CountingInputStream(wrappedEntity.getContent());
+            final InputStream decoded;
+            if ("deflate".equals(encoding)) {
+                decoded = new DeflateInputStream(wire);
+            } else if (isCompressed()) {
+                decoded = new GZIPInputStream(wire);
+            } else {
+                decoded = wire;
+            }
+
+            return new CountingInputStream(decoded) {
+                private boolean recorded;
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (!recorded) {
+                            recorded = true;
+                            stats.record(isCompressed(), wire.getCount(), getCount());
+                            log.debug("Response body ({}): {} bytes on the wire, {} bytes decoded", encoding, wire.getCount(), getCount());
+                        }
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(final OutputStream outStream) throws IOException {
+            final InputStream in = getContent();
+            try {
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    outStream.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of response bytes read off the wire versus bytes handed to the XML parser
+ */
+public class ContentEncodingStats {
+
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    void record(final boolean compressed, final long wire, final long decoded) {
+        responses.incrementAndGet();
+        if (compressed) {
+            compressedResponses.incrementAndGet();
+        }
+        wireBytes.addAndGet(wire);
+        decodedBytes.addAndGet(decoded);
+    }
+
+    /**
+     * @return number of response bodies read
+     */
+    public long getResponses() {
+        return responses.get();
+    }
+
+    /**
+     * @return number of response bodies which were received gzip or deflate encoded
+     */
+    public long getCompressedResponses() {
+        return compressedResponses.get();
+    }
+
+    /**
+     * @return number of body bytes received on the wire
+     */
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    /**
+     * @return number of body bytes after decompression
+     */
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    /**
+     * @return bytes saved by compression, over the decoded size (0 when nothing was read)
+     */
+    public double getSavingsRatio() {
+        final long decoded = decodedBytes.get();
+        return decoded == 0 ? 0 : (decoded - wireBytes.get()) / (double) decoded;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ContentEncodingStats{");
+        sb.append("responses=").append(responses);
+        sb.append(", compressedResponses=").append(compressedResponses);
+        sb.append(", wireBytes=").append(wireBytes);
+        sb.append(", decodedBytes=").append(decodedBytes);
+        sb.append('}');
+        return sb.toString();
+    }
+}
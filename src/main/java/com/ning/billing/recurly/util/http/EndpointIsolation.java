@@ -0,0 +1,308 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.ning.billing.recurly.EndpointUnavailableException;
+
+/**
+ * Isolates the Recurly resource families (e.g. {@code /accounts}, {@code /invoices}, {@code /purchases}) from
+ * each other, so that a degraded endpoint can't starve the calls to the others.
+ * <p>
+ * Each family gets a {@link CircuitBreaker}, tripped by connection errors and 5xx responses, and a bulkhead
+ * bounding its number of concurrent calls. Calls to an open circuit or a full bulkhead fail fast with an
+ * {@link EndpointUnavailableException}.
+ * <p>
+ * Instances are thread-safe and may be shared between clients.
+ */
+public class EndpointIsolation {
+
+    private static final Logger log = LoggerFactory.getLogger(EndpointIsolation.class);
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION_MS = 30000;
+    public static final int DEFAULT_MAX_CONCURRENT_CALLS = 32;
+
+    private final int failureThreshold;
+    private final long openDurationMs;
+    private final int maxConcurrentCalls;
+    private final Map<String, Integer> maxConcurrentCallsPerResource;
+    private final long maxWaitMs;
+    private final CircuitBreaker.Listener listener;
+    private final Ticker ticker;
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    private EndpointIsolation(final Builder builder) {
+        this.failureThreshold = builder.failureThreshold;
+        this.openDurationMs = builder.openDurationMs;
+        this.maxConcurrentCalls = builder.maxConcurrentCalls;
+        this.maxConcurrentCallsPerResource = ImmutableMap.copyOf(builder.maxConcurrentCallsPerResource);
+        this.maxWaitMs = builder.maxWaitMs;
+        this.listener = builder.listener;
+        this.ticker = builder.ticker;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return an isolation with the default settings
+     */
+    public static EndpointIsolation defaults() {
+        return builder().build();
+    }
+
+    /**
+     * @param resource the resource family, e.g. {@code /accounts}
+     * @return the isolation state of that family
+     */
+    public Endpoint getEndpoint(final String resource) {
+        Endpoint endpoint = endpoints.get(resource);
+        if (endpoint == null) {
+            final Integer max = maxConcurrentCallsPerResource.get(resource);
+            final Endpoint newEndpoint = new Endpoint(resource, max == null ? maxConcurrentCalls : max);
+            endpoint = endpoints.putIfAbsent(resource, newEndpoint);
+            if (endpoint == null) {
+                endpoint = newEndpoint;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * @return the families seen so far
+     */
+    public Map<String, Endpoint> getEndpoints() {
+        return ImmutableMap.copyOf(endpoints);
+    }
+
+    /**
+     * Isolation state of a resource family
+     */
+    public class Endpoint {
+
+        private final String resource;
+        private final Semaphore bulkhead;
+        private final int maxConcurrentCalls;
+        private final CircuitBreaker circuitBreaker;
+        private final AtomicLong circuitRejected = new AtomicLong();
+        private final AtomicLong bulkheadRejected = new AtomicLong();
+
+        private Endpoint(final String resource, final int maxConcurrentCalls) {
+            this.resource = resource;
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            this.bulkhead = new Semaphore(maxConcurrentCalls);
+            this.circuitBreaker = new CircuitBreaker(resource, failureThreshold, openDurationMs, ticker, new CircuitBreaker.Listener() {
+                @Override
+                public void onStateChange(final String name, final CircuitBreaker.State from, final CircuitBreaker.State to) {
+                    log.warn("Circuit breaker for Recurly endpoint {} changed from {} to {}", name, from, to);
+                    if (listener != null) {
+                        listener.onStateChange(name, from, to);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Enter the bulkhead, waiting up to {@code maxWaitMs} for a slot. Must be followed by {@link #exit()}.
+         *
+         * @throws EndpointUnavailableException if the bulkhead is full
+         */
+        public void enter() {
+            boolean acquired;
+            try {
+                acquired = bulkhead.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                bulkheadRejected.incrementAndGet();
+                throw new EndpointUnavailableException(resource, EndpointUnavailableException.Reason.BULKHEAD_FULL);
+            }
+        }
+
+        public void exit() {
+            bulkhead.release();
+        }
+
+        /**
+         * Check the circuit before an attempt. Must be followed by {@link #onSuccess(long)} or {@link #onFailure(long)}.
+         *
+         * @return the circuit breaker permit of the attempt
+         * @throws EndpointUnavailableException if the circuit is open
+         */
+        public long checkCircuit() {
+            final long permit = circuitBreaker.tryAcquire();
+            if (permit == CircuitBreaker.REJECTED) {
+                circuitRejected.incrementAndGet();
+                throw new EndpointUnavailableException(resource, EndpointUnavailableException.Reason.CIRCUIT_OPEN);
+            }
+            return permit;
+        }
+
+        public void onSuccess(final long permit) {
+            circuitBreaker.onSuccess(permit);
+        }
+
+        public void onFailure(final long permit) {
+            circuitBreaker.onFailure(permit);
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public CircuitBreaker.State getState() {
+            return circuitBreaker.getState();
+        }
+
+        /**
+         * @return number of calls currently in flight
+         */
+        public int getActiveCalls() {
+            return maxConcurrentCalls - bulkhead.availablePermits();
+        }
+
+        public int getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        /**
+         * @return number of times the circuit opened
+         */
+        public long getOpenedCount() {
+            return circuitBreaker.getOpenedCount();
+        }
+
+        /**
+         * @return number of calls rejected because the circuit was open
+         */
+        public long getCircuitRejectedCount() {
+            return circuitRejected.get();
+        }
+
+        /**
+         * @return number of calls rejected because the bulkhead was full
+         */
+        public long getBulkheadRejectedCount() {
+            return bulkheadRejected.get();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Endpoint{");
+            sb.append("resource='").append(resource).append('\'');
+            sb.append(", state=").append(getState());
+            sb.append(", activeCalls=").append(getActiveCalls());
+            sb.append(", maxConcurrentCalls=").append(maxConcurrentCalls);
+            sb.append(", openedCount=").append(getOpenedCount());
+            sb.append(", circuitRejected=").append(circuitRejected);
+            sb.append(", bulkheadRejected=").append(bulkheadRejected);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    public static class Builder {
+
+        private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+        private long openDurationMs = DEFAULT_OPEN_DURATION_MS;
+        private int maxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+        private final Map<String, Integer> maxConcurrentCallsPerResource = new ConcurrentHashMap<String, Integer>();
+        private long maxWaitMs = 0;
+        private CircuitBreaker.Listener listener;
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder() {
+        }
+
+        /**
+         * @param failureThreshold number of consecutive failures opening the circuit of a family
+         */
+        public Builder setFailureThreshold(final int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * @param openDurationMs how long an open circuit rejects calls before letting a trial call through
+         */
+        public Builder setOpenDurationMs(final long openDurationMs) {
+            this.openDurationMs = openDurationMs;
+            return this;
+        }
+
+        /**
+         * @param maxConcurrentCalls default bulkhead size of a family
+         */
+        public Builder setMaxConcurrentCalls(final int maxConcurrentCalls) {
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            return this;
+        }
+
+        /**
+         * @param resource           the resource family, e.g. {@code Invoices.INVOICES_RESOURCE}
+         * @param maxConcurrentCalls bulkhead size of that family
+         */
+        public Builder setMaxConcurrentCalls(final String resource, final int maxConcurrentCalls) {
+            this.maxConcurrentCallsPerResource.put(resource, maxConcurrentCalls);
+            return this;
+        }
+
+        /**
+         * @param maxWaitMs how long to wait for a bulkhead slot before failing, 0 to fail immediately
+         */
+        public Builder setMaxWaitMs(final long maxWaitMs) {
+            this.maxWaitMs = maxWaitMs;
+            return this;
+        }
+
+        /**
+         * @param listener notified of the circuit breaker state changes, e.g. to feed metrics
+         */
+        public Builder setListener(final CircuitBreaker.Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setTicker(final Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public EndpointIsolation build() {
+            return new EndpointIsolation(this);
+        }
+    }
+}
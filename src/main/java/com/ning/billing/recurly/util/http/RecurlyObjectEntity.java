@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.google.common.base.Charsets;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.StaxCodec;
+
+/**
+ * Request entity which serializes a {@link RecurlyObject} through the shared {@link XmlMapper}
+ * directly onto the connection output stream, without materializing the XML as a String.
+ * <p>
+ * When built with a {@link StaxCodec}, the payload goes through the codec instead, which renders it in memory first.
+ */
+public class RecurlyObjectEntity extends AbstractHttpEntity {
+
+    private final RecurlyObject payload;
+    private final XmlMapper xmlMapper;
+    private final StaxCodec staxCodec;
+
+    public RecurlyObjectEntity(final RecurlyObject payload) {
+        this(payload, RecurlyObject.sharedXmlMapper());
+    }
+
+    public RecurlyObjectEntity(final RecurlyObject payload, final XmlMapper xmlMapper) {
+        this(payload, xmlMapper, null);
+    }
+
+    public RecurlyObjectEntity(final RecurlyObject payload, final StaxCodec staxCodec) {
+        this(payload, staxCodec.getXmlMapper(), staxCodec);
+    }
+
+    private RecurlyObjectEntity(final RecurlyObject payload, final XmlMapper xmlMapper, final StaxCodec staxCodec) {
+        this.payload = payload;
+        this.xmlMapper = xmlMapper;
+        this.staxCodec = staxCodec;
+        setContentType(ContentType.APPLICATION_XML.withCharset(Charsets.UTF_8).toString());
+        // The length isn't known upfront: the payload is sent chunked
+        setChunked(true);
+    }
+
+    public RecurlyObject getPayload() {
+        return payload;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        // The payload can be serialized again, e.g. on retries
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Only used by consumers which can't write to a stream (e.g. the non-blocking client):
+     * the payload is serialized in memory.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(final OutputStream outStream) throws IOException {
+        if (staxCodec != null) {
+            staxCodec.writeValue(outStream, payload);
+            return;
+        }
+
+        final JsonGenerator generator = xmlMapper.getFactory().createGenerator(outStream, JsonEncoding.UTF8);
+        // The connection owns the stream
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            xmlMapper.writeValue(generator, payload);
+        } finally {
+            generator.close();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
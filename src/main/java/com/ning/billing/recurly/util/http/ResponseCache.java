@@ -0,0 +1,166 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of deserialized GET responses, revalidated with conditional requests.
+ * <p>
+ * Only responses carrying a validator ({@code ETag} or {@code Last-Modified}) are stored, along with the
+ * deserialized object. The next GET for the same key is sent with {@code If-None-Match} /
+ * {@code If-Modified-Since}: on a 304, the cached object is returned without reading any XML. The least
+ * recently used entries are evicted beyond {@code maximumSize}.
+ * <p>
+ * Cached objects are shared between callers, which must not modify them.
+ */
+public class ResponseCache {
+
+    private final Cache<String, Entry> cache;
+
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong conditionalRequests = new AtomicLong();
+
+    /**
+     * @param maximumSize maximum number of cached responses
+     */
+    public ResponseCache(final long maximumSize) {
+        this.cache = CacheBuilder.newBuilder()
+                                 .maximumSize(maximumSize)
+                                 .recordStats()
+                                 .build();
+    }
+
+    /**
+     * @return the cached entry to revalidate, or null
+     */
+    @Nullable
+    public Entry get(final String key) {
+        final Entry entry = cache.getIfPresent(key);
+        if (entry != null) {
+            conditionalRequests.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Record a full response: store it when it carries a validator, otherwise forget any stale entry
+     */
+    public void put(final String key, @Nullable final String etag, @Nullable final String lastModified, @Nullable final Object value) {
+        misses.incrementAndGet();
+        if (value == null || (etag == null && lastModified == null)) {
+            cache.invalidate(key);
+        } else {
+            cache.put(key, new Entry(etag, lastModified, value));
+        }
+    }
+
+    /**
+     * Record a 304 response
+     *
+     * @return the revalidated value
+     */
+    public Object onNotModified(final Entry entry) {
+        notModified.incrementAndGet();
+        return entry.getValue();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return number of cached responses
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return number of GET requests served from the cache after a 304
+     */
+    public long getHitCount() {
+        return notModified.get();
+    }
+
+    /**
+     * @return number of GET requests which downloaded and parsed a full response
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of conditional GET requests sent
+     */
+    public long getRevalidationCount() {
+        return conditionalRequests.get();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ResponseCache{");
+        sb.append("size=").append(size());
+        sb.append(", hits=").append(notModified);
+        sb.append(", misses=").append(misses);
+        sb.append(", revalidations=").append(conditionalRequests);
+        sb.append(", evictions=").append(getEvictionCount());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * A cached response: validators and deserialized object
+     */
+    public static class Entry {
+
+        private final String etag;
+        private final String lastModified;
+        private final Object value;
+
+        private Entry(@Nullable final String etag, @Nullable final String lastModified, final Object value) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+
+        @Nullable
+        public String getEtag() {
+            return etag;
+        }
+
+        @Nullable
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import javax.annotation.Nullable;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Retry rules of a {@link com.ning.billing.recurly.RecurlyClient}: which failures are retried, how
+ * long to back off, and how many retries the client may issue overall.
+ * <p>
+ * Failed attempts are retried, up to {@code maxAttempts}, when the request method is retryable and either the
+ * connection failed (connect, SSL, timeout, no response) or the response status is retryable (429 and 502-504
+ * by default). Delays grow exponentially from {@code baseDelayMs} up to {@code maxDelayMs}, with full jitter,
+ * and honor a longer {@code Retry-After} from the server up to {@code maxDelayMs}: when the server asks to wait
+ * longer than that, its response is returned without retrying, rather than parking the caller.
+ * <p>
+ * Retries are capped by a budget shared by all the requests going through the policy: every request earns
+ * {@code budgetRatio} retry tokens (up to {@code maxBudget}), and every retry spends one. This keeps retries
+ * from piling up on an already degraded API.
+ * <p>
+ * When {@code idempotencyKeys} is enabled (the default), the client attaches a random {@code Idempotency-Key}
+ * header to every non-GET request, reused across its attempts, so that Recurly applies a retried
+ * POST (purchase, transaction, usage...) at most once. POST requests are only retried in that case.
+ * <p>
+ * Instances are thread-safe; the budget is per instance.
+ */
+public class RetryPolicy {
+
+    public static final String IDEMPOTENCY_KEY_HEADER_NAME = "Idempotency-Key";
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MS = 100;
+    public static final long DEFAULT_MAX_DELAY_MS = 5000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_MAX_BUDGET = 10;
+
+    public static final Set<String> DEFAULT_RETRYABLE_METHODS = ImmutableSet.of("GET", "HEAD", "PUT", "DELETE", "POST");
+    public static final Set<Integer> DEFAULT_RETRYABLE_STATUSES = ImmutableSet.of(429, 502, 503, 504);
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final double budgetRatio;
+    private final int maxBudget;
+    private final Set<String> retryableMethods;
+    private final Set<Integer> retryableStatuses;
+    private final boolean idempotencyKeys;
+
+    private final Random random = new Random();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    // Guarded by this
+    private double budget;
+
+    private RetryPolicy(final Builder builder) {
+        this.maxAttempts = Math.max(1, builder.maxAttempts);
+        this.baseDelayMs = builder.baseDelayMs;
+        this.maxDelayMs = builder.maxDelayMs;
+        this.budgetRatio = builder.budgetRatio;
+        this.maxBudget = builder.maxBudget;
+        this.retryableMethods = ImmutableSet.copyOf(builder.retryableMethods);
+        this.retryableStatuses = ImmutableSet.copyOf(builder.retryableStatuses);
+        this.idempotencyKeys = builder.idempotencyKeys;
+        this.budget = maxBudget;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a policy with the default settings
+     */
+    public static RetryPolicy defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Account for a new request (first attempt), replenishing the retry budget
+     */
+    public synchronized void onRequest() {
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    /**
+     * @param method  the request method
+     * @param attempt the attempt which just failed, starting at 1
+     * @return whether the request may be attempted again after a connection error
+     */
+    public boolean shouldRetry(final String method, final int attempt) {
+        return attempt < maxAttempts && isRetryableMethod(method) && consumeBudget();
+    }
+
+    /**
+     * @param method  the request method
+     * @param status  the response status
+     * @param attempt the attempt which just failed, starting at 1
+     * @return whether the request may be attempted again after this response
+     */
+    public boolean shouldRetry(final String method, final int status, final int attempt) {
+        return shouldRetry(method, status, attempt, null);
+    }
+
+    /**
+     * @param method        the request method
+     * @param status        the response status
+     * @param attempt       the attempt which just failed, starting at 1
+     * @param retryAfterSec the Retry-After delay sent by the server, in seconds, or null
+     * @return whether the request may be attempted again after this response, i.e. also not later than {@code maxDelayMs}
+     */
+    public boolean shouldRetry(final String method, final int status, final int attempt, @Nullable final Integer retryAfterSec) {
+        return retryableStatuses.contains(status)
+               && (retryAfterSec == null || TimeUnit.SECONDS.toMillis(retryAfterSec) <= maxDelayMs)
+               && shouldRetry(method, attempt);
+    }
+
+    private boolean isRetryableMethod(final String method) {
+        return retryableMethods.contains(method) && (idempotencyKeys || !"POST".equals(method));
+    }
+
+    private boolean consumeBudget() {
+        synchronized (this) {
+            if (budget >= 1) {
+                budget -= 1;
+                retries.incrementAndGet();
+                return true;
+            }
+        }
+        budgetExhausted.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @param attempt       the attempt which just failed, starting at 1
+     * @param retryAfterSec the Retry-After delay sent by the server, in seconds, or null
+     * @return how long to wait before the next attempt, in milliseconds, at most {@code maxDelayMs}
+     */
+    public long getDelayMs(final int attempt, @Nullable final Integer retryAfterSec) {
+        final long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 30));
+        final long jittered;
+        synchronized (random) {
+            jittered = (long) (random.nextDouble() * ceiling);
+        }
+        return retryAfterSec == null ? jittered : Math.min(maxDelayMs, Math.max(jittered, TimeUnit.SECONDS.toMillis(retryAfterSec)));
+    }
+
+    /**
+     * @param method the request method
+     * @return whether an Idempotency-Key header should be attached to requests with this method
+     */
+    public boolean needsIdempotencyKey(final String method) {
+        return idempotencyKeys && !"GET".equals(method) && !"HEAD".equals(method);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return number of retries issued
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return number of retries denied because the budget was exhausted
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhausted.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("RetryPolicy{");
+        sb.append("maxAttempts=").append(maxAttempts);
+        sb.append(", baseDelayMs=").append(baseDelayMs);
+        sb.append(", maxDelayMs=").append(maxDelayMs);
+        sb.append(", budgetRatio=").append(budgetRatio);
+        sb.append(", maxBudget=").append(maxBudget);
+        sb.append(", retryableMethods=").append(retryableMethods);
+        sb.append(", retryableStatuses=").append(retryableStatuses);
+        sb.append(", idempotencyKeys=").append(idempotencyKeys);
+        sb.append(", retries=").append(retries);
+        sb.append(", budgetExhausted=").append(budgetExhausted);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public static class Builder {
+
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private long baseDelayMs = DEFAULT_BASE_DELAY_MS;
+        private long maxDelayMs = DEFAULT_MAX_DELAY_MS;
+        private double budgetRatio = DEFAULT_BUDGET_RATIO;
+        private int maxBudget = DEFAULT_MAX_BUDGET;
+        private Set<String> retryableMethods = DEFAULT_RETRYABLE_METHODS;
+        private Set<Integer> retryableStatuses = DEFAULT_RETRYABLE_STATUSES;
+        private boolean idempotencyKeys = true;
+
+        private Builder() {
+        }
+
+        /**
+         * @param maxAttempts maximum number of attempts per request, including the first one
+         */
+        public Builder setMaxAttempts(final int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder setBaseDelayMs(final long baseDelayMs) {
+            this.baseDelayMs = baseDelayMs;
+            return this;
+        }
+
+        public Builder setMaxDelayMs(final long maxDelayMs) {
+            this.maxDelayMs = maxDelayMs;
+            return this;
+        }
+
+        /**
+         * @param budgetRatio retry tokens earned per request, e.g. 0.1 allows retrying 10% of the requests
+         * @param maxBudget   maximum number of tokens banked, which is also the initial budget
+         */
+        public Builder setBudget(final double budgetRatio, final int maxBudget) {
+            this.budgetRatio = budgetRatio;
+            this.maxBudget = maxBudget;
+            return this;
+        }
+
+        /**
+         * @param retryableMethods the HTTP methods which may be retried
+         */
+        public Builder setRetryableMethods(final Set<String> retryableMethods) {
+            this.retryableMethods = retryableMethods;
+            return this;
+        }
+
+        /**
+         * @param retryableStatuses the response statuses which trigger a retry
+         */
+        public Builder setRetryableStatuses(final Set<Integer> retryableStatuses) {
+            this.retryableStatuses = retryableStatuses;
+            return this;
+        }
+
+        /**
+         * @param idempotencyKeys whether to attach an Idempotency-Key header to non-GET requests (required to retry POST)
+         */
+        public Builder setIdempotencyKeys(final boolean idempotencyKeys) {
+            this.idempotencyKeys = idempotencyKeys;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Synthetic list pages and allocation helpers for the benchmark test group (run with -Pbenchmark)
+ */
+public abstract class BenchmarkFixtures {
+
+    public static final int PAGE_SIZE = 200;
+
+    public static String invoicesPage(final int size) {
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<invoices type=\"array\">\n");
+        for (int i = 0; i < size; i++) {
+            sb.append("  <invoice href=\"https://api.recurly.com/v2/invoices/").append(1000 + i).append("\">\n")
+              .append("    <account href=\"https://api.recurly.com/v2/accounts/account-").append(i).append("\"/>\n")
+              .append("    <uuid>421f7b7d414e4c6792938e7c49d5").append(String.format(Locale.ROOT, "%04d", i)).append("</uuid>\n")
+              .append("    <state>paid</state>\n")
+              .append("    <invoice_number type=\"integer\">").append(1000 + i).append("</invoice_number>\n")
+              .append("    <po_number nil=\"nil\"></po_number>\n")
+              .append("    <vat_number></vat_number>\n")
+              .append("    <subtotal_in_cents type=\"integer\">1200</subtotal_in_cents>\n")
+              .append("    <tax_in_cents type=\"integer\">105</tax_in_cents>\n")
+              .append("    <total_in_cents type=\"integer\">1305</total_in_cents>\n")
+              .append("    <currency>USD</currency>\n")
+              .append("    <tax_rate type=\"float\">0.0875</tax_rate>\n")
+              .append("    <created_at type=\"dateTime\">2011-08-25T12:00:00Z</created_at>\n")
+              .append("    <updated_at type=\"dateTime\">2011-08-25T12:00:00Z</updated_at>\n")
+              .append("    <closed_at type=\"dateTime\">2011-08-25T12:00:00Z</closed_at>\n")
+              .append("    <line_items type=\"array\">\n");
+            for (int j = 0; j < 3; j++) {
+                sb.append("      <adjustment type=\"charge\" href=\"https://api.recurly.com/v2/adjustments/626db120a84102b1809909071c70").append(String.format(Locale.ROOT, "%02d%02d", i % 100, j)).append("\">\n")
+                  .append("        <account href=\"https://api.recurly.com/v2/accounts/account-").append(i).append("\"/>\n")
+                  .append("        <uuid>626db120a84102b1809909071c70").append(String.format(Locale.ROOT, "%02d%02d", i % 100, j)).append("</uuid>\n")
+                  .append("        <description>Charge for extra bandwidth</description>\n")
+                  .append("        <accounting_code>bandwidth</accounting_code>\n")
+                  .append("        <origin>charge</origin>\n")
+                  .append("        <unit_amount_in_cents type=\"integer\">400</unit_amount_in_cents>\n")
+                  .append("        <quantity type=\"integer\">1</quantity>\n")
+                  .append("        <discount_in_cents type=\"integer\">0</discount_in_cents>\n")
+                  .append("        <tax_in_cents type=\"integer\">35</tax_in_cents>\n")
+                  .append("        <total_in_cents type=\"integer\">435</total_in_cents>\n")
+                  .append("        <currency>USD</currency>\n")
+                  .append("        <taxable type=\"boolean\">true</taxable>\n")
+                  .append("        <start_date type=\"dateTime\">2011-08-31T03:30:00Z</start_date>\n")
+                  .append("        <end_date nil=\"nil\"></end_date>\n")
+                  .append("        <created_at type=\"dateTime\">2011-08-31T03:30:00Z</created_at>\n")
+                  .append("      </adjustment>\n");
+            }
+            sb.append("    </line_items>\n")
+              .append("    <transactions type=\"array\">\n")
+              .append("    </transactions>\n")
+              .append("  </invoice>\n");
+        }
+        return sb.append("</invoices>\n").toString();
+    }
+
+    public static String accountsPage(final int size) {
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<accounts type=\"array\">\n");
+        for (int i = 0; i < size; i++) {
+            appendAccount(sb, i);
+        }
+        return sb.append("</accounts>\n").toString();
+    }
+
+    public static String account(final int i) {
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        appendAccount(sb, i);
+        return sb.toString();
+    }
+
+    private static void appendAccount(final StringBuilder sb, final int i) {
+        sb.append("  <account href=\"https://api.recurly.com/v2/accounts/account-").append(i).append("\">\n")
+          .append("    <account_code>account-").append(i).append("</account_code>\n")
+          .append("    <state>active</state>\n")
+          .append("    <username nil=\"nil\"></username>\n")
+          .append("    <email>verena").append(i).append("@example.com</email>\n")
+          .append("    <cc_emails nil=\"nil\"></cc_emails>\n")
+          .append("    <first_name>Verena</first_name>\n")
+          .append("    <last_name>Example</last_name>\n")
+          .append("    <company_name nil=\"nil\"></company_name>\n")
+          .append("    <vat_number nil=\"nil\"></vat_number>\n")
+          .append("    <tax_exempt type=\"boolean\">false</tax_exempt>\n")
+          .append("    <address>\n")
+          .append("      <address1>123 Main St.</address1>\n")
+          .append("      <address2 nil=\"nil\"></address2>\n")
+          .append("      <city>San Francisco</city>\n")
+          .append("      <state>CA</state>\n")
+          .append("      <zip>94105</zip>\n")
+          .append("      <country>US</country>\n")
+          .append("      <phone nil=\"nil\"></phone>\n")
+          .append("    </address>\n")
+          .append("    <accept_language nil=\"nil\"></accept_language>\n")
+          .append("    <hosted_login_token>a92468579e9c4231a6c0031c4716c01d</hosted_login_token>\n")
+          .append("    <created_at type=\"dateTime\">2011-10-25T12:00:00Z</created_at>\n")
+          .append("    <updated_at type=\"dateTime\">2011-10-25T12:00:00Z</updated_at>\n")
+          .append("    <closed_at nil=\"nil\"></closed_at>\n")
+          .append("    <has_live_subscription type=\"boolean\">true</has_live_subscription>\n")
+          .append("    <has_active_subscription type=\"boolean\">true</has_active_subscription>\n")
+          .append("  </account>\n");
+    }
+
+    public static String subscriptionsPage(final int size) {
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<subscriptions type=\"array\">\n");
+        for (int i = 0; i < size; i++) {
+            sb.append("  <subscription href=\"https://api.recurly.com/v2/subscriptions/44f83d7cba354d5b84812419f923").append(String.format(Locale.ROOT, "%04d", i)).append("\">\n")
+              .append("    <account href=\"https://api.recurly.com/v2/accounts/account-").append(i).append("\"/>\n")
+              .append("    <plan href=\"https://api.recurly.com/v2/plans/gold\">\n")
+              .append("      <plan_code>gold</plan_code>\n")
+              .append("      <name>Gold plan</name>\n")
+              .append("    </plan>\n")
+              .append("    <uuid>44f83d7cba354d5b84812419f923").append(String.format(Locale.ROOT, "%04d", i)).append("</uuid>\n")
+              .append("    <state>active</state>\n")
+              .append("    <unit_amount_in_cents type=\"integer\">800</unit_amount_in_cents>\n")
+              .append("    <currency>USD</currency>\n")
+              .append("    <quantity type=\"integer\">1</quantity>\n")
+              .append("    <activated_at type=\"dateTime\">2011-05-27T07:00:00Z</activated_at>\n")
+              .append("    <canceled_at nil=\"nil\"></canceled_at>\n")
+              .append("    <expires_at nil=\"nil\"></expires_at>\n")
+              .append("    <current_period_started_at type=\"dateTime\">2011-06-27T07:00:00Z</current_period_started_at>\n")
+              .append("    <current_period_ends_at type=\"dateTime\">2011-07-27T07:00:00Z</current_period_ends_at>\n")
+              .append("    <trial_started_at nil=\"nil\"></trial_started_at>\n")
+              .append("    <trial_ends_at nil=\"nil\"></trial_ends_at>\n")
+              .append("    <updated_at type=\"dateTime\">2011-06-27T07:00:00Z</updated_at>\n")
+              .append("    <tax_in_cents type=\"integer\">72</tax_in_cents>\n")
+              .append("    <tax_type>usst</tax_type>\n")
+              .append("    <tax_rate type=\"float\">0.0875</tax_rate>\n")
+              .append("    <remaining_billing_cycles nil=\"nil\"></remaining_billing_cycles>\n")
+              .append("    <collection_method>automatic</collection_method>\n")
+              .append("    <net_terms type=\"integer\">0</net_terms>\n")
+              .append("    <po_number nil=\"nil\"></po_number>\n")
+              .append("    <bulk type=\"boolean\">false</bulk>\n")
+              .append("    <started_with_gift type=\"boolean\">false</started_with_gift>\n")
+              .append("    <converted_at nil=\"nil\"></converted_at>\n")
+              .append("    <imported_trial type=\"boolean\">false</imported_trial>\n")
+              .append("  </subscription>\n");
+        }
+        return sb.append("</subscriptions>\n").toString();
+    }
+
+    /**
+     * @return the number of bytes allocated so far by the current thread
+     */
+    public static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
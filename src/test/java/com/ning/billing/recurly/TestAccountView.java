@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+public class TestAccountView {
+
+    private static final long LATENCY_MS = 300;
+
+    @Test(groups = "fast")
+    public void testPartsAreFetchedConcurrently() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport();
+        respond(transport, "/accounts/abc/billing_infos", "<billing_infos type=\"array\"></billing_infos>", LATENCY_MS);
+        respond(transport, "/accounts/abc/subscriptions", "<subscriptions type=\"array\"><subscription><uuid>sub</uuid></subscription></subscriptions>", LATENCY_MS);
+        respond(transport, "/accounts/abc/invoices", "<invoices type=\"array\"></invoices>", LATENCY_MS);
+        respond(transport, "/accounts/abc/balance", "<account_balance><past_due type=\"boolean\">true</past_due></account_balance>", LATENCY_MS);
+        respond(transport, "/accounts/abc/shipping_addresses", "<shipping_addresses type=\"array\"></shipping_addresses>", LATENCY_MS);
+        respond(transport, "/accounts/abc/entitlements", "<entitlements type=\"array\"></entitlements>", LATENCY_MS);
+        respond(transport, "/accounts/abc", "<account><account_code>abc</account_code></account>", LATENCY_MS);
+
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+        try {
+            final long start = System.nanoTime();
+            final AccountView view = recurlyClient.getAccountView("abc", 10, TimeUnit.SECONDS);
+            final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            Assert.assertTrue(view.isComplete(), view.toString());
+            Assert.assertEquals(view.getAccount().getAccountCode(), "abc");
+            Assert.assertEquals(view.getSubscriptions().get(0).getUuid(), "sub");
+            Assert.assertTrue(view.getBalance().getPastDue());
+            Assert.assertNotNull(view.getBillingInfos());
+            Assert.assertNotNull(view.getInvoices());
+            Assert.assertNotNull(view.getShippingAddresses());
+            Assert.assertNotNull(view.getEntitlements());
+            Assert.assertEquals(transport.getExecutedCount(), AccountView.Part.values().length);
+            // Sequential calls would take 7 times the latency
+            Assert.assertTrue(elapsedMs < 4 * LATENCY_MS, "Took " + elapsedMs + " ms");
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testPartialResults() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport();
+        respond(transport, "/accounts/abc/entitlements", "<entitlements type=\"array\"></entitlements>", 10000);
+        transport.respond("GET", "/accounts/abc/invoices", 404, null);
+        respond(transport, "/accounts/abc", "<account><account_code>abc</account_code></account>", 0);
+
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+        try {
+            // Deserializers are built on first use
+            recurlyClient.getAccount("abc");
+
+            final AccountView view = recurlyClient.getAccountView("abc", EnumSet.of(AccountView.Part.ACCOUNT, AccountView.Part.INVOICES, AccountView.Part.ENTITLEMENTS),
+                                                                  3 * LATENCY_MS, TimeUnit.MILLISECONDS);
+            Assert.assertFalse(view.isComplete());
+            Assert.assertEquals(view.getErrors().size(), 2);
+            Assert.assertTrue(view.isLoaded(AccountView.Part.ACCOUNT));
+            Assert.assertEquals(view.getAccount().getAccountCode(), "abc");
+            Assert.assertEquals(((RecurlyAPIException) view.getError(AccountView.Part.INVOICES)).getRecurlyError().getHttpStatusCode(), 404);
+            Assert.assertTrue(view.getError(AccountView.Part.ENTITLEMENTS) instanceof TimeoutException);
+            Assert.assertNull(view.getEntitlements());
+            // Not requested
+            Assert.assertFalse(view.isLoaded(AccountView.Part.BALANCE));
+            Assert.assertNull(view.getError(AccountView.Part.BALANCE));
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private void respond(final InMemoryTransport transport, final String path, final String body, final long latencyMs) {
+        transport.respond("GET", path, new InMemoryTransport.Responder() {
+            @Override
+            public HttpResponse respond(final HttpUriRequest request) throws IOException {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return InMemoryTransport.newResponse(200, body.getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+            }
+        });
+    }
+}
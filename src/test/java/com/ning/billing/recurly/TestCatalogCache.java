@@ -0,0 +1,249 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.ning.billing.recurly.model.AddOn;
+import com.ning.billing.recurly.model.Item;
+import com.ning.billing.recurly.model.Plan;
+import com.ning.billing.recurly.model.push.item.UpdatedItemNotification;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCatalogCache {
+
+    @Test(groups = "fast")
+    public void testWarmUpAndInvalidation() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/plans?", 200, "<plans type=\"array\">" +
+                                                "<plan><plan_code>gold</plan_code><name>Gold</name></plan>" +
+                                                "<plan><plan_code>silver</plan_code><name>Silver</name></plan>" +
+                                                "</plans>")
+                .respond("GET", "/plans/gold/add_ons", 200, "<add_ons type=\"array\"><add_on><add_on_code>extra</add_on_code></add_on></add_ons>")
+                .respond("GET", "/items?", 200, "<items type=\"array\"><item><item_code>tshirt</item_code><name>T-shirt</name></item></items>")
+                .respond("GET", "/items/tshirt", 200, "<item><item_code>tshirt</item_code><name>Blue T-shirt</name></item>")
+                .respond("GET", "/shipping_methods", 200, "<shipping_methods type=\"array\"></shipping_methods>")
+                .respond("GET", "/custom_field_definitions", 200, "<custom_field_definitions type=\"array\"></custom_field_definitions>")
+                .respond("GET", "/business_entities", 200, "<business_entities type=\"array\"></business_entities>");
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport, RecurlyClientConfig.builder().setCatalogCache(60000, 30000, true));
+        Assert.assertNull(recurlyClient.getCatalogCache());
+        recurlyClient.open();
+        try {
+            Assert.assertTrue(recurlyClient.getCatalogCache().awaitWarmUp(5, TimeUnit.SECONDS));
+            // Plans, items, shipping methods, custom field definitions and business entities
+            Assert.assertEquals(transport.getExecutedCount(), 5);
+
+            final Plan gold = recurlyClient.getPlan("gold");
+            Assert.assertEquals(gold.getName(), "Gold");
+            Assert.assertSame(recurlyClient.getPlan("gold"), gold);
+            Assert.assertEquals(recurlyClient.getItem("tshirt").getName(), "T-shirt");
+            Assert.assertNotNull(recurlyClient.getShippingMethods());
+            Assert.assertNotNull(recurlyClient.getCustomFieldDefinitions());
+            Assert.assertNotNull(recurlyClient.getBusinessEntities());
+            Assert.assertEquals(transport.getExecutedCount(), 5);
+
+            // Add-ons are loaded on demand
+            Assert.assertEquals(recurlyClient.getAddOns("gold").get(0).getAddOnCode(), "extra");
+            Assert.assertEquals(recurlyClient.getAddOns("gold").size(), 1);
+            Assert.assertEquals(transport.getExecutedCount(), 6);
+
+            // Unknown entries go to Recurly, errors aren't cached
+            for (int i = 0; i < 2; i++) {
+                try {
+                    recurlyClient.getPlan("platinum");
+                    Assert.fail();
+                } catch (final RecurlyAPIException e) {
+                    Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 404);
+                }
+            }
+            Assert.assertEquals(transport.getExecutedCount(), 8);
+
+            final UpdatedItemNotification notification = UpdatedItemNotification.read("<updated_item_notification>" +
+                                                                                       "<item><item_code>tshirt</item_code></item>" +
+                                                                                       "</updated_item_notification>");
+            recurlyClient.getCatalogCache().onNotification(notification);
+            final Item item = recurlyClient.getItem("tshirt");
+            Assert.assertEquals(item.getName(), "Blue T-shirt");
+            Assert.assertEquals(transport.getExecutedCount(), 9);
+        } finally {
+            recurlyClient.close();
+        }
+        Assert.assertNull(recurlyClient.getCatalogCache());
+    }
+
+    @Test(groups = "fast")
+    public void testWarmUpDoesNotBlockOpen() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final InMemoryTransport transport = new InMemoryTransport().respond("GET", "/plans?", new InMemoryTransport.Responder() {
+            @Override
+            public HttpResponse respond(final HttpUriRequest request) throws IOException {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return response("<plans type=\"array\"><plan><plan_code>gold</plan_code><name>Gold</name></plan></plans>");
+            }
+        });
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport, RecurlyClientConfig.builder().setCatalogCache(60000, -1, true));
+        recurlyClient.open();
+        try {
+            Assert.assertFalse(recurlyClient.getCatalogCache().awaitWarmUp(50, TimeUnit.MILLISECONDS));
+            release.countDown();
+            Assert.assertTrue(recurlyClient.getCatalogCache().awaitWarmUp(5, TimeUnit.SECONDS));
+            Assert.assertEquals(recurlyClient.getPlan("gold").getName(), "Gold");
+        } finally {
+            release.countDown();
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testWritesInvalidate() throws Exception {
+        final AtomicReference<String> planName = new AtomicReference<String>("Gold");
+        final AtomicReference<String> addOns = new AtomicReference<String>("");
+        final AtomicReference<String> itemName = new AtomicReference<String>("T-shirt");
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/plans/gold/add_ons", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        return response("<add_ons type=\"array\">" + addOns.get() + "</add_ons>");
+                    }
+                })
+                .respond("POST", "/plans/gold/add_ons", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        addOns.set(addOns.get() + "<add_on><add_on_code>extra</add_on_code></add_on>");
+                        return response("<add_on><add_on_code>extra</add_on_code></add_on>");
+                    }
+                })
+                .respond("GET", "/plans/gold", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        return response("<plan><plan_code>gold</plan_code><name>" + planName.get() + "</name></plan>");
+                    }
+                })
+                .respond("PUT", "/plans/gold", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        planName.set("Gold 2");
+                        return response("<plan><plan_code>gold</plan_code><name>Gold 2</name></plan>");
+                    }
+                })
+                .respond("GET", "/items/tshirt", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        return itemName.get() == null ? InMemoryTransport.newResponse(404, null, ImmutableMap.<String, String>of()) :
+                               response("<item><item_code>tshirt</item_code><name>" + itemName.get() + "</name></item>");
+                    }
+                })
+                .respond("PUT", "/items/tshirt", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        itemName.set("Blue T-shirt");
+                        return response("<item><item_code>tshirt</item_code><name>Blue T-shirt</name></item>");
+                    }
+                })
+                .respond("DELETE", "/items/tshirt", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        itemName.set(null);
+                        return InMemoryTransport.newResponse(204, null, ImmutableMap.<String, String>of());
+                    }
+                });
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport, RecurlyClientConfig.builder().setCatalogCache(60000, -1, false));
+        recurlyClient.open();
+        try {
+            Assert.assertEquals(recurlyClient.getPlan("gold").getName(), "Gold");
+            Assert.assertEquals(recurlyClient.getAddOns("gold").size(), 0);
+            Assert.assertEquals(recurlyClient.getItem("tshirt").getName(), "T-shirt");
+
+            final Plan plan = new Plan();
+            plan.setPlanCode("gold");
+            plan.setName("Gold 2");
+            recurlyClient.updatePlan(plan);
+            Assert.assertEquals(recurlyClient.getPlan("gold").getName(), "Gold 2");
+
+            final AddOn addOn = new AddOn();
+            addOn.setAddOnCode("extra");
+            recurlyClient.createPlanAddOn("gold", addOn);
+            Assert.assertEquals(recurlyClient.getAddOns("gold").size(), 1);
+
+            final Item item = new Item();
+            item.setName("Blue T-shirt");
+            recurlyClient.updateItem("tshirt", item);
+            Assert.assertEquals(recurlyClient.getItem("tshirt").getName(), "Blue T-shirt");
+
+            recurlyClient.deleteItem("tshirt");
+            try {
+                recurlyClient.getItem("tshirt");
+                Assert.fail();
+            } catch (final RecurlyAPIException e) {
+                Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 404);
+            }
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testWarmUpDoesNotCacheStalePages() throws Exception {
+        final AtomicReference<RecurlyClient> clientRef = new AtomicReference<RecurlyClient>();
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/plans?", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        // The plan is updated while its page is in flight
+                        clientRef.get().getCatalogCache().invalidatePlan("gold");
+                        return response("<plans type=\"array\"><plan><plan_code>gold</plan_code><name>Gold</name></plan></plans>");
+                    }
+                })
+                .respond("GET", "/plans/gold", 200, "<plan><plan_code>gold</plan_code><name>Gold 2</name></plan>")
+                .respond("GET", "/items?", 200, "<items type=\"array\"><item><item_code>tshirt</item_code><name>T-shirt</name></item></items>")
+                .respond("GET", "/shipping_methods", 200, "<shipping_methods type=\"array\"></shipping_methods>")
+                .respond("GET", "/custom_field_definitions", 200, "<custom_field_definitions type=\"array\"></custom_field_definitions>")
+                .respond("GET", "/business_entities", 200, "<business_entities type=\"array\"></business_entities>");
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport, RecurlyClientConfig.builder().setCatalogCache(60000, -1, false));
+        clientRef.set(recurlyClient);
+        recurlyClient.open();
+        try {
+            recurlyClient.getCatalogCache().warmUp();
+            // The stale page was dropped, the item page was cached
+            Assert.assertEquals(recurlyClient.getPlan("gold").getName(), "Gold 2");
+            Assert.assertEquals(recurlyClient.getItem("tshirt").getName(), "T-shirt");
+            Assert.assertEquals(transport.getExecutedCount(), 6);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private static HttpResponse response(final String xml) {
+        return InMemoryTransport.newResponse(200, xml.getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+    }
+}
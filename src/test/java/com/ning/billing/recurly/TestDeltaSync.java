@@ -0,0 +1,179 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestDeltaSync {
+
+    private static final DateTime T1 = new DateTime(2020, 1, 1, 0, 0, DateTimeZone.UTC);
+    private static final DateTime T2 = T1.plusSeconds(1);
+    private static final DateTime T3 = T1.plusSeconds(2);
+
+    // Account code -> updated_at
+    private final Map<String, DateTime> accounts = new ConcurrentHashMap<String, DateTime>();
+    private File stateFile;
+    private RecurlyClient recurlyClient;
+
+    @BeforeMethod(groups = "fast")
+    public void setUp() throws Exception {
+        accounts.clear();
+        accounts.put("a1", T1);
+        accounts.put("a2", T2);
+        accounts.put("a3", T2);
+        stateFile = File.createTempFile("recurly-sync", ".properties");
+        Assert.assertTrue(stateFile.delete());
+
+        final InMemoryTransport transport = new InMemoryTransport().respond("GET", "/accounts", new InMemoryTransport.Responder() {
+            @Override
+            public HttpResponse respond(final HttpUriRequest request) {
+                return listAccounts(request);
+            }
+        });
+        recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+    }
+
+    @AfterMethod(groups = "fast")
+    public void tearDown() {
+        recurlyClient.close();
+        stateFile.delete();
+    }
+
+    @Test(groups = "fast")
+    public void testOnlyHandsOutChanges() throws Exception {
+        final DeltaSync<Account> sync = recurlyClient.newAccountsSync(stateFile, null);
+        Assert.assertEquals(sync(sync), ImmutableList.of("a1", "a2", "a3"));
+        Assert.assertTrue(sync.getWatermark().isEqual(T2));
+
+        // Ties on the watermark aren't handed out twice
+        Assert.assertEquals(sync(sync), ImmutableList.<String>of());
+
+        // ...but late ones aren't lost either
+        accounts.put("a4", T2);
+        accounts.put("a1", T3);
+        Assert.assertEquals(sync(sync), ImmutableList.of("a4", "a1"));
+        Assert.assertTrue(sync.getWatermark().isEqual(T3));
+    }
+
+    @Test(groups = "fast")
+    public void testResumesFromStateFile() throws Exception {
+        Assert.assertEquals(sync(recurlyClient.newAccountsSync(stateFile, null)), ImmutableList.of("a1", "a2", "a3"));
+        Assert.assertTrue(stateFile.exists());
+
+        // A new process picks up the persisted watermark
+        accounts.put("a4", T3);
+        final DeltaSync<Account> restarted = recurlyClient.newAccountsSync(stateFile, T1);
+        Assert.assertTrue(restarted.getWatermark().isEqual(T2));
+        Assert.assertEquals(sync(restarted), ImmutableList.of("a4"));
+    }
+
+    @Test(groups = "fast")
+    public void testInitialWatermark() throws Exception {
+        Assert.assertEquals(sync(recurlyClient.newAccountsSync(stateFile, T2)), ImmutableList.of("a2", "a3"));
+    }
+
+    @Test(groups = "fast")
+    public void testFailedObjectsAreHandedOutAgain() throws Exception {
+        final List<String> handled = new ArrayList<String>();
+        try {
+            recurlyClient.newAccountsSync(stateFile, null).sync(new DeltaSync.Listener<Account>() {
+                @Override
+                public void onChange(final Account account) {
+                    if ("a3".equals(account.getAccountCode())) {
+                        throw new IllegalStateException();
+                    }
+                    handled.add(account.getAccountCode());
+                }
+            });
+            Assert.fail();
+        } catch (final IllegalStateException expected) {
+            Assert.assertEquals(handled, ImmutableList.of("a1", "a2"));
+        }
+
+        Assert.assertEquals(sync(recurlyClient.newAccountsSync(stateFile, null)), ImmutableList.of("a3"));
+    }
+
+    private static List<String> sync(final DeltaSync<Account> sync) throws Exception {
+        final List<String> handled = new ArrayList<String>();
+        final int changed = sync.sync(new DeltaSync.Listener<Account>() {
+            @Override
+            public void onChange(final Account account) {
+                handled.add(account.getAccountCode());
+            }
+        });
+        Assert.assertEquals(changed, handled.size());
+        return handled;
+    }
+
+    // Serves the accounts updated since begin_time (inclusive), oldest first
+    private HttpResponse listAccounts(final HttpUriRequest request) {
+        DateTime begin = null;
+        for (final NameValuePair param : URLEncodedUtils.parse(request.getURI(), "UTF-8")) {
+            if ("begin_time".equals(param.getName())) {
+                begin = new DateTime(param.getValue());
+            }
+        }
+        final List<Map.Entry<String, DateTime>> selected = new ArrayList<Map.Entry<String, DateTime>>();
+        for (final Map.Entry<String, DateTime> account : accounts.entrySet()) {
+            if (begin == null || !account.getValue().isBefore(begin)) {
+                selected.add(account);
+            }
+        }
+        Collections.sort(selected, new Comparator<Map.Entry<String, DateTime>>() {
+            @Override
+            public int compare(final Map.Entry<String, DateTime> a, final Map.Entry<String, DateTime> b) {
+                final int byTime = a.getValue().compareTo(b.getValue());
+                return byTime != 0 ? byTime : a.getKey().compareTo(b.getKey());
+            }
+        });
+
+        final StringBuilder xml = new StringBuilder("<accounts type=\"array\">");
+        for (final Map.Entry<String, DateTime> account : selected) {
+            xml.append("<account><account_code>").append(account.getKey())
+               .append("</account_code><updated_at type=\"datetime\">").append(account.getValue())
+               .append("</updated_at></account>");
+        }
+        xml.append("</accounts>");
+        return InMemoryTransport.newResponse(200, xml.toString().getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+    }
+}
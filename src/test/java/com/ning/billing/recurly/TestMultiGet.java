@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+public class TestMultiGet {
+
+    private static final int CONCURRENCY = 4;
+
+    @Test(groups = "fast")
+    public void testFoundNotFoundAndFailed() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final InMemoryTransport transport = new InMemoryTransport().respond("GET", "/accounts/", new InMemoryTransport.Responder() {
+            @Override
+            public HttpResponse respond(final HttpUriRequest request) throws IOException {
+                final int current = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (final InterruptedException e) {
+                    throw new InterruptedIOException();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+
+                final String path = request.getURI().getPath();
+                final String accountCode = path.substring(path.lastIndexOf('/') + 1);
+                if (accountCode.startsWith("missing")) {
+                    return InMemoryTransport.newResponse(404, null, ImmutableMap.<String, String>of());
+                } else if (accountCode.startsWith("broken")) {
+                    return InMemoryTransport.newResponse(500, null, ImmutableMap.<String, String>of());
+                }
+                final String xml = "<account><account_code>" + accountCode + "</account_code></account>";
+                return InMemoryTransport.newResponse(200, xml.getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+            }
+        });
+
+        final List<String> accountCodes = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            accountCodes.add("account-" + i);
+        }
+        accountCodes.add(3, "missing-1");
+        accountCodes.add(7, "broken-1");
+        // Fetched once
+        accountCodes.add("account-2");
+
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        try {
+            final MultiGetResult<Account> result = recurlyClient.getAccountsByCode(accountCodes);
+            Assert.assertEquals(transport.getExecutedCount(), 22);
+            Assert.assertEquals(result.getIds(), accountCodes.subList(0, 22));
+            Assert.assertFalse(result.isComplete());
+
+            final List<Account> found = result.getFound();
+            Assert.assertEquals(found.size(), 20);
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(found.get(i).getAccountCode(), "account-" + i);
+            }
+            Assert.assertEquals(result.get("account-5").getAccountCode(), "account-5");
+            Assert.assertNull(result.get("missing-1"));
+            Assert.assertEquals(result.getNotFound(), ImmutableList.of("missing-1"));
+            Assert.assertEquals(result.getFailed().keySet(), ImmutableList.of("broken-1"));
+            Assert.assertEquals(((RecurlyAPIException) result.getFailed().get("broken-1")).getRecurlyError().getHttpStatusCode(), 500);
+
+            Assert.assertTrue(maxInFlight.get() > 1, "Max in flight: " + maxInFlight.get());
+            Assert.assertTrue(maxInFlight.get() <= CONCURRENCY, "Max in flight: " + maxInFlight.get());
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testEmpty() throws Exception {
+        final RecurlyClient recurlyClient = newClient(new InMemoryTransport());
+        final MultiGetResult<Account> result = recurlyClient.getAccountsByCode(ImmutableList.<String>of());
+        Assert.assertTrue(result.isComplete());
+        Assert.assertTrue(result.getFound().isEmpty());
+    }
+
+    private RecurlyClient newClient(final InMemoryTransport transport) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setMultiGetConcurrency(CONCURRENCY));
+    }
+}
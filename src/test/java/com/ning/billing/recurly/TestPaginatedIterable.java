@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestPaginatedIterable {
+
+    private static final String NEXT_URL = "https://api.recurly.com/v2/accounts?cursor=";
+
+    @Test(groups = "fast")
+    public void testPrefetchesNextPage() throws Exception {
+        final CountDownLatch secondPageRequested = new CountDownLatch(1);
+        final InMemoryTransport transport = newTransport(secondPageRequested, 200);
+        final RecurlyClient recurlyClient = newClient(transport, 1);
+        recurlyClient.open();
+        try {
+            final Iterator<Account> iterator = recurlyClient.iterate(recurlyClient.getAccounts()).iterator();
+            Assert.assertEquals(iterator.next().getAccountCode(), "a1");
+            // Page 2 is fetched while page 1 is consumed, page 3 only once page 2 is handed out
+            Assert.assertTrue(secondPageRequested.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(iterator.next().getAccountCode(), "a2");
+            Assert.assertEquals(transport.getExecutedCount(), 2);
+
+            final List<String> accountCodes = new ArrayList<String>();
+            while (iterator.hasNext()) {
+                accountCodes.add(iterator.next().getAccountCode());
+            }
+            Assert.assertEquals(accountCodes, ImmutableList.of("a3", "a4", "a5"));
+            Assert.assertEquals(transport.getExecutedCount(), 3);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testFetchesOnDemandWithoutPrefetching() throws Exception {
+        final InMemoryTransport transport = newTransport(new CountDownLatch(1), 200);
+        final RecurlyClient recurlyClient = newClient(transport, 0);
+        recurlyClient.open();
+        try {
+            final PaginatedIterable<Account> accounts = recurlyClient.iterate(recurlyClient.getAccounts());
+            final Iterator<Account> iterator = accounts.iterator();
+            iterator.next();
+            iterator.next();
+            Assert.assertEquals(transport.getExecutedCount(), 1);
+            Assert.assertEquals(iterator.next().getAccountCode(), "a3");
+            Assert.assertEquals(transport.getExecutedCount(), 2);
+
+            // Every iteration starts over from the first page
+            int count = 0;
+            for (final Account ignored : accounts) {
+                count++;
+            }
+            Assert.assertEquals(count, 5);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testPropagatesErrors() throws Exception {
+        final InMemoryTransport transport = newTransport(new CountDownLatch(1), 500);
+        final RecurlyClient recurlyClient = newClient(transport, 2);
+        recurlyClient.open();
+        try {
+            final Iterator<Account> iterator = recurlyClient.iterate(recurlyClient.getAccounts()).iterator();
+            for (int i = 0; i < 4; i++) {
+                iterator.next();
+            }
+            try {
+                iterator.hasNext();
+                Assert.fail();
+            } catch (final RecurlyAPIException e) {
+                Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 500);
+            }
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private static InMemoryTransport newTransport(final CountDownLatch secondPageRequested, final int lastPageStatus) {
+        return new InMemoryTransport()
+                .respond("GET", "cursor=2", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        secondPageRequested.countDown();
+                        return page(3, 4, NEXT_URL + "3");
+                    }
+                })
+                .respond("GET", "cursor=3", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        return lastPageStatus == 200 ? page(5, 5, null) : InMemoryTransport.newResponse(lastPageStatus, null, ImmutableMap.<String, String>of());
+                    }
+                })
+                .respond("GET", "/accounts", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        return page(1, 2, NEXT_URL + "2");
+                    }
+                });
+    }
+
+    private static HttpResponse page(final int from, final int to, final String nextUrl) {
+        final StringBuilder xml = new StringBuilder("<accounts type=\"array\">");
+        for (int i = from; i <= to; i++) {
+            xml.append("<account><account_code>a").append(i).append("</account_code></account>");
+        }
+        xml.append("</accounts>");
+        final ImmutableMap<String, String> headers = nextUrl == null ? ImmutableMap.<String, String>of() : ImmutableMap.of("Link", "<" + nextUrl + ">; rel=\"next\"");
+        return InMemoryTransport.newResponse(200, xml.toString().getBytes(Charsets.UTF_8), headers);
+    }
+
+    private static RecurlyClient newClient(final InMemoryTransport transport, final int prefetchPages) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setPrefetchPages(prefetchPages));
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.Accounts;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+import com.ning.billing.recurly.util.Flow;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+
+public class TestPaginatedPublisher {
+
+    private static final String NEXT_URL = "https://api.recurly.com/v2/accounts?cursor=";
+    private static final Object COMPLETE = new Object();
+
+    private InMemoryTransport transport;
+    private RecurlyClient recurlyClient;
+
+    @AfterMethod(groups = "fast")
+    public void tearDown() {
+        recurlyClient.close();
+    }
+
+    @Test(groups = "fast")
+    public void testFetchesPagesOnDemand() throws Exception {
+        final RecordingSubscriber subscriber = subscribe(200);
+        Assert.assertEquals(transport.getExecutedCount(), 0);
+
+        subscriber.subscription.request(1);
+        Assert.assertEquals(subscriber.poll(), "a1");
+        Assert.assertEquals(transport.getExecutedCount(), 1);
+
+        // a2 is on the first page
+        subscriber.subscription.request(1);
+        Assert.assertEquals(subscriber.poll(), "a2");
+        Assert.assertEquals(transport.getExecutedCount(), 1);
+
+        subscriber.subscription.request(2);
+        Assert.assertEquals(subscriber.poll(), "a3");
+        Assert.assertEquals(subscriber.poll(), "a4");
+        Assert.assertEquals(transport.getExecutedCount(), 2);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        Assert.assertEquals(subscriber.poll(), "a5");
+        Assert.assertSame(subscriber.poll(), COMPLETE);
+        Assert.assertEquals(transport.getExecutedCount(), 3);
+    }
+
+    @Test(groups = "fast")
+    public void testCancel() throws Exception {
+        final RecordingSubscriber subscriber = subscribe(200);
+        subscriber.subscription.request(1);
+        Assert.assertEquals(subscriber.poll(), "a1");
+
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+        Assert.assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(transport.getExecutedCount(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testPropagatesErrors() throws Exception {
+        final RecordingSubscriber subscriber = subscribe(500);
+        subscriber.subscription.request(10);
+        for (int i = 1; i <= 4; i++) {
+            Assert.assertEquals(subscriber.poll(), "a" + i);
+        }
+        final Object error = subscriber.poll();
+        Assert.assertTrue(error instanceof RecurlyAPIException, String.valueOf(error));
+        Assert.assertEquals(((RecurlyAPIException) error).getRecurlyError().getHttpStatusCode(), 500);
+    }
+
+    @Test(groups = "fast")
+    public void testSignalsErrorOnMissingPage() throws Exception {
+        final RecordingSubscriber subscriber = subscribe(new InMemoryTransport()
+                .respond("GET", "cursor=2", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) throws IOException {
+                        throw new IOException("Connection reset");
+                    }
+                })
+                .respond("GET", "/accounts", 200, page(1, 2), ImmutableMap.of("Link", "<" + NEXT_URL + "2>; rel=\"next\"")));
+        subscriber.subscription.request(10);
+        Assert.assertEquals(subscriber.poll(), "a1");
+        Assert.assertEquals(subscriber.poll(), "a2");
+        // The listing isn't reported as complete
+        Assert.assertTrue(subscriber.poll() instanceof IllegalStateException);
+        Assert.assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(groups = "fast")
+    public void testRejectsNonPositiveRequests() throws Exception {
+        final RecordingSubscriber subscriber = subscribe(200);
+        subscriber.subscription.request(0);
+        Assert.assertTrue(subscriber.poll() instanceof IllegalArgumentException);
+        Assert.assertEquals(transport.getExecutedCount(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testSignalsRejectionOnceExecutorShutDown() throws Exception {
+        subscribe(200);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        new PaginatedPublisher<Account>(new Supplier<Accounts>() {
+            @Override
+            public Accounts get() {
+                return recurlyClient.getAccounts();
+            }
+        }, executor).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        Assert.assertEquals(subscriber.poll(), "a1");
+
+        // As on RecurlyClient#close, once the drain of the first request is over
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        subscriber.subscription.request(1);
+        Assert.assertTrue(subscriber.poll() instanceof RejectedExecutionException);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        Assert.assertNull(subscriber.signals.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(transport.getExecutedCount(), 1);
+    }
+
+    private RecordingSubscriber subscribe(final int lastPageStatus) throws Exception {
+        return subscribe(new InMemoryTransport()
+                .respond("GET", "cursor=2", 200, page(3, 4), ImmutableMap.of("Link", "<" + NEXT_URL + "3>; rel=\"next\""))
+                .respond("GET", "cursor=3", lastPageStatus, lastPageStatus == 200 ? page(5, 5) : null)
+                .respond("GET", "/accounts", 200, page(1, 2), ImmutableMap.of("Link", "<" + NEXT_URL + "2>; rel=\"next\"")));
+    }
+
+    private RecordingSubscriber subscribe(final InMemoryTransport transport) throws Exception {
+        this.transport = transport;
+        recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        recurlyClient.publish(new Supplier<Accounts>() {
+            @Override
+            public Accounts get() {
+                return recurlyClient.getAccounts();
+            }
+        }).subscribe(subscriber);
+        Assert.assertNotNull(subscriber.subscription);
+        return subscriber;
+    }
+
+    private static String page(final int from, final int to) {
+        final StringBuilder xml = new StringBuilder("<accounts type=\"array\">");
+        for (int i = from; i <= to; i++) {
+            xml.append("<account><account_code>a").append(i).append("</account_code></account>");
+        }
+        return xml.append("</accounts>").toString();
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<Account> {
+
+        // Account codes, then COMPLETE or the error
+        private final BlockingQueue<Object> signals = new LinkedBlockingQueue<Object>();
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final Account account) {
+            signals.add(account.getAccountCode());
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            signals.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add(COMPLETE);
+        }
+
+        private Object poll() throws InterruptedException {
+            final Object signal = signals.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(signal);
+            return signal;
+        }
+    }
+}
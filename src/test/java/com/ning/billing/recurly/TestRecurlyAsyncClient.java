@@ -0,0 +1,195 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ning.billing.recurly.model.Account;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.protocol.HttpContext;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static com.ning.billing.recurly.TestRecurlyClient.KILLBILL_PAYMENT_RECURLY_API_KEY;
+import static com.ning.billing.recurly.TestRecurlyClient.KILLBILL_PAYMENT_RECURLY_SUBDOMAIN;
+
+public class TestRecurlyAsyncClient {
+
+    private RecurlyAsyncClient recurlyAsyncClient;
+
+    @BeforeMethod(groups = "integration")
+    public void setUp() throws Exception {
+        final String apiKey = System.getProperty(KILLBILL_PAYMENT_RECURLY_API_KEY);
+        String subDomain = System.getProperty(KILLBILL_PAYMENT_RECURLY_SUBDOMAIN);
+
+        if (apiKey == null) {
+            Assert.fail("You need to set your Recurly api key to run integration tests:" +
+                        " -Dkillbill.payment.recurly.apiKey=...");
+        }
+
+        if (subDomain == null) {
+            subDomain = "api";
+        }
+
+        recurlyAsyncClient = new RecurlyAsyncClient(apiKey, subDomain);
+        recurlyAsyncClient.open();
+    }
+
+    @AfterMethod(groups = "integration")
+    public void tearDown() throws Exception {
+        recurlyAsyncClient.close();
+    }
+
+    @Test(groups = "integration")
+    public void testCreateAndGetAccount() throws Exception {
+        final Account accountData = TestUtils.createRandomAccount();
+
+        try {
+            final Account account = recurlyAsyncClient.createAccount(accountData).get();
+            Assert.assertNotNull(account);
+            Assert.assertEquals(account.getAccountCode(), accountData.getAccountCode());
+
+            final Account fetched = recurlyAsyncClient.getAccount(accountData.getAccountCode()).get();
+            Assert.assertEquals(fetched.getAccountCode(), accountData.getAccountCode());
+            Assert.assertEquals(fetched.getEmail(), accountData.getEmail());
+        } finally {
+            recurlyAsyncClient.closeAccount(accountData.getAccountCode()).get();
+        }
+    }
+
+    @Test(groups = "integration")
+    public void testNotFoundIsPropagated() throws Exception {
+        try {
+            recurlyAsyncClient.getAccount(UUID.randomUUID().toString()).get();
+            Assert.fail("getAccount should fail for an unknown account");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RecurlyAPIException);
+            Assert.assertEquals(((RecurlyAPIException) e.getCause()).getRecurlyError().getHttpStatusCode(), 404);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testDeserializesOffTheReactor() throws Exception {
+        final CountDownLatch listening = new CountDownLatch(1);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v2/accounts/abc", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                Uninterruptibles.awaitUninterruptibly(listening);
+                final byte[] body = "<account><account_code>abc</account_code></account>".getBytes(Charsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        final RecurlyAsyncClient client = newLocalClient(server.getAddress().getPort());
+        client.open();
+        try {
+            final ListenableFuture<Account> account = client.getAccount("abc");
+            final AtomicReference<String> completingThread = new AtomicReference<String>();
+            final CountDownLatch completed = new CountDownLatch(1);
+            account.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    completingThread.set(Thread.currentThread().getName());
+                    completed.countDown();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            listening.countDown();
+
+            Assert.assertEquals(account.get().getAccountCode(), "abc");
+            // get() may return before the listener has run
+            Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(completingThread.get().startsWith("recurly-background-"), completingThread.get());
+        } finally {
+            client.close();
+            server.stop(0);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testFailsOnConnectionErrors() throws Exception {
+        final ServerSocket socket = new ServerSocket(0);
+        final int port = socket.getLocalPort();
+        socket.close();
+
+        final RecurlyAsyncClient client = newLocalClient(port);
+        client.open();
+        try {
+            checkConnectionError(client.getAccount("abc"));
+            checkConnectionError(client.getAccountsCount(new QueryParams()));
+        } finally {
+            client.close();
+        }
+    }
+
+    private static RecurlyAsyncClient newLocalClient(final int port) {
+        return new RecurlyAsyncClient("api", "http", "api.recurly.com", 80, "v2") {
+            @Override
+            protected CloseableHttpAsyncClient createHttpAsyncClient() {
+                // Send everything to the local port, past the validation of the Recurly host
+                return HttpAsyncClients.custom()
+                                       .setRoutePlanner(new HttpRoutePlanner() {
+                                           @Override
+                                           public HttpRoute determineRoute(final HttpHost target, final HttpRequest request, final HttpContext context) {
+                                               return new HttpRoute(new HttpHost("127.0.0.1", port));
+                                           }
+                                       })
+                                       .build();
+            }
+        };
+    }
+
+    private static void checkConnectionError(final Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+            Assert.fail();
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ConnectionErrorException, String.valueOf(e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestRecurlyClientConfig {
+
+    @Test(groups = "fast")
+    public void testDefaults() throws Exception {
+        final RecurlyClientConfig config = RecurlyClientConfig.defaults();
+        Assert.assertEquals(config.getMaxConnectionsPerRoute(), 256);
+        Assert.assertEquals(config.getMaxConnectionsTotal(), 512);
+        Assert.assertEquals(config.getConnectTimeoutMs(), 5000);
+        Assert.assertEquals(config.getSocketTimeoutMs(), 60000);
+        Assert.assertEquals(config.getIdleConnectionTimeoutMs(), -1);
+        Assert.assertNull(config.getJmxName());
+        if (System.getProperty(RecurlyClient.RECURLY_COMPRESSION_KEY) == null) {
+            Assert.assertTrue(config.isCompression());
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testConnectionPoolStatsAndMBean() throws Exception {
+        final String jmxName = UUID.randomUUID().toString();
+        final RecurlyClientConfig config = RecurlyClientConfig.builder()
+                                                              .setMaxConnectionsPerRoute(16)
+                                                              .setMaxConnectionsTotal(32)
+                                                              .setIdleConnectionTimeoutMs(30000)
+                                                              .setKeepAliveMs(60000)
+                                                              .setJmxName(jmxName)
+                                                              .build();
+        final RecurlyClient recurlyClient = new RecurlyClient(UUID.randomUUID().toString(), "api", config);
+        Assert.assertNull(recurlyClient.getConnectionPoolStats());
+
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("com.ning.billing.recurly:type=ConnectionPool,name=" + ObjectName.quote(jmxName));
+
+        recurlyClient.open();
+        try {
+            final ConnectionPoolStats stats = recurlyClient.getConnectionPoolStats();
+            Assert.assertEquals(stats.getMax(), 32);
+            Assert.assertEquals(stats.getLeased(), 0);
+            Assert.assertEquals(stats.getAvailable(), 0);
+            Assert.assertEquals(stats.getPending(), 0);
+
+            Assert.assertEquals(mBeanServer.getAttribute(name, "Max"), 32);
+            Assert.assertEquals(mBeanServer.getAttribute(name, "Leased"), 0);
+        } finally {
+            recurlyClient.close();
+        }
+
+        Assert.assertFalse(mBeanServer.isRegistered(name));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.Adjustment;
+import com.ning.billing.recurly.model.Subscription;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+public class TestRecurlySession {
+
+    private static final String ACCOUNT_XML = "<account href=\"https://api.recurly.com/v2/accounts/abc\">" +
+                                              "<account_code>abc</account_code>" +
+                                              "</account>";
+    private static final String SUBSCRIPTION_XML = "<subscription href=\"https://api.recurly.com/v2/subscriptions/sub\">" +
+                                                   "<account href=\"https://api.recurly.com/v2/accounts/abc\"/>" +
+                                                   "<uuid>sub</uuid>" +
+                                                   "</subscription>";
+
+    @Test(groups = "fast")
+    public void testFetchesEachResourceOnce() throws Exception {
+        final InMemoryTransport transport = newTransport();
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+        try {
+            final RecurlySession session = recurlyClient.openSession();
+            try {
+                Assert.assertSame(recurlyClient.getSession(), session);
+
+                final Account account = recurlyClient.getAccount("abc");
+                // By code and by href
+                Assert.assertSame(recurlyClient.getAccount("abc"), account);
+                final Subscription subscription = recurlyClient.getSubscription("sub");
+                Assert.assertSame(subscription.getAccount(), account);
+                Assert.assertEquals(transport.getExecutedCount(), 2);
+                Assert.assertEquals(session.size(), 2);
+                Assert.assertEquals(session.getHitCount(), 2);
+                Assert.assertEquals(session.getMissCount(), 2);
+
+                // Not shared with other threads
+                final AtomicReference<Account> otherThreadAccount = new AtomicReference<Account>();
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        otherThreadAccount.set(recurlyClient.getAccount("abc"));
+                    }
+                });
+                thread.start();
+                thread.join();
+                Assert.assertNotSame(otherThreadAccount.get(), account);
+                Assert.assertEquals(transport.getExecutedCount(), 3);
+
+                session.clear();
+                Assert.assertNotSame(recurlyClient.getAccount("abc"), account);
+                Assert.assertEquals(transport.getExecutedCount(), 4);
+            } finally {
+                session.close();
+            }
+
+            Assert.assertTrue(session.isClosed());
+            Assert.assertNull(recurlyClient.getSession());
+            recurlyClient.getAccount("abc");
+            recurlyClient.getAccount("abc");
+            Assert.assertEquals(transport.getExecutedCount(), 6);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testWritesClearTheSession() throws Exception {
+        final InMemoryTransport transport = newTransport();
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+        try {
+            final RecurlySession session = recurlyClient.openSession();
+            try {
+                final Account account = recurlyClient.getAccount("abc");
+                recurlyClient.getSubscription("sub");
+                Assert.assertEquals(session.size(), 2);
+
+                recurlyClient.updateAccount("abc", new Account());
+                Assert.assertEquals(session.size(), 0);
+                Assert.assertEquals(session.getEvictionCount(), 2);
+                final Account updated = recurlyClient.getAccount("abc");
+                Assert.assertNotSame(updated, account);
+
+                // Writes to other resources may change the account too, e.g. its balance
+                recurlyClient.createAccountAdjustment("abc", new Adjustment());
+                Assert.assertEquals(session.size(), 0);
+                Assert.assertNotSame(recurlyClient.getAccount("abc"), updated);
+            } finally {
+                session.close();
+            }
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testNestedSessions() throws Exception {
+        final RecurlyClient recurlyClient = TestUtils.newClient(newTransport());
+        final RecurlySession outer = recurlyClient.openSession();
+        final RecurlySession inner = recurlyClient.openSession();
+        Assert.assertSame(recurlyClient.getSession(), inner);
+        inner.close();
+        Assert.assertSame(recurlyClient.getSession(), outer);
+        outer.close();
+        Assert.assertNull(recurlyClient.getSession());
+    }
+
+    private InMemoryTransport newTransport() {
+        return new InMemoryTransport().respond("GET", "/accounts/abc", 200, ACCOUNT_XML)
+                                      .respond("PUT", "/accounts/abc", 200, ACCOUNT_XML)
+                                      .respond("POST", "/accounts/abc/adjustments", 201, "<adjustment><unit_amount_in_cents>100</unit_amount_in_cents></adjustment>")
+                                      .respond("GET", "/subscriptions/sub", 200, SUBSCRIPTION_XML);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Function;
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.Subscription;
+import com.ning.billing.recurly.model.Subscriptions;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+public class TestReferenceLoader {
+
+    private static final int SUBSCRIPTIONS = 30;
+    private static final int ACCOUNTS = 3;
+
+    private static final Function<Subscription, Object> ACCOUNT = new Function<Subscription, Object>() {
+        @Override
+        public Object apply(final Subscription subscription) {
+            return subscription.getAccount();
+        }
+    };
+
+    @Test(groups = "fast")
+    public void testLoadsDistinctReferencesOnce() throws Exception {
+        final InMemoryTransport transport = newTransport(false);
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        try {
+            final Subscriptions subscriptions = recurlyClient.getSubscriptions();
+            Assert.assertEquals(subscriptions.size(), SUBSCRIPTIONS);
+            Assert.assertEquals(transport.getExecutedCount(), 1);
+
+            final ReferenceLoader loader = recurlyClient.loadReferences(subscriptions, ACCOUNT);
+            Assert.assertEquals(loader.size(), ACCOUNTS);
+            Assert.assertEquals(transport.getExecutedCount(), 1 + ACCOUNTS);
+
+            for (int i = 0; i < SUBSCRIPTIONS; i++) {
+                final Account account = subscriptions.get(i).getAccount();
+                Assert.assertEquals(account.getAccountCode(), "account-" + (i % ACCOUNTS));
+                // Shared between the subscriptions
+                Assert.assertSame(account, subscriptions.get(i % ACCOUNTS).getAccount());
+            }
+            Assert.assertEquals(transport.getExecutedCount(), 1 + ACCOUNTS);
+
+            // Already loaded
+            loader.load(subscriptions, ACCOUNT);
+            Assert.assertEquals(transport.getExecutedCount(), 1 + ACCOUNTS);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testFailedReferencesAreLeftToTheGetters() throws Exception {
+        final InMemoryTransport transport = newTransport(true);
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        try {
+            final Subscriptions subscriptions = recurlyClient.getSubscriptions();
+            final ReferenceLoader loader = recurlyClient.loadReferences(subscriptions, ACCOUNT);
+            Assert.assertEquals(loader.size(), ACCOUNTS - 1);
+
+            Assert.assertEquals(subscriptions.get(1).getAccount().getAccountCode(), "account-1");
+            try {
+                subscriptions.get(0).getAccount();
+                Assert.fail();
+            } catch (final RecurlyAPIException e) {
+                Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 404);
+            }
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private InMemoryTransport newTransport(final boolean missingFirstAccount) {
+        final StringBuilder page = new StringBuilder("<subscriptions type=\"array\">");
+        for (int i = 0; i < SUBSCRIPTIONS; i++) {
+            page.append("<subscription href=\"https://api.recurly.com/v2/subscriptions/sub-").append(i).append("\">")
+                .append("<account href=\"https://api.recurly.com/v2/accounts/account-").append(i % ACCOUNTS).append("\"/>")
+                .append("<uuid>sub-").append(i).append("</uuid>")
+                .append("</subscription>");
+        }
+        page.append("</subscriptions>");
+
+        final InMemoryTransport transport = new InMemoryTransport().respond("GET", "/subscriptions", 200, page.toString());
+        for (int i = missingFirstAccount ? 1 : 0; i < ACCOUNTS; i++) {
+            transport.respond("GET", "/accounts/account-" + i, 200, "<account href=\"https://api.recurly.com/v2/accounts/account-" + i + "\">" +
+                                                                      "<account_code>account-" + i + "</account_code>" +
+                                                                      "</account>");
+        }
+        return transport;
+    }
+
+    private RecurlyClient newClient(final InMemoryTransport transport) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setReferenceConcurrency(2));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.ByteArrayInputStream;
+import java.util.UUID;
+
+import com.ning.billing.recurly.model.Invoices;
+import com.ning.billing.recurly.model.RecurlyObject;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Bytes allocated per 200 invoices page, buffering the payload into a String first versus
+ * deserializing straight from the response stream. Run with {@code mvn test -Pbenchmark}.
+ */
+public class TestResponseParsingBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(TestResponseParsingBenchmark.class);
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 200;
+
+    private final RecurlyClient recurlyClient = new RecurlyClient(UUID.randomUUID().toString(), "api");
+    private final byte[] page = BenchmarkFixtures.invoicesPage(BenchmarkFixtures.PAGE_SIZE).getBytes(Charsets.UTF_8);
+
+    @Test(groups = "benchmark")
+    public void testAllocationsPerPage() throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseBuffered();
+            parseStreamed();
+        }
+
+        final long bufferedStart = BenchmarkFixtures.allocatedBytes();
+        final long bufferedStartNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Assert.assertEquals(parseBuffered().size(), BenchmarkFixtures.PAGE_SIZE);
+        }
+        final long bufferedNanos = System.nanoTime() - bufferedStartNanos;
+        final long buffered = BenchmarkFixtures.allocatedBytes() - bufferedStart;
+
+        final long streamedStart = BenchmarkFixtures.allocatedBytes();
+        final long streamedStartNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Assert.assertEquals(parseStreamed().size(), BenchmarkFixtures.PAGE_SIZE);
+        }
+        final long streamedNanos = System.nanoTime() - streamedStartNanos;
+        final long streamed = BenchmarkFixtures.allocatedBytes() - streamedStart;
+
+        log.info("Invoices page of {} ({} bytes): buffered {} bytes allocated/page ({} us/page), streamed {} bytes allocated/page ({} us/page)",
+                 BenchmarkFixtures.PAGE_SIZE, page.length,
+                 buffered / ITERATIONS, bufferedNanos / ITERATIONS / 1000,
+                 streamed / ITERATIONS, streamedNanos / ITERATIONS / 1000);
+    }
+
+    // Previous behavior: EntityUtils.toString, then parse the String
+    private Invoices parseBuffered() throws Exception {
+        final String payload = EntityUtils.toString(newResponse().getEntity(), Charsets.UTF_8);
+        return RecurlyObject.sharedXmlMapper().readValue(payload, Invoices.class);
+    }
+
+    private Invoices parseStreamed() throws Exception {
+        return recurlyClient.handleXmlResponse(new HttpGet("https://api.recurly.com/v2/invoices"), newResponse(), Invoices.class);
+    }
+
+    private HttpResponse newResponse() {
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new InputStreamEntity(new ByteArrayInputStream(page), page.length, ContentType.APPLICATION_XML));
+        return response;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+/**
+ * Time to the first {@link RecurlyClient#getAccount(String)} in a fresh JVM, with and without
+ * {@link XmlMapperWarmUp}. Run with {@code mvn test -Pbenchmark}.
+ */
+public class TestStartupBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(TestStartupBenchmark.class);
+
+    private static final int RUNS = 5;
+    private static final String RESULT_PREFIX = "startup:";
+
+    @Test(groups = "benchmark")
+    public void testTimeToFirstGetAccount() throws Exception {
+        final List<Long> cold = new ArrayList<Long>();
+        final List<Long> warm = new ArrayList<Long>();
+        final List<Long> warmUp = new ArrayList<Long>();
+        for (int i = 0; i < RUNS; i++) {
+            cold.add(fork(false)[1]);
+            final long[] warmRun = fork(true);
+            warmUp.add(warmRun[0]);
+            warm.add(warmRun[1]);
+        }
+
+        log.info("First getAccount (median of {} JVMs): {} ms cold, {} ms after a {} ms warm-up",
+                 RUNS, median(cold), median(warm), median(warmUp));
+    }
+
+    /**
+     * Entry point of the forked JVMs: prints the warm-up and first getAccount durations, in milliseconds.
+     */
+    public static void main(final String[] args) throws Exception {
+        long warmUpMs = 0;
+        if (Boolean.parseBoolean(args[0])) {
+            final long warmUpStart = System.nanoTime();
+            XmlMapperWarmUp.warmUp();
+            warmUpMs = (System.nanoTime() - warmUpStart) / 1000000;
+        }
+
+        final InMemoryTransport transport = new InMemoryTransport().respond("GET", "/accounts/account-1", 200, BenchmarkFixtures.account(1));
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+        try {
+            final long start = System.nanoTime();
+            final String accountCode = recurlyClient.getAccount("account-1").getAccountCode();
+            final long firstGetAccountMs = (System.nanoTime() - start) / 1000000;
+            if (!"account-1".equals(accountCode)) {
+                throw new IllegalStateException("Unexpected account " + accountCode);
+            }
+            System.out.println(RESULT_PREFIX + warmUpMs + " " + firstGetAccountMs);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private long[] fork(final boolean warmUp) throws Exception {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final Process process = new ProcessBuilder(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+                                                                 TestStartupBenchmark.class.getName(), String.valueOf(warmUp)))
+                .redirectErrorStream(true)
+                .start();
+        long[] result = null;
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    final String[] durations = line.substring(RESULT_PREFIX.length()).split(" ");
+                    result = new long[]{Long.parseLong(durations[0]), Long.parseLong(durations[1])};
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        Assert.assertEquals(process.waitFor(), 0);
+        Assert.assertNotNull(result);
+        return result;
+    }
+
+    private static long median(final List<Long> values) {
+        final List<Long> sorted = new ArrayList<Long>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.Invoice;
+import com.ning.billing.recurly.model.Invoices;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+public class TestStreamingListReader {
+
+    @Test(groups = "fast")
+    public void testReadsLikeTheListMapping() throws Exception {
+        final String payload = invoices(3);
+        final Invoices expected = RecurlyObject.sharedXmlMapper().readValue(payload, Invoices.class);
+
+        final List<Invoice> invoices = new ArrayList<Invoice>();
+        final int count = new StreamingListReader<Invoice>(RecurlyObject.sharedXmlMapper(), Invoice.class)
+                .read(new ByteArrayInputStream(payload.getBytes(Charsets.UTF_8)), null, new StreamedPage.Handler<Invoice>() {
+                    @Override
+                    public void onObject(final Invoice invoice) {
+                        invoices.add(invoice);
+                    }
+                });
+
+        Assert.assertEquals(count, 3);
+        Assert.assertEquals(invoices, expected);
+        Assert.assertEquals(invoices.get(2).getUuid(), "uuid-2");
+        Assert.assertEquals(invoices.get(2).getLineItems().size(), 2);
+        Assert.assertEquals(invoices.get(2).getAccount().getHref(), "https://api.recurly.com/v2/accounts/2");
+    }
+
+    @Test(groups = "fast")
+    public void testHandsOutObjectsBeforeTheEndOfThePayload() throws Exception {
+        final byte[] payload = invoices(1000).getBytes(Charsets.UTF_8);
+        final AtomicLong bytesRead = new AtomicLong();
+        final InputStream in = new FilterInputStream(new ByteArrayInputStream(payload)) {
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int read = super.read(b, off, len);
+                bytesRead.addAndGet(Math.max(read, 0));
+                return read;
+            }
+        };
+
+        final List<Long> bytesReadOnObject = new ArrayList<Long>();
+        new StreamingListReader<Invoice>(RecurlyObject.sharedXmlMapper(), Invoice.class).read(in, null, new StreamedPage.Handler<Invoice>() {
+            @Override
+            public void onObject(final Invoice invoice) {
+                bytesReadOnObject.add(bytesRead.get());
+            }
+        });
+
+        Assert.assertEquals(bytesReadOnObject.size(), 1000);
+        Assert.assertTrue(bytesReadOnObject.get(0) < payload.length / 10, bytesReadOnObject.get(0) + " bytes read for the first invoice");
+    }
+
+    @Test(groups = "fast")
+    public void testStreamsPagesThroughTheClient() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "cursor=2", 200, "<accounts type=\"array\"><account><account_code>a3</account_code></account></accounts>")
+                .respond("GET", "/accounts", 200,
+                         "<accounts type=\"array\"><account><account_code>a1</account_code><address><city>SF</city></address></account>"
+                         + "<account><account_code>a2</account_code></account></accounts>",
+                         ImmutableMap.of("Link", "<https://api.recurly.com/v2/accounts>; rel=\"start\", <https://api.recurly.com/v2/accounts?cursor=2>; rel=\"next\""));
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+        try {
+            final List<String> accountCodes = new ArrayList<String>();
+            final StreamedPage.Handler<Account> handler = new StreamedPage.Handler<Account>() {
+                @Override
+                public void onObject(final Account account) {
+                    accountCodes.add(account.getAccountCode());
+                }
+            };
+
+            final StreamedPage<Account> firstPage = recurlyClient.streamAccounts(new QueryParams(), handler);
+            Assert.assertEquals(firstPage.getSize(), 2);
+            Assert.assertEquals(firstPage.getStartUrl(), "https://api.recurly.com/v2/accounts");
+            Assert.assertTrue(firstPage.hasNext());
+
+            final StreamedPage<Account> secondPage = recurlyClient.streamNextPage(firstPage, handler);
+            Assert.assertEquals(secondPage.getSize(), 1);
+            Assert.assertFalse(secondPage.hasNext());
+            Assert.assertNull(recurlyClient.streamNextPage(secondPage, handler));
+
+            Assert.assertEquals(accountCodes.toString(), "[a1, a2, a3]");
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testClosesStreamedContent() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport().respond("GET", "/accounts", new InMemoryTransport.Responder() {
+            @Override
+            public HttpResponse respond(final HttpUriRequest request) {
+                final byte[] body = ("<accounts type=\"array\"><account><account_code>a1</account_code></account>"
+                                     + "<account><account_code>a2</account_code></account></accounts>").getBytes(Charsets.UTF_8);
+                final HttpResponse response = InMemoryTransport.newResponse(200, body, ImmutableMap.<String, String>of());
+                // Like the HttpClient responses, closing releases the connection but leaves the content alone
+                final ConnectionReleasingResponse closeable = new ConnectionReleasingResponse(response.getStatusLine());
+                closeable.setEntity(response.getEntity());
+                return closeable;
+            }
+        });
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+        try {
+            try {
+                // The payload isn't read to the end
+                recurlyClient.streamAccounts(new QueryParams(), new StreamedPage.Handler<Account>() {
+                    @Override
+                    public void onObject(final Account account) {
+                        throw new IllegalStateException(account.getAccountCode());
+                    }
+                });
+                Assert.fail();
+            } catch (final IllegalStateException e) {
+                Assert.assertEquals(e.getMessage(), "a1");
+            }
+            // Byte counts are recorded once the content is closed
+            Assert.assertEquals(recurlyClient.getContentEncodingStats().getResponses(), 1);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private static String invoices(final int count) {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<invoices type=\"array\">\n");
+        for (int i = 0; i < count; i++) {
+            xml.append("  <invoice href=\"https://api.recurly.com/v2/invoices/").append(i).append("\">\n")
+               .append("    <account href=\"https://api.recurly.com/v2/accounts/").append(i).append("\"/>\n")
+               .append("    <uuid>uuid-").append(i).append("</uuid>\n")
+               .append("    <state>open</state>\n")
+               .append("    <invoice_number type=\"integer\">").append(1000 + i).append("</invoice_number>\n")
+               .append("    <total_in_cents type=\"integer\">1200</total_in_cents>\n")
+               .append("    <currency>USD</currency>\n")
+               .append("    <created_at type=\"dateTime\">2011-08-25T12:00:00Z</created_at>\n")
+               .append("    <line_items type=\"array\">\n");
+            for (int j = 0; j < 2; j++) {
+                xml.append("      <adjustment type=\"charge\">\n")
+                   .append("        <uuid>adjustment-").append(i).append('-').append(j).append("</uuid>\n")
+                   .append("        <description>Charge</description>\n")
+                   .append("        <unit_amount_in_cents type=\"integer\">600</unit_amount_in_cents>\n")
+                   .append("        <quantity type=\"integer\">1</quantity>\n")
+                   .append("        <end_date nil=\"nil\"></end_date>\n")
+                   .append("      </adjustment>\n");
+            }
+            xml.append("    </line_items>\n")
+               .append("    <transactions type=\"array\">\n")
+               .append("    </transactions>\n")
+               .append("  </invoice>\n");
+        }
+        return xml.append("</invoices>").toString();
+    }
+
+    private static final class ConnectionReleasingResponse extends BasicHttpResponse implements Closeable {
+
+        private ConnectionReleasingResponse(final StatusLine statusLine) {
+            super(statusLine);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
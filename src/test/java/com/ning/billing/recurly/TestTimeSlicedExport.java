@@ -0,0 +1,190 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+public class TestTimeSlicedExport {
+
+    private static final DateTime BEGIN = new DateTime(2020, 1, 1, 0, 0, DateTimeZone.UTC);
+    private static final DateTime END = BEGIN.plusSeconds(64);
+
+    @Test(groups = "fast")
+    public void testExportsSlicesInOrder() throws Exception {
+        // Skewed distribution: most accounts in the first quarter, some right on the slice boundaries
+        final List<DateTime> createdAts = new ArrayList<DateTime>();
+        for (int i = 0; i < 16; i++) {
+            createdAts.add(BEGIN.plusSeconds(i));
+        }
+        for (int i = 16; i <= 64; i += 8) {
+            createdAts.add(BEGIN.plusSeconds(i));
+        }
+        final InMemoryTransport transport = newTransport(createdAts);
+        final RecurlyClient recurlyClient = newClient(transport, 3, 4);
+        recurlyClient.open();
+        try {
+            final TimeSlicedExport<Account> export = recurlyClient.exportAccounts(BEGIN, END, QueryParams.Sort.CREATED_AT);
+            final List<DateTime[]> slices = export.plan();
+            Assert.assertTrue(slices.size() > 4);
+            Assert.assertEquals(slices.get(0)[0], BEGIN);
+            Assert.assertEquals(slices.get(slices.size() - 1)[1], END);
+            for (int i = 1; i < slices.size(); i++) {
+                Assert.assertEquals(slices.get(i)[0], slices.get(i - 1)[1]);
+            }
+
+            final List<DateTime> exported = new ArrayList<DateTime>();
+            for (final Account account : export) {
+                exported.add(account.getCreatedAt());
+            }
+            // Each account exactly once, in order, even those on the boundaries of two slices
+            Assert.assertEquals(exported.size(), createdAts.size());
+            for (int i = 0; i < createdAts.size(); i++) {
+                Assert.assertTrue(exported.get(i).isEqual(createdAts.get(i)), exported.get(i) + " != " + createdAts.get(i));
+            }
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testSingleSliceForSmallRanges() throws Exception {
+        final List<DateTime> createdAts = new ArrayList<DateTime>();
+        createdAts.add(BEGIN);
+        createdAts.add(END);
+        final InMemoryTransport transport = newTransport(createdAts);
+        final RecurlyClient recurlyClient = newClient(transport, 3, 100);
+        recurlyClient.open();
+        try {
+            int count = 0;
+            for (final Account ignored : recurlyClient.exportAccounts(BEGIN, END, QueryParams.Sort.CREATED_AT)) {
+                count++;
+            }
+            Assert.assertEquals(count, 2);
+            // One HEAD, one GET
+            Assert.assertEquals(transport.getExecutedCount(), 2);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testPropagatesErrors() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("HEAD", "/accounts", 200, null, ImmutableMap.of("X-Records", "1"))
+                .respond("GET", "/accounts", 500, null);
+        final RecurlyClient recurlyClient = newClient(transport, 3, 100);
+        recurlyClient.open();
+        try {
+            recurlyClient.exportAccounts(BEGIN, END, QueryParams.Sort.CREATED_AT).iterator().hasNext();
+            Assert.fail();
+        } catch (final RecurlyAPIException e) {
+            Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 500);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testFailsOnMissingPage() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("HEAD", "/accounts", 200, null, ImmutableMap.of("X-Records", "2"))
+                .respond("GET", "cursor=2", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) throws IOException {
+                        // Not a connection error: the client logs it and returns null
+                        throw new IOException("Connection reset");
+                    }
+                })
+                .respond("GET", "/accounts", 200, "<accounts type=\"array\"><account><account_code>a1</account_code></account></accounts>",
+                         ImmutableMap.of("Link", "<https://api.recurly.com/v2/accounts?cursor=2>; rel=\"next\""));
+        final RecurlyClient recurlyClient = newClient(transport, 3, 100);
+        recurlyClient.open();
+        try {
+            recurlyClient.exportAccounts(BEGIN, END, QueryParams.Sort.CREATED_AT).iterator().hasNext();
+            Assert.fail();
+        } catch (final IllegalStateException expected) {
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    // Serves the accounts created within the inclusive begin_time / end_time range of the request
+    private static InMemoryTransport newTransport(final List<DateTime> createdAts) {
+        return new InMemoryTransport()
+                .respond("HEAD", "/accounts", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        final int count = select(request, createdAts).size();
+                        return InMemoryTransport.newResponse(200, null, ImmutableMap.of("X-Records", String.valueOf(count)));
+                    }
+                })
+                .respond("GET", "/accounts", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        final StringBuilder xml = new StringBuilder("<accounts type=\"array\">");
+                        for (final DateTime createdAt : select(request, createdAts)) {
+                            xml.append("<account><account_code>").append(createdAt.getMillis())
+                               .append("</account_code><created_at type=\"datetime\">").append(createdAt)
+                               .append("</created_at></account>");
+                        }
+                        xml.append("</accounts>");
+                        return InMemoryTransport.newResponse(200, xml.toString().getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+                    }
+                });
+    }
+
+    private static List<DateTime> select(final HttpUriRequest request, final List<DateTime> createdAts) {
+        DateTime begin = null;
+        DateTime end = null;
+        for (final NameValuePair param : URLEncodedUtils.parse(request.getURI(), "UTF-8")) {
+            if ("begin_time".equals(param.getName())) {
+                begin = new DateTime(param.getValue());
+            } else if ("end_time".equals(param.getName())) {
+                end = new DateTime(param.getValue());
+            }
+        }
+        final List<DateTime> selected = new ArrayList<DateTime>();
+        for (final DateTime createdAt : createdAts) {
+            if (!createdAt.isBefore(begin) && !createdAt.isAfter(end)) {
+                selected.add(createdAt);
+            }
+        }
+        return selected;
+    }
+
+    private static RecurlyClient newClient(final InMemoryTransport transport, final int concurrency, final int recordsPerSlice) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setExport(concurrency, recordsPerSlice));
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.Usage;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+public class TestUsagePipeline {
+
+    private static final long WINDOW_MS = 60000;
+    private static final DateTime WINDOW_START = new DateTime("2016-12-27T14:00:00Z");
+
+    // Posted usages, by subscription/add-on/merchant tag/usage timestamp
+    private final Map<String, Usage> posted = new ConcurrentHashMap<String, Usage>();
+    private final AtomicLong postedAmount = new AtomicLong();
+    // When set, posts wait for it
+    private volatile CountDownLatch postGate;
+
+    @BeforeMethod(groups = "fast")
+    public void setUp() {
+        posted.clear();
+        postedAmount.set(0);
+    }
+
+    @Test(groups = "fast")
+    public void testSumsPerWindowAndMerchantTag() throws Exception {
+        final InMemoryTransport transport = newTransport();
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        final UsagePipeline pipeline = recurlyClient.newUsagePipeline(WINDOW_MS, 1000, 0, null);
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.record("sub-1", "calls", usage(1, null, "tag-" + (i % 2), WINDOW_START.plusSeconds(i % 60)));
+        }
+        // Next window
+        pipeline.record("sub-1", "calls", usage(5, null, "tag-0", WINDOW_START.plusMinutes(1)));
+        // Decimal amounts
+        pipeline.record("sub-2", "storage", usage(2, null, null, WINDOW_START.plusSeconds(30)));
+        pipeline.record("sub-2", "storage", usage(null, new BigDecimal("0.5"), null, WINDOW_START.plusSeconds(10)));
+        Assert.assertEquals(pipeline.getPendingCount(), 4);
+        Assert.assertEquals(transport.getExecutedCount(), 0);
+
+        final UsagePipeline.FlushReport report = pipeline.flush();
+        Assert.assertEquals(report.getRecordCount(), 103);
+        Assert.assertEquals(report.getPostedCount(), 4);
+        Assert.assertTrue(report.getFailures().isEmpty());
+        Assert.assertEquals(transport.getExecutedCount(), 4);
+        Assert.assertEquals(pipeline.getPendingCount(), 0);
+
+        Assert.assertEquals(posted.get("sub-1/calls/tag-0/" + WINDOW_START.getMillis()).getAmount(), (Integer) 50);
+        Assert.assertEquals(posted.get("sub-1/calls/tag-1/" + WINDOW_START.plusSeconds(1).getMillis()).getAmount(), (Integer) 50);
+        Assert.assertEquals(posted.get("sub-1/calls/tag-0/" + WINDOW_START.plusMinutes(1).getMillis()).getAmount(), (Integer) 5);
+        final Usage decimal = posted.get("sub-2/storage/null/" + WINDOW_START.plusSeconds(10).getMillis());
+        Assert.assertNull(decimal.getAmount());
+        Assert.assertEquals(decimal.getAmountDecimal().compareTo(new BigDecimal("2.5")), 0);
+
+        // Nothing left
+        Assert.assertEquals(pipeline.flush().getPostedCount(), 0);
+        pipeline.close();
+        Assert.assertEquals(transport.getExecutedCount(), 4);
+        Assert.assertEquals(pipeline.getRecordedCount(), 103);
+        Assert.assertEquals(pipeline.getPostedCount(), 4);
+        Assert.assertEquals(pipeline.getFlushCount(), 1);
+        recurlyClient.close();
+    }
+
+    @Test(groups = "fast")
+    public void testSizeThresholdAndFailures() throws Exception {
+        final InMemoryTransport transport = newTransport();
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        try {
+            final List<UsagePipeline.FlushReport> reports = Collections.synchronizedList(new ArrayList<UsagePipeline.FlushReport>());
+            final CountDownLatch flushed = new CountDownLatch(1);
+            final UsagePipeline pipeline = recurlyClient.newUsagePipeline(WINDOW_MS, 3, 0, new UsagePipeline.Listener() {
+                @Override
+                public void onFlush(final UsagePipeline.FlushReport report) {
+                    reports.add(report);
+                    flushed.countDown();
+                }
+            });
+
+            pipeline.record("sub-1", "calls", usage(1, null, null, WINDOW_START));
+            pipeline.record("sub-1", "calls", usage(1, null, null, WINDOW_START));
+            pipeline.record("broken", "calls", usage(1, null, null, WINDOW_START));
+            pipeline.record("sub-2", "calls", usage(1, null, null, WINDOW_START));
+            Assert.assertTrue(flushed.await(5, TimeUnit.SECONDS));
+
+            final UsagePipeline.FlushReport report = reports.get(0);
+            Assert.assertEquals(report.getRecordCount(), 4);
+            Assert.assertEquals(report.getPostedCount(), 2);
+            Assert.assertTrue(report.getLatencyMs() >= 0);
+            Assert.assertEquals(report.getFailures().size(), 1);
+            final UsagePipeline.Failure failure = report.getFailures().get(0);
+            Assert.assertEquals(failure.getSubscriptionCode(), "broken");
+            Assert.assertEquals(failure.getAddOnCode(), "calls");
+            Assert.assertEquals(failure.getUsage().getAmount(), (Integer) 1);
+            Assert.assertEquals(((RecurlyAPIException) failure.getError()).getRecurlyError().getHttpStatusCode(), 500);
+            Assert.assertEquals(posted.get("sub-1/calls/null/" + WINDOW_START.getMillis()).getAmount(), (Integer) 2);
+
+            pipeline.close();
+            Assert.assertTrue(pipeline.isClosed());
+            Assert.assertEquals(pipeline.getFailedCount(), 1);
+            try {
+                pipeline.record("sub-1", "calls", usage(1, null, null, WINDOW_START));
+                Assert.fail();
+            } catch (final IllegalStateException expected) {
+            }
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testWindowsOverAreFlushedInTheBackground() throws Exception {
+        final InMemoryTransport transport = newTransport();
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        final CountDownLatch flushed = new CountDownLatch(1);
+        final UsagePipeline pipeline = recurlyClient.newUsagePipeline(WINDOW_MS, 1000, 20, new UsagePipeline.Listener() {
+            @Override
+            public void onFlush(final UsagePipeline.FlushReport report) {
+                flushed.countDown();
+            }
+        });
+
+        // Over
+        pipeline.record("sub-1", "calls", usage(1, null, null, WINDOW_START));
+        // Not over yet
+        final DateTime now = new DateTime(DateTimeZone.UTC).plusMinutes(5);
+        pipeline.record("sub-2", "calls", usage(1, null, null, now));
+        Assert.assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(transport.getExecutedCount(), 1);
+        Assert.assertEquals(pipeline.getPendingCount(), 1);
+
+        pipeline.close();
+        Assert.assertEquals(transport.getExecutedCount(), 2);
+        Assert.assertEquals(posted.get("sub-2/calls/null/" + now.getMillis()).getAmount(), (Integer) 1);
+        recurlyClient.close();
+    }
+
+    @Test(groups = "fast")
+    public void testNoUsageLostOnClose() throws Exception {
+        final InMemoryTransport transport = newTransport();
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final UsagePipeline pipeline = recurlyClient.newUsagePipeline(WINDOW_MS, 10, 0, null);
+            final List<Future<Integer>> recorders = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                final String subscriptionCode = "racing-" + i;
+                recorders.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int recorded = 0;
+                        try {
+                            while (true) {
+                                pipeline.record(subscriptionCode, "calls", usage(1, null, "tag-" + (recorded % 20), WINDOW_START));
+                                recorded++;
+                            }
+                        } catch (final IllegalStateException closed) {
+                            return recorded;
+                        }
+                    }
+                }));
+            }
+            Thread.sleep(100);
+            pipeline.close();
+
+            long recorded = 0;
+            for (final Future<Integer> recorder : recorders) {
+                recorded += recorder.get(5, TimeUnit.SECONDS);
+            }
+            Assert.assertTrue(recorded > 0);
+            Assert.assertEquals(pipeline.getRecordedCount(), recorded);
+            Assert.assertEquals(pipeline.getFailedCount(), 0);
+            Assert.assertEquals(postedAmount.get(), recorded);
+        } finally {
+            executor.shutdownNow();
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testRecordBlocksWhenPostsLag() throws Exception {
+        final InMemoryTransport transport = newTransport();
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        postGate = new CountDownLatch(1);
+        try {
+            final UsagePipeline pipeline = recurlyClient.newUsagePipeline(WINDOW_MS, 2, 0, null);
+            // Flushed, the posts hang
+            pipeline.record("slow-1", "calls", usage(1, null, null, WINDOW_START));
+            pipeline.record("slow-2", "calls", usage(1, null, null, WINDOW_START));
+            while (pipeline.getPendingCount() > 0) {
+                Thread.sleep(10);
+            }
+            // Up to twice maxPendingUsages are buffered meanwhile
+            for (int i = 3; i <= 6; i++) {
+                pipeline.record("slow-" + i, "calls", usage(1, null, null, WINDOW_START));
+            }
+            // Existing sums can still grow
+            pipeline.record("slow-6", "calls", usage(1, null, null, WINDOW_START));
+
+            final Future<?> blocked = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    pipeline.record("slow-7", "calls", usage(1, null, null, WINDOW_START));
+                }
+            });
+            Thread.sleep(100);
+            Assert.assertFalse(blocked.isDone());
+
+            postGate.countDown();
+            blocked.get(5, TimeUnit.SECONDS);
+            pipeline.close();
+            Assert.assertEquals(postedAmount.get(), 8);
+        } finally {
+            postGate.countDown();
+            postGate = null;
+            executor.shutdownNow();
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+    public void testUsageWithoutAmount() throws Exception {
+        final UsagePipeline pipeline = newClient(newTransport()).newUsagePipeline(WINDOW_MS, 1000, 0, null);
+        try {
+            pipeline.record("sub-1", "calls", new Usage());
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testNoUsageLostWhenClientClosedFirst() throws Exception {
+        final InMemoryTransport transport = newTransport();
+        final RecurlyClient recurlyClient = newClient(transport);
+        recurlyClient.open();
+        final List<UsagePipeline.FlushReport> reports = Collections.synchronizedList(new ArrayList<UsagePipeline.FlushReport>());
+        final UsagePipeline pipeline = recurlyClient.newUsagePipeline(WINDOW_MS, 1000, 0, new UsagePipeline.Listener() {
+            @Override
+            public void onFlush(final UsagePipeline.FlushReport report) {
+                reports.add(report);
+            }
+        });
+
+        // Executor shut down by a concurrent RecurlyClient#close, after the flush looked it up
+        pipeline.record("sub-1", "calls", usage(1, null, null, WINDOW_START));
+        pipeline.record("sub-2", "calls", usage(2, null, null, WINDOW_START));
+        pipeline.record("broken", "calls", usage(3, null, null, WINDOW_START));
+        recurlyClient.getBackgroundExecutor().shutdownNow();
+        final UsagePipeline.FlushReport report = pipeline.flush();
+        Assert.assertEquals(report.getPostedCount(), 2);
+        Assert.assertEquals(report.getFailures().size(), 1);
+        Assert.assertEquals(postedAmount.get(), 3);
+
+        // Client closed before the pipeline
+        recurlyClient.close();
+        pipeline.record("sub-1", "calls", usage(4, null, null, WINDOW_START));
+        pipeline.record("broken", "calls", usage(5, null, null, WINDOW_START));
+        pipeline.close();
+        Assert.assertEquals(pipeline.getPendingCount(), 0);
+        Assert.assertEquals(pipeline.getPostedCount() + pipeline.getFailedCount(), 5);
+        Assert.assertEquals(reports.size(), 2);
+        Assert.assertEquals(reports.get(1).getPostedCount() + reports.get(1).getFailures().size(), 2);
+    }
+
+    private Usage usage(final Integer amount, final BigDecimal amountDecimal, final String merchantTag, final DateTime usageAt) {
+        final Usage usage = new Usage();
+        usage.setAmount(amount);
+        usage.setAmountDecimal(amountDecimal);
+        usage.setMerchantTag(merchantTag);
+        usage.setUsageAt(usageAt);
+        return usage;
+    }
+
+    private InMemoryTransport newTransport() {
+        return new InMemoryTransport().respond("POST", "/usage", new InMemoryTransport.Responder() {
+            @Override
+            public HttpResponse respond(final HttpUriRequest request) throws IOException {
+                final String path = request.getURI().getPath();
+                // .../subscriptions/<code>/add_ons/<code>/usage
+                final String[] segments = path.split("/");
+                final String subscriptionCode = segments[segments.length - 4];
+                final String addOnCode = segments[segments.length - 2];
+                if ("broken".equals(subscriptionCode)) {
+                    return InMemoryTransport.newResponse(500, null, ImmutableMap.<String, String>of());
+                }
+                final CountDownLatch postGate = TestUsagePipeline.this.postGate;
+                if (postGate != null) {
+                    try {
+                        postGate.await();
+                    } catch (final InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+
+                final String xml = EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity());
+                final Usage usage = RecurlyObject.sharedXmlMapper().readValue(xml, Usage.class);
+                if (usage.getAmount() != null) {
+                    postedAmount.addAndGet(usage.getAmount());
+                }
+                posted.put(subscriptionCode + "/" + addOnCode + "/" + usage.getMerchantTag() + "/" + usage.getUsageAt().getMillis(), usage);
+                return InMemoryTransport.newResponse(201, xml.getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+            }
+        });
+    }
+
+    private RecurlyClient newClient(final InMemoryTransport transport) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setUsageConcurrency(2));
+    }
+}
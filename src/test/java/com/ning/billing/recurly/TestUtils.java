@@ -52,10 +52,14 @@ import com.ning.billing.recurly.model.Tiers;
 import com.ning.billing.recurly.model.Transaction;
 import com.ning.billing.recurly.model.Transactions;
 import com.ning.billing.recurly.model.Usage;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+import com.ning.billing.recurly.transport.RecurlyTransport;
+import com.ning.billing.recurly.transport.RecurlyTransportFactory;
 import org.joda.time.DateTime;
 
 import java.math.BigDecimal;
 import java.util.Random;
+import java.util.UUID;
 
 public class TestUtils {
 
@@ -80,6 +84,33 @@ public class TestUtils {
     private static final DateTime NOW = new DateTime();
     private static final DateTime TOMORROW = new DateTime(NOW.toDate().getTime() + (1000 * 60 * 60 * 24));
 
+    /**
+     * Returns a client, not opened yet, whose requests are answered by the given transport.
+     *
+     * @param transport The transport the client talks to
+     * @return The {@link RecurlyClient}
+     */
+    public static RecurlyClient newClient(final InMemoryTransport transport) {
+        return newClient(transport, RecurlyClientConfig.builder());
+    }
+
+    /**
+     * Returns a client, not opened yet, whose requests are answered by the given transport.
+     *
+     * @param transport The transport the client talks to
+     * @param config The configuration of the client, e.g. the option under test
+     * @return The {@link RecurlyClient}
+     */
+    public static RecurlyClient newClient(final InMemoryTransport transport, final RecurlyClientConfig.Builder config) {
+        config.setTransportFactory(new RecurlyTransportFactory() {
+            @Override
+            public RecurlyTransport create(final RecurlyClientConfig config) {
+                return transport;
+            }
+        });
+        return new RecurlyClient(UUID.randomUUID().toString(), "api", config.build());
+    }
+
     /**
      * Returns a random {@link String}.
      *
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly;
+
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.Accounts;
+import com.ning.billing.recurly.model.Address;
+import com.ning.billing.recurly.model.BillingInfo;
+import com.ning.billing.recurly.model.Purchase;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.push.account.NewAccountNotification;
+
+public class TestXmlMapperWarmUp {
+
+    @Test(groups = "fast")
+    public void testRoots() throws Exception {
+        final Set<Class<?>> roots = XmlMapperWarmUp.roots();
+        // Returned, taken as payload, and pushed
+        Assert.assertTrue(roots.contains(Account.class));
+        Assert.assertTrue(roots.contains(Accounts.class));
+        Assert.assertTrue(roots.contains(Purchase.class));
+        Assert.assertTrue(roots.contains(NewAccountNotification.class));
+    }
+
+    @Test(groups = "fast")
+    public void testReachable() throws Exception {
+        final Set<Class<?>> reachable = XmlMapperWarmUp.reachable(Account.class);
+        Assert.assertTrue(reachable.contains(Address.class));
+        Assert.assertTrue(reachable.contains(BillingInfo.class));
+        Assert.assertFalse(reachable.contains(Account.class));
+    }
+
+    @Test(groups = "fast")
+    public void testWarmUp() throws Exception {
+        final int serial = XmlMapperWarmUp.warmUp(RecurlyObject.newXmlMapper(), 1);
+        Assert.assertTrue(serial > XmlMapperWarmUp.roots().size());
+        Assert.assertEquals(XmlMapperWarmUp.warmUp(RecurlyObject.newXmlMapper(), 4), serial);
+    }
+}
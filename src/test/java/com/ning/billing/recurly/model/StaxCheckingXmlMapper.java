@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.model;
+
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.testng.Assert;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+/**
+ * Mapper of the model tests: every document read and every object written through it is also run through the
+ * generated code of {@link StaxCodec}, which has to agree with the mapper.
+ */
+public class StaxCheckingXmlMapper extends XmlMapper {
+
+    private final XmlMapper referenceMapper = RecurlyObject.newXmlMapper();
+    private final StaxCodec codec = new StaxCodec(referenceMapper);
+
+    public static StaxCheckingXmlMapper newXmlMapper() {
+        return RecurlyObject.configureXmlMapper(new StaxCheckingXmlMapper());
+    }
+
+    private StaxCheckingXmlMapper() {
+        super(RecurlyObject.newXmlInputFactory());
+    }
+
+    public StaxCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public <T> T readValue(final String content, final Class<T> valueType) throws IOException {
+        final T value = super.readValue(content, valueType);
+        if (codec.canRead(valueType)) {
+            checkRead(content, valueType, value, false);
+        }
+        return value;
+    }
+
+    @Override
+    public String writeValueAsString(final Object value) throws JsonProcessingException {
+        final String xml = super.writeValueAsString(value);
+        if (value != null && codec.canWrite(value.getClass())) {
+            checkWrite(value, xml, false);
+        }
+        return xml;
+    }
+
+    /**
+     * Read the given document through the generated code, which has to support it, and check it against the mapper
+     */
+    public <T> void checkRead(final String content, final Class<T> clazz) throws IOException {
+        Assert.assertTrue(codec.canRead(clazz), clazz.getName());
+        checkRead(content, clazz, super.readValue(content, clazz), true);
+    }
+
+    /**
+     * Write the given object through the generated code, which has to support it, and check it against the mapper
+     */
+    public void checkWrite(final Object value) throws IOException {
+        Assert.assertTrue(codec.canWrite(value.getClass()), value.getClass().getName());
+        checkWrite(value, super.writeValueAsString(value), true);
+    }
+
+    private <T> void checkRead(final String content, final Class<T> clazz, final T expected, final boolean required) throws IOException {
+        final T actual;
+        try {
+            actual = codec.readGenerated(content, clazz);
+        } catch (final UnsupportedContentException e) {
+            if (required) {
+                throw e;
+            }
+            // Read through the mapper by the codec
+            return;
+        } catch (final XMLStreamException e) {
+            throw new AssertionError("Generated reader of " + clazz.getName() + " failed on " + content + ": " + e);
+        }
+        // Compared through the mapper, the model classes don't all implement equals
+        Assert.assertEquals(referenceMapper.writeValueAsString(actual), referenceMapper.writeValueAsString(expected), clazz.getName());
+    }
+
+    private void checkWrite(final Object value, final String expected, final boolean required) {
+        final String actual;
+        try {
+            actual = codec.writeGenerated(value);
+        } catch (final UnsupportedContentException e) {
+            if (required) {
+                throw e;
+            }
+            // Written through the mapper by the codec
+            return;
+        } catch (final XMLStreamException e) {
+            throw new AssertionError("Generated writer of " + value.getClass().getName() + " failed: " + e);
+        }
+        Assert.assertEquals(actual, expected, value.getClass().getName());
+    }
+}
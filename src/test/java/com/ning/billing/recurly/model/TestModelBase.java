@@ -23,10 +23,11 @@ import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 
 public abstract class TestModelBase {
 
+    // Also checks the generated StaxCodec code against the mapper on every read and write
     protected XmlMapper xmlMapper;
 
     @BeforeMethod(alwaysRun = true)
     public void setUp() throws Exception {
-        xmlMapper = RecurlyObject.newXmlMapper();
+        xmlMapper = StaxCheckingXmlMapper.newXmlMapper();
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2015 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.ning.billing.recurly.model;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ning.billing.recurly.BenchmarkFixtures;
+import com.ning.billing.recurly.TestUtils;
+
+public class TestStaxCodec extends TestModelBase {
+
+    private StaxCheckingXmlMapper checkingMapper;
+    private StaxCodec codec;
+
+    @BeforeMethod(groups = "fast")
+    public void setUpCodec() throws Exception {
+        // The fixtures of the other model tests go through the same checks, see TestModelBase
+        checkingMapper = (StaxCheckingXmlMapper) xmlMapper;
+        codec = checkingMapper.getCodec();
+    }
+
+    @Test(groups = "fast")
+    public void testReadsPagesLikeJackson() throws Exception {
+        checkingMapper.checkRead(BenchmarkFixtures.accountsPage(20), Accounts.class);
+        checkingMapper.checkRead(BenchmarkFixtures.invoicesPage(20), Invoices.class);
+        checkingMapper.checkRead(BenchmarkFixtures.subscriptionsPage(20), Subscriptions.class);
+    }
+
+    @Test(groups = "fast")
+    public void testReadsTypedAndNilValuesLikeJackson() throws Exception {
+        checkingMapper.checkRead("<adjustment type=\"charge\">"
+                                 + "<unit_amount_in_cents type=\"integer\">400</unit_amount_in_cents>"
+                                 + "<taxable type=\"boolean\">true</taxable>"
+                                 + "<tax_rate type=\"float\">0.0875</tax_rate>"
+                                 + "<start_date type=\"dateTime\">2011-08-31T03:30:00Z</start_date>"
+                                 + "<end_date nil=\"nil\"></end_date>"
+                                 + "<accounting_code nil=\"true\"></accounting_code>"
+                                 + "<unknown_element><nested>ignored</nested></unknown_element>"
+                                 + "</adjustment>", Adjustment.class);
+    }
+
+    @Test(groups = "fast")
+    public void testRandomObjectsLikeJackson() throws Exception {
+        int checked = 0;
+        for (final Method method : TestUtils.class.getMethods()) {
+            if (!method.getName().startsWith("createRandom")) {
+                continue;
+            }
+
+            final List<Object> values = new LinkedList<Object>();
+            if (method.getParameterTypes().length == 0) {
+                values.add(method.invoke(null));
+            } else if (Arrays.equals(method.getParameterTypes(), new Class<?>[]{int.class})) {
+                for (int seed = 1; seed <= 5; seed++) {
+                    values.add(method.invoke(null, seed));
+                }
+            }
+
+            for (final Object value : values) {
+                if (codec.canWrite(value.getClass())) {
+                    checkingMapper.checkWrite(value);
+                    checked++;
+                }
+                if (codec.canRead(value.getClass())) {
+                    checkingMapper.checkRead(xmlMapper.writeValueAsString(value), value.getClass());
+                    checked++;
+                }
+            }
+        }
+        Assert.assertTrue(checked > 100, String.valueOf(checked));
+    }
+
+    @Test(groups = "fast")
+    public void testFallsBackToJackson() throws Exception {
+        // Coupon codes have a custom deserializer
+        final String coupon = "<coupon><coupon_code>special</coupon_code>"
+                              + "<plan_codes type=\"array\"><plan_code>gold</plan_code></plan_codes>"
+                              + "</coupon>";
+        try {
+            codec.readGenerated(coupon, Coupon.class);
+            Assert.fail();
+        } catch (final UnsupportedContentException e) {
+            Assert.assertTrue(codec.canRead(Coupon.class));
+        }
+        Assert.assertEquals(codec.readValue(coupon, Coupon.class).getPlanCodes().get(0).getName(), "gold");
+
+        // Attributes on text elements are left to the mapper
+        final String account = "<account><account_code lang=\"en\">code</account_code></account>";
+        Assert.assertEquals(xmlMapper.writeValueAsString(codec.readValue(account, Account.class)),
+                            xmlMapper.writeValueAsString(xmlMapper.readValue(account, Account.class)));
+    }
+}
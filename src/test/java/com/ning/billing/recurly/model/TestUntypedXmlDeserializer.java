@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.model;
+
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class TestUntypedXmlDeserializer extends TestModelBase {
+
+    @Test(groups = "fast")
+    public void testTypedAndNilValues() throws Exception {
+        final Map<?, ?> values = xmlMapper.readValue("<values>"
+                                                     + "<invoice_number type=\"integer\">1005</invoice_number>"
+                                                     + "<tax_rate type=\"float\">0.0875</tax_rate>"
+                                                     + "<created_at type=\"dateTime\">2011-08-25T12:00:00Z</created_at>"
+                                                     + "<po_number nil=\"nil\"></po_number>"
+                                                     + "<username nil=\"true\"></username>"
+                                                     + "<end_date nil=\"nil\" type=\"dateTime\"></end_date>"
+                                                     + "<currency>USD</currency>"
+                                                     + "</values>", Map.class);
+        Assert.assertEquals(values.get("invoice_number"), "1005");
+        Assert.assertEquals(values.get("tax_rate"), "0.0875");
+        Assert.assertEquals(values.get("created_at"), "2011-08-25T12:00:00Z");
+        Assert.assertTrue(values.containsKey("po_number"));
+        Assert.assertNull(values.get("po_number"));
+        Assert.assertNull(values.get("username"));
+        Assert.assertNull(values.get("end_date"));
+        Assert.assertEquals(values.get("currency"), "USD");
+    }
+
+    @Test(groups = "fast")
+    public void testOtherElementsAreMaps() throws Exception {
+        final Map<?, ?> values = xmlMapper.readValue("<values>"
+                                                     + "<error field=\"account.email\" symbol=\"invalid_email\">is invalid</error>"
+                                                     + "<cvv_result code=\"M\">Match</cvv_result>"
+                                                     + "<unit_amount_in_cents><USD type=\"integer\">1000</USD><EUR type=\"integer\">800</EUR></unit_amount_in_cents>"
+                                                     + "</values>", Map.class);
+        Assert.assertEquals(values.get("error"), ImmutableMap.of("field", "account.email", "symbol", "invalid_email", "", "is invalid"));
+        Assert.assertEquals(values.get("cvv_result"), ImmutableMap.of("code", "M", "", "Match"));
+        Assert.assertEquals(values.get("unit_amount_in_cents"), ImmutableMap.of("USD", "1000", "EUR", "800"));
+    }
+
+    @Test(groups = "fast")
+    public void testSettersSeeTheSameValues() throws Exception {
+        final Adjustment adjustment = xmlMapper.readValue("<adjustment type=\"charge\">"
+                                                          + "<unit_amount_in_cents type=\"integer\">400</unit_amount_in_cents>"
+                                                          + "<taxable type=\"boolean\">true</taxable>"
+                                                          + "<tax_rate type=\"float\">0.0875</tax_rate>"
+                                                          + "<start_date type=\"dateTime\">2011-08-31T03:30:00Z</start_date>"
+                                                          + "<end_date nil=\"nil\"></end_date>"
+                                                          + "<accounting_code nil=\"true\"></accounting_code>"
+                                                          + "</adjustment>", Adjustment.class);
+        Assert.assertEquals((int) adjustment.getUnitAmountInCents(), 400);
+        Assert.assertTrue(adjustment.getTaxable());
+        // Kept as a String by Adjustment: the text must not be reformatted
+        Assert.assertEquals(adjustment.getTaxRate(), "0.0875");
+        Assert.assertEquals(adjustment.getStartDate().getMillis(), 1314761400000L);
+        Assert.assertNull(adjustment.getEndDate());
+        Assert.assertNull(adjustment.getAccountingCode());
+    }
+}
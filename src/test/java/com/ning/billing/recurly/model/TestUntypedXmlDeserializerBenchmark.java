@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.model;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.ning.billing.recurly.BenchmarkFixtures;
+
+/**
+ * Time and bytes allocated per 200 objects page, binding the typed and nil elements to maps (Jackson's
+ * UntypedObjectDeserializer) versus reading them with {@link UntypedXmlDeserializer}. Run with {@code mvn test -Pbenchmark}.
+ */
+public class TestUntypedXmlDeserializerBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(TestUntypedXmlDeserializerBenchmark.class);
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 200;
+
+    private final XmlMapper mapsMapper = newMapsMapper();
+    private final XmlMapper xmlMapper = RecurlyObject.newXmlMapper();
+
+    @Test(groups = "benchmark")
+    public void testInvoices() throws Exception {
+        benchmark(BenchmarkFixtures.invoicesPage(BenchmarkFixtures.PAGE_SIZE), Invoices.class);
+    }
+
+    @Test(groups = "benchmark")
+    public void testSubscriptions() throws Exception {
+        benchmark(BenchmarkFixtures.subscriptionsPage(BenchmarkFixtures.PAGE_SIZE), Subscriptions.class);
+    }
+
+    @Test(groups = "benchmark")
+    public void testAccounts() throws Exception {
+        benchmark(BenchmarkFixtures.accountsPage(BenchmarkFixtures.PAGE_SIZE), Accounts.class);
+    }
+
+    private void benchmark(final String page, final Class<? extends RecurlyObjects> clazz) throws Exception {
+        Assert.assertTrue(mapsMapper.readValue("<a><b type=\"integer\">1</b></a>", Map.class).get("b") instanceof Map);
+        // Same objects either way
+        Assert.assertEquals(xmlMapper.readValue(page, clazz), mapsMapper.readValue(page, clazz));
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            mapsMapper.readValue(page, clazz);
+            xmlMapper.readValue(page, clazz);
+        }
+
+        final long mapsStart = BenchmarkFixtures.allocatedBytes();
+        final long mapsStartNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Assert.assertEquals(mapsMapper.readValue(page, clazz).size(), BenchmarkFixtures.PAGE_SIZE);
+        }
+        final long mapsNanos = System.nanoTime() - mapsStartNanos;
+        final long maps = BenchmarkFixtures.allocatedBytes() - mapsStart;
+
+        final long typedStart = BenchmarkFixtures.allocatedBytes();
+        final long typedStartNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Assert.assertEquals(xmlMapper.readValue(page, clazz).size(), BenchmarkFixtures.PAGE_SIZE);
+        }
+        final long typedNanos = System.nanoTime() - typedStartNanos;
+        final long typed = BenchmarkFixtures.allocatedBytes() - typedStart;
+
+        log.info("{} page of {}: maps {} bytes allocated/page ({} us/page), UntypedXmlDeserializer {} bytes allocated/page ({} us/page)",
+                 clazz.getSimpleName(), BenchmarkFixtures.PAGE_SIZE,
+                 maps / ITERATIONS, mapsNanos / ITERATIONS / 1000,
+                 typed / ITERATIONS, typedNanos / ITERATIONS / 1000);
+    }
+
+    // Previous behavior: the stock deserializer, registered last hence taking precedence
+    private static XmlMapper newMapsMapper() {
+        final XmlMapper xmlMapper = RecurlyObject.newXmlMapper();
+        final SimpleModule m = new SimpleModule("maps", new Version(1, 0, 0, null, null, null));
+        m.addDeserializer(Object.class, new UntypedObjectDeserializer());
+        xmlMapper.registerModule(m);
+        return xmlMapper;
+    }
+}
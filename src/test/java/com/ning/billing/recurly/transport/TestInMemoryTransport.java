@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.ning.billing.recurly.RecurlyAPIException;
+import com.ning.billing.recurly.RecurlyClient;
+import com.ning.billing.recurly.RecurlyClientConfig;
+import com.ning.billing.recurly.TestUtils;
+import com.ning.billing.recurly.model.Account;
+
+public class TestInMemoryTransport {
+
+    private static final String ACCOUNT_XML = "<account href=\"https://api.recurly.com/v2/accounts/abc\">" +
+                                              "<account_code>abc</account_code>" +
+                                              "<email>abc@example.com</email>" +
+                                              "</account>";
+
+    @Test(groups = "fast")
+    public void testClientOverCustomTransport() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", 200, ACCOUNT_XML)
+                .respond("HEAD", "/accounts", 200, null, ImmutableMap.<String, String>of("X-Records", "42"));
+        final RecurlyClient recurlyClient = newClient(transport, false);
+        recurlyClient.open();
+        try {
+            final Account account = recurlyClient.getAccount("abc");
+            Assert.assertEquals(account.getAccountCode(), "abc");
+            Assert.assertEquals(account.getEmail(), "abc@example.com");
+
+            Assert.assertEquals(recurlyClient.getAccountsCount(null), (Integer) 42);
+
+            try {
+                recurlyClient.getAccount("missing");
+                Assert.fail();
+            } catch (final RecurlyAPIException e) {
+                Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 404);
+            }
+
+            Assert.assertEquals(transport.getExecutedCount(), 3);
+            final HttpUriRequest request = transport.getRequests().get(0);
+            Assert.assertEquals(request.getURI().toString(), "https://api.recurly.com:443/v2/accounts/abc");
+            Assert.assertNotNull(request.getFirstHeader(HttpHeaders.AUTHORIZATION));
+            // Custom transports don't expose pool statistics
+            Assert.assertNull(recurlyClient.getConnectionPoolStats());
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testContentDecodingAppliesToCustomTransport() throws Exception {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(ACCOUNT_XML.getBytes(Charsets.UTF_8));
+        gzip.close();
+
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        Assert.assertEquals(request.getFirstHeader(HttpHeaders.ACCEPT_ENCODING).getValue(), "gzip, deflate");
+                        return InMemoryTransport.newResponse(200, compressed.toByteArray(), ImmutableMap.<String, String>of(HttpHeaders.CONTENT_ENCODING, "gzip"));
+                    }
+                });
+        // Compression is on by default
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport);
+        recurlyClient.open();
+        try {
+            Assert.assertEquals(recurlyClient.getAccount("abc").getAccountCode(), "abc");
+            Assert.assertEquals(recurlyClient.getContentEncodingStats().getCompressedResponses(), 1);
+            Assert.assertEquals(recurlyClient.getContentEncodingStats().getWireBytes(), compressed.size());
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private RecurlyClient newClient(final InMemoryTransport transport, final boolean compression) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setCompression(compression));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.ning.billing.recurly.RecurlyClient;
+import com.ning.billing.recurly.RecurlyClientConfig;
+import com.ning.billing.recurly.TestUtils;
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+public class TestSingleFlight {
+
+    private static final int CALLERS = 8;
+
+    @Test(groups = "fast")
+    public void testPropagatesExceptionToAllCallers() throws Exception {
+        final SingleFlight singleFlight = new SingleFlight();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Object> leader = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return singleFlight.execute("key", new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            started.countDown();
+                            release.await();
+                            throw new IllegalStateException("boom");
+                        }
+                    });
+                }
+            });
+            final Future<Object> follower = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    started.await();
+                    return singleFlight.execute("key", new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            throw new AssertionError("Should have been coalesced");
+                        }
+                    });
+                }
+            });
+            awaitCoalesced(singleFlight, 1);
+            release.countDown();
+
+            for (final Future<Object> future : new Future[]{leader, follower}) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                    Assert.fail();
+                } catch (final ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+            Assert.assertEquals(singleFlight.getExecutedCount(), 1);
+
+            // Nothing is cached
+            Assert.assertEquals(singleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    return "value";
+                }
+            }), "value");
+            Assert.assertEquals(singleFlight.getExecutedCount(), 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testCoalescesConcurrentIdenticalGets() throws Exception {
+        final RecurlyClient[] holder = new RecurlyClient[1];
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        // Hold the response until all the other callers joined the flight
+                        awaitCoalesced(holder[0].getSingleFlight(), CALLERS - 1);
+                        return InMemoryTransport.newResponse(200, "<account><account_code>abc</account_code></account>".getBytes(Charsets.UTF_8),
+                                                             ImmutableMap.<String, String>of());
+                    }
+                });
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport, RecurlyClientConfig.builder().setCoalesceGets(true));
+        holder[0] = recurlyClient;
+        recurlyClient.open();
+        final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            final List<Future<Account>> futures = new ArrayList<Future<Account>>();
+            for (int i = 0; i < CALLERS; i++) {
+                futures.add(executor.submit(new Callable<Account>() {
+                    @Override
+                    public Account call() {
+                        return recurlyClient.getAccount("abc");
+                    }
+                }));
+            }
+
+            final Account account = futures.get(0).get(10, TimeUnit.SECONDS);
+            for (final Future<Account> future : futures) {
+                Assert.assertSame(future.get(10, TimeUnit.SECONDS), account);
+            }
+            Assert.assertEquals(account.getAccountCode(), "abc");
+            Assert.assertEquals(transport.getExecutedCount(), 1);
+            Assert.assertEquals(recurlyClient.getSingleFlight().getCoalescedCount(), CALLERS - 1);
+        } finally {
+            executor.shutdownNow();
+            recurlyClient.close();
+        }
+    }
+
+    private static void awaitCoalesced(final SingleFlight singleFlight, final long coalesced) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (singleFlight.getCoalescedCount() < coalesced && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ning.billing.recurly.RecurlyAPIException;
+import com.ning.billing.recurly.RecurlyClient;
+import com.ning.billing.recurly.RecurlyClientConfig;
+import com.ning.billing.recurly.TestUtils;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+
+public class TestAdaptiveRateLimiter {
+
+    private static final long TOLERANCE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Test(groups = "fast")
+    public void testNoPacingUntilHeadersAreSeen() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(1, ticker);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(rateLimiter.reserve(), 0);
+        }
+        Assert.assertEquals(rateLimiter.getAcquiredCount(), 100);
+        Assert.assertEquals(rateLimiter.getThrottledCount(), 0);
+        Assert.assertEquals(rateLimiter.getPermitsPerSecond(), Double.POSITIVE_INFINITY);
+    }
+
+    @Test(groups = "fast")
+    public void testSpreadsRemainingRequestsUntilReset() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(2, ticker);
+        // 1000 requests left for the next 1000 seconds: one per second, bursts of 2
+        rateLimiter.update(2000, 1000, resetIn(1000));
+        Assert.assertEquals(rateLimiter.getPermitsPerSecond(), 1.0, 0.01);
+
+        Assert.assertEquals(rateLimiter.reserve(), 0);
+        Assert.assertEquals(rateLimiter.reserve(), 0);
+        assertWait(rateLimiter.reserve(), TimeUnit.SECONDS.toNanos(1));
+        assertWait(rateLimiter.reserve(), TimeUnit.SECONDS.toNanos(2));
+
+        // Waiting replenishes the bucket
+        ticker.advance(5, TimeUnit.SECONDS);
+        Assert.assertEquals(rateLimiter.reserve(), 0);
+        Assert.assertEquals(rateLimiter.getThrottledCount(), 2);
+        Assert.assertEquals(rateLimiter.getTotalWaitMillis(), 3000, 100);
+    }
+
+    @Test(groups = "fast")
+    public void testHoldsRequestsUntilResetWhenExhausted() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(10, ticker);
+        rateLimiter.update(2000, 0, resetIn(30));
+        Assert.assertEquals(rateLimiter.getPermitsPerSecond(), 0.0);
+        final long wait = rateLimiter.reserve();
+        Assert.assertTrue(wait > TimeUnit.SECONDS.toNanos(29) && wait <= TimeUnit.SECONDS.toNanos(30), String.valueOf(wait));
+
+        // Once the window has elapsed, requests flow again until the next response
+        ticker.advance(31, TimeUnit.SECONDS);
+        Assert.assertEquals(rateLimiter.reserve(), 0);
+        Assert.assertEquals(rateLimiter.getPermitsPerSecond(), Double.POSITIVE_INFINITY);
+    }
+
+    @Test(groups = "fast")
+    public void testSpacesOutRequestsHeldUntilReset() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(10, ticker);
+        // 100 requests per 30 seconds window: held requests resume 300ms apart
+        rateLimiter.update(100, 0, resetIn(30));
+        final long first = rateLimiter.reserve();
+        Assert.assertTrue(first > TimeUnit.SECONDS.toNanos(29) && first <= TimeUnit.SECONDS.toNanos(30), String.valueOf(first));
+        final long spacing = TimeUnit.MILLISECONDS.toNanos(300);
+        for (int i = 1; i < 5; i++) {
+            assertWait(rateLimiter.reserve(), first + i * spacing);
+        }
+
+        // Right after the reset, newcomers queue behind the held requests
+        ticker.advance(first, TimeUnit.NANOSECONDS);
+        assertWait(rateLimiter.reserve(), 5 * spacing);
+        // Then go through as usual
+        ticker.advance(6 * spacing, TimeUnit.NANOSECONDS);
+        Assert.assertEquals(rateLimiter.reserve(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testUpdatedFromErrorResponses() throws Exception {
+        final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter();
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/limited", 429, null, ImmutableMap.<String, String>of(AdaptiveRateLimiter.X_RATELIMIT_LIMIT_HEADER_NAME, "2000",
+                                                                                                 AdaptiveRateLimiter.X_RATELIMIT_REMAINING_HEADER_NAME, "0",
+                                                                                                 AdaptiveRateLimiter.X_RATELIMIT_RESET_HEADER_NAME, String.valueOf(resetIn(0))))
+                .respond("GET", "/accounts/missing", 404, null, ImmutableMap.<String, String>of(AdaptiveRateLimiter.X_RATELIMIT_REMAINING_HEADER_NAME, "1999",
+                                                                                                 AdaptiveRateLimiter.X_RATELIMIT_RESET_HEADER_NAME, String.valueOf(resetIn(60))));
+        final RecurlyClient recurlyClient = TestUtils.newClient(transport, RecurlyClientConfig.builder().setRateLimiter(rateLimiter));
+        recurlyClient.open();
+        try {
+            try {
+                recurlyClient.getAccount("limited");
+                Assert.fail();
+            } catch (final RecurlyAPIException e) {
+                Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 429);
+            }
+            Assert.assertEquals(rateLimiter.getTooManyRequestsCount(), 1);
+            Assert.assertEquals(rateLimiter.getLimit(), 2000);
+            Assert.assertEquals(recurlyClient.getRateLimitRemaining(), 0);
+
+            try {
+                recurlyClient.getAccount("missing");
+                Assert.fail();
+            } catch (final RecurlyAPIException e) {
+                Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 404);
+            }
+            Assert.assertEquals(rateLimiter.getRemaining(), 1999);
+            Assert.assertEquals(recurlyClient.getRateLimitRemaining(), 1999);
+            Assert.assertEquals(rateLimiter.getAcquiredCount(), 2);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private static int resetIn(final int seconds) {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + seconds;
+    }
+
+    private static void assertWait(final long actualNanos, final long expectedNanos) {
+        // The reset is expressed in epoch seconds, hence the tolerance
+        Assert.assertTrue(Math.abs(actualNanos - expectedNanos) < TOLERANCE_NANOS, "Expected ~" + expectedNanos + "ns, got " + actualNanos + "ns");
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(final long duration, final TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(duration));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.ning.billing.recurly.BenchmarkFixtures;
+import com.ning.billing.recurly.model.Invoices;
+import com.ning.billing.recurly.model.RecurlyObject;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+
+public class TestContentDecodingInterceptor {
+
+    private final byte[] page = BenchmarkFixtures.invoicesPage(20).getBytes(Charsets.UTF_8);
+
+    @Test(groups = "fast")
+    public void testGzip() throws Exception {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(page);
+        gzip.close();
+
+        final ContentEncodingStats stats = new ContentEncodingStats();
+        final HttpResponse response = decode(compressed.toByteArray(), "gzip", stats);
+        Assert.assertNull(response.getFirstHeader("Content-Encoding"));
+        Assert.assertNull(response.getEntity().getContentEncoding());
+
+        final Invoices invoices = RecurlyObject.sharedXmlMapper().readValue(response.getEntity().getContent(), Invoices.class);
+        Assert.assertEquals(invoices.size(), 20);
+        EntityUtils.consume(response.getEntity());
+
+        Assert.assertEquals(stats.getResponses(), 1);
+        Assert.assertEquals(stats.getCompressedResponses(), 1);
+        Assert.assertEquals(stats.getDecodedBytes(), page.length);
+        Assert.assertEquals(stats.getWireBytes(), compressed.size());
+        Assert.assertTrue(stats.getSavingsRatio() > 0.5, stats.toString());
+    }
+
+    @Test(groups = "fast")
+    public void testDeflate() throws Exception {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final DeflaterOutputStream deflate = new DeflaterOutputStream(compressed);
+        deflate.write(page);
+        deflate.close();
+
+        final ContentEncodingStats stats = new ContentEncodingStats();
+        final HttpResponse response = decode(compressed.toByteArray(), "deflate", stats);
+        Assert.assertEquals(EntityUtils.toString(response.getEntity(), Charsets.UTF_8), new String(page, Charsets.UTF_8));
+
+        Assert.assertEquals(stats.getCompressedResponses(), 1);
+        Assert.assertEquals(stats.getDecodedBytes(), page.length);
+        Assert.assertEquals(stats.getWireBytes(), compressed.size());
+    }
+
+    @Test(groups = "fast")
+    public void testIdentity() throws Exception {
+        final ContentEncodingStats stats = new ContentEncodingStats();
+        final HttpResponse response = decode(page, null, stats);
+        Assert.assertEquals(response.getEntity().getContentLength(), page.length);
+        Assert.assertEquals(EntityUtils.toByteArray(response.getEntity()), page);
+
+        Assert.assertEquals(stats.getResponses(), 1);
+        Assert.assertEquals(stats.getCompressedResponses(), 0);
+        Assert.assertEquals(stats.getDecodedBytes(), page.length);
+        Assert.assertEquals(stats.getWireBytes(), page.length);
+    }
+
+    private HttpResponse decode(final byte[] body, final String contentEncoding, final ContentEncodingStats stats) throws Exception {
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        final InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(body), body.length, ContentType.APPLICATION_XML);
+        if (contentEncoding != null) {
+            entity.setContentEncoding(contentEncoding);
+            response.setHeader("Content-Encoding", contentEncoding);
+        }
+        response.setEntity(entity);
+
+        new ContentDecodingInterceptor(stats).process(response, null);
+        return response;
+    }
+}
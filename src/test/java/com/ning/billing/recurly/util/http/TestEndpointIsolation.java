@@ -0,0 +1,231 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ning.billing.recurly.EndpointUnavailableException;
+import com.ning.billing.recurly.RecurlyAPIException;
+import com.ning.billing.recurly.RecurlyClient;
+import com.ning.billing.recurly.RecurlyClientConfig;
+import com.ning.billing.recurly.TestUtils;
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.Invoices;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class TestEndpointIsolation {
+
+    private static final String ACCOUNT_XML = "<account><account_code>abc</account_code></account>";
+    private static final String INVOICE_XML = "<invoice><invoice_number>1</invoice_number></invoice>";
+
+    @Test(groups = "fast")
+    public void testCircuitBreakerIsolatesFailingEndpoint() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final List<String> transitions = new CopyOnWriteArrayList<String>();
+        final EndpointIsolation endpointIsolation = EndpointIsolation.builder()
+                                                                     .setFailureThreshold(2)
+                                                                     .setOpenDurationMs(10000)
+                                                                     .setTicker(ticker)
+                                                                     .setListener(new CircuitBreaker.Listener() {
+                                                                         @Override
+                                                                         public void onStateChange(final String name, final CircuitBreaker.State from, final CircuitBreaker.State to) {
+                                                                             transitions.add(name + ":" + from + "->" + to);
+                                                                         }
+                                                                     })
+                                                                     .build();
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", 200, ACCOUNT_XML)
+                .respond("GET", "/invoices/1", 503, null);
+        final RecurlyClient recurlyClient = newClient(transport, endpointIsolation);
+        recurlyClient.open();
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    recurlyClient.getInvoice("1");
+                    Assert.fail();
+                } catch (final RecurlyAPIException e) {
+                    Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 503);
+                }
+            }
+
+            // Open: fail fast, without calling Recurly
+            try {
+                recurlyClient.getInvoice("1");
+                Assert.fail();
+            } catch (final EndpointUnavailableException e) {
+                Assert.assertEquals(e.getResource(), Invoices.INVOICES_RESOURCE);
+                Assert.assertEquals(e.getReason(), EndpointUnavailableException.Reason.CIRCUIT_OPEN);
+            }
+            Assert.assertEquals(transport.getExecutedCount(), 2);
+
+            // Other endpoints are unaffected
+            Assert.assertEquals(recurlyClient.getAccount("abc").getAccountCode(), "abc");
+            Assert.assertEquals(endpointIsolation.getEndpoint(Account.ACCOUNT_RESOURCE).getState(), CircuitBreaker.State.CLOSED);
+
+            // After the open duration, a successful trial call closes the circuit
+            transport.respond("GET", "/invoices/2", 200, INVOICE_XML);
+            ticker.advance(10, TimeUnit.SECONDS);
+            Assert.assertEquals(recurlyClient.getInvoice("2").getInvoiceNumber(), (Integer) 1);
+
+            final EndpointIsolation.Endpoint invoices = endpointIsolation.getEndpoint(Invoices.INVOICES_RESOURCE);
+            Assert.assertEquals(invoices.getState(), CircuitBreaker.State.CLOSED);
+            Assert.assertEquals(invoices.getOpenedCount(), 1);
+            Assert.assertEquals(invoices.getCircuitRejectedCount(), 1);
+            Assert.assertEquals(invoices.getActiveCalls(), 0);
+            Assert.assertEquals(transitions, ImmutableList.<String>of("/invoices:CLOSED->OPEN", "/invoices:OPEN->HALF_OPEN", "/invoices:HALF_OPEN->CLOSED"));
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testHalfOpenFailureReopens() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("/purchases", 1, 1000, ticker, null);
+        final long permit = circuitBreaker.tryAcquire();
+        Assert.assertNotEquals(permit, CircuitBreaker.REJECTED);
+        circuitBreaker.onFailure(permit);
+        Assert.assertEquals(circuitBreaker.getState(), CircuitBreaker.State.OPEN);
+        Assert.assertEquals(circuitBreaker.tryAcquire(), CircuitBreaker.REJECTED);
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        final long trial = circuitBreaker.tryAcquire();
+        Assert.assertNotEquals(trial, CircuitBreaker.REJECTED);
+        // Single trial call
+        Assert.assertEquals(circuitBreaker.tryAcquire(), CircuitBreaker.REJECTED);
+        circuitBreaker.onFailure(trial);
+        Assert.assertEquals(circuitBreaker.getState(), CircuitBreaker.State.OPEN);
+        Assert.assertEquals(circuitBreaker.getOpenedCount(), 2);
+        Assert.assertEquals(circuitBreaker.tryAcquire(), CircuitBreaker.REJECTED);
+    }
+
+    @Test(groups = "fast")
+    public void testOnlyTrialCallDecidesHalfOpenCircuit() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("/purchases", 1, 1000, ticker, null);
+        final long slowSuccess = circuitBreaker.tryAcquire();
+        final long slowFailure = circuitBreaker.tryAcquire();
+        circuitBreaker.onFailure(circuitBreaker.tryAcquire());
+        Assert.assertEquals(circuitBreaker.getState(), CircuitBreaker.State.OPEN);
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        final long trial = circuitBreaker.tryAcquire();
+        Assert.assertEquals(circuitBreaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        // Calls started while closed complete late, while the trial is still running
+        circuitBreaker.onSuccess(slowSuccess);
+        Assert.assertEquals(circuitBreaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        circuitBreaker.onFailure(slowFailure);
+        Assert.assertEquals(circuitBreaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        Assert.assertEquals(circuitBreaker.getOpenedCount(), 1);
+
+        circuitBreaker.onSuccess(trial);
+        Assert.assertEquals(circuitBreaker.getState(), CircuitBreaker.State.CLOSED);
+        // The trial permit is spent
+        circuitBreaker.onFailure(trial);
+        Assert.assertEquals(circuitBreaker.getState(), CircuitBreaker.State.CLOSED);
+    }
+
+    @Test(groups = "fast")
+    public void testBulkheadBoundsConcurrentCalls() throws Exception {
+        final CountDownLatch inFlight = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final EndpointIsolation endpointIsolation = EndpointIsolation.builder()
+                                                                     .setMaxConcurrentCalls(Invoices.INVOICES_RESOURCE, 1)
+                                                                     .build();
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", 200, ACCOUNT_XML)
+                .respond("GET", "/invoices/1", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        inFlight.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return InMemoryTransport.newResponse(200, INVOICE_XML.getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+                    }
+                });
+        final RecurlyClient recurlyClient = newClient(transport, endpointIsolation);
+        recurlyClient.open();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Integer> slowCall = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return recurlyClient.getInvoice("1").getInvoiceNumber();
+                }
+            });
+            Assert.assertTrue(inFlight.await(10, TimeUnit.SECONDS));
+
+            try {
+                recurlyClient.getInvoice("1");
+                Assert.fail();
+            } catch (final EndpointUnavailableException e) {
+                Assert.assertEquals(e.getReason(), EndpointUnavailableException.Reason.BULKHEAD_FULL);
+            }
+            Assert.assertEquals(endpointIsolation.getEndpoint(Invoices.INVOICES_RESOURCE).getActiveCalls(), 1);
+            Assert.assertEquals(recurlyClient.getAccount("abc").getAccountCode(), "abc");
+
+            release.countDown();
+            Assert.assertEquals(slowCall.get(10, TimeUnit.SECONDS), (Integer) 1);
+            Assert.assertEquals(endpointIsolation.getEndpoint(Invoices.INVOICES_RESOURCE).getActiveCalls(), 0);
+            Assert.assertEquals(endpointIsolation.getEndpoint(Invoices.INVOICES_RESOURCE).getBulkheadRejectedCount(), 1);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            recurlyClient.close();
+        }
+    }
+
+    private static RecurlyClient newClient(final InMemoryTransport transport, final EndpointIsolation endpointIsolation) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setEndpointIsolation(endpointIsolation));
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(final long duration, final TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(duration));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.ning.billing.recurly.TestUtils;
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.model.Purchase;
+import com.ning.billing.recurly.model.RecurlyObject;
+import com.ning.billing.recurly.model.Subscription;
+import com.ning.billing.recurly.model.Subscriptions;
+
+import org.apache.http.util.EntityUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+
+public class TestRecurlyObjectEntity {
+
+    @Test(groups = "fast")
+    public void testWritesSameXmlAsWriteValueAsString() throws Exception {
+        final Account account = TestUtils.createRandomAccount();
+        account.setBillingInfo(TestUtils.createRandomBillingInfo());
+
+        final Subscriptions subscriptions = new Subscriptions();
+        for (int i = 0; i < 3; i++) {
+            final Subscription subscription = new Subscription();
+            subscription.setPlanCode("plan-" + i);
+            subscription.setQuantity(i + 1);
+            subscriptions.add(subscription);
+        }
+
+        final Purchase purchase = new Purchase();
+        purchase.setAccount(account);
+        purchase.setCurrency("USD");
+        purchase.setSubscriptions(subscriptions);
+
+        final String expected = RecurlyObject.sharedXmlMapper().writeValueAsString(purchase);
+
+        final RecurlyObjectEntity entity = new RecurlyObjectEntity(purchase);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        Assert.assertEquals(new String(out.toByteArray(), Charsets.UTF_8), expected);
+
+        // Repeatable, and usable by consumers pulling the content
+        Assert.assertTrue(entity.isRepeatable());
+        Assert.assertEquals(EntityUtils.toString(entity, Charsets.UTF_8), expected);
+        Assert.assertEquals(entity.getContentType().getValue(), "application/xml; charset=UTF-8");
+    }
+
+    @Test(groups = "fast")
+    public void testDoesNotCloseTheConnectionStream() throws Exception {
+        final boolean[] closed = {false};
+        final OutputStream out = new FilterOutputStream(new ByteArrayOutputStream()) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+
+        new RecurlyObjectEntity(TestUtils.createRandomAccount()).writeTo(out);
+        Assert.assertFalse(closed[0]);
+    }
+}
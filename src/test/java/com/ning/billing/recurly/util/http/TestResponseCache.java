@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ning.billing.recurly.RecurlyClient;
+import com.ning.billing.recurly.RecurlyClientConfig;
+import com.ning.billing.recurly.TestUtils;
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+
+public class TestResponseCache {
+
+    @Test(groups = "fast")
+    public void testRevalidatesWithETag() throws Exception {
+        final AtomicReference<String> etag = new AtomicReference<String>("\"v1\"");
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) {
+                        final Header ifNoneMatch = request.getFirstHeader(HttpHeaders.IF_NONE_MATCH);
+                        if (ifNoneMatch != null && ifNoneMatch.getValue().equals(etag.get())) {
+                            return InMemoryTransport.newResponse(304, null, ImmutableMap.of(HttpHeaders.ETAG, etag.get()));
+                        }
+                        final String xml = "<account><account_code>abc</account_code><email>" + etag.get().replace("\"", "") + "@example.com</email></account>";
+                        return InMemoryTransport.newResponse(200, xml.getBytes(Charsets.UTF_8), ImmutableMap.of(HttpHeaders.ETAG, etag.get()));
+                    }
+                });
+        final RecurlyClient recurlyClient = newClient(transport, 10);
+        recurlyClient.open();
+        try {
+            final Account first = recurlyClient.getAccount("abc");
+            Assert.assertEquals(first.getEmail(), "v1@example.com");
+            Assert.assertNull(transport.getRequests().get(0).getFirstHeader(HttpHeaders.IF_NONE_MATCH));
+
+            // Not modified: served from the cache
+            Assert.assertSame(recurlyClient.getAccount("abc"), first);
+            Assert.assertEquals(transport.getRequests().get(1).getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue(), "\"v1\"");
+
+            // Modified: downloaded again
+            etag.set("\"v2\"");
+            final Account second = recurlyClient.getAccount("abc");
+            Assert.assertEquals(second.getEmail(), "v2@example.com");
+            Assert.assertSame(recurlyClient.getAccount("abc"), second);
+
+            final ResponseCache responseCache = recurlyClient.getResponseCache();
+            Assert.assertEquals(responseCache.getHitCount(), 2);
+            Assert.assertEquals(responseCache.getMissCount(), 2);
+            Assert.assertEquals(responseCache.getRevalidationCount(), 3);
+            Assert.assertEquals(responseCache.size(), 1);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testOnlyCachesResponsesWithValidators() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", 200, "<account><account_code>abc</account_code></account>")
+                .respond("GET", "/accounts/def", 200, "<account><account_code>def</account_code></account>", ImmutableMap.of(HttpHeaders.LAST_MODIFIED, "Wed, 21 Oct 2015 07:28:00 GMT"))
+                .respond("GET", "/accounts/ghi", 200, "<account><account_code>ghi</account_code></account>", ImmutableMap.of(HttpHeaders.ETAG, "\"ghi\""));
+        final RecurlyClient recurlyClient = newClient(transport, 1);
+        recurlyClient.open();
+        try {
+            recurlyClient.getAccount("abc");
+            recurlyClient.getAccount("abc");
+            Assert.assertNull(transport.getRequests().get(1).getFirstHeader(HttpHeaders.IF_NONE_MATCH));
+            Assert.assertEquals(recurlyClient.getResponseCache().size(), 0);
+
+            recurlyClient.getAccount("def");
+            recurlyClient.getAccount("def");
+            Assert.assertEquals(transport.getRequests().get(3).getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE).getValue(), "Wed, 21 Oct 2015 07:28:00 GMT");
+
+            // Size-bounded
+            recurlyClient.getAccount("ghi");
+            Assert.assertEquals(recurlyClient.getResponseCache().size(), 1);
+            Assert.assertEquals(recurlyClient.getResponseCache().getEvictionCount(), 1);
+        } finally {
+            recurlyClient.close();
+        }
+    }
+
+    private static RecurlyClient newClient(final InMemoryTransport transport, final long responseCacheSize) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setResponseCacheSize(responseCacheSize));
+    }
+}
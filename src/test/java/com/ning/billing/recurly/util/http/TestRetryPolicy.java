@@ -0,0 +1,236 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ * Copyright 2014-2018 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.billing.recurly.util.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ning.billing.recurly.ConnectionErrorException;
+import com.ning.billing.recurly.RecurlyAPIException;
+import com.ning.billing.recurly.RecurlyClient;
+import com.ning.billing.recurly.RecurlyClientConfig;
+import com.ning.billing.recurly.TestUtils;
+import com.ning.billing.recurly.model.Account;
+import com.ning.billing.recurly.transport.InMemoryTransport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class TestRetryPolicy {
+
+    private static final String ACCOUNT_XML = "<account><account_code>abc</account_code></account>";
+
+    @Test(groups = "fast")
+    public void testRetriesServerErrorsWithSameIdempotencyKey() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("POST", "/accounts", failingTimes(2, 503));
+        final RetryPolicy retryPolicy = newRetryPolicy().build();
+        final RecurlyClient recurlyClient = newClient(transport, retryPolicy);
+        recurlyClient.open();
+        try {
+            final Account account = new Account();
+            account.setAccountCode("abc");
+            Assert.assertEquals(recurlyClient.createAccount(account).getAccountCode(), "abc");
+        } finally {
+            recurlyClient.close();
+        }
+
+        final List<HttpUriRequest> requests = transport.getRequests();
+        Assert.assertEquals(requests.size(), 3);
+        final String idempotencyKey = requests.get(0).getFirstHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER_NAME).getValue();
+        for (final HttpUriRequest request : requests) {
+            Assert.assertEquals(request.getFirstHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER_NAME).getValue(), idempotencyKey);
+        }
+        Assert.assertEquals(retryPolicy.getRetryCount(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testRetriesConnectionErrors() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) throws IOException {
+                        if (calls.incrementAndGet() == 1) {
+                            throw new ConnectException("Connection refused");
+                        }
+                        return InMemoryTransport.newResponse(200, ACCOUNT_XML.getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+                    }
+                });
+        final RecurlyClient recurlyClient = newClient(transport, newRetryPolicy().build());
+        recurlyClient.open();
+        try {
+            Assert.assertEquals(recurlyClient.getAccount("abc").getAccountCode(), "abc");
+        } finally {
+            recurlyClient.close();
+        }
+        Assert.assertEquals(calls.get(), 2);
+        // No idempotency key on reads
+        Assert.assertNull(transport.getRequests().get(0).getFirstHeader(RetryPolicy.IDEMPOTENCY_KEY_HEADER_NAME));
+    }
+
+    @Test(groups = "fast")
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", failingTimes(Integer.MAX_VALUE, 502));
+        final RecurlyClient recurlyClient = newClient(transport, newRetryPolicy().setMaxAttempts(4).build());
+        recurlyClient.open();
+        try {
+            recurlyClient.getAccount("abc");
+            Assert.fail();
+        } catch (final RecurlyAPIException e) {
+            Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 502);
+        } finally {
+            recurlyClient.close();
+        }
+        Assert.assertEquals(transport.getExecutedCount(), 4);
+    }
+
+    @Test(groups = "fast")
+    public void testDoesNotRetryNonRetryableStatusesOrMethods() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", failingTimes(Integer.MAX_VALUE, 500))
+                .respond("POST", "/accounts", new InMemoryTransport.Responder() {
+                    @Override
+                    public HttpResponse respond(final HttpUriRequest request) throws IOException {
+                        throw new ConnectException("Connection refused");
+                    }
+                });
+        final RetryPolicy retryPolicy = newRetryPolicy().setRetryableMethods(ImmutableSet.of("GET")).build();
+        final RecurlyClient recurlyClient = newClient(transport, retryPolicy);
+        recurlyClient.open();
+        try {
+            try {
+                recurlyClient.getAccount("abc");
+                Assert.fail();
+            } catch (final RecurlyAPIException e) {
+                Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 500);
+            }
+            try {
+                recurlyClient.createAccount(new Account());
+                Assert.fail();
+            } catch (final ConnectionErrorException e) {
+                Assert.assertTrue(e.getCause() instanceof ConnectException);
+            }
+        } finally {
+            recurlyClient.close();
+        }
+        Assert.assertEquals(transport.getExecutedCount(), 2);
+        Assert.assertEquals(retryPolicy.getRetryCount(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testRetryBudget() throws Exception {
+        final RetryPolicy retryPolicy = newRetryPolicy().setMaxAttempts(100).setBudget(0.5, 2).build();
+        retryPolicy.onRequest();
+        Assert.assertTrue(retryPolicy.shouldRetry("GET", 503, 1));
+        Assert.assertTrue(retryPolicy.shouldRetry("GET", 503, 2));
+        Assert.assertFalse(retryPolicy.shouldRetry("GET", 503, 3));
+        Assert.assertEquals(retryPolicy.getBudgetExhaustedCount(), 1);
+
+        // Two more requests earn one more retry
+        retryPolicy.onRequest();
+        retryPolicy.onRequest();
+        Assert.assertTrue(retryPolicy.shouldRetry("GET", 503, 1));
+        Assert.assertFalse(retryPolicy.shouldRetry("GET", 503, 2));
+        Assert.assertEquals(retryPolicy.getRetryCount(), 3);
+    }
+
+    @Test(groups = "fast")
+    public void testBackoffIsBoundedAndHonorsRetryAfter() throws Exception {
+        final RetryPolicy retryPolicy = RetryPolicy.builder().setBaseDelayMs(100).setMaxDelayMs(1000).build();
+        for (int attempt = 1; attempt < 40; attempt++) {
+            final long delayMs = retryPolicy.getDelayMs(attempt, null);
+            Assert.assertTrue(delayMs >= 0 && delayMs <= Math.min(1000, 100L << Math.min(attempt - 1, 30)), String.valueOf(delayMs));
+        }
+        Assert.assertEquals(retryPolicy.getDelayMs(1, 1), 1000);
+        // Longer Retry-After delays are not waited for
+        Assert.assertEquals(retryPolicy.getDelayMs(1, 3), 1000);
+        Assert.assertTrue(retryPolicy.shouldRetry("GET", 429, 1, 1));
+        Assert.assertFalse(retryPolicy.shouldRetry("GET", 429, 1, 3));
+        // POST requires idempotency keys
+        Assert.assertFalse(RetryPolicy.builder().setIdempotencyKeys(false).build().shouldRetry("POST", 503, 1));
+    }
+
+    @Test(groups = "fast")
+    public void testReturnsResponseWhenRetryAfterExceedsMaxDelay() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", 429, null, ImmutableMap.of("Retry-After", "3600"));
+        final RecurlyClient recurlyClient = newClient(transport, newRetryPolicy().build());
+        recurlyClient.open();
+        try {
+            recurlyClient.getAccount("abc");
+            Assert.fail();
+        } catch (final RecurlyAPIException e) {
+            Assert.assertEquals(e.getRecurlyError().getHttpStatusCode(), 429);
+        } finally {
+            recurlyClient.close();
+        }
+        Assert.assertEquals(transport.getExecutedCount(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testInterruptStopsBackoff() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport()
+                .respond("GET", "/accounts/abc", failingTimes(Integer.MAX_VALUE, 503));
+        final RecurlyClient recurlyClient = newClient(transport, newRetryPolicy().setBaseDelayMs(60000).setMaxDelayMs(60000).build());
+        recurlyClient.open();
+        try {
+            Thread.currentThread().interrupt();
+            final long startNanos = System.nanoTime();
+            Assert.assertNull(recurlyClient.getAccount("abc"));
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) < 10000);
+            // The interrupt is preserved for the caller
+            Assert.assertTrue(Thread.interrupted());
+        } finally {
+            Thread.interrupted();
+            recurlyClient.close();
+        }
+        Assert.assertEquals(transport.getExecutedCount(), 1);
+    }
+
+    private static RetryPolicy.Builder newRetryPolicy() {
+        return RetryPolicy.builder().setBaseDelayMs(1).setMaxDelayMs(5);
+    }
+
+    private static InMemoryTransport.Responder failingTimes(final int failures, final int status) {
+        final AtomicInteger calls = new AtomicInteger();
+        return new InMemoryTransport.Responder() {
+            @Override
+            public HttpResponse respond(final HttpUriRequest request) {
+                if (calls.incrementAndGet() <= failures) {
+                    return InMemoryTransport.newResponse(status, null, ImmutableMap.<String, String>of());
+                }
+                return InMemoryTransport.newResponse(200, ACCOUNT_XML.getBytes(Charsets.UTF_8), ImmutableMap.<String, String>of());
+            }
+        };
+    }
+
+    private static RecurlyClient newClient(final InMemoryTransport transport, final RetryPolicy retryPolicy) {
+        return TestUtils.newClient(transport, RecurlyClientConfig.builder().setRetryPolicy(retryPolicy));
+    }
+}